@@ -23,6 +23,10 @@ public class ActiveDirectoryConfiguration extends DirectoryConfiguration {
 	public static final String ACTIVE_DIRECTORY_INCLUDE_DEFAULT_USERS = "activeDirectory.includeDefaultUsers";
 	public static final String ACTIVE_DIRECTORY_INCLUDE_BUILTN_GROUPS = "activeDirectory.includeBuiltInGroups";
 	public static final String ACTIVE_DIRECTORY_USERNAME_IS_SAMACCOUNTNAME = "activeDirectory.usernameSamAccountName";
+	public static final String ACTIVE_DIRECTORY_GROUP_CACHE_TTL = "activeDirectory.groupCacheTTL";
+	public static final String ACTIVE_DIRECTORY_GROUP_CACHE_FULL_RELOAD = "activeDirectory.groupCacheFullReload";
+	public static final String ACTIVE_DIRECTORY_GROUP_MEMBERSHIP_MODE = "activeDirectory.groupMembershipMode";
+	public static final String ACTIVE_DIRECTORY_WRITE_TO_PDC_EMULATOR = "activeDirectory.writeToPdcEmulator";
 	
 	public ActiveDirectoryConfiguration(MultiMap configurationParameters) {
 		super(addConfigurationParameters(configurationParameters));
@@ -145,6 +149,51 @@ public class ActiveDirectoryConfiguration extends DirectoryConfiguration {
 				"activeDirectory.pwdHistoryLength", 0);
 	}
 
+	/**
+	 * The time in milliseconds between incremental refreshes of the group
+	 * cache used when resolving identity roles, the default is 60 seconds.
+	 * 
+	 * @return group cache TTL
+	 */
+	public final long getGroupCacheTTL() {
+		return configurationParameters.getIntegerOrDefault(
+				ACTIVE_DIRECTORY_GROUP_CACHE_TTL, 60) * 1000l;
+	}
+
+	/**
+	 * The time in milliseconds between full reloads of the group cache, which
+	 * evict groups deleted outside of the connector, the default is one hour.
+	 * 
+	 * @return group cache full reload interval
+	 */
+	public final long getGroupCacheFullReloadInterval() {
+		return configurationParameters.getIntegerOrDefault(
+				ACTIVE_DIRECTORY_GROUP_CACHE_FULL_RELOAD, 3600) * 1000l;
+	}
+
+	/**
+	 * How the groups of a user are resolved, the default is
+	 * {@link GroupMembershipMode#memberOf}.
+	 * 
+	 * @return group membership mode
+	 */
+	public final GroupMembershipMode getGroupMembershipMode() {
+		return GroupMembershipMode.valueOf(configurationParameters.getStringOrDefault(
+				ACTIVE_DIRECTORY_GROUP_MEMBERSHIP_MODE, GroupMembershipMode.memberOf.name()));
+	}
+
+	/**
+	 * Whether writes and password changes should be sent to the domain
+	 * controller holding the PDC emulator role, when it is one of the
+	 * configured controller hosts, the default is <code>false</code>.
+	 * 
+	 * @return write to PDC emulator
+	 */
+	public final boolean isWriteToPdcEmulator() {
+		return configurationParameters.getBooleanOrDefault(
+				ACTIVE_DIRECTORY_WRITE_TO_PDC_EMULATOR, Boolean.FALSE);
+	}
+
 	public final String[] getChildDomainControllers() {
 		return configurationParameters
 				.getStringArrayOrFail(CHILD_DOMAIN_CONTROLLERS);
@@ -175,17 +224,17 @@ public class ActiveDirectoryConfiguration extends DirectoryConfiguration {
 				switch (port) {
 				case 389:
 				case 3268:
-					builder.append(LDAP_PROTOCOL).append(controllerHost)
+					builder.append(LDAP_PROTOCOL).append(getControllerHostWithoutPort(controllerHost))
 							.append(":").append(port);
 					break;
 				case 636:
 				case 3269:
-					builder.append(LDAPS_PROTOCOL).append(controllerHost)
+					builder.append(LDAPS_PROTOCOL).append(getControllerHostWithoutPort(controllerHost))
 							.append(":").append(port);
 					break;
 				default:
 					builder.append(ssl ? LDAPS_PROTOCOL : LDAP_PROTOCOL)
-							.append(controllerHost).append(":").append(port);
+							.append(getControllerHostWithoutPort(controllerHost)).append(":").append(port);
 				}
 			} else {
 				builder.append(ssl ? LDAPS_PROTOCOL : LDAP_PROTOCOL).append(
@@ -195,10 +244,8 @@ public class ActiveDirectoryConfiguration extends DirectoryConfiguration {
 				} else {
 					builder.append(":").append(ssl ? 636 : 389);
 				}
-
-				builder.append(" ");
 			}
-
+			builder.append(" ");
 		}
 		return builder.toString().trim();
 	}
@@ -246,7 +293,7 @@ public class ActiveDirectoryConfiguration extends DirectoryConfiguration {
 	@Override
 	protected Map<String, String> getInitialConfigurationParameters() {
 		return Collections.singletonMap("java.naming.ldap.attributes.binary",
-				"objectSID objectGUID");
+				"objectSID objectGUID tokenGroups");
 	}
 
 	public boolean isUsernameSamAccountName() {
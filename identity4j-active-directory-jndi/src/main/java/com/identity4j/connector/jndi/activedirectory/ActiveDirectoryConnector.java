@@ -9,7 +9,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -37,12 +37,15 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.identity4j.connector.ChangeSet;
 import com.identity4j.connector.ConnectorCapability;
 import com.identity4j.connector.ConnectorConfigurationParameters;
 import com.identity4j.connector.Media;
+import com.identity4j.connector.Projection;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PasswordChangeRequiredException;
 import com.identity4j.connector.exception.PasswordPolicyViolationException;
+import com.identity4j.connector.jndi.directory.ControllerSelector;
 import com.identity4j.connector.jndi.directory.DirectoryConnector;
 import com.identity4j.connector.jndi.directory.DirectoryExceptionParser;
 import com.identity4j.connector.jndi.directory.DirectoryIdentity;
@@ -89,9 +92,19 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 	public static final String PHONE_NUMBER_ATTRIBUTE = "telephoneNumber";
 	public static final String OTHER_PHONE_NUMBER_ATTRIBUTE = "otherTelephone";
 	public static final String OBJECT_SID_ATTRIBUTE = "objectSID";
+	public static final String TOKEN_GROUPS_ATTRIBUTE = "tokenGroups";
+	public static final String FSMO_ROLE_OWNER_ATTRIBUTE = "fSMORoleOwner";
+	public static final String DNS_HOST_NAME_ATTRIBUTE = "dNSHostName";
 	public static final String PWD_PROPERTIES_ATTRIBUTE = "pwdProperties";
 	public static final String OU_ATTRIBUTE = "ou";
 	public static final String PASSWORD_POLICY_APPLIES = "msDS-PSOApplied";
+	public static final String WHEN_CREATED_ATTRIBUTE = "whenCreated";
+	public static final String IS_DELETED_ATTRIBUTE = "isDeleted";
+
+	/**
+	 * Control that makes deleted objects (tombstones) visible to searches
+	 */
+	public static final String SHOW_DELETED_OID = "1.2.840.113556.1.4.417";
 	
 	/**
 	 * This is a special attribute we add to mimic the Office365 ImmutableID
@@ -151,7 +164,7 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 					PHONE_NUMBER_ATTRIBUTE, MOBILE_PHONE_NUMBER_ATTRIBUTE,
 					OTHER_PHONE_NUMBER_ATTRIBUTE, OU_ATTRIBUTE,
 					DISTINGUISHED_NAME_ATTRIBUTE });
-
+
 	private static Collection<String> CORE_IDENTITY_ATTRIBUTES = Arrays.asList(new
 	 String[] { COMMON_NAME_ATTRIBUTE, SAM_ACCOUNT_NAME_ATTRIBUTE, 
 			 USER_PRINCIPAL_NAME_ATTRIBUTE, OBJECT_CLASS_ATTRIBUTE });
@@ -169,6 +182,8 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 	private List<String> identityAttributesToRetrieve = new ArrayList<String>(
 			ALL_USER_ATTRIBUTES);
 
+	private ActiveDirectoryGroupCache groupCache;
+
 	// Controls for Win2008 R2 password history on admin reset
 	final byte[] controlData = { 48, (byte) 132, 0, 0, 0, 3, 2, 1, 1 };
 	final String LDAP_SERVER_POLICY_HINTS_OID = "1.2.840.113556.1.4.2066";
@@ -197,6 +212,24 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 	@Override
 	protected void onOpen(ConnectorConfigurationParameters parameters) {
 		super.onOpen(parameters);
+		if (getActiveDirectoryConfiguration().isWriteToPdcEmulator()) {
+			preferPdcEmulator();
+		}
+		groupCache = new ActiveDirectoryGroupCache(new ActiveDirectoryGroupCache.GroupSource() {
+			@Override
+			public Iterator<Role> getGroups(String changedSince) {
+				String filter = ldapService.buildObjectClassFilter(
+						getConfiguration().getRoleObjectClass(),
+						getConfiguration().getRoleNameAttribute(), WILDCARD_SEARCH);
+				if (changedSince != null) {
+					filter = String.format("(&%s(%s>=%s))", filter,
+							ActiveDirectoryGroupCache.WHEN_CHANGED_ATTRIBUTE, changedSince);
+				}
+				return getRoles(filter);
+			}
+		}, getActiveDirectoryConfiguration().getGroupCacheTTL(),
+				getActiveDirectoryConfiguration().getGroupMembershipMode() == GroupMembershipMode.reverse,
+				getActiveDirectoryConfiguration().getGroupCacheFullReloadInterval());
 		Collection<String> connectorIdentityAttributesToRetrieve = parameters
 				.getIdentityAttributesToRetrieve();
 		if (connectorIdentityAttributesToRetrieve != null) {
@@ -351,6 +384,7 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 						+ role.getAttribute(OU_ATTRIBUTE));
 				ldapService.rename(roleDn, newDN);
 			}
+			groupCache.markStale();
 
 		} catch (NamingException e) {
 			LOG.error("Problem in update role", e);
@@ -525,6 +559,7 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 					sAMAccountName));
 
 			ldapService.bind(roleDn, attributes.toArray(new Attribute[0]));
+			groupCache.markStale();
 			
 			return getRoleByName(role.getPrincipalName());
 
@@ -892,6 +927,118 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 
 	}
 	
+	@Override
+	protected String getModifiedTimestampAttribute() {
+		/*
+		 * Consistent with the group cache, whenChanged is used rather than
+		 * uSNChanged as the token may be used against a different controller
+		 */
+		return ActiveDirectoryGroupCache.WHEN_CHANGED_ATTRIBUTE;
+	}
+
+	@Override
+	protected String getCreatedTimestampAttribute() {
+		return WHEN_CREATED_ATTRIBUTE;
+	}
+
+	/**
+	 * Deleted users and groups are found by searching the tombstones in the
+	 * domain's <code>Deleted Objects</code> container, which keep their
+	 * <code>objectGUID</code> for the tombstone lifetime. A token older than
+	 * that may miss deletions.
+	 */
+	@Override
+	protected String collectDeletions(ChangeSet changes, String since, String highest) throws NamingException, IOException {
+		StringBuilder filter = new StringBuilder();
+		filter.append(String.format("(&(%s=TRUE)(%s>=%s)(!(%s=computer))", IS_DELETED_ATTRIBUTE,
+				ActiveDirectoryGroupCache.WHEN_CHANGED_ATTRIBUTE, since, OBJECT_CLASS_ATTRIBUTE));
+		if (getConfiguration().isEnableRoles()) {
+			filter.append(String.format("(|(%s=user)(%s=group)))", OBJECT_CLASS_ATTRIBUTE, OBJECT_CLASS_ATTRIBUTE));
+		} else {
+			filter.append(String.format("(%s=user))", OBJECT_CLASS_ATTRIBUTE));
+		}
+
+		SearchControls searchControls = ldapService.getSearchControls();
+		searchControls.setReturningAttributes(new String[] { OBJECT_GUID_ATTRIBUTE, OBJECT_CLASS_ATTRIBUTE,
+				ActiveDirectoryGroupCache.WHEN_CHANGED_ATTRIBUTE });
+
+		for (Iterator<String[]> it = ldapService.search(getDomainDn(), filter.toString(), new ResultMapper<String[]>() {
+			@Override
+			public String[] apply(SearchResult result) throws NamingException {
+				Attributes attributes = result.getAttributes();
+				byte[] guidBytes = (byte[]) getAttribute(attributes.get(OBJECT_GUID_ATTRIBUTE));
+				Attribute objectClass = attributes.get(OBJECT_CLASS_ATTRIBUTE);
+				return new String[] { UUID.nameUUIDFromBytes(guidBytes).toString(),
+						objectClass != null && objectClass.contains("group") ? "group" : "user",
+						(String) getAttribute(attributes.get(ActiveDirectoryGroupCache.WHEN_CHANGED_ATTRIBUTE)) };
+			}
+
+			public boolean isApplyFilters() {
+				// Tombstones are moved out of the configured OUs
+				return false;
+			}
+		}, searchControls, new BasicControl(SHOW_DELETED_OID, true, null)); it.hasNext();) {
+			String[] deleted = it.next();
+			if (deleted[1].equals("group")) {
+				changes.getDeletedRoles().add(deleted[0]);
+			} else {
+				changes.getDeletedIdentities().add(deleted[0]);
+			}
+			if (deleted[2] != null && (highest == null || deleted[2].compareTo(highest) > 0)) {
+				highest = deleted[2];
+			}
+		}
+		return highest;
+	}
+
+	/**
+	 * Send writes to the PDC emulator, named by the <code>fSMORoleOwner</code>
+	 * of the domain object.
+	 */
+	private void preferPdcEmulator() {
+		ControllerSelector selector = ldapService.getControllerSelector();
+		if (selector == null) {
+			LOG.warn("Writes can only be sent to the PDC emulator when connections are pooled");
+			return;
+		}
+		try {
+			String ntdsSettings = (String) getAttribute(ldapService.getAttributes(getDomainDn(),
+					FSMO_ROLE_OWNER_ATTRIBUTE).get(FSMO_ROLE_OWNER_ATTRIBUTE));
+			if (ntdsSettings == null) {
+				LOG.warn("Could not determine the PDC emulator");
+				return;
+			}
+			LdapName server = new LdapName(ntdsSettings);
+			server.remove(server.size() - 1);
+			String host = (String) getAttribute(ldapService.getAttributes(server,
+					DNS_HOST_NAME_ATTRIBUTE).get(DNS_HOST_NAME_ATTRIBUTE));
+			if (selector.setPreferred(host)) {
+				LOG.info("Sending writes to the PDC emulator " + host);
+			} else {
+				LOG.warn("The PDC emulator " + host + " is not one of the configured controller hosts");
+			}
+		} catch (NamingException e) {
+			LOG.warn("Could not determine the PDC emulator", e);
+		} catch (IOException e) {
+			LOG.warn("Could not determine the PDC emulator", e);
+		}
+	}
+
+	/**
+	 * Get the DN of the domain naming context from the base DN, i.e. all of
+	 * its trailing DC components.
+	 */
+	private Name getDomainDn() throws InvalidNameException {
+		LdapName domainDn = new LdapName("");
+		for (Rdn rdn : new LdapName(getConfiguration().getBaseDn().toString()).getRdns()) {
+			if (!rdn.getType().equalsIgnoreCase("DC")) {
+				break;
+			}
+			domainDn.add(rdn);
+		}
+		return domainDn;
+	}
+
 	private String buildPSOFilter() {
 		return ldapService.buildObjectClassFilter("msDS-PasswordSettings", "cn", WILDCARD_SEARCH);
 	}
@@ -1117,33 +1264,62 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 		return values.toArray(new String[values.size()]);
 	}
 	
-	@Override
-	protected Iterator<Identity> getIdentities(String filter) {
+	/**
+	 * Attributes always needed to map an identity, whatever the projection
+	 */
+	private static Collection<String> PROJECTED_USER_ATTRIBUTES = Arrays
+			.asList(new String[] { OBJECT_GUID_ATTRIBUTE, SAM_ACCOUNT_NAME_ATTRIBUTE,
+					USER_PRINCIPAL_NAME_ATTRIBUTE, DISTINGUISHED_NAME_ATTRIBUTE,
+					USER_ACCOUNT_CONTROL_ATTRIBUTE });
 
-		final ActiveDirectoryConfiguration config = (ActiveDirectoryConfiguration) getConfiguration();
-		final Map<String, ActiveDirectoryGroup> groups = new HashMap<String, ActiveDirectoryGroup>();
-		final Map<Long, ActiveDirectoryGroup> groupsByRID = new HashMap<Long, ActiveDirectoryGroup>();
-
-		if (config.isEnableRoles()) {
-			Iterator<Role> it = getRoles();
-			while (it.hasNext()) {
-				ActiveDirectoryGroup group = (ActiveDirectoryGroup) it.next();
-				String dn = group.getDn().toString();
-				// https://jira.springsource.org/browse/LDAP-109
-				dn = dn.replace("\\\\", "\\\\\\");
-				dn = dn.replace("/", "\\/");
-
-				groups.put(dn.toLowerCase(), group);
-				groupsByRID.put(group.getRid(), group);
+	@Override
+	protected String[] getIdentityAttributes(Projection projection) {
+		if (projection.isAll()) {
+			return null;
+		}
+		Set<String> attributes = new HashSet<String>(PROJECTED_USER_ATTRIBUTES);
+		for (String attribute : projection.getAttributes()) {
+			if (attribute.equalsIgnoreCase(Projection.FULL_NAME)) {
+				attributes.add(COMMON_NAME_ATTRIBUTE);
+			} else if (attribute.equalsIgnoreCase(Projection.EMAIL)) {
+				attributes.add(MAIL_ATTRIBUTE);
+			} else if (attribute.equalsIgnoreCase(Projection.MOBILE)) {
+				attributes.add(MOBILE_PHONE_NUMBER_ATTRIBUTE);
+			} else if (attribute.equalsIgnoreCase(Projection.LAST_SIGN_ON)) {
+				attributes.add(LAST_LOGON_ATTRIBUTE);
+				attributes.add(LAST_LOGON_TIMESTAMP_ATTRIBUTE);
+			} else if (attribute.equalsIgnoreCase(Projection.PASSWORD_STATUS)) {
+				attributes.add(PWD_LAST_SET_ATTRIBUTE);
+			} else if (attribute.equalsIgnoreCase(Projection.ACCOUNT_STATUS)) {
+				attributes.add(ACCOUNT_EXPIRES_ATTRIBUTE);
+				attributes.add(LOCKOUT_TIME_ATTRIBUTE);
+			} else if (attribute.equalsIgnoreCase(Projection.ROLES)) {
+				attributes.add(MEMBER_OF_ATTRIBUTE);
+				attributes.add(PRIMARY_GROUP_ID_ATTRIBUTE);
+			} else if (!attribute.equalsIgnoreCase(Projection.OTHER_NAME)) {
+				attributes.add(attribute);
 			}
 		}
+		return attributes.toArray(new String[attributes.size()]);
+	}
 
-		final int minimumPasswordAge = getMinimumPasswordAge();
-		final int maximumPasswordAge = getMaximumPasswordAge();
-		final long lockoutDuration = getBaseLongAttribute(LOCKOUT_DURATION_ATTRIBUTE);
+	@Override
+	protected ResultMapper<Identity> createIdentityMapper(final Projection projection) {
 
-		try {
-			return ldapService.search(filter, new ResultMapper<Identity>() {
+		final ActiveDirectoryConfiguration config = (ActiveDirectoryConfiguration) getConfiguration();
+
+		final boolean mapPasswordStatus = projection.includes(Projection.PASSWORD_STATUS);
+		final boolean mapAccountStatus = projection.includes(Projection.ACCOUNT_STATUS);
+		final boolean mapLastSignOn = projection.includes(Projection.LAST_SIGN_ON);
+		final boolean mapRoles = config.isEnableRoles() && projection.includes(Projection.ROLES);
+		final GroupMembershipMode membershipMode = config.getGroupMembershipMode();
+
+		// These each require a lookup, so are only done if needed
+		final int minimumPasswordAge = mapPasswordStatus ? getMinimumPasswordAge() : 0;
+		final int maximumPasswordAge = mapPasswordStatus ? getMaximumPasswordAge() : 0;
+		final long lockoutDuration = mapAccountStatus ? getBaseLongAttribute(LOCKOUT_DURATION_ATTRIBUTE) : 0;
+
+		return new ResultMapper<Identity>() {
 
 				private boolean isAttributeMapped(Attribute attribute) {
 					return true;
@@ -1208,8 +1384,8 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 					directoryIdentity.setAttribute(OU_ATTRIBUTE, ou.toString());
 
 					// Last sign on
-					String lastLogonTimestamp = (String) getAttribute(attributes
-							.get(LAST_LOGON_TIMESTAMP_ATTRIBUTE));
+					String lastLogonTimestamp = mapLastSignOn ? (String) getAttribute(attributes
+							.get(LAST_LOGON_TIMESTAMP_ATTRIBUTE)) : null;
 					if (!StringUtil.isNullOrEmpty(lastLogonTimestamp)) {
 						long lastLogonTime = Long.parseLong(lastLogonTimestamp);
 						if (lastLogonTime > 0) {
@@ -1218,8 +1394,8 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 											.adTimeToJavaDate(lastLogonTime));
 						}
 					}
-					String lastLogon = (String) getAttribute(attributes
-							.get(LAST_LOGON_ATTRIBUTE));
+					String lastLogon = mapLastSignOn ? (String) getAttribute(attributes
+							.get(LAST_LOGON_ATTRIBUTE)) : null;
 
 					if (directoryIdentity.getLastSignOnDate() == null
 							&& !StringUtil.isNullOrEmpty(lastLogon)) {
@@ -1231,135 +1407,123 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 						}
 					}
 
+					String userAccountControl = (String) getAttribute(attributes
+							.get(USER_ACCOUNT_CONTROL_ATTRIBUTE));
+
 					// Calculate the password status
-					PasswordStatus passwordStatus = directoryIdentity
-							.getPasswordStatus();
-					Date passwordLastSet = trimDate(getDateAttribute(result,
-							PWD_LAST_SET_ATTRIBUTE));
-					passwordStatus.setLastChange(passwordLastSet);
-					boolean passwordChangeAllowed = isPasswordChangeAllowed(result);
-					if (passwordChangeAllowed) {
-						passwordStatus.setUnlocked(getAgedDate(
-								minimumPasswordAge, passwordLastSet));
-					}
-					if (!isPasswordNeverExpire(result)
-							&& passwordLastSet != null) {
-						passwordStatus.setExpire(getAgedDate(
-								maximumPasswordAge, passwordLastSet));
-					}
+					if (mapPasswordStatus) {
+						PasswordStatus passwordStatus = directoryIdentity
+								.getPasswordStatus();
+						Date passwordLastSet = trimDate(getDateAttribute(result,
+								PWD_LAST_SET_ATTRIBUTE));
+						passwordStatus.setLastChange(passwordLastSet);
+						boolean passwordChangeAllowed = isPasswordChangeAllowed(result);
+						if (passwordChangeAllowed) {
+							passwordStatus.setUnlocked(getAgedDate(
+									minimumPasswordAge, passwordLastSet));
+						}
+						if (!isPasswordNeverExpire(result)
+								&& passwordLastSet != null) {
+							passwordStatus.setExpire(getAgedDate(
+									maximumPasswordAge, passwordLastSet));
+						}
 
-					String userDn = ActiveDirectoryConfiguration.buildUsername(
-							config.getBaseDn().toString(), config.getDomain(),
-							directoryIdentity.getPrincipalName());
-					if (userDn.equalsIgnoreCase(getConfiguration()
-							.getServiceAccountDn())) {
-						// Do not allow the service account password to be reset
-						passwordStatus
-								.setType(PasswordStatusType.noChangeAllowed);
-					} else if (isPasswordChangeRequired(result)) {
-						passwordStatus
-								.setType(PasswordStatusType.changeRequired);
-					} else {
-						passwordStatus.calculateType();
+						String userDn = ActiveDirectoryConfiguration.buildUsername(
+								config.getBaseDn().toString(), config.getDomain(),
+								directoryIdentity.getPrincipalName());
+						if (userDn.equalsIgnoreCase(getConfiguration()
+								.getServiceAccountDn())) {
+							// Do not allow the service account password to be reset
+							passwordStatus
+									.setType(PasswordStatusType.noChangeAllowed);
+						} else if (isPasswordChangeRequired(result)) {
+							passwordStatus
+									.setType(PasswordStatusType.changeRequired);
+						} else {
+							passwordStatus.calculateType();
+						}
+
+						// Overrides calculated password status, prevent the user
+						// changing the password at all
+						if (passwordStatus.getType().equals(
+								PasswordStatusType.expired)) {
+							if (userAccountControl.length() != 0) {
+								if (UserAccountControl.isValueSet(
+										Integer.valueOf(userAccountControl),
+										UserAccountControl.DONT_EXPIRE_PASSWORD_FLAG)) {
+									passwordStatus
+											.setType(PasswordStatusType.neverExpires);
+								}
+							}
+						}
+						if (!passwordChangeAllowed) {
+							passwordStatus
+									.setType(PasswordStatusType.noChangeAllowed);
+						}
 					}
-					String userAccountControl = (String) getAttribute(attributes
-							.get(USER_ACCOUNT_CONTROL_ATTRIBUTE));
 
-					// Overrides calculated password status, prevent the user
-					// changing the password at all
-					if (passwordStatus.getType().equals(
-							PasswordStatusType.expired)) {
+					// Calculate account status
+					if (mapAccountStatus) {
+						AccountStatus accountStatus = directoryIdentity
+								.getAccountStatus();
+						accountStatus.setExpire(trimDate(getDateAttribute(result,
+								ACCOUNT_EXPIRES_ATTRIBUTE)));
+						accountStatus.setLocked(trimDate(getDateAttribute(result,
+								LOCKOUT_TIME_ATTRIBUTE)));
+						accountStatus.setUnlocked(null);
 						if (userAccountControl.length() != 0) {
 							if (UserAccountControl.isValueSet(
 									Integer.valueOf(userAccountControl),
-									UserAccountControl.DONT_EXPIRE_PASSWORD_FLAG)) {
-								passwordStatus
-										.setType(PasswordStatusType.neverExpires);
+									UserAccountControl.ACCOUNTDISABLE_FLAG)) {
+								accountStatus.setDisabled(true);
 							}
 						}
-					}
-					if (!passwordChangeAllowed) {
-						passwordStatus
-								.setType(PasswordStatusType.noChangeAllowed);
-					}
-
-					// Calculate password status
-					AccountStatus accountStatus = directoryIdentity
-							.getAccountStatus();
-					accountStatus.setExpire(trimDate(getDateAttribute(result,
-							ACCOUNT_EXPIRES_ATTRIBUTE)));
-					accountStatus.setLocked(trimDate(getDateAttribute(result,
-							LOCKOUT_TIME_ATTRIBUTE)));
-					accountStatus.setUnlocked(null);
-					if (userAccountControl.length() != 0) {
-						if (UserAccountControl.isValueSet(
-								Integer.valueOf(userAccountControl),
-								UserAccountControl.ACCOUNTDISABLE_FLAG)) {
-							accountStatus.setDisabled(true);
+						accountStatus.calculateType();
+
+						// Now if looked, calculate when unlocked
+						if (accountStatus.getType()
+								.equals(AccountStatusType.locked)) {
+							accountStatus.setUnlocked(trimDate(new Date(
+									accountStatus.getLocked().getTime()
+											- (lockoutDuration / 1000))));
 						}
 					}
-					accountStatus.calculateType();
-
-					// Now if looked, calculate when unlocked
-					if (accountStatus.getType()
-							.equals(AccountStatusType.locked)) {
-						accountStatus.setUnlocked(trimDate(new Date(
-								accountStatus.getLocked().getTime()
-										- (lockoutDuration / 1000))));
-					}
-
-					if (config.isEnableRoles()) {
-						boolean memberOfSupported = true;
 
-						try {
-							Long rid = Long
-									.parseLong((String) getAttribute(attributes
-											.get(PRIMARY_GROUP_ID_ATTRIBUTE)));
-							ActiveDirectoryGroup primaryGroup = groupsByRID
-									.get(rid);
-							if (primaryGroup != null) {
-								directoryIdentity.addRole(primaryGroup);
+					if (mapRoles) {
+						// tokenGroups already includes the primary group
+						if (membershipMode != GroupMembershipMode.tokenGroups) {
+							try {
+								Long rid = Long
+										.parseLong((String) getAttribute(attributes
+												.get(PRIMARY_GROUP_ID_ATTRIBUTE)));
+								ActiveDirectoryGroup primaryGroup = groupCache
+										.getByRid(rid);
+								if (primaryGroup != null) {
+									directoryIdentity.addRole(primaryGroup);
+								}
+							} catch (NumberFormatException e) {
 							}
-						} catch (NumberFormatException e) {
 						}
 
-						Iterator<String> groupDnsItr;
 						try {
-							groupDnsItr = memberOfSupported ? getUsersGroups(result)
-									: getGroupsForUser(result);
-
-							while (groupDnsItr.hasNext()) {
-								String dn = groupDnsItr.next();
-
-								// https://jira.springsource.org/browse/LDAP-109
-								dn = dn.replace("\\\\", "\\\\\\");
-								dn = dn.replace("/", "\\/");
-
-								if (groups.containsKey(dn.toLowerCase())) {
-									directoryIdentity.addRole(groups.get(dn
-											.toLowerCase()));
-								} else {
-									Attributes roleAttributes;
-									try {
-										roleAttributes = ldapService
-												.lookupContext(new LdapName(dn));
-										ActiveDirectoryGroup activeDirectoryGroup = mapRole(
-												dn, roleAttributes);
-										if (activeDirectoryGroup != null) {
-											groups.put(dn.toLowerCase(),
-													activeDirectoryGroup);
-											groupsByRID.put(
-													activeDirectoryGroup
-															.getRid(),
-													activeDirectoryGroup);
-											directoryIdentity
-													.addRole(activeDirectoryGroup);
-										}
-
-									} catch (IOException e) {
-										LOG.error("Problem in getting role", e);
-									}
+							switch (membershipMode) {
+							case tokenGroups:
+								for (ActiveDirectoryGroup group : getTokenGroups(result)) {
+									directoryIdentity.addRole(group);
+								}
+								break;
+							case reverse:
+								for (ActiveDirectoryGroup group : groupCache.getByMember(result.getNameInNamespace())) {
+									directoryIdentity.addRole(group);
+								}
+								break;
+							default:
+								Iterator<String> groupDnsItr = membershipMode == GroupMembershipMode.search
+										? getGroupsForUser(result) : getUsersGroups(result);
+								while (groupDnsItr.hasNext()) {
+									addGroup(directoryIdentity, groupDnsItr.next());
 								}
+								break;
 							}
 						} catch (IOException e) {
 							LOG.error("Problem in getting roles", e);
@@ -1374,14 +1538,25 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 				public boolean isApplyFilters() {
 					return true;
 				}
-			});
-		} catch (NamingException e) {
-			LOG.error("Problem in fetching identity", e);
-		} catch (IOException e) {
-			LOG.error("Problem in fetching identity", e);
-		}
-		return null;
+			};
+	}
 
+	private void addGroup(Identity identity, String dn) throws NamingException {
+		ActiveDirectoryGroup cachedGroup = groupCache.getByDn(dn);
+		if (cachedGroup != null) {
+			identity.addRole(cachedGroup);
+		} else {
+			try {
+				Attributes roleAttributes = ldapService.lookupContext(new LdapName(dn));
+				ActiveDirectoryGroup activeDirectoryGroup = mapRole(dn, roleAttributes);
+				if (activeDirectoryGroup != null) {
+					groupCache.put(activeDirectoryGroup);
+					identity.addRole(activeDirectoryGroup);
+				}
+			} catch (IOException e) {
+				LOG.error("Problem in getting role", e);
+			}
+		}
 	}
 
 	private boolean isPasswordChangeRequired(SearchResult result)
@@ -1633,6 +1808,32 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 		return STRING_ITERATOR;
 	}
 
+	/**
+	 * Resolve a user's groups from the constructed <code>tokenGroups</code>
+	 * attribute. This may only be read with a base scope lookup of the user
+	 * object, so costs one round trip per user regardless of how many groups
+	 * the user is in.
+	 */
+	private List<ActiveDirectoryGroup> getTokenGroups(SearchResult result)
+			throws NamingException, IOException {
+		List<ActiveDirectoryGroup> groups = new ArrayList<ActiveDirectoryGroup>();
+		Attributes attributes = ldapService.getAttributes(
+				new LdapName(result.getNameInNamespace()), TOKEN_GROUPS_ATTRIBUTE);
+		Attribute attribute = attributes.get(TOKEN_GROUPS_ATTRIBUTE);
+		if (attribute != null) {
+			for (int i = 0; i < attribute.size(); i++) {
+				String sid = ActiveDirectoryUtils.decodeSID((byte[]) attribute.get(i));
+				ActiveDirectoryGroup group = groupCache.getBySid(sid);
+				if (group != null) {
+					groups.add(group);
+				} else if (LOG.isDebugEnabled()) {
+					LOG.debug("Ignoring uncached group " + sid + " of " + result.getNameInNamespace());
+				}
+			}
+		}
+		return groups;
+	}
+
 	private Iterator<String> getGroupsForUser(SearchResult result)
 			throws NamingException, IOException {
 		String filter = ldapService.buildObjectClassFilter("group", "member",
@@ -1693,8 +1894,14 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 			NamingEnumeration<? extends Attribute> en = attributes.getAll();
 			while(en.hasMoreElements()) {
 				Attribute attribute = en.nextElement();
-				group.setAttribute(attribute.getID(),
-						getElements(attribute));
+				if (ActiveDirectoryUtils.isRangedAttribute(attribute.getID(), MEMBER_ATTRIBUTE)) {
+					// Large groups only return the first range of members
+					group.setAttribute(MEMBER_ATTRIBUTE,
+							getRangedElements(dn, MEMBER_ATTRIBUTE, attribute));
+				} else {
+					group.setAttribute(attribute.getID(),
+							getElements(attribute));
+				}
 			}
 			
 			
@@ -1711,6 +1918,40 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 		return null;
 	}
 
+	/**
+	 * Read the remaining values of an attribute that the server returned
+	 * using ranged retrieval (e.g. <code>member;range=0-1499</code>), by
+	 * requesting each subsequent range until the last one
+	 * (<code>member;range=1500-*</code>) is returned.
+	 */
+	private String[] getRangedElements(String dn, String attributeName, Attribute first)
+			throws NamingException {
+		List<String> values = new ArrayList<String>(Arrays.asList(getElements(first)));
+		int high = ActiveDirectoryUtils.getRangeHigh(first.getID());
+		try {
+			LdapName name = new LdapName(dn);
+			while (high != -1) {
+				Attributes next = ldapService.getAttributes(name,
+						attributeName + ";range=" + (high + 1) + "-*");
+				Attribute range = null;
+				for (NamingEnumeration<? extends Attribute> en = next.getAll(); en.hasMore();) {
+					Attribute attribute = en.next();
+					if (ActiveDirectoryUtils.isRangedAttribute(attribute.getID(), attributeName)) {
+						range = attribute;
+					}
+				}
+				if (range == null) {
+					break;
+				}
+				values.addAll(Arrays.asList(getElements(range)));
+				high = ActiveDirectoryUtils.getRangeHigh(range.getID());
+			}
+		} catch (IOException e) {
+			throw new ConnectorException("Failed to read all values of " + attributeName + " for " + dn, e);
+		}
+		return values.toArray(new String[0]);
+	}
+
 	private ActiveDirectoryConfiguration getActiveDirectoryConfiguration() {
 		return (ActiveDirectoryConfiguration) getConfiguration();
 	}
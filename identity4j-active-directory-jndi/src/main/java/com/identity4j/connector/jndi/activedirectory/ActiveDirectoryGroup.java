@@ -9,11 +9,13 @@ public class ActiveDirectoryGroup extends RoleImpl {
 	private static final long serialVersionUID = -7675417973639150879L;
 	private final Name dn;
 	private final Long rid;
+	private final String sid;
 	
 	public ActiveDirectoryGroup(String guid, String samAccountName, Name dn, byte[] sid) {
 		super(guid, samAccountName);
 		this.dn = dn;
 		rid = ActiveDirectoryUtils.getRIDFromSID(sid);
+		this.sid = ActiveDirectoryUtils.decodeSID(sid);
 	}
 
 	/**
@@ -41,4 +43,14 @@ public class ActiveDirectoryGroup extends RoleImpl {
 		return rid;
 	}
 
+	/**
+	 * Get the string form of the group's SID (S-1-5-21-...), as used to
+	 * resolve the SIDs found in a user's <code>tokenGroups</code>.
+	 * 
+	 * @return sid
+	 */
+	public final String getSid() {
+		return sid;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,322 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.principal.Role;
+
+/**
+ * Thread-safe cache of Active Directory groups, keyed by lower-cased DN, by
+ * RID and by SID, that is shared by all identity lookups of a connector.
+ * <p>
+ * The cache is filled on first use with a single enumeration of all groups.
+ * After that, once the TTL has passed, only groups whose
+ * <code>whenChanged</code> is at or after the newest value seen so far are
+ * fetched and merged in. <code>whenChanged</code> is used rather than
+ * <code>uSNChanged</code> because USNs are local to each domain controller,
+ * and successive refreshes may be served by different controllers.
+ * <p>
+ * Deleted groups are not detected by an incremental refresh, so until the
+ * next full reload they may still be resolved, for example by RID or SID, or
+ * through the reverse member index. To bound how long they linger, all groups
+ * are enumerated again once the full reload interval has passed, and any
+ * cached group that is no longer returned is evicted.
+ * <p>
+ * Optionally, a reverse index of member DN to groups may be maintained from
+ * each group's <code>member</code> attribute, so the groups of every user
+ * can be resolved during a full enumeration without any further searches.
+ */
+public class ActiveDirectoryGroupCache {
+
+	final static Log LOG = LogFactory.getLog(ActiveDirectoryGroupCache.class);
+
+	public static final String WHEN_CHANGED_ATTRIBUTE = "whenChanged";
+	public static final String MEMBER_ATTRIBUTE = "member";
+	public static final long DEFAULT_FULL_RELOAD_INTERVAL = 3600000;
+
+	/**
+	 * Source of the groups to cache.
+	 */
+	public interface GroupSource {
+		/**
+		 * Get groups changed at or after the given generalized time, or all
+		 * groups if <code>null</code>.
+		 *
+		 * @param changedSince generalized time or <code>null</code>
+		 * @return groups
+		 */
+		Iterator<Role> getGroups(String changedSince);
+	}
+
+	private final GroupSource source;
+	private final long ttl;
+	private final long fullReloadInterval;
+	private final Map<String, ActiveDirectoryGroup> groupsByDn = new ConcurrentHashMap<String, ActiveDirectoryGroup>();
+	private final Map<Long, ActiveDirectoryGroup> groupsByRid = new ConcurrentHashMap<Long, ActiveDirectoryGroup>();
+	private final Map<String, ActiveDirectoryGroup> groupsByGuid = new ConcurrentHashMap<String, ActiveDirectoryGroup>();
+	private final Map<String, ActiveDirectoryGroup> groupsBySid = new ConcurrentHashMap<String, ActiveDirectoryGroup>();
+	private final Map<String, Set<String>> groupsByMember = new HashMap<String, Set<String>>();
+	private final boolean indexMembers;
+	private volatile boolean loaded;
+	private volatile long lastRefresh;
+	private long lastFullReload;
+	private String highestWhenChanged;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source source of groups
+	 * @param ttl time in milliseconds between incremental refreshes
+	 */
+	public ActiveDirectoryGroupCache(GroupSource source, long ttl) {
+		this(source, ttl, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source source of groups
+	 * @param ttl time in milliseconds between incremental refreshes
+	 * @param indexMembers maintain a reverse index of member DN to groups
+	 */
+	public ActiveDirectoryGroupCache(GroupSource source, long ttl, boolean indexMembers) {
+		this(source, ttl, indexMembers, DEFAULT_FULL_RELOAD_INTERVAL);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source source of groups
+	 * @param ttl time in milliseconds between incremental refreshes
+	 * @param indexMembers maintain a reverse index of member DN to groups
+	 * @param fullReloadInterval time in milliseconds between full reloads, which
+	 *            evict deleted groups
+	 */
+	public ActiveDirectoryGroupCache(GroupSource source, long ttl, boolean indexMembers, long fullReloadInterval) {
+		this.source = source;
+		this.ttl = ttl;
+		this.indexMembers = indexMembers;
+		this.fullReloadInterval = fullReloadInterval;
+	}
+
+	/**
+	 * Get a group given its DN, refreshing the cache first if required.
+	 *
+	 * @param dn distinguished name
+	 * @return group or <code>null</code> if not cached
+	 */
+	public ActiveDirectoryGroup getByDn(String dn) {
+		refreshIfNeeded();
+		return groupsByDn.get(normalize(dn));
+	}
+
+	/**
+	 * Get a group given its RID, refreshing the cache first if required.
+	 *
+	 * @param rid relative identifier
+	 * @return group or <code>null</code> if not cached
+	 */
+	public ActiveDirectoryGroup getByRid(Long rid) {
+		refreshIfNeeded();
+		return rid == null ? null : groupsByRid.get(rid);
+	}
+
+	/**
+	 * Get a group given the string form of its SID, refreshing the cache first
+	 * if required.
+	 *
+	 * @param sid security identifier
+	 * @return group or <code>null</code> if not cached
+	 */
+	public ActiveDirectoryGroup getBySid(String sid) {
+		refreshIfNeeded();
+		return sid == null ? null : groupsBySid.get(sid);
+	}
+
+	/**
+	 * Get all cached groups that list the given DN in their
+	 * <code>member</code> attribute, refreshing the cache first if required.
+	 * The cache must have been created with member indexing enabled.
+	 *
+	 * @param dn distinguished name of member
+	 * @return groups
+	 */
+	public List<ActiveDirectoryGroup> getByMember(String dn) {
+		if (!indexMembers) {
+			throw new IllegalStateException("Member index is not enabled.");
+		}
+		refreshIfNeeded();
+		List<ActiveDirectoryGroup> groups = new ArrayList<ActiveDirectoryGroup>();
+		synchronized (groupsByMember) {
+			Set<String> guids = groupsByMember.get(normalize(dn));
+			if (guids != null) {
+				for (String guid : guids) {
+					ActiveDirectoryGroup group = groupsByGuid.get(guid);
+					if (group != null) {
+						groups.add(group);
+					}
+				}
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * Add a group that was resolved outside of the cache, for example one
+	 * that is outside of the configured includes but that a user is a member
+	 * of.
+	 *
+	 * @param group group
+	 */
+	public void put(ActiveDirectoryGroup group) {
+		ActiveDirectoryGroup previous = groupsByGuid.put(group.getGuid(), group);
+		if (previous != null) {
+			unindex(previous);
+		}
+		groupsByDn.put(normalize(group.getDn().toString()), group);
+		if (group.getRid() != null) {
+			groupsByRid.put(group.getRid(), group);
+		}
+		if (group.getSid() != null) {
+			groupsBySid.put(group.getSid(), group);
+		}
+		if (indexMembers) {
+			synchronized (groupsByMember) {
+				for (String member : group.getAttributes(MEMBER_ATTRIBUTE)) {
+					String key = normalize(member);
+					Set<String> guids = groupsByMember.get(key);
+					if (guids == null) {
+						guids = new HashSet<String>();
+						groupsByMember.put(key, guids);
+					}
+					guids.add(group.getGuid());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove a group from the cache, for example after it has been deleted.
+	 *
+	 * @param guid GUID of group
+	 */
+	public void remove(String guid) {
+		ActiveDirectoryGroup previous = groupsByGuid.remove(guid);
+		if (previous != null) {
+			unindex(previous);
+		}
+	}
+
+	/**
+	 * Force an incremental refresh on next use, for example after a group has
+	 * been created or modified by this connector.
+	 */
+	public void markStale() {
+		lastRefresh = 0;
+	}
+
+	/**
+	 * Discard all cached groups. The next use will reload all groups.
+	 */
+	public synchronized void clear() {
+		loaded = false;
+		highestWhenChanged = null;
+		groupsByDn.clear();
+		groupsByRid.clear();
+		groupsByGuid.clear();
+		groupsBySid.clear();
+		synchronized (groupsByMember) {
+			groupsByMember.clear();
+		}
+	}
+
+	/**
+	 * Get the number of cached groups.
+	 *
+	 * @return size
+	 */
+	public int size() {
+		return groupsByGuid.size();
+	}
+
+	void refreshIfNeeded() {
+		if (loaded && System.currentTimeMillis() - lastRefresh < ttl) {
+			return;
+		}
+		synchronized (this) {
+			// Another thread may have refreshed while waiting
+			long now = System.currentTimeMillis();
+			if (loaded && now - lastRefresh < ttl) {
+				return;
+			}
+			boolean fullReload = !loaded || now - lastFullReload >= fullReloadInterval;
+			Set<String> unseen = fullReload ? new HashSet<String>(groupsByGuid.keySet()) : null;
+			int count = 0;
+			for (Iterator<Role> it = source.getGroups(fullReload ? null : highestWhenChanged); it.hasNext();) {
+				ActiveDirectoryGroup group = (ActiveDirectoryGroup) it.next();
+				put(group);
+				if (unseen != null) {
+					unseen.remove(group.getGuid());
+				}
+				String whenChanged = group.getAttribute(WHEN_CHANGED_ATTRIBUTE);
+				if (whenChanged != null && whenChanged.length() > 0
+						&& (highestWhenChanged == null || whenChanged.compareTo(highestWhenChanged) > 0)) {
+					highestWhenChanged = whenChanged;
+				}
+				count++;
+			}
+			if (fullReload) {
+				// Anything not enumerated again has been deleted
+				for (String guid : unseen) {
+					remove(guid);
+				}
+				lastFullReload = now;
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug((fullReload ? "Loaded " : "Refreshed ") + count + " groups, " + size() + " cached, "
+						+ (fullReload ? unseen.size() : 0) + " evicted, high water mark " + highestWhenChanged);
+			}
+			loaded = true;
+			lastRefresh = now;
+		}
+	}
+
+	private void unindex(ActiveDirectoryGroup group) {
+		// Only remove index entries that still point at this group
+		groupsByDn.remove(normalize(group.getDn().toString()), group);
+		if (group.getRid() != null) {
+			groupsByRid.remove(group.getRid(), group);
+		}
+		if (group.getSid() != null) {
+			groupsBySid.remove(group.getSid(), group);
+		}
+		if (indexMembers) {
+			synchronized (groupsByMember) {
+				for (String member : group.getAttributes(MEMBER_ATTRIBUTE)) {
+					String key = normalize(member);
+					Set<String> guids = groupsByMember.get(key);
+					if (guids != null && guids.remove(group.getGuid()) && guids.isEmpty()) {
+						groupsByMember.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	static String normalize(String dn) {
+		// https://jira.springsource.org/browse/LDAP-109
+		dn = dn.replace("\\\\", "\\\\\\");
+		dn = dn.replace("/", "\\/");
+		return dn.toLowerCase();
+	}
+}
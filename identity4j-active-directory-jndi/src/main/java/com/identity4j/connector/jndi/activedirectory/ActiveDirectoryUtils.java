@@ -53,6 +53,30 @@ public class ActiveDirectoryUtils {
 		return new Long(Long.parseLong(rid, 16));
 	}
 
+	/**
+	 * Get if an attribute ID returned by the server is a ranged (partial)
+	 * retrieval of the given attribute, e.g. <code>member;range=0-1499</code>.
+	 * 
+	 * @param attributeId attribute ID as returned
+	 * @param attributeName attribute name
+	 * @return ranged
+	 */
+	public static boolean isRangedAttribute(String attributeId, String attributeName) {
+		return attributeId.toLowerCase().startsWith(attributeName.toLowerCase() + ";range=");
+	}
+
+	/**
+	 * Get the index of the last value in a ranged attribute retrieval, or -1
+	 * if this was the final range (<code>member;range=1500-*</code>).
+	 * 
+	 * @param attributeId attribute ID as returned
+	 * @return last index or -1
+	 */
+	public static int getRangeHigh(String attributeId) {
+		String high = attributeId.substring(attributeId.lastIndexOf('-') + 1);
+		return high.equals("*") ? -1 : Integer.parseInt(high);
+	}
+
 	private static String byteToHex(byte b) {
 		String ret = Integer.toHexString(b & 0xFF);
 		if (ret.length() < 2) {
@@ -0,0 +1,31 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+/**
+ * How the groups of a user are resolved when mapping identities.
+ */
+public enum GroupMembershipMode {
+	/**
+	 * Read the user's <code>memberOf</code> attribute, looking up any group
+	 * that is not already cached.
+	 */
+	memberOf,
+	/**
+	 * Read the user's constructed <code>tokenGroups</code> attribute with a
+	 * single base scope lookup, resolving each SID against the group cache.
+	 * This includes nested memberships and the primary group. SIDs of groups
+	 * outside of the cache (e.g. builtin or excluded groups) are ignored.
+	 */
+	tokenGroups,
+	/**
+	 * Search for groups whose <code>member</code> attribute contains the
+	 * user's DN, one search per user.
+	 */
+	search,
+	/**
+	 * Build a reverse index of member to groups from the <code>member</code>
+	 * attribute of every cached group, so no per-user lookups are required at
+	 * all. Best suited to full enumerations.
+	 */
+	reverse
+}
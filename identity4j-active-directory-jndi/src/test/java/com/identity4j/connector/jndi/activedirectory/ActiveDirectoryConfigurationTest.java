@@ -74,4 +74,29 @@ public class ActiveDirectoryConfigurationTest {
         DirectoryConfiguration configuration = new ActiveDirectoryConfiguration(configurationParameters);
         assertEquals(username, configuration.getServiceAccountDn());
     }
+
+    @Test
+    public void providerUrlForHost() {
+        ActiveDirectoryConfiguration configuration = new ActiveDirectoryConfiguration(configurationParameters);
+        assertEquals("ldap://dc1.root.nervepoint.com:389", configuration.buildProviderUrl(false, false, "dc1.root.nervepoint.com"));
+        assertEquals("ldaps://dc1.root.nervepoint.com:636", configuration.buildProviderUrl(true, false, "dc1.root.nervepoint.com"));
+        assertEquals("ldap://dc1.root.nervepoint.com:3268", configuration.buildProviderUrl(false, true, "dc1.root.nervepoint.com"));
+    }
+
+    @Test
+    public void providerUrlForHostAndPort() {
+        ActiveDirectoryConfiguration configuration = new ActiveDirectoryConfiguration(configurationParameters);
+        assertEquals("ldap://dc1.root.nervepoint.com:3268", configuration.buildProviderUrl(true, false, "dc1.root.nervepoint.com:3268"));
+        assertEquals("ldaps://dc1.root.nervepoint.com:636", configuration.buildProviderUrl(false, false, "dc1.root.nervepoint.com:636"));
+        assertEquals("ldap://dc1.root.nervepoint.com:1389", configuration.buildProviderUrl(false, false, "dc1.root.nervepoint.com:1389"));
+        assertEquals("ldaps://dc1.root.nervepoint.com:1636", configuration.buildProviderUrl(true, false, "dc1.root.nervepoint.com:1636"));
+    }
+
+    @Test
+    public void providerUrlForMultipleControllers() {
+        ActiveDirectoryConfiguration configuration = new ActiveDirectoryConfiguration(configurationParameters);
+        assertEquals("ldap://dc1.root.nervepoint.com:389 ldap://dc2.root.nervepoint.com:1389 ldaps://dc3.root.nervepoint.com:636",
+            configuration.buildProviderUrl(false, false, "dc1.root.nervepoint.com", "dc2.root.nervepoint.com:1389",
+                "dc3.root.nervepoint.com:636"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+
+import org.junit.Test;
+
+import com.identity4j.connector.principal.Role;
+
+public class ActiveDirectoryGroupCacheTest {
+
+	private final List<Role> groups = new ArrayList<Role>();
+	private final List<String> requests = new ArrayList<String>();
+
+	private final ActiveDirectoryGroupCache.GroupSource source = new ActiveDirectoryGroupCache.GroupSource() {
+		@Override
+		public Iterator<Role> getGroups(String changedSince) {
+			requests.add(changedSince);
+			List<Role> l = new ArrayList<Role>();
+			for (Role r : groups) {
+				if (changedSince == null || r.getAttribute(ActiveDirectoryGroupCache.WHEN_CHANGED_ATTRIBUTE).compareTo(changedSince) >= 0) {
+					l.add(r);
+				}
+			}
+			return l.iterator();
+		}
+	};
+
+	@Test
+	public void lookupByDnAndRid() throws Exception {
+		ActiveDirectoryGroup admins = group("guid1", "CN=Admins,DC=test,DC=com", 512, "20160101000000.0Z");
+		groups.add(admins);
+		ActiveDirectoryGroupCache cache = new ActiveDirectoryGroupCache(source, 60000);
+
+		assertSame(admins, cache.getByDn("cn=admins,dc=TEST,dc=com"));
+		assertSame(admins, cache.getByRid(512l));
+		assertNull(cache.getByRid(513l));
+		assertNull(cache.getByRid(null));
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void incrementalRefreshUsesHighWaterMark() throws Exception {
+		groups.add(group("guid1", "CN=Admins,DC=test,DC=com", 512, "20160101000000.0Z"));
+		groups.add(group("guid2", "CN=Users,DC=test,DC=com", 513, "20160102000000.0Z"));
+		ActiveDirectoryGroupCache cache = new ActiveDirectoryGroupCache(source, 0);
+		assertSame(groups.get(1), cache.getByRid(513l));
+		assertEquals(2, cache.size());
+
+		// Rename a group
+		groups.set(0, group("guid1", "CN=Administrators,DC=test,DC=com", 512, "20160103000000.0Z"));
+		assertNull(cache.getByDn("CN=Admins,DC=test,DC=com"));
+		assertEquals("guid1", cache.getByDn("CN=Administrators,DC=test,DC=com").getGuid());
+		assertEquals(2, cache.size());
+		assertNull(requests.get(0));
+		assertEquals("20160102000000.0Z", requests.get(1));
+	}
+
+	@Test
+	public void noRefreshWithinTtl() throws Exception {
+		groups.add(group("guid1", "CN=Admins,DC=test,DC=com", 512, "20160101000000.0Z"));
+		ActiveDirectoryGroupCache cache = new ActiveDirectoryGroupCache(source, 60000);
+		cache.getByRid(512l);
+		cache.getByRid(512l);
+		assertEquals(1, requests.size());
+		cache.markStale();
+		cache.getByRid(512l);
+		assertEquals(2, requests.size());
+	}
+
+	@Test
+	public void fullReloadEvictsDeletedGroups() throws Exception {
+		ActiveDirectoryGroup admins = group("guid1", "CN=Admins,DC=test,DC=com", 512, "20160101000000.0Z");
+		admins.setAttribute(ActiveDirectoryGroupCache.MEMBER_ATTRIBUTE, "CN=Joe,DC=test,DC=com");
+		groups.add(admins);
+		groups.add(group("guid2", "CN=Users,DC=test,DC=com", 513, "20160102000000.0Z"));
+		ActiveDirectoryGroupCache cache = new ActiveDirectoryGroupCache(source, 0, true, 0);
+		assertSame(admins, cache.getByRid(512l));
+		assertEquals(2, cache.size());
+
+		// Deletion is only seen by a full reload, which here is every refresh
+		groups.remove(0);
+		assertNull(cache.getByRid(512l));
+		assertNull(cache.getByDn("CN=Admins,DC=test,DC=com"));
+		assertNull(cache.getBySid("S-1-5-21-1-2-3-512"));
+		assertEquals(0, cache.getByMember("CN=Joe,DC=test,DC=com").size());
+		assertEquals(1, cache.size());
+		assertNull(requests.get(1));
+	}
+
+	@Test
+	public void lookupBySid() throws Exception {
+		ActiveDirectoryGroup admins = group("guid1", "CN=Admins,DC=test,DC=com", 512, "20160101000000.0Z");
+		groups.add(admins);
+		ActiveDirectoryGroupCache cache = new ActiveDirectoryGroupCache(source, 60000);
+
+		assertSame(admins, cache.getBySid("S-1-5-21-1-2-3-512"));
+		assertNull(cache.getBySid("S-1-5-21-1-2-3-513"));
+	}
+
+	@Test
+	public void reverseMemberIndex() throws Exception {
+		ActiveDirectoryGroup admins = group("guid1", "CN=Admins,DC=test,DC=com", 512, "20160101000000.0Z");
+		admins.setAttribute(ActiveDirectoryGroupCache.MEMBER_ATTRIBUTE, "CN=Joe,DC=test,DC=com", "CN=Fred,DC=test,DC=com");
+		ActiveDirectoryGroup users = group("guid2", "CN=Users,DC=test,DC=com", 513, "20160102000000.0Z");
+		users.setAttribute(ActiveDirectoryGroupCache.MEMBER_ATTRIBUTE, "CN=Joe,DC=test,DC=com");
+		groups.add(admins);
+		groups.add(users);
+		ActiveDirectoryGroupCache cache = new ActiveDirectoryGroupCache(source, 0, true);
+
+		assertEquals(2, cache.getByMember("cn=joe,dc=test,dc=com").size());
+		assertEquals(1, cache.getByMember("CN=Fred,DC=test,DC=com").size());
+
+		// Remove Fred from Admins
+		ActiveDirectoryGroup changed = group("guid1", "CN=Admins,DC=test,DC=com", 512, "20160103000000.0Z");
+		changed.setAttribute(ActiveDirectoryGroupCache.MEMBER_ATTRIBUTE, "CN=Joe,DC=test,DC=com");
+		groups.set(0, changed);
+		assertEquals(0, cache.getByMember("CN=Fred,DC=test,DC=com").size());
+		assertEquals(2, cache.getByMember("CN=Joe,DC=test,DC=com").size());
+	}
+
+	@Test
+	public void rangedAttributes() {
+		assertEquals(true, ActiveDirectoryUtils.isRangedAttribute("member;range=0-1499", "member"));
+		assertEquals(false, ActiveDirectoryUtils.isRangedAttribute("member", "member"));
+		assertEquals(1499, ActiveDirectoryUtils.getRangeHigh("member;range=0-1499"));
+		assertEquals(-1, ActiveDirectoryUtils.getRangeHigh("member;range=1500-*"));
+	}
+
+	private static ActiveDirectoryGroup group(String guid, String dn, int rid, String whenChanged) throws InvalidNameException {
+		ActiveDirectoryGroup group = new ActiveDirectoryGroup(guid, guid, new LdapName(dn), sid(rid));
+		group.setAttribute(ActiveDirectoryGroupCache.WHEN_CHANGED_ATTRIBUTE, whenChanged);
+		return group;
+	}
+
+	/**
+	 * Build a domain SID (S-1-5-21-x-y-z-rid)
+	 */
+	private static byte[] sid(int rid) {
+		byte[] sid = new byte[28];
+		sid[0] = 1;
+		sid[1] = 5;
+		sid[7] = 5;
+		int[] subAuthorities = { 21, 1, 2, 3, rid };
+		for (int i = 0; i < subAuthorities.length; i++) {
+			for (int b = 0; b < 4; b++) {
+				sid[8 + (i * 4) + b] = (byte) (subAuthorities[i] >> (8 * b));
+			}
+		}
+		return sid;
+	}
+}
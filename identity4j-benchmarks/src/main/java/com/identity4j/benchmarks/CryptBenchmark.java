@@ -0,0 +1,78 @@
+package com.identity4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.connector.unix.MD5Crypt;
+import com.identity4j.connector.unix.Sha256Crypt;
+import com.identity4j.connector.unix.Sha512Crypt;
+
+/**
+ * The MD5, SHA-256 and SHA-512 crypt(3) implementations behind the Unix and
+ * <code>htpasswd</code> connectors, at their default round counts. The
+ * <code>String</code> variants exist in every release, so run them against
+ * two builds to compare; add <code>-prof gc</code> to see the allocation per
+ * hash.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CryptBenchmark {
+
+	@Param({ "md5", "sha256", "sha512" })
+	String scheme;
+
+	private String salt;
+	private byte[] saltBytes;
+	private byte[] magic;
+	private byte[] password;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		if (scheme.equals("md5")) {
+			salt = "$1$Ab3dEf6h";
+		} else if (scheme.equals("sha256")) {
+			salt = "$5$Ab3dEf6hIj9kLm2n";
+		} else {
+			salt = "$6$Ab3dEf6hIj9kLm2n";
+		}
+		saltBytes = salt.getBytes(Fixtures.CHARSET);
+		magic = "$1$".getBytes(Fixtures.CHARSET);
+		password = UnixConnectorBenchmark.PASSWORD.getBytes(Fixtures.CHARSET);
+	}
+
+	@Benchmark
+	public String cryptString() throws Exception {
+		if (scheme.equals("md5")) {
+			return MD5Crypt.crypt_md5(password, salt);
+		} else if (scheme.equals("sha256")) {
+			return Sha256Crypt.Sha256_crypt(UnixConnectorBenchmark.PASSWORD, salt, 0);
+		}
+		return Sha512Crypt.Sha512_crypt(UnixConnectorBenchmark.PASSWORD, salt, 0);
+	}
+
+	@Benchmark
+	public byte[] cryptBytes() {
+		if (scheme.equals("md5")) {
+			return MD5Crypt.crypt_md5(password, saltBytes, magic);
+		} else if (scheme.equals("sha256")) {
+			return Sha256Crypt.Sha256_crypt(password, saltBytes, 0);
+		}
+		return Sha512Crypt.Sha512_crypt(password, saltBytes, 0);
+	}
+}
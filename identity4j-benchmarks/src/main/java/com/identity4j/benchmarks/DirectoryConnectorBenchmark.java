@@ -0,0 +1,103 @@
+package com.identity4j.benchmarks;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.ConnectorBuilder;
+import com.identity4j.connector.Projection;
+import com.identity4j.connector.jndi.directory.DirectoryConfiguration;
+import com.identity4j.connector.jndi.directory.DirectoryConnector;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.util.MultiMap;
+
+/**
+ * Looking up, authenticating and listing users of an {@link EmbeddedDirectory}
+ * through the {@link DirectoryConnector}, with and without pooled LDAP
+ * contexts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryConnectorBenchmark {
+
+	static final int USERS = 5000;
+
+	@Param({ "true", "false" })
+	boolean pool;
+
+	private EmbeddedDirectory directory;
+	private Connector connector;
+	private Projection projection;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		directory = new EmbeddedDirectory(USERS, UnixConnectorBenchmark.PASSWORD);
+
+		MultiMap configuration = new MultiMap();
+		configuration.set(ConnectorBuilder.CONNECTOR_CLASS, DirectoryConnector.class.getName());
+		configuration.set(ConnectorBuilder.CONFIGURATION_CLASS, DirectoryConfiguration.class.getName());
+		configuration.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, directory.getHost());
+		configuration.set(DirectoryConfiguration.DIRECTORY_BACKUP_HOSTNAMES, new String[0]);
+		configuration.set(DirectoryConfiguration.DIRECTORY_SECURITY_PROTOCOL, DirectoryConfiguration.PLAIN);
+		configuration.set(DirectoryConfiguration.DIRECTORY_BASE_DN, EmbeddedDirectory.BASE_DN);
+		configuration.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_USERNAME, EmbeddedDirectory.ADMIN_DN);
+		configuration.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_PASSWORD, EmbeddedDirectory.ADMIN_PASSWORD);
+		configuration.set(DirectoryConfiguration.DIRECTORY_POOL_ENABLED, String.valueOf(pool));
+		configuration.set("directory.identityObjectClass", "inetOrgPerson");
+		configuration.set("directory.identityNameAttribute", "uid");
+		configuration.set("directory.identityGuidAttribute", "uidNumber");
+		configuration.set("directory.identityPasswordAttribute", "userPassword");
+		configuration.set("directory.identityPasswordEncoding", "plain");
+		configuration.set("directory.roleObjectClass", "groupOfNames");
+		configuration.set("directory.roleNameAttribute", "cn");
+		configuration.set("directory.roleGuidAttribute", "cn");
+		connector = new ConnectorBuilder().buildConnector(configuration);
+		projection = new Projection(Projection.EMAIL);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		connector.close();
+		directory.stop();
+	}
+
+	@Benchmark
+	public Identity getIdentityByName() {
+		return connector.getIdentityByName(Fixtures.userName(next++ % USERS));
+	}
+
+	@Benchmark
+	public boolean checkCredentials() {
+		return connector.checkCredentials(Fixtures.userName(next++ % USERS),
+				UnixConnectorBenchmark.PASSWORD.toCharArray());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int allIdentities() {
+		int count = 0;
+		for (Iterator<Identity> it = connector.allIdentities(projection); it.hasNext(); it.next()) {
+			count++;
+		}
+		return count;
+	}
+}
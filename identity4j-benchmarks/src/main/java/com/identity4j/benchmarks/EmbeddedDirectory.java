@@ -0,0 +1,58 @@
+package com.identity4j.benchmarks;
+
+import java.net.InetAddress;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * An in-process LDAP server holding a number of users under
+ * <code>ou=People</code>, each with a clear text password they may bind
+ * with. Schema checking is off, so entries also carry the
+ * <code>distinguishedName</code> attribute that the directory connector reads.
+ */
+class EmbeddedDirectory {
+
+	static final String BASE_DN = "dc=example,dc=com";
+	static final String PEOPLE_DN = "ou=People," + BASE_DN;
+	static final String ADMIN_DN = "cn=admin";
+	static final String ADMIN_PASSWORD = "admin";
+
+	private final InMemoryDirectoryServer server;
+
+	EmbeddedDirectory(int users, String password) throws LDAPException {
+		InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+		config.setSchema(null);
+		config.addAdditionalBindCredentials(ADMIN_DN, ADMIN_PASSWORD);
+		config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", InetAddress.getLoopbackAddress(), 0,
+				null));
+		server = new InMemoryDirectoryServer(config);
+
+		server.add(new Entry(BASE_DN, "objectClass: top", "objectClass: domain", "dc: example"));
+		server.add(new Entry(PEOPLE_DN, "objectClass: top", "objectClass: organizationalUnit", "ou: People"));
+		for (int i = 0; i < users; i++) {
+			String name = Fixtures.userName(i);
+			String dn = "uid=" + name + "," + PEOPLE_DN;
+			server.add(new Entry(dn, "objectClass: top", "objectClass: inetOrgPerson", "uid: " + name,
+					"uidNumber: " + (1000 + i), "cn: User " + i, "sn: " + i, "mail: " + name + "@example.com",
+					"userPassword: " + password, "distinguishedName: " + dn));
+		}
+		server.startListening();
+	}
+
+	/**
+	 * Get the host and port to connect to.
+	 *
+	 * @return host and port
+	 */
+	String getHost() {
+		return "127.0.0.1:" + server.getListenPort();
+	}
+
+	void stop() {
+		server.shutDown(true);
+	}
+}
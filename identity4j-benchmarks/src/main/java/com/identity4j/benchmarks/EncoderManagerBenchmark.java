@@ -0,0 +1,68 @@
+package com.identity4j.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.connector.htpasswd.HTPasswdConnector;
+import com.identity4j.connector.htpasswd.HTPasswdMD5Encoder;
+import com.identity4j.connector.unix.UnixBlowfishEncoder;
+import com.identity4j.connector.unix.UnixDESEncoder;
+import com.identity4j.connector.unix.UnixMD5Encoder;
+import com.identity4j.connector.unix.UnixSHA256Encoder;
+import com.identity4j.connector.unix.UnixSHA512Encoder;
+import com.identity4j.util.crypt.Encoder;
+import com.identity4j.util.crypt.EncoderManager;
+import com.identity4j.util.crypt.impl.DefaultEncoderManager;
+import com.identity4j.util.crypt.impl.SHAStringEncoder;
+
+/**
+ * Detecting the scheme of a stored password, as is done for every credential
+ * check against a flat file, with all of the Unix and <code>htpasswd</code>
+ * encoders registered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EncoderManagerBenchmark {
+
+	@Param({ UnixDESEncoder.ID, UnixMD5Encoder.ID, UnixSHA256Encoder.ID, UnixSHA512Encoder.ID,
+			UnixBlowfishEncoder.ID, HTPasswdMD5Encoder.ID, SHAStringEncoder.ID })
+	String scheme;
+
+	private EncoderManager encoderManager;
+	private Collection<String> supportedEncoders;
+	private char[] encoded;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		// Registers the encoders
+		new HTPasswdConnector();
+		encoderManager = DefaultEncoderManager.getInstance();
+		supportedEncoders = Arrays.asList(encoderManager.getEncoderIds());
+		byte[] salt = scheme.equals(HTPasswdMD5Encoder.ID) ? "$apr1$Ab3dEf6h".getBytes(Fixtures.CHARSET) : null;
+		encoded = new String(encoderManager.encode(UnixConnectorBenchmark.PASSWORD.toCharArray(), scheme,
+				Fixtures.CHARSET, salt, null), Fixtures.CHARSET).toCharArray();
+	}
+
+	@Benchmark
+	public Encoder getEncoderForEncodedString() {
+		return encoderManager.getEncoderForEncodedString(encoded, Fixtures.CHARSET, supportedEncoders);
+	}
+}
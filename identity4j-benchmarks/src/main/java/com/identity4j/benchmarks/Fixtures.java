@@ -0,0 +1,57 @@
+package com.identity4j.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Generated data shared by the benchmarks.
+ */
+final class Fixtures {
+
+	static final String CHARSET = "UTF-8";
+
+	private Fixtures() {
+	}
+
+	static String userName(int index) {
+		return "user" + index;
+	}
+
+	/**
+	 * Build the content of a <code>/etc/passwd</code> style file.
+	 *
+	 * @param rows number of users
+	 * @return content
+	 */
+	static byte[] passwdContent(int rows) throws UnsupportedEncodingException {
+		StringBuilder buf = new StringBuilder(rows * 64);
+		for (int i = 0; i < rows; i++) {
+			String name = userName(i);
+			buf.append(name).append(":x:").append(1000 + i).append(':').append(100).append(":User ").append(i)
+					.append(":/home/").append(name).append(":/bin/bash\n");
+		}
+		return buf.toString().getBytes(CHARSET);
+	}
+
+	/**
+	 * Write content to a temporary file that is removed when the JVM exits.
+	 *
+	 * @param prefix file name prefix
+	 * @param content content
+	 * @return file
+	 */
+	static File temporaryFile(String prefix, String content) throws IOException {
+		File file = File.createTempFile(prefix, ".txt");
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes(CHARSET));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,107 @@
+package com.identity4j.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.connector.flatfile.AbstractFlatFile;
+import com.identity4j.connector.flatfile.DelimitedFlatFile;
+
+/**
+ * Loading, indexing and looking up rows of a <code>/etc/passwd</code> style
+ * file held in memory, with both list and compact row storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FlatFileBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	int rows;
+
+	@Param({ "false", "true" })
+	boolean compactStorage;
+
+	private byte[] content;
+	private AbstractFlatFile indexed;
+	private String[] keys;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		content = Fixtures.passwdContent(rows);
+		indexed = newFlatFile();
+		indexed.addIndex(0);
+		indexed.load(content, Fixtures.CHARSET);
+
+		// Look keys up in a random order so rows are not visited sequentially
+		keys = new String[4096];
+		Random random = new Random(1);
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = Fixtures.userName(random.nextInt(rows));
+		}
+	}
+
+	@Benchmark
+	public int load() throws IOException {
+		AbstractFlatFile flatFile = newFlatFile();
+		flatFile.load(content, Fixtures.CHARSET);
+		return flatFile.size();
+	}
+
+	@Benchmark
+	public int loadAndIndex() throws IOException {
+		AbstractFlatFile flatFile = newFlatFile();
+		flatFile.addIndex(0);
+		flatFile.addIndex(2);
+		flatFile.load(content, Fixtures.CHARSET);
+		return flatFile.size();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public List<String> lookup() {
+		return indexed.getRowByKeyField(0, keys[next++ & (keys.length - 1)]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String lookupAndReadField() {
+		return indexed.getRowByKeyField(0, keys[next++ & (keys.length - 1)]).get(5);
+	}
+
+	private AbstractFlatFile newFlatFile() {
+		MemoryFlatFile flatFile = new MemoryFlatFile();
+		flatFile.setFieldSeparator(':');
+		flatFile.setEscapeCharacter('\\');
+		flatFile.setCompactStorage(compactStorage);
+		return flatFile;
+	}
+
+	/**
+	 * A delimited file that is only ever loaded, never written.
+	 */
+	static class MemoryFlatFile extends DelimitedFlatFile {
+		@Override
+		protected void writeRows(List<List<String>> rows, boolean append) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
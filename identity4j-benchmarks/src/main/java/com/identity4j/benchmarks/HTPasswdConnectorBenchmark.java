@@ -0,0 +1,102 @@
+package com.identity4j.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.ConnectorBuilder;
+import com.identity4j.connector.flatfile.FlatFileConfiguration;
+import com.identity4j.connector.htpasswd.HTPasswdConnector;
+import com.identity4j.connector.htpasswd.HTPasswdMD5Encoder;
+import com.identity4j.connector.unix.UnixDESEncoder;
+import com.identity4j.util.MultiMap;
+import com.identity4j.util.crypt.impl.DefaultEncoderManager;
+import com.identity4j.util.crypt.impl.PlainEncoder;
+import com.identity4j.util.crypt.impl.SHAStringEncoder;
+
+/**
+ * Checking credentials against an Apache <code>htpasswd</code> file with each
+ * of the schemes the {@link HTPasswdConnector} supports. As well as the hash,
+ * this includes detecting the scheme of the stored password.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HTPasswdConnectorBenchmark {
+
+	static final int USERS = 1000;
+
+	@Param({ SHAStringEncoder.ID, UnixDESEncoder.ID, HTPasswdMD5Encoder.ID, PlainEncoder.ID })
+	String scheme;
+
+	private Connector connector;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		// Registers the encoders
+		new HTPasswdConnector();
+		String salt = null;
+		if (scheme.equals(UnixDESEncoder.ID)) {
+			salt = "ab";
+		} else if (scheme.equals(HTPasswdMD5Encoder.ID)) {
+			salt = "$apr1$Ab3dEf6h";
+		}
+		String hash = new String(DefaultEncoderManager.getInstance().encode(
+				UnixConnectorBenchmark.PASSWORD.toCharArray(), scheme, Fixtures.CHARSET,
+				salt == null ? null : salt.getBytes(Fixtures.CHARSET), null), Fixtures.CHARSET);
+
+		StringBuilder htpasswd = new StringBuilder();
+		for (int i = 0; i < USERS; i++) {
+			htpasswd.append(Fixtures.userName(i)).append(':').append(hash).append('\n');
+		}
+
+		MultiMap configuration = new MultiMap();
+		configuration.set(ConnectorBuilder.CONNECTOR_CLASS, HTPasswdConnector.class.getName());
+		configuration.set(ConnectorBuilder.CONFIGURATION_CLASS, FlatFileConfiguration.class.getName());
+		configuration.set(FlatFileConfiguration.KEY_FILENAME,
+				Fixtures.temporaryFile("htpasswd", htpasswd.toString()).getAbsolutePath());
+		configuration.set(FlatFileConfiguration.KEY_CHARSET, Fixtures.CHARSET);
+		configuration.set(FlatFileConfiguration.KEY_ESCAPE_CHARACTER, "\\");
+		configuration.set(FlatFileConfiguration.KEY_FIELD_SEPARATOR, ":");
+		configuration.set(FlatFileConfiguration.KEY_IDENTITY_PASSWORD_ENCODING, scheme);
+		configuration.set(FlatFileConfiguration.KEY_KEY_FIELD_INDEX, "0");
+		configuration.set(FlatFileConfiguration.KEY_PASSWORD_FIELD_INDEX, "1");
+		configuration.set(FlatFileConfiguration.KEY_GUID_FIELD_INDEX, "0");
+		configuration.set(FlatFileConfiguration.KEY_FULL_NAME_FIELD_INDEX, "0");
+		connector = new ConnectorBuilder().buildConnector(configuration);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		connector.close();
+	}
+
+	@Benchmark
+	public boolean validCredentials() {
+		return connector.checkCredentials(Fixtures.userName(next++ % USERS),
+				UnixConnectorBenchmark.PASSWORD.toCharArray());
+	}
+
+	@Benchmark
+	public boolean invalidCredentials() {
+		return connector.checkCredentials(Fixtures.userName(next++ % USERS), "wrong".toCharArray());
+	}
+}
@@ -0,0 +1,74 @@
+package com.identity4j.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for a REST API, serving pages of users rendered up front so
+ * that as little time as possible is spent on the server side. Pages are
+ * registered by path and query, e.g. <code>/users?page=2</code>.
+ */
+class HttpStub implements HttpHandler {
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Map<String, byte[]> responses = new HashMap<String, byte[]>();
+
+	HttpStub() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", this);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Get the URI of a path on the stub.
+	 *
+	 * @param pathAndQuery path and query
+	 * @return uri
+	 */
+	URI uri(String pathAndQuery) {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + pathAndQuery);
+	}
+
+	void put(String pathAndQuery, String json) throws IOException {
+		responses.put(pathAndQuery, json.getBytes(Fixtures.CHARSET));
+	}
+
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			URI uri = exchange.getRequestURI();
+			byte[] response = responses.get(uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?"
+					+ uri.getRawQuery());
+			if (response == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, response.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(response);
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.identity4j.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.connector.office365.Office365ModelConvertor;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.salesforce.SalesforceIdentity;
+import com.identity4j.connector.salesforce.SalesforceModelConvertor;
+import com.identity4j.connector.zendesk.ZendeskIdentity;
+import com.identity4j.connector.zendesk.ZendeskModelConvertor;
+import com.identity4j.util.json.JsonMapperService;
+
+/**
+ * Mapping users between the JSON of the Office 365, Salesforce and Zendesk
+ * REST APIs and identities, in both directions, as is done for every user
+ * listed or updated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ModelConvertorBenchmark {
+
+	private JsonMapperService jsonMapper;
+	private String office365Json;
+	private String salesforceJson;
+	private String zendeskJson;
+	private Identity office365Identity;
+	private SalesforceIdentity salesforceIdentity;
+	private ZendeskIdentity zendeskIdentity;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		jsonMapper = JsonMapperService.getInstance();
+		office365Json = office365User(1);
+		salesforceJson = salesforceUser(1);
+		zendeskJson = zendeskUser(1);
+		office365Identity = office365FromJson();
+		salesforceIdentity = salesforceFromJson();
+		zendeskIdentity = zendeskFromJson();
+	}
+
+	@Benchmark
+	public Identity office365FromJson() {
+		return Office365ModelConvertor.convertOffice365UserToOfficeIdentity(jsonMapper.getObject(
+				com.identity4j.connector.office365.entity.User.class, office365Json));
+	}
+
+	@Benchmark
+	public String office365ToJson() throws IOException {
+		return jsonMapper.getJson(Office365ModelConvertor.covertOfficeIdentityToOffice365User(office365Identity));
+	}
+
+	@Benchmark
+	public SalesforceIdentity salesforceFromJson() {
+		return SalesforceModelConvertor.getInstance().convertSalesforceUserToSalesforceIdentity(jsonMapper.getObject(
+				com.identity4j.connector.salesforce.entity.User.class, salesforceJson));
+	}
+
+	@Benchmark
+	public String salesforceToJson() throws IOException {
+		return jsonMapper.getJson(SalesforceModelConvertor.getInstance().convertSalesforceIdentityToSalesforceUser(
+				salesforceIdentity));
+	}
+
+	@Benchmark
+	public ZendeskIdentity zendeskFromJson() {
+		return ZendeskModelConvertor.getInstance().convertZendeskUserToZendeskIdentity(jsonMapper.getObject(
+				com.identity4j.connector.zendesk.entity.User.class, zendeskJson));
+	}
+
+	@Benchmark
+	public String zendeskToJson() throws IOException {
+		return jsonMapper.getJson(ZendeskModelConvertor.getInstance().convertZendeskIdentityToZendeskUser(
+				zendeskIdentity));
+	}
+
+	static String office365User(int index) {
+		return "{\"odata.type\":\"Microsoft.WindowsAzure.ActiveDirectory.User\",\"objectType\":\"User\","
+				+ "\"objectId\":\"" + guid(index) + "\",\"accountEnabled\":true,\"city\":\"London\","
+				+ "\"country\":\"UK\",\"department\":\"Engineering\",\"dirSyncEnabled\":null,"
+				+ "\"displayName\":\"User " + index + "\",\"facsimileTelephoneNumber\":null,\"givenName\":\"User\","
+				+ "\"jobTitle\":\"Developer\",\"lastDirSyncTime\":null,\"mail\":\"user" + index
+				+ "@example.com\",\"mailNickname\":\"user" + index + "\",\"mobile\":\"+44 7700 900" + index % 1000
+				+ "\",\"passwordPolicies\":\"None\",\"physicalDeliveryOfficeName\":\"HQ\",\"postalCode\":\"N1 9GU\","
+				+ "\"preferredLanguage\":\"en-GB\",\"state\":null,\"streetAddress\":\"1 High Street\","
+				+ "\"surname\":\"" + index + "\",\"telephoneNumber\":\"+44 20 7946 0000\",\"usageLocation\":\"GB\","
+				+ "\"userPrincipalName\":\"user" + index + "@example.onmicrosoft.com\"}";
+	}
+
+	static String salesforceUser(int index) {
+		return "{\"attributes\":{\"type\":\"User\",\"url\":\"/services/data/v30.0/sobjects/User/005" + index + "\"},"
+				+ "\"Id\":\"005" + index + "\",\"Username\":\"user" + index + "@example.com\",\"FirstName\":\"User\","
+				+ "\"LastName\":\"" + index + "\",\"Name\":\"User " + index + "\",\"CompanyName\":\"Example\","
+				+ "\"Division\":null,\"Department\":\"Engineering\",\"Title\":\"Developer\",\"Street\":\"1 High Street\","
+				+ "\"City\":\"London\",\"State\":null,\"PostalCode\":\"N1 9GU\",\"Country\":\"UK\",\"Email\":\"user"
+				+ index + "@example.com\",\"Phone\":null,\"MobilePhone\":\"+44 7700 900000\",\"Fax\":null,"
+				+ "\"Alias\":\"user" + index % 1000 + "\",\"TimeZoneSidKey\":\"Europe/London\","
+				+ "\"LocaleSidKey\":\"en_GB\",\"EmailEncodingKey\":\"UTF-8\",\"IsActive\":true,"
+				+ "\"ProfileId\":\"00e000000000001\",\"LanguageLocaleKey\":\"en_US\","
+				+ "\"LastLoginDate\":\"2014-03-01T10:00:00.000+0000\",\"CreatedDate\":\"2014-01-01T10:00:00.000+0000\","
+				+ "\"SystemModstamp\":\"2014-03-01T10:00:00.000+0000\",\"UserPermissionsSFContentUser\":false}";
+	}
+
+	static String zendeskUser(int index) {
+		return "{\"id\":" + index + ",\"url\":\"https://example.zendesk.com/api/v2/users/" + index + ".json\","
+				+ "\"name\":\"User " + index + "\",\"email\":\"user" + index + "@example.com\","
+				+ "\"created_at\":\"2014-01-01T10:00:00Z\",\"updated_at\":\"2014-03-01T10:00:00Z\","
+				+ "\"time_zone\":\"London\",\"timezone\":\"Europe/London\",\"phone\":null,\"locale_id\":1,"
+				+ "\"locale\":\"en-US\",\"organization_id\":null,\"role\":\"end-user\",\"verified\":true,"
+				+ "\"active\":true,\"suspended\":false,\"moderator\":false,\"tags\":[],\"user_fields\":{}}";
+	}
+
+	private static String guid(int index) {
+		return String.format("%08x-0000-4000-8000-%012x", index, index);
+	}
+}
@@ -0,0 +1,89 @@
+package com.identity4j.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.util.MultiMap;
+
+/**
+ * The {@link MultiMap} accessors that connector configurations use to read
+ * their parameters, often on every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultiMapBenchmark {
+
+	private MultiMap multiMap;
+	private Map<String, String> single;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		single = new HashMap<String, String>();
+		for (int i = 0; i < 50; i++) {
+			single.put("parameter." + i, String.valueOf(i));
+		}
+		multiMap = MultiMap.toMultiMap(single);
+		multiMap.set("hostname", "localhost");
+		multiMap.set("enabled", "true");
+		multiMap.set("hosts", "host1", "host2", "host3");
+		multiMap.set("map", "a=1", "b=2", "c=3");
+	}
+
+	@Benchmark
+	public String getString() {
+		return multiMap.getString("hostname");
+	}
+
+	@Benchmark
+	public String getStringOrDefault() {
+		return multiMap.getStringOrDefault("missing", "default");
+	}
+
+	@Benchmark
+	public Integer getIntegerOrDefault() {
+		return multiMap.getIntegerOrDefault("parameter.25", 0);
+	}
+
+	@Benchmark
+	public Boolean getBooleanOrDefault() {
+		return multiMap.getBooleanOrDefault("enabled", false);
+	}
+
+	@Benchmark
+	public String[] getStringArray() {
+		return multiMap.getStringArray("hosts");
+	}
+
+	@Benchmark
+	public Map<String, String> getMap() {
+		return multiMap.getMap("map");
+	}
+
+	@Benchmark
+	public String[] setMore() {
+		MultiMap copy = new MultiMap(multiMap);
+		return copy.setMore("hosts", "host4");
+	}
+
+	@Benchmark
+	public MultiMap toMultiMap() {
+		return MultiMap.toMultiMap(single);
+	}
+}
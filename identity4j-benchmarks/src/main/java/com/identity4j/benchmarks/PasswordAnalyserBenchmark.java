@@ -0,0 +1,75 @@
+package com.identity4j.benchmarks;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.util.passwords.DefaultPasswordCharacteristics;
+import com.identity4j.util.passwords.PasswordAnalyser;
+import com.identity4j.util.passwords.PasswordDictionaryService;
+import com.identity4j.util.passwords.PasswordPolicyException;
+
+/**
+ * Analysing the strength of passwords against a policy that checks for the
+ * user name and dictionary words. Passwords that break the policy are
+ * included, as the strength is still calculated for them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PasswordAnalyserBenchmark {
+
+	@Param({ "secret", "Qwerty123!", "correct horse battery staple", "Tr0ub4dor&3-x9#Lm2$vQ8pZ!kW4nR7" })
+	String password;
+
+	private PasswordAnalyser analyser;
+	private DefaultPasswordCharacteristics characteristics;
+	private char[] chars;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		characteristics = new DefaultPasswordCharacteristics();
+		characteristics.setMinimumSize(8);
+		characteristics.setMaximumSize(64);
+		characteristics.setMinimumDigits(1);
+		characteristics.setMinimumLowerCase(1);
+		characteristics.setMinimumUpperCase(1);
+		characteristics.setMinimumSymbols(1);
+		characteristics.setRequiresMatches(3);
+		characteristics.setDictionaryWordsAllowed(false);
+		characteristics.setContainUsername(false);
+
+		analyser = new PasswordAnalyser();
+		analyser.setDictionaryService(new PasswordDictionaryService() {
+			@Override
+			public boolean containsWord(Locale locale, String word) {
+				return word.equalsIgnoreCase("horse") || word.equalsIgnoreCase("staple");
+			}
+		});
+		chars = password.toCharArray();
+	}
+
+	@Benchmark
+	public float analyse() {
+		try {
+			return analyser.analyse(Locale.ENGLISH, "user1", chars, characteristics);
+		} catch (PasswordPolicyException e) {
+			return e.getStrength();
+		}
+	}
+}
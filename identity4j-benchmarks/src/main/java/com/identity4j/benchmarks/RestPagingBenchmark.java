@@ -0,0 +1,152 @@
+package com.identity4j.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.connector.office365.Office365ModelConvertor;
+import com.identity4j.connector.zendesk.ZendeskModelConvertor;
+import com.identity4j.connector.zendesk.entity.User;
+import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.http.request.HttpRequestHandler.HTTPHook;
+import com.identity4j.util.http.request.PagingIterator;
+import com.identity4j.util.http.response.HttpResponse;
+import com.identity4j.util.json.JsonArrayIterator;
+import com.identity4j.util.json.JsonMapperService;
+
+/**
+ * Listing every user of a REST API over pooled HTTP connections to a
+ * {@link HttpStub}, streaming each page through the JSON mapper and into
+ * identities as the Office 365 and Zendesk connectors do. The connectors
+ * themselves only talk HTTPS to fixed hosts, so the same HTTP, paging and
+ * mapping code is driven directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RestPagingBenchmark {
+
+	static final int PAGE_SIZE = 100;
+
+	@Param({ "1000", "10000" })
+	int users;
+
+	private HttpStub stub;
+	private HttpRequestHandler httpRequestHandler;
+	private JsonMapperService jsonMapper;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		stub = new HttpStub();
+		int pages = (users + PAGE_SIZE - 1) / PAGE_SIZE;
+		for (int page = 0; page < pages; page++) {
+			StringBuilder office365 = new StringBuilder("{\"odata.metadata\":\"" + stub.uri("/$metadata")
+					+ "\",\"value\":[");
+			StringBuilder zendesk = new StringBuilder("{\"users\":[");
+			for (int i = page * PAGE_SIZE; i < Math.min(users, (page + 1) * PAGE_SIZE); i++) {
+				if (i > page * PAGE_SIZE) {
+					office365.append(',');
+					zendesk.append(',');
+				}
+				office365.append(ModelConvertorBenchmark.office365User(i));
+				zendesk.append(ModelConvertorBenchmark.zendeskUser(i));
+			}
+			boolean more = page < pages - 1;
+			office365.append(']');
+			if (more) {
+				office365.append(",\"odata.nextLink\":\"users?page=").append(page + 1).append('"');
+			}
+			zendesk.append("],\"meta\":{\"has_more\":").append(more).append(",\"after_cursor\":\"")
+					.append(page + 1).append("\"},\"links\":{\"next\":\"")
+					.append(stub.uri("/zendesk/users.json?page=" + (page + 1))).append("\"}");
+			stub.put(page == 0 ? "/office365/users" : "/office365/users?page=" + page, office365.append('}')
+					.toString());
+			stub.put(page == 0 ? "/zendesk/users.json" : "/zendesk/users.json?page=" + page, zendesk.append('}')
+					.toString());
+		}
+		httpRequestHandler = new HttpRequestHandler();
+		jsonMapper = JsonMapperService.getInstance();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		httpRequestHandler.close();
+		stub.stop();
+	}
+
+	/**
+	 * Follows <code>odata.nextLink</code> from page to page, parsing each
+	 * response as it arrives.
+	 */
+	@Benchmark
+	public int office365AllUsers() {
+		int count = 0;
+		String next = "/office365/users";
+		while (next != null) {
+			JsonArrayIterator<com.identity4j.connector.office365.entity.User> it = jsonMapper.iterator(
+					com.identity4j.connector.office365.entity.User.class, "value", stream(next));
+			while (it.hasNext()) {
+				Office365ModelConvertor.convertOffice365UserToOfficeIdentity(it.next());
+				count++;
+			}
+			String nextLink = it.getProperty("odata.nextLink");
+			next = nextLink == null ? null : "/office365/" + nextLink;
+		}
+		return count;
+	}
+
+	/**
+	 * Follows <code>links.next</code> while <code>meta.has_more</code>,
+	 * fetching the next page while the current one is mapped.
+	 */
+	@Benchmark
+	public int zendeskAllUsers() {
+		int count = 0;
+		PagingIterator<User> it = new PagingIterator<User>(httpRequestHandler) {
+			@Override
+			protected Page<User> fetch(String next) {
+				String path = next == null ? "/zendesk/users.json" : next.substring(next.indexOf("/zendesk/"));
+				JsonArrayIterator<User> page = jsonMapper.iterator(User.class, "users", stream(path));
+				List<User> results = new ArrayList<User>();
+				while (page.hasNext()) {
+					results.add(page.next());
+				}
+				boolean more = "true".equals(page.getProperty("meta.has_more"));
+				return new Page<User>(results, more ? page.getProperty("links.next") : null);
+			}
+		};
+		while (it.hasNext()) {
+			ZendeskModelConvertor.getInstance().convertZendeskUserToZendeskIdentity(it.next());
+			count++;
+		}
+		return count;
+	}
+
+	private InputStream stream(String pathAndQuery) {
+		HttpResponse response = httpRequestHandler.handleRequestGetStream(stub.uri(pathAndQuery), HTTPHook.EMPTY_HOOK);
+		if (!(response.getData() instanceof InputStream)) {
+			throw new IllegalStateException("Request for " + pathAndQuery + " failed with status "
+					+ response.getHttpStatusCodes().getStatusCode());
+		}
+		return (InputStream) response.getData();
+	}
+}
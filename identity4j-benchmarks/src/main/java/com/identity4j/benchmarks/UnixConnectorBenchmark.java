@@ -0,0 +1,100 @@
+package com.identity4j.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.ConnectorBuilder;
+import com.identity4j.connector.flatfile.FlatFileConfiguration;
+import com.identity4j.connector.unix.UnixBlowfishEncoder;
+import com.identity4j.connector.unix.UnixConfiguration;
+import com.identity4j.connector.unix.UnixConnector;
+import com.identity4j.connector.unix.UnixDESEncoder;
+import com.identity4j.connector.unix.UnixMD5Encoder;
+import com.identity4j.connector.unix.UnixSHA256Encoder;
+import com.identity4j.connector.unix.UnixSHA512Encoder;
+import com.identity4j.util.MultiMap;
+import com.identity4j.util.crypt.impl.DefaultEncoderManager;
+
+/**
+ * Checking credentials against <code>/etc/shadow</code> with each of the
+ * crypt schemes the {@link UnixConnector} supports. Every user has a password
+ * hashed with the scheme, so the time is dominated by the hash and the
+ * lookup of the user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UnixConnectorBenchmark {
+
+	static final String PASSWORD = "Qwerty123!";
+	static final int USERS = 1000;
+
+	@Param({ UnixDESEncoder.ID, UnixMD5Encoder.ID, UnixSHA256Encoder.ID, UnixSHA512Encoder.ID,
+			UnixBlowfishEncoder.ID })
+	String scheme;
+
+	private Connector connector;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		// Registers the encoders
+		new UnixConnector();
+		String hash = new String(DefaultEncoderManager.getInstance().encode(PASSWORD.toCharArray(), scheme,
+				Fixtures.CHARSET, null, null), Fixtures.CHARSET);
+
+		StringBuilder shadow = new StringBuilder();
+		StringBuilder group = new StringBuilder("users:x:100:");
+		for (int i = 0; i < USERS; i++) {
+			shadow.append(Fixtures.userName(i)).append(':').append(hash).append(":15000:0:99999:7:::\n");
+			group.append(i == 0 ? "" : ",").append(Fixtures.userName(i));
+		}
+
+		MultiMap configuration = new MultiMap();
+		configuration.set(ConnectorBuilder.CONNECTOR_CLASS, UnixConnector.class.getName());
+		configuration.set(ConnectorBuilder.CONFIGURATION_CLASS, UnixConfiguration.class.getName());
+		configuration.set(FlatFileConfiguration.KEY_FILENAME,
+				Fixtures.temporaryFile("passwd", new String(Fixtures.passwdContent(USERS), Fixtures.CHARSET))
+						.getAbsolutePath());
+		configuration.set(UnixConfiguration.KEY_SHADOW_FILE,
+				Fixtures.temporaryFile("shadow", shadow.toString()).getAbsolutePath());
+		configuration.set(UnixConfiguration.KEY_GROUP_FILE,
+				Fixtures.temporaryFile("group", group.append('\n').toString()).getAbsolutePath());
+		configuration.set(FlatFileConfiguration.KEY_CHARSET, Fixtures.CHARSET);
+		configuration.set(FlatFileConfiguration.KEY_IDENTITY_PASSWORD_ENCODING, scheme);
+		connector = new ConnectorBuilder().buildConnector(configuration);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		connector.close();
+	}
+
+	@Benchmark
+	public boolean validCredentials() {
+		return connector.checkCredentials(Fixtures.userName(next++ % USERS), PASSWORD.toCharArray());
+	}
+
+	@Benchmark
+	public boolean invalidCredentials() {
+		return connector.checkCredentials(Fixtures.userName(next++ % USERS), "wrong".toCharArray());
+	}
+}
@@ -1,6 +1,8 @@
 /* HEADER */
 package com.identity4j.connector;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -31,9 +33,14 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 		throw new UnsupportedOperationException("This connector does not support integrated web authentication.");
 	}
 
+	@Override
+	public Iterator<Identity> allIdentities(Projection projection) throws ConnectorException {
+		return allIdentities();
+	}
+
 	@Override
 	public long countIdentities() throws ConnectorException {
-		return count(allIdentities());
+		return count(allIdentities(Projection.NONE));
 	}
 
 	@Override
@@ -67,11 +74,13 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 	}
 
 	public final boolean checkCredentials(String username, char[] password) throws ConnectorException {
-		if (!isIdentityNameInUse(username)) {
+		Identity identity;
+		try {
+			identity = getIdentityByName(username);
+		} catch (PrincipalNotFoundException pnfe) {
 			return false;
 		}
-		Identity identity = getIdentityByName(username);
-		return areCredentialsValid(identity, password);
+		return identity != null && areCredentialsValid(identity, password);
 	}
 
 	/**
@@ -178,11 +187,16 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 	 * @throws {@link ConnectorException}
 	 */
 	public Identity getIdentityByName(String name) throws PrincipalNotFoundException, ConnectorException {
-		for (Iterator<Identity> identityIterator = allIdentities(); identityIterator.hasNext();) {
-			Identity identity = identityIterator.next();
-			if (identity.getPrincipalName().equals(name)) {
-				return identity;
+		Iterator<Identity> identityIterator = allIdentities();
+		try {
+			while (identityIterator.hasNext()) {
+				Identity identity = identityIterator.next();
+				if (identity.getPrincipalName().equals(name)) {
+					return identity;
+				}
 			}
+		} finally {
+			closeIterator(identityIterator);
 		}
 		throw new PrincipalNotFoundException(name + " not found.");
 	}
@@ -198,22 +212,46 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 	 * @throws {@link ConnectorException}
 	 */
 	public Role getRoleByName(String name) throws PrincipalNotFoundException, ConnectorException {
-		for (Iterator<Role> roleIterator = allRoles(); roleIterator.hasNext();) {
-			Role role = roleIterator.next();
-			if (role.getPrincipalName().equals(name)) {
-				return role;
+		Iterator<Role> roleIterator = allRoles();
+		try {
+			while (roleIterator.hasNext()) {
+				Role role = roleIterator.next();
+				if (role.getPrincipalName().equals(name)) {
+					return role;
+				}
 			}
+		} finally {
+			closeIterator(roleIterator);
 		}
 		throw new PrincipalNotFoundException(name + " not found.");
 	}
 
 	protected final <T extends Principal> T getPrincipal(String filter, Iterator<T> itr) {
-		if (itr.hasNext()) {
-			return itr.next();
+		try {
+			if (itr.hasNext()) {
+				return itr.next();
+			}
+		} finally {
+			closeIterator(itr);
 		}
 		throw new PrincipalNotFoundException("Principal not found for filter '" + filter + "'");
 	}
 
+	/**
+	 * Iterators backed by a connection must release it if not exhausted, so
+	 * close any that are {@link Closeable} once done with.
+	 * 
+	 * @param itr iterator
+	 */
+	protected static void closeIterator(Iterator<?> itr) {
+		if (itr instanceof Closeable) {
+			try {
+				((Closeable) itr).close();
+			} catch (IOException ioe) {
+			}
+		}
+	}
+
 	/**
 	 * Default implementation simply returns null. Need to override this to
 	 * create new identity
@@ -0,0 +1,126 @@
+/* HEADER */
+package com.identity4j.connector;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Role;
+
+/**
+ * The result of {@link IncrementalConnector#changesSince(SyncToken)}. Deleted
+ * principals are identified by their GUID, as the principal itself usually no
+ * longer exists.
+ * <p>
+ * Connectors that cannot tell a new principal from a changed one report it as
+ * modified, and connectors that cannot detect deletions will not report any.
+ * Depending on the connector, a principal that changed at the same instant
+ * the previous token was issued may be reported again.
+ */
+public class ChangeSet implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final boolean full;
+	private SyncToken token;
+	private final List<Identity> addedIdentities = new ArrayList<Identity>();
+	private final List<Identity> modifiedIdentities = new ArrayList<Identity>();
+	private final List<String> deletedIdentities = new ArrayList<String>();
+	private final List<Role> addedRoles = new ArrayList<Role>();
+	private final List<Role> modifiedRoles = new ArrayList<Role>();
+	private final List<String> deletedRoles = new ArrayList<String>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param full <code>true</code> if this is a full listing rather than the
+	 *            changes since a previous token
+	 */
+	public ChangeSet(boolean full) {
+		this.full = full;
+	}
+
+	/**
+	 * Get if this is a full listing, in which case all principals are reported
+	 * as added, and any principal known to the caller but not in the listing
+	 * should be considered deleted.
+	 * 
+	 * @return full listing
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * Get the token to pass to the next call to
+	 * {@link IncrementalConnector#changesSince(SyncToken)}.
+	 * 
+	 * @return token
+	 */
+	public SyncToken getToken() {
+		return token;
+	}
+
+	/**
+	 * Set the token to pass to the next call to
+	 * {@link IncrementalConnector#changesSince(SyncToken)}.
+	 * 
+	 * @param token token
+	 */
+	public void setToken(SyncToken token) {
+		this.token = token;
+	}
+
+	public List<Identity> getAddedIdentities() {
+		return addedIdentities;
+	}
+
+	public List<Identity> getModifiedIdentities() {
+		return modifiedIdentities;
+	}
+
+	/**
+	 * Get the GUIDs of deleted identities.
+	 * 
+	 * @return deleted identity GUIDs
+	 */
+	public List<String> getDeletedIdentities() {
+		return deletedIdentities;
+	}
+
+	public List<Role> getAddedRoles() {
+		return addedRoles;
+	}
+
+	public List<Role> getModifiedRoles() {
+		return modifiedRoles;
+	}
+
+	/**
+	 * Get the GUIDs of deleted roles.
+	 * 
+	 * @return deleted role GUIDs
+	 */
+	public List<String> getDeletedRoles() {
+		return deletedRoles;
+	}
+
+	/**
+	 * Get if there are no changes at all.
+	 * 
+	 * @return empty
+	 */
+	public boolean isEmpty() {
+		return addedIdentities.isEmpty() && modifiedIdentities.isEmpty() && deletedIdentities.isEmpty()
+				&& addedRoles.isEmpty() && modifiedRoles.isEmpty() && deletedRoles.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "ChangeSet [full=" + full + ", token=" + token + ", addedIdentities=" + addedIdentities.size()
+				+ ", modifiedIdentities=" + modifiedIdentities.size() + ", deletedIdentities=" + deletedIdentities.size()
+				+ ", addedRoles=" + addedRoles.size() + ", modifiedRoles=" + modifiedRoles.size() + ", deletedRoles="
+				+ deletedRoles.size() + "]";
+	}
+}
@@ -145,6 +145,16 @@ public interface Connector {
 	 */
 	Iterator<Identity> allIdentities() throws ConnectorException;
 
+	/**
+	 * Get all identities, retrieving only what is described by the
+	 * projection where the connector is able to.
+	 * 
+	 * @param projection parts of each identity required
+	 * @return {@link Identity}s
+	 * @throws ConnectorException
+	 */
+	Iterator<Identity> allIdentities(Projection projection) throws ConnectorException;
+
 	/**
 	 * Count identities.
 	 * 
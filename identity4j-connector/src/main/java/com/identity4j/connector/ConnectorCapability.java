@@ -137,4 +137,9 @@ public enum ConnectorCapability {
 	 * The connector supports a web based authentication API such as OAuth
 	 */
 	webAuthentication,
+	/**
+	 * The connector can report changes made since a previous synchronisation,
+	 * see {@link IncrementalConnector}
+	 */
+	incrementalSync,
 }
@@ -0,0 +1,606 @@
+/* HEADER */
+package com.identity4j.connector;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.InvalidLoginCredentialsException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.AccountStatus;
+import com.identity4j.connector.principal.AccountStatusType;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.util.passwords.PasswordCharacteristics;
+
+/**
+ * Wraps another {@link Connector} and remembers, for a short time, the
+ * credentials it has accepted. A user that is verified over and over again,
+ * for example by a RADIUS server, then only costs a directory round trip or a
+ * slow password hash once per time to live.
+ * <p>
+ * Passwords themselves are never kept, only a PBKDF2 digest of each with its
+ * own random salt. Rejected credentials are never cached, so every failure
+ * goes to the wrapped connector and any lockout policy it has still applies.
+ * Neither are credentials for a user name that cannot be resolved to an
+ * identity.
+ * <p>
+ * Each cached user name is tied to the principal name of the identity it
+ * resolved to, so that setting or changing a password, or locking,
+ * disabling, updating or deleting an identity through this connector forgets
+ * its cached credentials at once, whatever name the user logged on with.
+ * Changes made any other way, e.g. directly in the directory, are only seen
+ * when the cached credentials expire, so the time to live should be short.
+ * A cached logon still fails over to the wrapped connector if the identity it
+ * looks up is no longer enabled.
+ * <p>
+ * Use {@link #wrap(Connector, long, TimeUnit)} to keep an
+ * {@link IncrementalConnector} incremental. Identities it reports as modified
+ * have their cached credentials forgotten.
+ */
+public class CredentialCachingConnector implements Connector {
+
+	private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA1";
+	private static final int SALT_LENGTH = 16;
+	private static final int KEY_LENGTH = 256;
+
+	private final Connector connector;
+	private final long ttlNanos;
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final SecureRandom random = new SecureRandom();
+	private final AtomicLong generation = new AtomicLong();
+
+	private int iterations = 1000;
+	private int maxEntries = 10000;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong stores = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connector connector to wrap
+	 * @param ttl how long accepted credentials are remembered
+	 * @param unit unit of time to live
+	 */
+	public CredentialCachingConnector(Connector connector, long ttl, TimeUnit unit) {
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("Time to live must be greater than zero.");
+		}
+		this.connector = connector;
+		this.ttlNanos = unit.toNanos(ttl);
+	}
+
+	/**
+	 * Wrap a connector, giving an {@link IncrementalConnector} if the wrapped
+	 * connector is one.
+	 *
+	 * @param connector connector to wrap
+	 * @param ttl how long accepted credentials are remembered
+	 * @param unit unit of time to live
+	 * @return caching connector
+	 */
+	public static CredentialCachingConnector wrap(Connector connector, long ttl, TimeUnit unit) {
+		if (connector instanceof IncrementalConnector) {
+			return new Incremental((IncrementalConnector) connector, ttl, unit);
+		}
+		return new CredentialCachingConnector(connector, ttl, unit);
+	}
+
+	/**
+	 * Get the wrapped connector.
+	 *
+	 * @return connector
+	 */
+	public Connector getConnector() {
+		return connector;
+	}
+
+	/**
+	 * Set the number of PBKDF2 iterations used to digest passwords. More make
+	 * a copy of the cache harder to attack, but every check, cached or not,
+	 * pays for them. The default is 1000.
+	 *
+	 * @param iterations iterations
+	 */
+	public void setIterations(int iterations) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("There must be at least one iteration.");
+		}
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Set the maximum number of users whose credentials are remembered at
+	 * once. When full, expired credentials are dropped, and if that does not
+	 * make room, newly accepted credentials are not cached. The default is
+	 * 10000.
+	 *
+	 * @param maxEntries maximum entries
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Forget the cached credentials of a user, both those cached under the
+	 * given name and those whose user name resolved to an identity of that
+	 * principal name.
+	 *
+	 * @param principalName user or principal name
+	 */
+	public void invalidate(String principalName) {
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+		entries.remove(principalName);
+		for (Iterator<Entry> entryIterator = entries.values().iterator(); entryIterator.hasNext();) {
+			if (principalName.equals(entryIterator.next().principalName)) {
+				entryIterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forget all cached credentials.
+	 */
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+		entries.clear();
+	}
+
+	/**
+	 * Get the number of checks answered from the cache.
+	 *
+	 * @return hit count
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of checks passed on to the wrapped connector.
+	 *
+	 * @return miss count
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the number of times accepted credentials were cached.
+	 *
+	 * @return store count
+	 */
+	public long getStoreCount() {
+		return stores.get();
+	}
+
+	/**
+	 * Get the number of times cached credentials were invalidated.
+	 *
+	 * @return invalidation count
+	 */
+	public long getInvalidationCount() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Get the number of users whose credentials are currently cached,
+	 * including any that have expired but not yet been dropped.
+	 *
+	 * @return size
+	 */
+	public int getSize() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return "CredentialCachingConnector [connector=" + connector + ", hits=" + getHitCount() + ", misses="
+				+ getMissCount() + ", stores=" + getStoreCount() + ", invalidations=" + getInvalidationCount() + ", size="
+				+ getSize() + "]";
+	}
+
+	/**
+	 * When the credentials are cached, looks the identity up without checking
+	 * the password again, so each caller gets its own, current identity. If
+	 * that identity is locked, disabled or expired, the cached credentials are
+	 * forgotten and the wrapped connector decides.
+	 */
+	@Override
+	public Identity logon(String username, char[] password) throws PrincipalNotFoundException,
+			InvalidLoginCredentialsException, ConnectorException {
+		if (!isCacheable(username, password)) {
+			return connector.logon(username, password);
+		}
+		if (lookup(username, password) != null) {
+			Identity identity = connector.getIdentityByName(username);
+			if (isEnabled(identity)) {
+				return identity;
+			}
+			invalidate(username, identity == null ? null : identity.getPrincipalName());
+		}
+		long started = generation.get();
+		Identity identity = connector.logon(username, password);
+		store(username, password, identity.getPrincipalName(), started);
+		return identity;
+	}
+
+	@Override
+	public boolean checkCredentials(String username, char[] password) throws ConnectorException {
+		if (!isCacheable(username, password)) {
+			return connector.checkCredentials(username, password);
+		}
+		if (lookup(username, password) != null) {
+			return true;
+		}
+		long started = generation.get();
+		boolean valid = connector.checkCredentials(username, password);
+		if (valid) {
+			store(username, password, getPrincipalName(username), started);
+		}
+		return valid;
+	}
+
+	@Override
+	public void changePassword(String username, String guid, char[] oldPassword, char[] password)
+			throws InvalidLoginCredentialsException, PrincipalNotFoundException, ConnectorException {
+		String principalName = getPrincipalName(username);
+		try {
+			connector.changePassword(username, guid, oldPassword, password);
+		} finally {
+			invalidate(username, principalName);
+		}
+	}
+
+	@Override
+	public void setPassword(String username, String guid, char[] password, boolean forcePasswordChangeAtLogon)
+			throws InvalidLoginCredentialsException, PrincipalNotFoundException, ConnectorException {
+		String principalName = getPrincipalName(username);
+		try {
+			connector.setPassword(username, guid, password, forcePasswordChangeAtLogon);
+		} finally {
+			invalidate(username, principalName);
+		}
+	}
+
+	@Override
+	public void setPassword(String username, String guid, char[] password, boolean forcePasswordChangeAtLogon,
+			PasswordResetType resetType) throws InvalidLoginCredentialsException, PrincipalNotFoundException,
+			ConnectorException {
+		String principalName = getPrincipalName(username);
+		try {
+			connector.setPassword(username, guid, password, forcePasswordChangeAtLogon, resetType);
+		} finally {
+			invalidate(username, principalName);
+		}
+	}
+
+	@Override
+	public void lockIdentity(Identity identity) {
+		try {
+			connector.lockIdentity(identity);
+		} finally {
+			invalidate(identity.getPrincipalName());
+		}
+	}
+
+	@Override
+	public void disableIdentity(Identity identity) {
+		try {
+			connector.disableIdentity(identity);
+		} finally {
+			invalidate(identity.getPrincipalName());
+		}
+	}
+
+	@Override
+	public void updateIdentity(Identity identity) throws ConnectorException {
+		try {
+			connector.updateIdentity(identity);
+		} finally {
+			invalidate(identity.getPrincipalName());
+		}
+	}
+
+	@Override
+	public void deleteIdentity(String principleName) throws ConnectorException {
+		try {
+			connector.deleteIdentity(principleName);
+		} finally {
+			invalidate(principleName);
+		}
+	}
+
+	@Override
+	public void open(ConnectorConfigurationParameters parameters) {
+		invalidateAll();
+		connector.open(parameters);
+	}
+
+	@Override
+	public void close() {
+		invalidateAll();
+		connector.close();
+	}
+
+	@Override
+	public void reopen() {
+		invalidateAll();
+		connector.reopen();
+	}
+
+	@Override
+	public Set<ConnectorCapability> getCapabilities() {
+		return connector.getCapabilities();
+	}
+
+	@Override
+	public PasswordCharacteristics getPasswordCharacteristics() {
+		return connector.getPasswordCharacteristics();
+	}
+
+	@Override
+	public Iterator<? extends PasswordCharacteristics> getPasswordPolicies() {
+		return connector.getPasswordPolicies();
+	}
+
+	@Override
+	public WebAuthenticationAPI<? extends ConnectorConfigurationParameters> startAuthentication()
+			throws ConnectorException {
+		return connector.startAuthentication();
+	}
+
+	@Override
+	public Iterator<Identity> allIdentities() throws ConnectorException {
+		return connector.allIdentities();
+	}
+
+	@Override
+	public Iterator<Identity> allIdentities(Projection projection) throws ConnectorException {
+		return connector.allIdentities(projection);
+	}
+
+	@Override
+	public long countIdentities() throws ConnectorException {
+		return connector.countIdentities();
+	}
+
+	@Override
+	public boolean isIdentityNameInUse(String identityName) throws ConnectorException {
+		return connector.isIdentityNameInUse(identityName);
+	}
+
+	@Override
+	public Identity getIdentityByName(String identityName) throws PrincipalNotFoundException, ConnectorException {
+		return connector.getIdentityByName(identityName);
+	}
+
+	@Override
+	public Iterator<Role> allRoles() throws ConnectorException {
+		return connector.allRoles();
+	}
+
+	@Override
+	public long countRoles() throws ConnectorException {
+		return connector.countRoles();
+	}
+
+	@Override
+	public boolean isRoleNameInUse(String roleName) throws ConnectorException {
+		return connector.isRoleNameInUse(roleName);
+	}
+
+	@Override
+	public Role getRoleByName(String roleName) throws PrincipalNotFoundException, ConnectorException {
+		return connector.getRoleByName(roleName);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return connector.isOpen();
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return connector.isReadOnly();
+	}
+
+	@Override
+	public Identity createIdentity(Identity identity, char[] password) throws ConnectorException {
+		return connector.createIdentity(identity, password);
+	}
+
+	@Override
+	public Role createRole(Role role) throws ConnectorException {
+		return connector.createRole(role);
+	}
+
+	@Override
+	public void updateRole(Role role) throws ConnectorException {
+		connector.updateRole(role);
+	}
+
+	@Override
+	public void deleteRole(String principleName) throws ConnectorException {
+		connector.deleteRole(principleName);
+	}
+
+	@Override
+	public void unlockIdentity(Identity identity) {
+		connector.unlockIdentity(identity);
+	}
+
+	@Override
+	public void enableIdentity(Identity identity) {
+		connector.enableIdentity(identity);
+	}
+
+	@Override
+	public void install(Map<String, String> properties) throws Exception {
+		connector.install(properties);
+	}
+
+	private void invalidate(String username, String principalName) {
+		invalidate(username);
+		if (principalName != null && !principalName.equals(username)) {
+			invalidate(principalName);
+		}
+	}
+
+	/*
+	 * The principal name of the identity a user name resolves to, or null if
+	 * it does not
+	 */
+	private String getPrincipalName(String username) {
+		try {
+			Identity identity = connector.getIdentityByName(username);
+			return identity == null ? null : identity.getPrincipalName();
+		} catch (PrincipalNotFoundException pnfe) {
+			return null;
+		}
+	}
+
+	private static boolean isEnabled(Identity identity) {
+		if (identity == null) {
+			return false;
+		}
+		AccountStatus status = identity.getAccountStatus();
+		return status == null || (!status.isDisabled() && status.getType() == AccountStatusType.unlocked);
+	}
+
+	/*
+	 * Empty passwords are left to the wrapped connector, as some directories
+	 * treat them as an anonymous bind
+	 */
+	private boolean isCacheable(String username, char[] password) {
+		return username != null && password != null && password.length > 0;
+	}
+
+	private Entry lookup(String username, char[] password) {
+		Entry entry = entries.get(username);
+		if (entry != null) {
+			if (System.nanoTime() - entry.expires >= 0) {
+				entries.remove(username, entry);
+				entry = null;
+			} else if (!MessageDigest.isEqual(entry.digest, digest(password, entry.salt))) {
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/*
+	 * Credentials accepted while an invalidation happened may have been
+	 * checked against the old password, so are not kept. The generation is
+	 * checked again after the put in case the invalidation ran in between
+	 */
+	private void store(String username, char[] password, String principalName, long started) {
+		if (principalName == null) {
+			return;
+		}
+		if (entries.size() >= maxEntries) {
+			purgeExpired();
+			if (entries.size() >= maxEntries) {
+				return;
+			}
+		}
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		Entry entry = new Entry(principalName, salt, digest(password, salt), System.nanoTime() + ttlNanos);
+		if (generation.get() != started) {
+			return;
+		}
+		entries.put(username, entry);
+		if (generation.get() != started) {
+			entries.remove(username, entry);
+		} else {
+			stores.incrementAndGet();
+		}
+	}
+
+	private void purgeExpired() {
+		long now = System.nanoTime();
+		for (Iterator<Entry> entryIterator = entries.values().iterator(); entryIterator.hasNext();) {
+			if (now - entryIterator.next().expires >= 0) {
+				entryIterator.remove();
+			}
+		}
+	}
+
+	private byte[] digest(char[] password, byte[] salt) {
+		PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_LENGTH);
+		try {
+			return SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new ConnectorException("Failed to digest credentials.", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Caching connector for an {@link IncrementalConnector}, see
+	 * {@link CredentialCachingConnector#wrap(Connector, long, TimeUnit)}.
+	 */
+	public static class Incremental extends CredentialCachingConnector implements IncrementalConnector {
+
+		/**
+		 * Constructor.
+		 *
+		 * @param connector connector to wrap
+		 * @param ttl how long accepted credentials are remembered
+		 * @param unit unit of time to live
+		 */
+		public Incremental(IncrementalConnector connector, long ttl, TimeUnit unit) {
+			super(connector, ttl, unit);
+		}
+
+		@Override
+		public ChangeSet changesSince(SyncToken token) throws ConnectorException {
+			ChangeSet changes = ((IncrementalConnector) getConnector()).changesSince(token);
+			// A full listing does not say what changed
+			if (changes.isFull()) {
+				invalidateAll();
+			} else {
+				for (Identity identity : changes.getModifiedIdentities()) {
+					invalidate(identity.getPrincipalName());
+				}
+			}
+			return changes;
+		}
+	}
+
+	private static final class Entry {
+		private final String principalName;
+		private final byte[] salt;
+		private final byte[] digest;
+		private final long expires;
+
+		private Entry(String principalName, byte[] salt, byte[] digest, long expires) {
+			this.principalName = principalName;
+			this.salt = salt;
+			this.digest = digest;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/* HEADER */
+package com.identity4j.connector;
+
+import com.identity4j.connector.exception.ConnectorException;
+
+/**
+ * Implemented by connectors that can report the changes made to their
+ * principals since a previous synchronisation, rather than requiring a full
+ * enumeration of {@link Connector#allIdentities()} and
+ * {@link Connector#allRoles()} every time. Such connectors should also
+ * advertise {@link ConnectorCapability#incrementalSync}.
+ * <p>
+ * A synchronisation starts by passing <code>null</code>, which returns every
+ * principal as added along with the first {@link SyncToken}. Each subsequent
+ * call is passed the token returned by the previous call.
+ */
+public interface IncrementalConnector extends Connector {
+
+	/**
+	 * Get the principals that have been added, modified or deleted since the
+	 * provided token was issued. If the token is <code>null</code>, or can no
+	 * longer be used by the connector, a full listing is returned and
+	 * {@link ChangeSet#isFull()} will be <code>true</code>.
+	 * 
+	 * @param token token returned by a previous call or <code>null</code>
+	 * @return changes, including the token to use for the next call
+	 * @throws ConnectorException on any error
+	 */
+	ChangeSet changesSince(SyncToken token) throws ConnectorException;
+}
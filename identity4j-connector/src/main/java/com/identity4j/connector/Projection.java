@@ -0,0 +1,128 @@
+/* HEADER */
+package com.identity4j.connector;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Describes which parts of an {@link com.identity4j.connector.principal.Identity}
+ * a caller actually needs, allowing a connector to retrieve and map less. The
+ * GUID and principal name are always returned. Other parts are named either
+ * by one of the constants in this class, or by a connector specific attribute
+ * name. Names are case insensitive.
+ * <p>
+ * A projection is only a hint, connectors may return more than was asked
+ * for.
+ */
+public final class Projection implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Full name
+	 */
+	public static final String FULL_NAME = "fullName";
+	/**
+	 * Other name
+	 */
+	public static final String OTHER_NAME = "otherName";
+	/**
+	 * E-mail address
+	 */
+	public static final String EMAIL = "email";
+	/**
+	 * Mobile number
+	 */
+	public static final String MOBILE = "mobile";
+	/**
+	 * Account status
+	 */
+	public static final String ACCOUNT_STATUS = "accountStatus";
+	/**
+	 * Password status
+	 */
+	public static final String PASSWORD_STATUS = "passwordStatus";
+	/**
+	 * Last sign on date
+	 */
+	public static final String LAST_SIGN_ON = "lastSignOn";
+	/**
+	 * Role membership
+	 */
+	public static final String ROLES = "roles";
+
+	/**
+	 * Everything the connector can provide.
+	 */
+	public static final Projection ALL = new Projection((Collection<String>) null);
+
+	/**
+	 * Only the GUID and principal name.
+	 */
+	public static final Projection NONE = new Projection();
+
+	private final Set<String> attributes;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param attributes names of parts required
+	 */
+	public Projection(String... attributes) {
+		this(Arrays.asList(attributes));
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param attributes names of parts required, or <code>null</code> for
+	 *            everything
+	 */
+	public Projection(Collection<String> attributes) {
+		if (attributes == null) {
+			this.attributes = null;
+		} else {
+			Set<String> set = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+			set.addAll(attributes);
+			this.attributes = Collections.unmodifiableSet(set);
+		}
+	}
+
+	/**
+	 * Get if everything is required.
+	 * 
+	 * @return all
+	 */
+	public boolean isAll() {
+		return attributes == null;
+	}
+
+	/**
+	 * Get if a part is required.
+	 * 
+	 * @param attribute name of part
+	 * @return required
+	 */
+	public boolean includes(String attribute) {
+		return attributes == null || attributes.contains(attribute);
+	}
+
+	/**
+	 * Get the names of the required parts. Will be <code>null</code> if
+	 * everything is required.
+	 * 
+	 * @return names of required parts
+	 */
+	public Set<String> getAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public String toString() {
+		return attributes == null ? "Projection [ALL]" : "Projection " + attributes;
+	}
+}
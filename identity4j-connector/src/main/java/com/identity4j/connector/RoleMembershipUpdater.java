@@ -0,0 +1,80 @@
+/* HEADER */
+package com.identity4j.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.util.CollectionUtil;
+
+/**
+ * Brings the roles of an identity in line with the roles it should have, for
+ * connectors whose remote API adds or removes one role per call. The calls
+ * are independent of each other, so they are returned as tasks to be run
+ * concurrently, e.g. by
+ * <code>HttpRequestHandler.invokeAll(Collection)</code>.
+ */
+public abstract class RoleMembershipUpdater {
+
+	/**
+	 * Get the calls that add the roles an identity is missing and remove the
+	 * roles it should no longer have.
+	 *
+	 * @param current identity as it currently is
+	 * @param wanted identity with the roles it should have
+	 * @return calls
+	 */
+	public List<Callable<Void>> getCalls(Identity current, Identity wanted) {
+		Set<Role> rolesCurrentlyAssigned = new HashSet<Role>(Arrays.asList(current.getRoles()));
+		Set<Role> rolesToBeAssigned = new HashSet<Role>(Arrays.asList(wanted.getRoles()));
+
+		Collection<Role> newRolesToAdd = CollectionUtil.objectsNotPresentInProbeCollection(rolesToBeAssigned,
+			rolesCurrentlyAssigned);
+		Collection<Role> rolesToRemove = CollectionUtil.objectsNotPresentInProbeCollection(rolesCurrentlyAssigned,
+			rolesToBeAssigned);
+
+		final String guidUser = wanted.getGuid();
+		List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+		for (final Role role : newRolesToAdd) {
+			calls.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					addRoleToUser(role.getGuid(), guidUser);
+					return null;
+				}
+			});
+		}
+		for (final Role role : rolesToRemove) {
+			calls.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					removeRoleFromUser(role.getGuid(), guidUser);
+					return null;
+				}
+			});
+		}
+		return calls;
+	}
+
+	/**
+	 * Add a role to an identity.
+	 *
+	 * @param guidRole GUID of role
+	 * @param guidUser GUID of identity
+	 */
+	protected abstract void addRoleToUser(String guidRole, String guidUser);
+
+	/**
+	 * Remove a role from an identity.
+	 *
+	 * @param guidRole GUID of role
+	 * @param guidUser GUID of identity
+	 */
+	protected abstract void removeRoleFromUser(String guidRole, String guidUser);
+}
@@ -0,0 +1,53 @@
+/* HEADER */
+package com.identity4j.connector;
+
+import java.io.Serializable;
+
+/**
+ * An opaque marker returned by {@link IncrementalConnector#changesSince(SyncToken)}
+ * that records how far a synchronisation has got. The value only has meaning
+ * to the connector that issued it, but may be persisted by the caller (for
+ * example using {@link #getValue()}) and used to resume synchronisation later.
+ */
+public class SyncToken implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String value;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param value connector specific value
+	 */
+	public SyncToken(String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Token value may not be null");
+		}
+		this.value = value;
+	}
+
+	/**
+	 * Get the connector specific value of this token.
+	 * 
+	 * @return value
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public int hashCode() {
+		return value.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof SyncToken && value.equals(((SyncToken) obj).value);
+	}
+
+	@Override
+	public String toString() {
+		return value;
+	}
+}
@@ -48,6 +48,7 @@ public class IdentityImpl extends AbstractPrincipal implements Identity {
 	}
 
 	public final boolean memberOf(Role role) {
+		loadRoles();
 		if (roles.isEmpty()) {
 			return false;
 		}
@@ -61,10 +62,12 @@ public class IdentityImpl extends AbstractPrincipal implements Identity {
 	}
 
 	public final Role[] getRoles() {
+		loadRoles();
 		return roles.toArray(new Role[roles.size()]);
 	}
 
 	public final synchronized void setRoles(Role[] roles) {
+		loadRoles();
 		for (Role role : roles) {
 			if (role == null) {
 				throw new IllegalArgumentException("Role array may not contain null roles");
@@ -81,6 +84,7 @@ public class IdentityImpl extends AbstractPrincipal implements Identity {
 		if (role == null) {
 			throw new IllegalArgumentException("May not add null role");
 		}
+		loadRoles();
 		roles.add(role);
 	}
 
@@ -90,6 +94,7 @@ public class IdentityImpl extends AbstractPrincipal implements Identity {
 	 * @param roles roles
 	 */
 	public final void setRoles(Collection<? extends Role> roles) {
+		loadRoles();
 		for (Role role : roles) {
 			if (role == null) {
 				throw new IllegalArgumentException("Role array may not contain null roles");
@@ -99,6 +104,13 @@ public class IdentityImpl extends AbstractPrincipal implements Identity {
 		this.roles.addAll(roles);
 	}
 
+	/**
+	 * Called before the roles are read or changed, so that subclasses may
+	 * load them on first use. Does nothing by default.
+	 */
+	protected void loadRoles() {
+	}
+
 	@Override
 	public final boolean equals(Object obj) {
 		if (!(obj instanceof Identity)) {
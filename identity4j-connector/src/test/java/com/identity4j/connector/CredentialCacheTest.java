@@ -0,0 +1,210 @@
+/* HEADER */
+package com.identity4j.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.InvalidLoginCredentialsException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Role;
+
+public class CredentialCacheTest {
+
+	private CountingConnector connector;
+	private CredentialCachingConnector cache;
+
+	@Before
+	public void setUp() {
+		connector = new CountingConnector();
+		cache = new CredentialCachingConnector(connector, 1, TimeUnit.MINUTES);
+		cache.setIterations(10);
+	}
+
+	@Test
+	public void cachesAcceptedCredentials() {
+		assertEquals("user", cache.logon("user", "secret".toCharArray()).getPrincipalName());
+		assertEquals("user", cache.logon("user", "secret".toCharArray()).getPrincipalName());
+		assertTrue(cache.checkCredentials("user", "secret".toCharArray()));
+		assertEquals(1, connector.checks);
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getStoreCount());
+	}
+
+	@Test
+	public void neverCachesRejectedCredentials() {
+		assertFalse(cache.checkCredentials("user", "guess".toCharArray()));
+		assertFalse(cache.checkCredentials("user", "guess".toCharArray()));
+		assertFalse(cache.checkCredentials("nobody", "secret".toCharArray()));
+		assertTrue(cache.checkCredentials("user", "secret".toCharArray()));
+		assertFalse(cache.checkCredentials("user", "guess".toCharArray()));
+		assertEquals(4, connector.checks);
+		assertEquals(0, cache.getHitCount());
+		assertEquals(5, cache.getMissCount());
+	}
+
+	@Test
+	public void forgetsCredentialsWhenPasswordIsSet() {
+		assertTrue(cache.checkCredentials("user", "secret".toCharArray()));
+		cache.setPassword("user", "guid", "changed".toCharArray(), false);
+		assertFalse(cache.checkCredentials("user", "secret".toCharArray()));
+		assertTrue(cache.checkCredentials("user", "changed".toCharArray()));
+		assertEquals(3, connector.checks);
+	}
+
+	@Test
+	public void forgetsCredentialsCachedUnderAnotherName() {
+		assertTrue(cache.checkCredentials("USER", "secret".toCharArray()));
+		assertTrue(cache.checkCredentials("User", "secret".toCharArray()));
+		cache.setPassword("user", "guid", "changed".toCharArray(), false);
+		assertFalse(cache.checkCredentials("USER", "secret".toCharArray()));
+		assertFalse(cache.checkCredentials("User", "secret".toCharArray()));
+		assertEquals(4, connector.checks);
+	}
+
+	@Test
+	public void returnsCurrentIdentityForCachedLogon() {
+		cache.logon("user", "secret".toCharArray());
+		connector.user = new IdentityImpl("guid", "user");
+		assertSame(connector.user, cache.logon("user", "secret".toCharArray()));
+		assertEquals(1, connector.checks);
+	}
+
+	@Test
+	public void forgetsCredentialsWhenIdentityIsDisabled() {
+		Identity identity = cache.logon("user", "secret".toCharArray());
+		cache.disableIdentity(identity);
+		try {
+			cache.logon("user", "secret".toCharArray());
+		} catch (InvalidLoginCredentialsException ilce) {
+			assertEquals(2, connector.checks);
+			return;
+		}
+		throw new AssertionError("Disabled identity logged on");
+	}
+
+	@Test
+	public void failsOverWhenIdentityIsDisabledElsewhere() {
+		cache.logon("user", "secret".toCharArray());
+		connector.disabled = true;
+		connector.user.getAccountStatus().setDisabled(true);
+		try {
+			cache.logon("user", "secret".toCharArray());
+		} catch (InvalidLoginCredentialsException ilce) {
+			assertEquals(2, connector.checks);
+			assertEquals(0, cache.getSize());
+			return;
+		}
+		throw new AssertionError("Disabled identity logged on");
+	}
+
+	@Test
+	public void staysIncremental() {
+		IncrementalCountingConnector incremental = new IncrementalCountingConnector();
+		assertFalse(CredentialCachingConnector.wrap(connector, 1, TimeUnit.MINUTES) instanceof IncrementalConnector);
+		cache = CredentialCachingConnector.wrap(incremental, 1, TimeUnit.MINUTES);
+		cache.setIterations(10);
+		assertTrue(cache.checkCredentials("user", "secret".toCharArray()));
+
+		IncrementalConnector sync = (IncrementalConnector) cache;
+		ChangeSet changes = sync.changesSince(new SyncToken("1"));
+		assertSame(incremental.changes, changes);
+		assertEquals(1, cache.getSize());
+
+		incremental.changes.getModifiedIdentities().add(incremental.getIdentityByName("user"));
+		sync.changesSince(new SyncToken("1"));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void expiresCredentials() throws InterruptedException {
+		cache = new CredentialCachingConnector(connector, 1, TimeUnit.MILLISECONDS);
+		assertTrue(cache.checkCredentials("user", "secret".toCharArray()));
+		Thread.sleep(5);
+		assertTrue(cache.checkCredentials("user", "secret".toCharArray()));
+		assertEquals(2, connector.checks);
+	}
+
+	private static class IncrementalCountingConnector extends CountingConnector implements IncrementalConnector {
+		private final ChangeSet changes = new ChangeSet(false);
+
+		@Override
+		public ChangeSet changesSince(SyncToken token) throws ConnectorException {
+			return changes;
+		}
+	}
+
+	private static class CountingConnector extends AbstractConnector {
+		private Identity user = new IdentityImpl("guid", "user");
+		private String password = "secret";
+		private boolean disabled;
+		private int checks;
+
+		@Override
+		public Identity getIdentityByName(String name) throws PrincipalNotFoundException, ConnectorException {
+			if (!name.equalsIgnoreCase(user.getPrincipalName())) {
+				throw new PrincipalNotFoundException(name + " not found.");
+			}
+			return user;
+		}
+
+		@Override
+		protected boolean areCredentialsValid(Identity identity, char[] password) throws ConnectorException {
+			checks++;
+			return !disabled && this.password.equals(new String(password));
+		}
+
+		@Override
+		protected void setPassword(Identity identity, char[] password, boolean forcePasswordChangeAtLogon,
+				PasswordResetType type) throws ConnectorException {
+			this.password = new String(password);
+		}
+
+		@Override
+		public void disableIdentity(Identity identity) {
+			disabled = true;
+		}
+
+		@Override
+		public Set<ConnectorCapability> getCapabilities() {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public Iterator<Identity> allIdentities() throws ConnectorException {
+			return Collections.singletonList(user).iterator();
+		}
+
+		@Override
+		public Iterator<Role> allRoles() throws ConnectorException {
+			return Collections.<Role> emptyList().iterator();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public boolean isReadOnly() {
+			return false;
+		}
+
+		@Override
+		protected void onOpen(ConnectorConfigurationParameters parameters) throws ConnectorException {
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.identity4j.connector.flatfile;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -8,9 +9,13 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -20,20 +25,68 @@ public abstract class AbstractFlatFile {
     static final Log LOG = LogFactory.getLog(AbstractFlatFile.class);
 
     // Internal representation of file content
-    private final List<List<String>> contents = new ArrayList<List<String>>();
-    private final Map<Integer, Map<String, List<String>>> index = new HashMap<Integer, Map<String, List<String>>>();
+    private RowStore store = new ListRowStore();
+    private final List<Integer> indexColumns = new ArrayList<Integer>();
     private boolean firstRowIsHeading;
     private final List<Column> columns = new ArrayList<Column>();
     private char escapeCharacter;
     private Filter filter;
 
+    // Write-behind journal
+    private static Timer flushTimer;
+    private long flushInterval;
+    private boolean pendingRewrite;
+    private final SortedSet<Integer> pendingRows = new TreeSet<Integer>();
+    private TimerTask flushTask;
+
+    // Rows changed since the last write by key, null if removed, so they can
+    // be applied again if the file is changed by something else
+    private final Map<String, List<String>> pendingKeys = new LinkedHashMap<String, List<String>>();
+    private boolean pendingUnkeyed;
+
     /**
      * Get the entire file content model
      * 
      * @return all rows
      */
     public List<List<String>> getContents() {
-        return contents;
+        return store.getRows();
+    }
+
+    /**
+     * Set whether rows should be held in compact storage. Rather than
+     * holding each row as a list of strings, the raw file content is kept
+     * once along with the offsets of each field, and values are decoded when
+     * they are read. This uses much less memory for large files, at the cost
+     * of decoding values on each access. Only delimited files in ASCII
+     * compatible character sets are loaded this way, other files continue to
+     * use ordinary lists.
+     * <p>
+     * Changing the storage discards any loaded rows.
+     * 
+     * @param compactStorage compact storage
+     */
+    public void setCompactStorage(boolean compactStorage) {
+        if (compactStorage != isCompactStorage()) {
+            store = compactStorage ? new CompactRowStore() : new ListRowStore();
+            for (Integer column : indexColumns) {
+                store.addIndex(column);
+            }
+        }
+    }
+
+    /**
+     * Get whether rows are held in compact storage.
+     * 
+     * @return compact storage
+     * @see #setCompactStorage(boolean)
+     */
+    public boolean isCompactStorage() {
+        return store instanceof CompactRowStore;
+    }
+
+    RowStore getStore() {
+        return store;
     }
 
     /**
@@ -103,14 +156,25 @@ public abstract class AbstractFlatFile {
     }
 
     public void addIndex(int column) {
-        if (index.containsKey(column)) {
+        if (indexColumns.contains(column)) {
             throw new IllegalArgumentException("Index already exists");
         }
-        index.put(column, new HashMap<String, List<String>>());
+        indexColumns.add(column);
+        store.addIndex(column);
     }
 
+    /**
+     * Get the index maps of column to key to row. Only available when rows
+     * are not in compact storage.
+     * 
+     * @return index
+     * @throws UnsupportedOperationException if compact storage is in use
+     */
     public Map<Integer, Map<String, List<String>>> getIndex() {
-        return index;
+        if (isCompactStorage()) {
+            throw new UnsupportedOperationException("Index maps are not available with compact storage");
+        }
+        return ((ListRowStore) store).getIndex();
     }
 
     /**
@@ -121,15 +185,21 @@ public abstract class AbstractFlatFile {
      * @return
      */
     public List<String> getRowByKeyField(int indexColumn, String keyFieldValue) {
-        final Map<String, List<String>> map = index.get(indexColumn);
-        return map.get(keyFieldValue);
+        return store.getRowByKeyField(indexColumn, keyFieldValue);
     }
 
-    public void clear() {
-        contents.clear();
-        for (Map<String, List<String>> rowIndex : index.values()) {
-            rowIndex.clear();
+    /**
+     * Discard all rows.
+     * 
+     * @throws IllegalStateException if there are changes that have not yet
+     *             been written, which must be flushed first
+     */
+    public synchronized void clear() {
+        if (isDirty()) {
+            throw new IllegalStateException("There are changes that have not been written, flush them first.");
         }
+        store.clear();
+        discardChanges();
     }
 
     /**
@@ -139,28 +209,279 @@ public abstract class AbstractFlatFile {
      * @param charsetName
      * @throws IOException
      */
-    public final void load(InputStream inputStream, String charsetName) throws IOException {
+    public final synchronized void load(InputStream inputStream, String charsetName) throws IOException {
         clear();
         onLoad(inputStream, charsetName);
     }
 
     /**
-     * Wrapper around writeRow to write a single row into the file
+     * Load the file from its entire content using the character encoding
+     * 
+     * @param data content
+     * @param charsetName
+     * @throws IOException
+     */
+    public final synchronized void load(byte[] data, String charsetName) throws IOException {
+        clear();
+        onLoad(data, charsetName);
+    }
+
+    /**
+     * Set how long changes may be held in memory before they are written to
+     * the file, in milliseconds. Changes made within the interval are
+     * coalesced into a single write. With an interval of zero, the default,
+     * every change is written immediately.
+     * 
+     * @param flushInterval flush interval in milliseconds
+     */
+    public synchronized void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Get how long changes may be held in memory before they are written to
+     * the file, in milliseconds.
+     * 
+     * @return flush interval in milliseconds
+     * @see #setFlushInterval(long)
+     */
+    public synchronized long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Get whether there are changes that have not yet been written to the
+     * file.
+     * 
+     * @return dirty
+     */
+    public synchronized boolean isDirty() {
+        return pendingRewrite || !pendingRows.isEmpty();
+    }
+
+    /**
+     * Wrapper around writeRow to write a single row into the file. If the
+     * row has already been added and other changes are waiting to be
+     * written, it is written along with them.
      * 
      * @param row to write
      * @throws IOException
      */
-    public void appendRow(List<String> row) throws IOException {
-        writeRows(Collections.singletonList(row), true);
+    public synchronized void appendRow(List<String> row) throws IOException {
+        if (isDirty() && store.indexOf(row) != -1) {
+            pendingRewrite = true;
+            recordKey(row);
+            changed();
+        } else {
+            flush();
+            writeRows(Collections.singletonList(row), true);
+        }
+    }
+
+    /**
+     * Record that a single row has changed. Only that row need be written,
+     * and if its length is unchanged an implementation may patch it in
+     * place.
+     * 
+     * @param row changed row
+     * @throws IOException
+     */
+    public synchronized void writeRow(List<String> row) throws IOException {
+        recordKey(row);
+        int position = store.indexOf(row);
+        if (position == -1) {
+            pendingRewrite = true;
+        } else if (!pendingRewrite) {
+            pendingRows.add(position);
+        }
+        changed();
+    }
+
+    /**
+     * Wrapper around writeRows to write many rows to the file. As any row may
+     * have changed, changes made to the file by something else since it was
+     * loaded cannot be merged, and the write will fail if there are any. Use
+     * {@link #writeRows(Collection)} where the changed rows are known.
+     * 
+     * @throws IOException
+     */
+    public synchronized void writeRows() throws IOException {
+        pendingUnkeyed = true;
+        pendingRewrite = true;
+        pendingRows.clear();
+        changed();
     }
 
     /**
-     * Wrapper around writeRows to write many rows to the file
+     * Write the whole file, recording that the given rows have been added or
+     * changed. Rows removed with {@link #remove(List)} are recorded as they
+     * are removed, so need not be passed.
      * 
+     * @param rows added or changed rows
      * @throws IOException
      */
-    public void writeRows() throws IOException {
-        writeRows(contents, false);
+    public synchronized void writeRows(Collection<? extends List<String>> rows) throws IOException {
+        for (List<String> row : rows) {
+            recordKey(row);
+        }
+        pendingRewrite = true;
+        pendingRows.clear();
+        changed();
+    }
+
+    /**
+     * Write any changes that have not yet been written to the file. If the
+     * file has been changed by something else since it was loaded, it is
+     * loaded again and the changed rows applied to it by key before it is
+     * written, or if that is not possible the write fails.
+     * 
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        if (isDirty() && isChangedExternally()) {
+            merge();
+        }
+        if (pendingRewrite || !pendingRows.isEmpty() && !writeChangedRows(pendingRows)) {
+            writeRows(getContents(), false);
+        }
+        discardChanges();
+    }
+
+    /**
+     * Write only the rows at the given positions, if possible. The default
+     * implementation does nothing, so the whole file is written.
+     * 
+     * @param positions positions of changed rows
+     * @return <code>true</code> if the rows were written
+     * @throws IOException
+     */
+    protected boolean writeChangedRows(SortedSet<Integer> positions) throws IOException {
+        return false;
+    }
+
+    /**
+     * Get whether the file has been changed by something else since it was
+     * loaded or last written. The default implementation cannot tell, so
+     * returns <code>false</code>.
+     * 
+     * @return changed externally
+     * @throws IOException
+     */
+    protected boolean isChangedExternally() throws IOException {
+        return false;
+    }
+
+    /**
+     * Load the file again, so changes not yet written can be applied to its
+     * current content. Only called when {@link #isChangedExternally()}
+     * returns <code>true</code>.
+     * 
+     * @throws IOException
+     */
+    protected void reload() throws IOException {
+        throw new IOException("Cannot reload " + this);
+    }
+
+    /**
+     * Load the file again and apply the changes not yet written to it by key,
+     * so changes made by something else are kept. The whole file is then
+     * written.
+     */
+    private void merge() throws IOException {
+        if (pendingUnkeyed || indexColumns.isEmpty()) {
+            IOException ioe = new IOException("The file was changed by something else, and the changes not yet written "
+                + "cannot be merged with it, so have not been written.");
+            LOG.error(ioe.getMessage());
+            throw ioe;
+        }
+        LOG.warn("The file was changed by something else, merging " + pendingKeys.size() + " changed rows.");
+
+        // Detach the rows from the current content before it is discarded
+        Map<String, List<String>> changes = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> en : pendingKeys.entrySet()) {
+            changes.put(en.getKey(), en.getValue() == null ? null : new ArrayList<String>(en.getValue()));
+        }
+        discardChanges();
+        try {
+            reload();
+        } finally {
+            pendingKeys.putAll(changes);
+            pendingRewrite = true;
+        }
+
+        int keyColumn = getRowIndex();
+        for (Map.Entry<String, List<String>> en : changes.entrySet()) {
+            List<String> current = store.getRowByKeyField(keyColumn, en.getKey());
+            if (en.getValue() == null) {
+                if (current != null) {
+                    store.remove(current);
+                }
+            } else if (current == null) {
+                add(en.getValue());
+            } else {
+                current.clear();
+                current.addAll(en.getValue());
+            }
+        }
+    }
+
+    private void recordKey(List<String> row) {
+        if (indexColumns.isEmpty() || row.size() <= getRowIndex()) {
+            pendingUnkeyed = true;
+        } else {
+            pendingKeys.put(row.get(getRowIndex()), row);
+        }
+    }
+
+    private void changed() throws IOException {
+        if (flushInterval <= 0) {
+            flush();
+        } else if (flushTask == null) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        flushTask = new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (AbstractFlatFile.this) {
+                    if (flushTask != this) {
+                        return;
+                    }
+                    flushTask = null;
+                    try {
+                        flush();
+                    } catch (Exception e) {
+                        LOG.error("Failed to write changes, will retry.", e);
+                        scheduleFlush();
+                    }
+                }
+            }
+        };
+        getFlushTimer().schedule(flushTask, flushInterval);
+    }
+
+    private void discardChanges() {
+        pendingRewrite = false;
+        pendingRows.clear();
+        pendingKeys.clear();
+        pendingUnkeyed = false;
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+    }
+
+    private static synchronized Timer getFlushTimer() {
+        if (flushTimer == null) {
+            flushTimer = new Timer("FlatFileFlush", true);
+        }
+        return flushTimer;
     }
 
     /**
@@ -182,7 +503,7 @@ public abstract class AbstractFlatFile {
      */
     protected void write(OutputStream out, List<String> row, String encoding) throws IOException {
         synchronized (out) {
-            IOUtils.writeLines(Collections.singletonList(rowToString(row)), null, out);
+            IOUtils.writeLines(Collections.singletonList(rowToString(row)), null, out, encoding);
         }
     }
 
@@ -196,6 +517,19 @@ public abstract class AbstractFlatFile {
 
     protected abstract void onLoad(InputStream inputStream, String charsetName) throws IOException;
 
+    /**
+     * Parse the entire content of the file. By default this is read as a
+     * stream, implementations that can parse the content directly should
+     * override this.
+     * 
+     * @param data content
+     * @param charsetName
+     * @throws IOException
+     */
+    protected void onLoad(byte[] data, String charsetName) throws IOException {
+        onLoad(new ByteArrayInputStream(data), charsetName);
+    }
+
     /**
      * Local class that represents a column. A file can be seen as rows
      * (horizontal lines of text) and columns of text. A column is separated by
@@ -229,54 +563,24 @@ public abstract class AbstractFlatFile {
         }
     }
 
-    public boolean add(List<String> row) {
+    public synchronized boolean add(List<String> row) {
         if (filter == null || filter.include(row)) {
-            if (!contents.add(row)) {
-                return false;
-            } else {
-                for (Integer indexColumn : index.keySet()) {
-                    if (row.size() > indexColumn) {
-                        Map<String, List<String>> rowMap = index.get(indexColumn);
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Adding index " + indexColumn + "/" + row.get(indexColumn));
-                        }
-                        rowMap.put(row.get(indexColumn), row);
-                    }
-                }
-            }
-            return true;
+            return store.add(row);
         }
         return false;
     }
 
-    public boolean remove(List<String> row) {
-        if (!contents.remove(row)) {
-            return false;
-        } else {
-            for (Integer indexColumn : index.keySet()) {
-                if (row.size() > indexColumn) {
-                    Map<String, List<String>> rowMap = index.get(indexColumn);
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Removing index " + indexColumn + "/" + row.get(indexColumn));
-                    }
-                    rowMap.remove(row.get(indexColumn));
-                }
+    public synchronized boolean remove(List<String> row) {
+        if (store.remove(row)) {
+            if (indexColumns.isEmpty() || row.size() <= getRowIndex()) {
+                pendingUnkeyed = true;
+            } else {
+                pendingKeys.put(row.get(getRowIndex()), null);
             }
+            rowsMoved();
+            return true;
         }
-        return true;
-    }
-
-    /**
-     * Get stored rows. A row represents a line in a file which is now
-     * internally captured within a map
-     * 
-     * @return row identifier, row
-     */
-    private Map<String, List<String>> getAllRows() {
-
-        // determine which is the row index and use it to get the rows out
-        Integer rowIndex = getRowIndex();
-        return index.get(rowIndex);
+        return false;
     }
 
     /**
@@ -285,7 +589,7 @@ public abstract class AbstractFlatFile {
      * @return
      */
     private Integer getRowIndex() {
-        return index.keySet().iterator().next();
+        return indexColumns.get(0);
     }
 
     /**
@@ -296,11 +600,15 @@ public abstract class AbstractFlatFile {
      */
     public boolean remove(String principalName) {
         final List<String> row = getRowByKeyField(getRowIndex(), principalName);
-        if (!contents.remove(row)) {
-            return false;
+        return row != null && remove(row);
+    }
+
+    private void rowsMoved() {
+        // Recorded positions are no longer valid
+        if (!pendingRows.isEmpty()) {
+            pendingRewrite = true;
+            pendingRows.clear();
         }
-        getAllRows().remove(principalName);
-        return true;
     }
 
     /**
@@ -309,7 +617,7 @@ public abstract class AbstractFlatFile {
      * @return
      */
     public int size() {
-        return contents.size();
+        return store.size();
     }
 
     /**
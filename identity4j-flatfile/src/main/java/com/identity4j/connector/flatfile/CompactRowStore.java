@@ -0,0 +1,522 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory efficient {@link RowStore} for delimited files. The raw bytes of
+ * the file are kept once, along with the offset of every field, and field
+ * values are only decoded into strings when they are read. Indexes are open
+ * addressed hash tables of row ordinals, so cost a few ints per row rather
+ * than a map entry, key string and list per row.
+ * <p>
+ * Rows are returned as lightweight views. The first time a row is modified,
+ * or if it was added after loading, its values are held in an ordinary list
+ * instead.
+ * <p>
+ * Only character sets in which the line terminators, field separator and
+ * escape character are single bytes that cannot appear within any other
+ * character are supported, see {@link #isSupported(String, char, char)}.
+ */
+class CompactRowStore implements RowStore {
+
+	private static final int[] EMPTY = new int[0];
+
+	private final Map<Integer, OpenIndex> indexes = new LinkedHashMap<Integer, OpenIndex>();
+	private final Rows rows = new Rows();
+
+	private byte[] data = new byte[0];
+	private Charset charset;
+	private byte escape;
+	private boolean escaping;
+
+	/* Field offsets of all loaded rows, n + 1 per row of n fields */
+	private int[] bounds = EMPTY;
+	private int boundsSize;
+
+	/* Per ordinal */
+	private int[] rowStart = EMPTY;
+	private int[] fieldCount = EMPTY;
+	private List<?>[] overrides = new List<?>[0];
+	private int ordinals;
+
+	/* Ordinals of live rows in file order */
+	private int[] live = EMPTY;
+	private int liveSize;
+
+	/**
+	 * Get if files in a character set, with the given field separator and
+	 * escape character, may be stored.
+	 *
+	 * @param charsetName character set
+	 * @param fieldSeparator field separator
+	 * @param escapeCharacter escape character or <code>(char)-1</code>
+	 * @return supported
+	 */
+	static boolean isSupported(String charsetName, char fieldSeparator, char escapeCharacter) {
+		if (fieldSeparator > 127 || (escapeCharacter != (char) -1 && escapeCharacter > 127)) {
+			return false;
+		}
+		String name = Charset.forName(charsetName).name();
+		return name.equals("UTF-8") || name.equals("US-ASCII") || name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+	}
+
+	public void addIndex(int column) {
+		indexes.put(column, new OpenIndex(column));
+	}
+
+	/**
+	 * Replace the contents of the store with the rows of a delimited file.
+	 *
+	 * @param data file content, which is kept by the store and must not be
+	 *            modified
+	 * @param charsetName character set
+	 * @param fieldSeparator field separator
+	 * @param escapeCharacter escape character or <code>(char)-1</code>
+	 * @param skipFirstRow skip the first row (a heading)
+	 * @param filter filter or <code>null</code>
+	 */
+	void load(byte[] data, String charsetName, char fieldSeparator, char escapeCharacter, boolean skipFirstRow, Filter filter) {
+		clear();
+		this.data = data;
+		this.charset = Charset.forName(charsetName);
+		this.escaping = escapeCharacter != (char) -1;
+		this.escape = (byte) escapeCharacter;
+		byte fs = (byte) fieldSeparator;
+
+		/* Guess at sizes from the first line to avoid most growth */
+		int firstLine = 0;
+		int firstFields = 1;
+		while (firstLine < data.length && data[firstLine] != '\n' && data[firstLine] != '\r') {
+			if (data[firstLine] == fs) {
+				firstFields++;
+			}
+			firstLine++;
+		}
+		int estimatedRows = data.length / Math.max(1, firstLine + 1) + 1;
+		bounds = new int[estimatedRows * (firstFields + 1)];
+		ensureOrdinals(estimatedRows);
+		live = new int[estimatedRows];
+		for (OpenIndex index : indexes.values()) {
+			index.ensureCapacity(estimatedRows);
+		}
+
+		int pos = 0;
+		boolean first = true;
+		while (pos < data.length) {
+			int start = boundsSize;
+			int fields = 0;
+			boolean escaped = false;
+			addBound(pos);
+			int i = pos;
+			for (; i < data.length; i++) {
+				byte b = data[i];
+				if (b == '\n' || b == '\r') {
+					break;
+				}
+				if (b == fs && !escaped) {
+					fields++;
+					addBound(i + 1);
+				} else {
+					escaped = escaping && b == escape;
+				}
+			}
+			fields++;
+			addBound(i + 1);
+
+			/* Skip the line terminator */
+			if (i < data.length && data[i] == '\r' && i + 1 < data.length && data[i + 1] == '\n') {
+				i++;
+			}
+			pos = i + 1;
+
+			if (first && skipFirstRow) {
+				boundsSize = start;
+			} else {
+				int ordinal = newOrdinal();
+				rowStart[ordinal] = start;
+				fieldCount[ordinal] = fields;
+				if (filter != null && !filter.include(new Row(ordinal))) {
+					boundsSize = start;
+					ordinals--;
+				} else {
+					addLive(ordinal);
+				}
+			}
+			first = false;
+		}
+	}
+
+	public List<String> getRowByKeyField(int column, String key) {
+		OpenIndex index = indexes.get(column);
+		if (index == null) {
+			throw new IllegalArgumentException("No index on column " + column);
+		}
+		int ordinal = index.get(key);
+		return ordinal == -1 ? null : new Row(ordinal);
+	}
+
+	public boolean add(List<String> row) {
+		int ordinal = newOrdinal();
+		overrides[ordinal] = row;
+		addLive(ordinal);
+		return true;
+	}
+
+	public boolean remove(List<String> row) {
+		int ordinal = -1;
+		if (row instanceof Row && ((Row) row).store() == this) {
+			ordinal = ((Row) row).ordinal;
+		} else {
+			for (int i = 0; i < liveSize && ordinal == -1; i++) {
+				if (overrides[live[i]] == row) {
+					ordinal = live[i];
+				}
+			}
+			for (int i = 0; i < liveSize && ordinal == -1; i++) {
+				if (new Row(live[i]).equals(row)) {
+					ordinal = live[i];
+				}
+			}
+		}
+		if (ordinal == -1) {
+			return false;
+		}
+		for (int i = 0; i < liveSize; i++) {
+			if (live[i] == ordinal) {
+				removeLive(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int indexOf(List<String> row) {
+		boolean view = row instanceof Row && ((Row) row).store() == this;
+		for (int i = 0; i < liveSize; i++) {
+			if (view ? live[i] == ((Row) row).ordinal : overrides[live[i]] == row) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public List<List<String>> getRows() {
+		return rows;
+	}
+
+	public int size() {
+		return liveSize;
+	}
+
+	public void clear() {
+		data = new byte[0];
+		bounds = EMPTY;
+		boundsSize = 0;
+		rowStart = EMPTY;
+		fieldCount = EMPTY;
+		overrides = new List<?>[0];
+		ordinals = 0;
+		live = EMPTY;
+		liveSize = 0;
+		for (OpenIndex index : indexes.values()) {
+			index.clear();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> override(int ordinal) {
+		return (List<String>) overrides[ordinal];
+	}
+
+	private int size(int ordinal) {
+		List<String> override = override(ordinal);
+		return override == null ? fieldCount[ordinal] : override.size();
+	}
+
+	private String get(int ordinal, int field) {
+		List<String> override = override(ordinal);
+		if (override != null) {
+			return override.get(field);
+		}
+		if (field < 0 || field >= fieldCount[ordinal]) {
+			throw new IndexOutOfBoundsException("Index: " + field + ", Size: " + fieldCount[ordinal]);
+		}
+		int start = bounds[rowStart[ordinal] + field];
+		int end = bounds[rowStart[ordinal] + field + 1] - 1;
+		if (escaping) {
+			for (int i = start; i < end; i++) {
+				if (data[i] == escape) {
+					return unescape(start, end);
+				}
+			}
+		}
+		return new String(data, start, end - start, charset);
+	}
+
+	private String unescape(int start, int end) {
+		byte[] buf = new byte[end - start];
+		int len = 0;
+		for (int i = start; i < end; i++) {
+			if (data[i] != escape) {
+				buf[len++] = data[i];
+			}
+		}
+		return new String(buf, 0, len, charset);
+	}
+
+	/**
+	 * Copy a loaded row into an ordinary list so it may be modified.
+	 */
+	private List<String> materialize(int ordinal) {
+		List<String> override = override(ordinal);
+		if (override == null) {
+			int size = fieldCount[ordinal];
+			override = new ArrayList<String>(size + 1);
+			for (int i = 0; i < size; i++) {
+				override.add(get(ordinal, i));
+			}
+			overrides[ordinal] = override;
+		}
+		return override;
+	}
+
+	private int newOrdinal() {
+		ensureOrdinals(ordinals + 1);
+		rowStart[ordinals] = -1;
+		return ordinals++;
+	}
+
+	private void ensureOrdinals(int required) {
+		if (rowStart.length < required) {
+			int capacity = Math.max(required, rowStart.length + (rowStart.length >> 1) + 16);
+			rowStart = Arrays.copyOf(rowStart, capacity);
+			fieldCount = Arrays.copyOf(fieldCount, capacity);
+			overrides = Arrays.copyOf(overrides, capacity);
+		}
+	}
+
+	private void addBound(int offset) {
+		if (boundsSize == bounds.length) {
+			bounds = Arrays.copyOf(bounds, bounds.length + (bounds.length >> 1) + 16);
+		}
+		bounds[boundsSize++] = offset;
+	}
+
+	private void addLive(int ordinal) {
+		if (liveSize == live.length) {
+			live = Arrays.copyOf(live, live.length + (live.length >> 1) + 16);
+		}
+		live[liveSize++] = ordinal;
+		for (OpenIndex index : indexes.values()) {
+			if (size(ordinal) > index.column) {
+				index.put(get(ordinal, index.column), ordinal);
+			}
+		}
+	}
+
+	private void removeLive(int position) {
+		int ordinal = live[position];
+		for (OpenIndex index : indexes.values()) {
+			if (size(ordinal) > index.column) {
+				index.remove(get(ordinal, index.column));
+			}
+		}
+		System.arraycopy(live, position + 1, live, position, liveSize - position - 1);
+		liveSize--;
+		overrides[ordinal] = null;
+	}
+
+	/**
+	 * View of all live rows.
+	 */
+	class Rows extends AbstractList<List<String>> {
+		@Override
+		public List<String> get(int index) {
+			if (index < 0 || index >= liveSize) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + liveSize);
+			}
+			return new Row(live[index]);
+		}
+
+		@Override
+		public List<String> remove(int index) {
+			List<String> row = get(index);
+			List<String> removed = new ArrayList<String>(row);
+			removeLive(index);
+			return removed;
+		}
+
+		@Override
+		public int size() {
+			return liveSize;
+		}
+	}
+
+	/**
+	 * View of a single row. Reads decode fields from the file content, the
+	 * first write copies the row into a list.
+	 */
+	class Row extends AbstractList<String> {
+		final int ordinal;
+
+		Row(int ordinal) {
+			this.ordinal = ordinal;
+		}
+
+		CompactRowStore store() {
+			return CompactRowStore.this;
+		}
+
+		@Override
+		public String get(int index) {
+			return CompactRowStore.this.get(ordinal, index);
+		}
+
+		@Override
+		public int size() {
+			return CompactRowStore.this.size(ordinal);
+		}
+
+		@Override
+		public String set(int index, String element) {
+			return materialize(ordinal).set(index, element);
+		}
+
+		@Override
+		public void add(int index, String element) {
+			materialize(ordinal).add(index, element);
+		}
+
+		@Override
+		public String remove(int index) {
+			return materialize(ordinal).remove(index);
+		}
+	}
+
+	/**
+	 * Open addressed (linear probing) hash table of key to row ordinal. The
+	 * hash of each key is kept alongside the ordinal, so keys are only
+	 * decoded to confirm a likely match.
+	 */
+	class OpenIndex {
+		private static final int FREE = 0;
+		private static final int DELETED = -1;
+
+		final int column;
+		/* ordinal + 1, or FREE or DELETED */
+		private int[] slots = new int[16];
+		private int[] hashes = new int[16];
+		private int used;
+
+		OpenIndex(int column) {
+			this.column = column;
+		}
+
+		void ensureCapacity(int keys) {
+			int capacity = slots.length;
+			while (keys * 3 > capacity * 2) {
+				capacity <<= 1;
+			}
+			if (capacity != slots.length) {
+				rehash(capacity);
+			}
+		}
+
+		int get(String key) {
+			int hash = hash(key);
+			int mask = slots.length - 1;
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				int slot = slots[i];
+				if (slot == FREE) {
+					return -1;
+				}
+				if (slot != DELETED && hashes[i] == hash && key.equals(CompactRowStore.this.get(slot - 1, column))) {
+					return slot - 1;
+				}
+			}
+		}
+
+		void put(String key, int ordinal) {
+			int hash = hash(key);
+			int mask = slots.length - 1;
+			int free = -1;
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				int slot = slots[i];
+				if (slot == FREE) {
+					if (free == -1) {
+						free = i;
+						used++;
+					}
+					break;
+				}
+				if (slot == DELETED) {
+					if (free == -1) {
+						free = i;
+					}
+				} else if (hashes[i] == hash && key.equals(CompactRowStore.this.get(slot - 1, column))) {
+					/* Later rows replace earlier ones with the same key */
+					slots[i] = ordinal + 1;
+					return;
+				}
+			}
+			slots[free] = ordinal + 1;
+			hashes[free] = hash;
+			if (used * 3 > slots.length * 2) {
+				rehash(slots.length << 1);
+			}
+		}
+
+		void remove(String key) {
+			int hash = hash(key);
+			int mask = slots.length - 1;
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				int slot = slots[i];
+				if (slot == FREE) {
+					return;
+				}
+				if (slot != DELETED && hashes[i] == hash && key.equals(CompactRowStore.this.get(slot - 1, column))) {
+					slots[i] = DELETED;
+					return;
+				}
+			}
+		}
+
+		void clear() {
+			slots = new int[16];
+			hashes = new int[16];
+			used = 0;
+		}
+
+		private void rehash(int capacity) {
+			int[] oldSlots = slots;
+			int[] oldHashes = hashes;
+			slots = new int[capacity];
+			hashes = new int[capacity];
+			used = 0;
+			int mask = capacity - 1;
+			for (int j = 0; j < oldSlots.length; j++) {
+				if (oldSlots[j] != FREE && oldSlots[j] != DELETED) {
+					int i = oldHashes[j] & mask;
+					while (slots[i] != FREE) {
+						i = (i + 1) & mask;
+					}
+					slots[i] = oldSlots[j];
+					hashes[i] = oldHashes[j];
+					used++;
+				}
+			}
+		}
+
+		private int hash(String key) {
+			int h = key.hashCode();
+			return h ^ (h >>> 16);
+		}
+	}
+}
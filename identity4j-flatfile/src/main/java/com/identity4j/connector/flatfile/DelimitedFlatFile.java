@@ -33,6 +33,11 @@ public abstract class DelimitedFlatFile extends AbstractFlatFile {
      */
     @Override
     public void onLoad(InputStream inputStream, String charsetName) throws IOException {
+        if (isCompactStorage() && CompactRowStore.isSupported(charsetName, getFieldSeparator(), getEscapeCharacter())) {
+            onLoad(IOUtils.toByteArray(inputStream), charsetName);
+            return;
+        }
+
         LineIterator it = IOUtils.lineIterator(inputStream, charsetName);
 
         // take line at a time and parse
@@ -77,6 +82,20 @@ public abstract class DelimitedFlatFile extends AbstractFlatFile {
         }
     }
 
+    /**
+     * Load up a flatfile from its content. With compact storage, the fields
+     * are indexed directly in the content without decoding them.
+     */
+    @Override
+    protected void onLoad(byte[] data, String charsetName) throws IOException {
+        if (isCompactStorage() && CompactRowStore.isSupported(charsetName, getFieldSeparator(), getEscapeCharacter())) {
+            ((CompactRowStore) getStore()).load(data, charsetName, getFieldSeparator(), getEscapeCharacter(),
+                isFirstRowIsHeading(), getFilter());
+        } else {
+            super.onLoad(data, charsetName);
+        }
+    }
+
     /**
      * Format row by adding seperator to the end of each column (i.e col1, col2,
      * col3)
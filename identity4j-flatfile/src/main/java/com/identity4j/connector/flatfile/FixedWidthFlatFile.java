@@ -3,10 +3,8 @@ package com.identity4j.connector.flatfile;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
@@ -90,20 +88,7 @@ public abstract class FixedWidthFlatFile extends AbstractFlatFile {
 
                 // once the file has be parsed using fixed width columns save
                 // them internally
-                Map<Integer, Map<String, List<String>>> index = getIndex();
-                for (Integer indexColumn : index.keySet()) {
-                    if (row.size() > indexColumn) {
-                        Map<String, List<String>> rowMap = index.get(indexColumn);
-                        if (rowMap == null) {
-                            rowMap = new HashMap<String, List<String>>();
-                            index.put(indexColumn, rowMap);
-                        }
-                        LOG.debug("Adding index " + indexColumn + "/" + row.get(indexColumn));
-                        rowMap.put(row.get(indexColumn), row);
-                        add(row);
-                    }
-
-                }
+                add(row);
             }
         } finally {
             LineIterator.closeQuietly(it);
@@ -15,6 +15,10 @@ public class FlatFileConfiguration extends AbstractVFSConfiguration {
     public static final String KEY_FULL_NAME_FIELD_INDEX = "fullNameFieldIndex";
     public static final String KEY_PASSWORD_FIELD_INDEX = "passwordFieldIndex";
     public static final String KEY_IDENTITY_PASSWORD_ENCODING = "identityPasswordEncoding";
+    public static final String KEY_COMPACT_STORAGE = "compactStorage";
+    public static final String KEY_FLUSH_INTERVAL = "flushInterval";
+    public static final String KEY_ATOMIC_WRITES = "atomicWrites";
+    public static final String KEY_STALE_CHECK_INTERVAL = "staleCheckInterval";
 
     public FlatFileConfiguration(MultiMap configurationParameters) {
         super(configurationParameters);
@@ -59,6 +63,54 @@ public class FlatFileConfiguration extends AbstractVFSConfiguration {
         return getConfigurationParameters().getIntegerOrDefault(KEY_PASSWORD_FIELD_INDEX, 0);
     }
 
+    /**
+     * Whether loaded files should be held in compact storage, which uses
+     * much less memory for large files, the default is <code>false</code>.
+     * 
+     * @return compact storage
+     * @see AbstractFlatFile#setCompactStorage(boolean)
+     */
+    public boolean isCompactStorage() {
+        return getConfigurationParameters().getBooleanOrDefault(KEY_COMPACT_STORAGE, Boolean.FALSE);
+    }
+
+    /**
+     * How long changes may be held in memory before they are written to the
+     * file, in milliseconds. Changes made within the interval are written
+     * together, the default is <code>0</code>, which writes every change
+     * immediately.
+     * 
+     * @return flush interval in milliseconds
+     * @see AbstractFlatFile#setFlushInterval(long)
+     */
+    public int getFlushInterval() {
+        return getConfigurationParameters().getIntegerOrDefault(KEY_FLUSH_INTERVAL, 0);
+    }
+
+    /**
+     * Whether the whole file should be written to a temporary file that then
+     * replaces the original, the default is <code>false</code>.
+     * 
+     * @return atomic writes
+     * @see LocalDelimitedFlatFile#setAtomicWrites(boolean)
+     */
+    public boolean isAtomicWrites() {
+        return getConfigurationParameters().getBooleanOrDefault(KEY_ATOMIC_WRITES, Boolean.FALSE);
+    }
+
+    /**
+     * The minimum time between checks of whether the file has been changed
+     * by something else, in milliseconds. Raising this saves checking the
+     * file on every operation, at the cost of noticing changes later, the
+     * default is <code>0</code>, which checks on every operation.
+     * 
+     * @return stale check interval in milliseconds
+     * @see LocalDelimitedFlatFile#setStaleCheckInterval(long)
+     */
+    public int getStaleCheckInterval() {
+        return getConfigurationParameters().getIntegerOrDefault(KEY_STALE_CHECK_INTERVAL, 0);
+    }
+
     @Override
     public String getUri() {
         return getConfigurationParameters().getString(KEY_FILENAME);
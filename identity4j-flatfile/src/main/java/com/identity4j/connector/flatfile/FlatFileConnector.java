@@ -7,38 +7,52 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 
+import com.identity4j.connector.ChangeSet;
 import com.identity4j.connector.ConnectorCapability;
 import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.IncrementalConnector;
+import com.identity4j.connector.SyncToken;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.IdentityImpl;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.connector.vfs.AbstractVFSConnector;
+import com.identity4j.util.AbstractTransformingIterator;
 import com.identity4j.util.StringUtil;
+import com.identity4j.util.crypt.BulkEncoder;
+import com.identity4j.util.crypt.BulkEncoder.Job;
+import com.identity4j.util.crypt.BulkEncoder.Result;
 import com.identity4j.util.crypt.Encoder;
 import com.identity4j.util.crypt.EncoderException;
 import com.identity4j.util.crypt.EncoderManager;
 import com.identity4j.util.crypt.impl.DefaultEncoderManager;
 
-public class FlatFileConnector extends AbstractVFSConnector {
+public class FlatFileConnector extends AbstractVFSConnector implements IncrementalConnector {
+	private final static Log LOG = LogFactory.getLog(FlatFileConnector.class);
 	private final static EncoderManager encoderManager = DefaultEncoderManager.getInstance();
 
 	private FlatFileConfiguration configuration;
 	private LocalDelimitedFlatFile flatFile;
 	private final Map<String, Identity> identityMap = new HashMap<String, Identity>();
+	private final Map<String, StoredPassword> storedPasswords = new ConcurrentHashMap<String, StoredPassword>();
 	private boolean open;
 	private final Collection<String> supportedEncoderTypes;
+	private FlatFileSnapshot snapshot;
 
 	static Set<ConnectorCapability> capabilities = new HashSet<ConnectorCapability>(Arrays.asList(new ConnectorCapability[] { 
 			ConnectorCapability.passwordChange,
@@ -51,7 +65,8 @@ public class FlatFileConnector extends AbstractVFSConnector {
 			ConnectorCapability.authentication,
 			ConnectorCapability.requireGUID,
 			ConnectorCapability.createIdentityGUID,
-			ConnectorCapability.identities
+			ConnectorCapability.identities,
+			ConnectorCapability.incrementalSync
 	}));
 	
 	@Override
@@ -80,6 +95,86 @@ public class FlatFileConnector extends AbstractVFSConnector {
 		return new FlatFileConnectorIdentityIterator(flatFile, getConfiguration().getKeyFieldIndex(), this);
 	}
 
+	/**
+	 * Changes are found by comparing the current file contents with a snapshot
+	 * taken by the previous call. Only the most recent snapshot is kept, in
+	 * memory, so any other token (including one issued before the connector
+	 * was re-opened) results in a full listing.
+	 */
+	@Override
+	public ChangeSet changesSince(SyncToken token) throws ConnectorException {
+		checkLoaded();
+		synchronized (identityMap) {
+			FlatFileSnapshot current = new FlatFileSnapshot();
+			snapshotIdentities(current);
+			snapshotRoles(current);
+
+			FlatFileSnapshot previous = token != null && snapshot != null && snapshot.getId().equals(token.getValue()) ? snapshot
+					: null;
+			ChangeSet changes = new ChangeSet(previous == null);
+
+			List<String> added = new ArrayList<String>();
+			List<String> modified = new ArrayList<String>();
+			current.diffIdentities(previous, added, modified, changes.getDeletedIdentities());
+			for (String name : added) {
+				changes.getAddedIdentities().add(getIdentityByName(name));
+			}
+			for (String name : modified) {
+				changes.getModifiedIdentities().add(getIdentityByName(name));
+			}
+
+			added.clear();
+			modified.clear();
+			current.diffRoles(previous, added, modified, changes.getDeletedRoles());
+			for (String name : added) {
+				changes.getAddedRoles().add(getRoleByName(name));
+			}
+			for (String name : modified) {
+				changes.getModifiedRoles().add(getRoleByName(name));
+			}
+
+			snapshot = current;
+			changes.setToken(new SyncToken(current.getId()));
+			return changes;
+		}
+	}
+
+	/**
+	 * Record all identities in a snapshot, see {@link #getIdentityData(List)}.
+	 * 
+	 * @param snapshot snapshot
+	 */
+	protected void snapshotIdentities(FlatFileSnapshot snapshot) {
+		int keyFieldIndex = configuration.getKeyFieldIndex();
+		int guidFieldIndex = configuration.getGuidFieldIndex();
+		for (List<String> row : flatFile.getContents()) {
+			String principalName = row.get(keyFieldIndex);
+			snapshot.addIdentity(principalName, guidFieldIndex == -1 ? principalName : getFromRowOrDefault(row, guidFieldIndex, null),
+				getIdentityData(row));
+		}
+	}
+
+	/**
+	 * Get all the data that makes up an identity, so a change to any of it is
+	 * detected. Subclasses that build identities from more than one file
+	 * should override this to include the other data.
+	 * 
+	 * @param row identity row
+	 * @return identity data
+	 */
+	protected String getIdentityData(List<String> row) {
+		return row.toString();
+	}
+
+	/**
+	 * Record all roles in a snapshot. This connector has no roles, so does
+	 * nothing.
+	 * 
+	 * @param snapshot snapshot
+	 */
+	protected void snapshotRoles(FlatFileSnapshot snapshot) {
+	}
+
 	public EncoderManager getEncoderManager() {
 		return encoderManager;
 	}
@@ -113,7 +208,7 @@ public class FlatFileConnector extends AbstractVFSConnector {
 
 		// Store
 		try {
-			passwordFile.writeRows();
+			passwordFile.writeRow(row);
 		} catch (IOException e) {
 			throw new ConnectorException("Write failure", e);
 		}
@@ -123,19 +218,109 @@ public class FlatFileConnector extends AbstractVFSConnector {
 			char[] password, PasswordResetType type) {
 	}
 
+	/**
+	 * Re-encode the stored passwords of many identities with another encoder,
+	 * e.g. to move from <code>unix-md5</code> to <code>unix-sha512</code>.
+	 * Stored passwords are usually one-way, so the plain text password of
+	 * each identity must be supplied (for example, as collected when they
+	 * logged on). Each is verified against the stored password first, and is
+	 * only re-encoded if it matches. Identities that do not exist, whose
+	 * password does not match or that fail to encode are left as they are.
+	 * <p>
+	 * Verifying and encoding run in parallel, see {@link BulkEncoder}, and the
+	 * password file is written once at the end. The date of the last password
+	 * change is not updated, as the password itself has not changed.
+	 *
+	 * @param credentials principal names and their plain text passwords
+	 * @param encoderId encoder to re-encode with
+	 * @param parallelism number of threads, or 0 for one per processor
+	 * @return number of passwords re-encoded
+	 * @throws ConnectorException on write failure
+	 */
+	public int reencodePasswords(Iterator<Map.Entry<String, char[]>> credentials, final String encoderId, int parallelism)
+			throws ConnectorException {
+		checkLoaded();
+		if (configuration.getPasswordFieldIndex() == -1) {
+			throw new UnsupportedOperationException("Passwords are not stored by this connector.");
+		}
+		if (encoderManager.getEncoderById(encoderId) == null) {
+			throw new IllegalArgumentException("Invalid encoder " + encoderId + ".");
+		}
+
+		final AbstractFlatFile passwordFile = getPasswordFlatFile();
+		final int keyFieldIndex = configuration.getKeyFieldIndex();
+		final int passwordFieldIndex = configuration.getPasswordFieldIndex();
+		final String charset = configuration.getCharset();
+		List<List<String>> reencoded = new ArrayList<List<String>>();
+		BulkEncoder bulkEncoder = encoderManager.createBulkEncoder(charset, parallelism);
+		try {
+			Iterator<Result> results = bulkEncoder.run(new AbstractTransformingIterator<Map.Entry<String, char[]>, Job>(
+					credentials) {
+				@Override
+				protected Job transform(Map.Entry<String, char[]> credential) {
+					List<String> row = passwordFile.getRowByKeyField(keyFieldIndex, credential.getKey());
+					if (row == null || passwordFieldIndex >= row.size()) {
+						return null;
+					}
+					char[] storedPassword = row.get(passwordFieldIndex).toCharArray();
+					try {
+						Encoder encoderForStoredPassword = getEncoderForStoredPassword(storedPassword);
+						String encodedWith = encoderForStoredPassword == null ? configuration.getIdentityPasswordEncoding()
+								: encoderForStoredPassword.getId();
+						return Job.reencode(credential.getKey(), encodedWith, new String(storedPassword).getBytes(charset),
+							new String(credential.getValue()).getBytes(charset), encoderId);
+					} catch (UnsupportedEncodingException e) {
+						throw new Error(e);
+					}
+				}
+			});
+			while (results.hasNext()) {
+				Result result = results.next();
+				if (result.getError() != null) {
+					LOG.warn("Failed to re-encode password for " + result.getJob().getKey(), result.getError());
+				} else if (result.getEncoded() != null) {
+					List<String> row = passwordFile.getRowByKeyField(keyFieldIndex, result.getJob().getKey());
+					try {
+						row.set(passwordFieldIndex, new String(result.getEncoded(), charset));
+					} catch (UnsupportedEncodingException e) {
+						throw new Error(e);
+					}
+					reencoded.add(row);
+				}
+			}
+		} finally {
+			bulkEncoder.close();
+		}
+
+		if (!reencoded.isEmpty()) {
+			try {
+				passwordFile.writeRows(reencoded);
+			} catch (IOException e) {
+				throw new ConnectorException("Write failure", e);
+			}
+		}
+		return reencoded.size();
+	}
+
+	/**
+	 * Get the file the encoded passwords are stored in, which is the main
+	 * flat file unless a subclass keeps them elsewhere.
+	 *
+	 * @return password file
+	 */
+	protected AbstractFlatFile getPasswordFlatFile() {
+		return flatFile;
+	}
+
 	@Override
 	protected final boolean areCredentialsValid(Identity identity, char[] password) throws ConnectorException {
 		checkLoaded();
 		if (configuration.getPasswordFieldIndex() > -1) {
 			char[] storedPassword = getPasswordForIdentity(identity);
 			try {
-				Encoder encoderForStoredPassword = getEncoderForStoredPassword(storedPassword);
-				if (encoderForStoredPassword == null) {
-					encoderForStoredPassword = encoderManager.getEncoderById(configuration.getIdentityPasswordEncoding());
-				}
 				final String charset = configuration.getCharset();
-				return encoderForStoredPassword.match(new String(storedPassword).getBytes(charset),
-					new String(password).getBytes(charset), null, charset);
+				StoredPassword stored = getStoredPassword(identity.getPrincipalName(), storedPassword);
+				return stored.encoder.match(stored.encoded, new String(password).getBytes(charset), null, charset);
 			} catch (UnsupportedEncodingException e) {
 				throw new ConnectorException("Failed to check credentials.", e);
 			}
@@ -150,18 +335,35 @@ public class FlatFileConnector extends AbstractVFSConnector {
 			.get(configuration.getPasswordFieldIndex()).toCharArray();
 	}
 
-	protected Encoder getEncoderForStoredPassword(char[] storedPassword) throws UnsupportedEncodingException {
-		byte[] storedPasswordBytes = new String(storedPassword).getBytes(configuration.getCharset());
-
-		// Look for encoder based on current stored password
-		for (String encoderId : supportedEncoderTypes) {
-			Encoder encoder = encoderManager.getEncoderById(encoderId);
-			if (encoder.isOfType(storedPasswordBytes, configuration.getCharset())) {
-				return encoder;
+	/**
+	 * Get the encoder and encoded bytes of a principal's stored password.
+	 * These are kept for each principal and only worked out again when the
+	 * stored password is not the one they were last worked out from, so
+	 * repeated logons skip detecting the encoder.
+	 *
+	 * @param principalName principal name
+	 * @param storedPassword stored password
+	 * @return stored password
+	 * @throws UnsupportedEncodingException
+	 */
+	private StoredPassword getStoredPassword(String principalName, char[] storedPassword)
+			throws UnsupportedEncodingException {
+		StoredPassword stored = storedPasswords.get(principalName);
+		if (stored == null || !Arrays.equals(stored.storedPassword, storedPassword)) {
+			Encoder encoder = getEncoderForStoredPassword(storedPassword);
+			if (encoder == null) {
+				encoder = encoderManager.getEncoderById(configuration.getIdentityPasswordEncoding());
 			}
+			stored = new StoredPassword(storedPassword, new String(storedPassword).getBytes(configuration.getCharset()),
+					encoder);
+			storedPasswords.put(principalName, stored);
 		}
+		return stored;
+	}
 
-		return null;
+	protected Encoder getEncoderForStoredPassword(char[] storedPassword) throws UnsupportedEncodingException {
+		// Look for encoder based on current stored password
+		return encoderManager.getEncoderForEncodedString(storedPassword, configuration.getCharset(), supportedEncoderTypes);
 	}
 
 	public FlatFileConfiguration getConfiguration() {
@@ -252,7 +454,7 @@ public class FlatFileConnector extends AbstractVFSConnector {
 			if (flatFile.getFile().getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
 				flatFile.appendRow(row);
 			} else {
-				flatFile.writeRows();
+				flatFile.writeRows(Collections.singletonList(row));
 			}
 			onCreatedUser(identity, password);
 		} catch (ConnectorException ce) {
@@ -329,9 +531,9 @@ public class FlatFileConnector extends AbstractVFSConnector {
 		// Give subclasses an oppurtunity to write their own row date
 		updateUserRow(row, identity);
 
-		// write the entire file
+		// write the changed row
 		try {
-			flatFile.writeRows();
+			flatFile.writeRow(row);
 		} catch (IOException e) {
 			throw new ConnectorException("Write failure", e);
 		}
@@ -350,7 +552,7 @@ public class FlatFileConnector extends AbstractVFSConnector {
 		checkLoaded();
 		flatFile.remove(principalName);
 		try {
-			flatFile.writeRows();
+			flatFile.writeRows(Collections.<List<String>>emptyList());
 		} catch (IOException e) {
 			throw new ConnectorException("delete user failure during write", e);
 		}
@@ -381,13 +583,34 @@ public class FlatFileConnector extends AbstractVFSConnector {
 
 	@Override
 	protected void onClose() {
-		open = false;
+		try {
+			flush();
+		} finally {
+			open = false;
+			snapshot = null;
+		}
+	}
+
+	/**
+	 * Write any changes that are being held in memory, see
+	 * {@link FlatFileConfiguration#getFlushInterval()}.
+	 * 
+	 * @throws ConnectorException on write failure
+	 */
+	public void flush() throws ConnectorException {
+		if (flatFile != null) {
+			try {
+				flatFile.flush();
+			} catch (IOException e) {
+				throw new ConnectorException("Write failure", e);
+			}
+		}
 	}
 
 	protected void checkLoaded() throws ConnectorException {
 		final FileObject file = getFile();
 		try {
-			if (!file.exists()) {
+			if (flatFile == null ? !file.exists() : !flatFile.exists()) {
 				throw new FileNotFoundException(file + " does not exist.");
 			}
 		} catch (Exception fse) {
@@ -395,6 +618,10 @@ public class FlatFileConnector extends AbstractVFSConnector {
 		}
 		if (flatFile == null) {
 			flatFile = new LocalDelimitedFlatFile(file, configuration.getCharset());
+			flatFile.setCompactStorage(configuration.isCompactStorage());
+			flatFile.setFlushInterval(configuration.getFlushInterval());
+			flatFile.setAtomicWrites(configuration.isAtomicWrites());
+			flatFile.setStaleCheckInterval(configuration.getStaleCheckInterval());
 			flatFile.addIndex(configuration.getKeyFieldIndex());
 			flatFile.setFieldSeparator(configuration.getFieldSeparator());
 			flatFile.setEscapeCharacter(configuration.getEscapeCharacter());
@@ -403,6 +630,7 @@ public class FlatFileConnector extends AbstractVFSConnector {
 		synchronized (identityMap) {
 			if (flatFile.isStale()) {
 				identityMap.clear();
+				storedPasswords.clear();
 				try {
 					flatFile.load();
 				} catch (IOException e) {
@@ -426,4 +654,15 @@ public class FlatFileConnector extends AbstractVFSConnector {
 		row.set(idx, value);
 	}
 
+	private static final class StoredPassword {
+		private final char[] storedPassword;
+		private final byte[] encoded;
+		private final Encoder encoder;
+
+		private StoredPassword(char[] storedPassword, byte[] encoded, Encoder encoder) {
+			this.storedPassword = storedPassword;
+			this.encoded = encoded;
+			this.encoder = encoder;
+		}
+	}
 }
\ No newline at end of file
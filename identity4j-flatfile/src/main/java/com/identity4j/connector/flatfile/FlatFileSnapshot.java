@@ -0,0 +1,123 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A compact record of the principals held in one or more flat files at a
+ * point in time, used to find what has changed since a previous snapshot.
+ * Only the name, GUID and a 64 bit fingerprint of each principal's row data
+ * are kept, not the rows themselves.
+ */
+public class FlatFileSnapshot {
+
+	private final String id = UUID.randomUUID().toString();
+	private final Map<String, Entry> identities = new HashMap<String, Entry>();
+	private final Map<String, Entry> roles = new HashMap<String, Entry>();
+
+	/**
+	 * Get the unique ID of this snapshot, used as the synchronisation token.
+	 * 
+	 * @return id
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Record an identity.
+	 * 
+	 * @param name principal name
+	 * @param guid GUID
+	 * @param data all data that makes up the identity
+	 */
+	public void addIdentity(String name, String guid, String data) {
+		identities.put(name, new Entry(guid == null ? name : guid, fingerprint(data)));
+	}
+
+	/**
+	 * Record a role.
+	 * 
+	 * @param name principal name
+	 * @param guid GUID
+	 * @param data all data that makes up the role
+	 */
+	public void addRole(String name, String guid, String data) {
+		roles.put(name, new Entry(guid == null ? name : guid, fingerprint(data)));
+	}
+
+	/**
+	 * Compare the identities in this snapshot with those in an earlier one.
+	 * 
+	 * @param previous previous snapshot or <code>null</code> to report all
+	 *            identities as added
+	 * @param added collection to add names of added identities to
+	 * @param modified collection to add names of modified identities to
+	 * @param deleted collection to add GUIDs of deleted identities to
+	 */
+	public void diffIdentities(FlatFileSnapshot previous, Collection<String> added, Collection<String> modified,
+			Collection<String> deleted) {
+		diff(previous == null ? null : previous.identities, identities, added, modified, deleted);
+	}
+
+	/**
+	 * Compare the roles in this snapshot with those in an earlier one.
+	 * 
+	 * @param previous previous snapshot or <code>null</code> to report all
+	 *            roles as added
+	 * @param added collection to add names of added roles to
+	 * @param modified collection to add names of modified roles to
+	 * @param deleted collection to add GUIDs of deleted roles to
+	 */
+	public void diffRoles(FlatFileSnapshot previous, Collection<String> added, Collection<String> modified,
+			Collection<String> deleted) {
+		diff(previous == null ? null : previous.roles, roles, added, modified, deleted);
+	}
+
+	private static void diff(Map<String, Entry> previous, Map<String, Entry> current, Collection<String> added,
+			Collection<String> modified, Collection<String> deleted) {
+		for (Map.Entry<String, Entry> en : current.entrySet()) {
+			Entry was = previous == null ? null : previous.get(en.getKey());
+			if (was == null) {
+				added.add(en.getKey());
+			} else if (was.fingerprint != en.getValue().fingerprint || !was.guid.equals(en.getValue().guid)) {
+				modified.add(en.getKey());
+			}
+		}
+		if (previous != null) {
+			for (Map.Entry<String, Entry> en : previous.entrySet()) {
+				if (!current.containsKey(en.getKey())) {
+					deleted.add(en.getValue().guid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the data.
+	 */
+	static long fingerprint(String data) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < data.length(); i++) {
+			char c = data.charAt(i);
+			hash ^= c & 0xff;
+			hash *= 0x100000001b3L;
+			hash ^= c >>> 8;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	static class Entry {
+		final String guid;
+		final long fingerprint;
+
+		Entry(String guid, long fingerprint) {
+			this.guid = guid;
+			this.fingerprint = fingerprint;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The default {@link RowStore}, which keeps every row as a list of strings
+ * and every index as a hash map of key to row.
+ */
+class ListRowStore implements RowStore {
+	static final Log LOG = LogFactory.getLog(ListRowStore.class);
+
+	private final List<List<String>> contents = new ArrayList<List<String>>();
+	private final Map<Integer, Map<String, List<String>>> index = new HashMap<Integer, Map<String, List<String>>>();
+
+	public void addIndex(int column) {
+		index.put(column, new HashMap<String, List<String>>());
+	}
+
+	Map<Integer, Map<String, List<String>>> getIndex() {
+		return index;
+	}
+
+	public List<String> getRowByKeyField(int column, String key) {
+		final Map<String, List<String>> map = index.get(column);
+		if (map == null) {
+			throw new IllegalArgumentException("No index on column " + column);
+		}
+		return map.get(key);
+	}
+
+	public boolean add(List<String> row) {
+		if (!contents.add(row)) {
+			return false;
+		}
+		for (Map.Entry<Integer, Map<String, List<String>>> en : index.entrySet()) {
+			int indexColumn = en.getKey();
+			if (row.size() > indexColumn) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Adding index " + indexColumn + "/" + row.get(indexColumn));
+				}
+				en.getValue().put(row.get(indexColumn), row);
+			}
+		}
+		return true;
+	}
+
+	public boolean remove(List<String> row) {
+		if (!contents.remove(row)) {
+			return false;
+		}
+		for (Map.Entry<Integer, Map<String, List<String>>> en : index.entrySet()) {
+			int indexColumn = en.getKey();
+			if (row.size() > indexColumn) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Removing index " + indexColumn + "/" + row.get(indexColumn));
+				}
+				en.getValue().remove(row.get(indexColumn));
+			}
+		}
+		return true;
+	}
+
+	public int indexOf(List<String> row) {
+		for (int i = 0; i < contents.size(); i++) {
+			if (contents.get(i) == row) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public List<List<String>> getRows() {
+		return contents;
+	}
+
+	public int size() {
+		return contents.size();
+	}
+
+	public void clear() {
+		contents.clear();
+		for (Map<String, List<String>> rowIndex : index.values()) {
+			rowIndex.clear();
+		}
+	}
+}
@@ -1,18 +1,44 @@
 package com.identity4j.connector.flatfile;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.List;
+import java.util.SortedSet;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 
 public class LocalDelimitedFlatFile extends DelimitedFlatFile {
 
     private FileObject file;
     private String charsetName;
     private long lastModified;
+    private long lastSize;
+    private boolean atomicWrites;
+
+    // Throttled staleness checks
+    private long staleCheckInterval;
+    private long lastChecked = -1;
+    private boolean exists;
+    private long currentModified;
+    private long currentSize;
+
+    // Start and end (excluding terminator) of each line in the file
+    private long[] lineStarts;
+    private long[] lineEnds;
 
     public LocalDelimitedFlatFile(FileObject file, String charsetName) {
         super();
@@ -20,26 +46,127 @@ public class LocalDelimitedFlatFile extends DelimitedFlatFile {
         this.charsetName = charsetName;
     }
 
+    /**
+     * Set whether the whole file should be written to a temporary file that
+     * then replaces the original, so readers never see a partly written file.
+     * Only local files are replaced this way. The replacement has the default
+     * owner and permissions of a new file, so this should not be used for
+     * files such as <code>/etc/shadow</code> whose permissions matter.
+     *
+     * @param atomicWrites atomic writes
+     */
+    public void setAtomicWrites(boolean atomicWrites) {
+        this.atomicWrites = atomicWrites;
+    }
+
+    /**
+     * Get whether the whole file is written to a temporary file that then
+     * replaces the original.
+     *
+     * @return atomic writes
+     * @see #setAtomicWrites(boolean)
+     */
+    public boolean isAtomicWrites() {
+        return atomicWrites;
+    }
+
+    /**
+     * Set the minimum time between checks of whether the file has changed,
+     * in milliseconds. Within the interval, {@link #isStale()} and
+     * {@link #exists()} answer from the previous check. With an interval of
+     * zero, the default, every call checks the file.
+     *
+     * @param staleCheckInterval stale check interval in milliseconds
+     */
+    public void setStaleCheckInterval(long staleCheckInterval) {
+        this.staleCheckInterval = staleCheckInterval;
+    }
+
+    /**
+     * Get the minimum time between checks of whether the file has changed,
+     * in milliseconds.
+     *
+     * @return stale check interval in milliseconds
+     * @see #setStaleCheckInterval(long)
+     */
+    public long getStaleCheckInterval() {
+        return staleCheckInterval;
+    }
+
     @Override
     public void clear() {
         lastModified = -1;
+        lastChecked = -1;
+        lineStarts = lineEnds = null;
         super.clear();
     }
 
+    /**
+     * Get whether the file has changed since it was loaded. The file is never
+     * stale while there are changes not yet written, instead they are merged
+     * with the changed file when they are written, see {@link #flush()}.
+     *
+     * @return stale
+     */
     public boolean isStale() {
-        try {
-            return file.exists() && file.getContent().getLastModifiedTime() != lastModified;
-        } catch (FileSystemException e) {
+        if (isDirty()) {
             return false;
         }
+        checkFile();
+        return exists && (currentModified != lastModified || currentSize != lastSize);
+    }
+
+    /**
+     * Get whether the file exists, subject to the same throttling as
+     * {@link #isStale()}.
+     *
+     * @return exists
+     */
+    public boolean exists() {
+        checkFile();
+        return exists;
     }
 
+    /**
+     * Load the file. Local files are read straight into a single array, so
+     * with compact storage the fields are indexed without any further
+     * copying.
+     *
+     * @throws IOException
+     */
     public void load() throws IOException {
-        if (!file.exists()) {
-            throw new FileNotFoundException(file.getName().getURI());
+        File localFile = getLocalFile();
+        if (localFile == null) {
+            if (!file.exists()) {
+                throw new FileNotFoundException(file.getName().getURI());
+            }
+            load(file.getContent().getInputStream(), charsetName);
+            updateLastModified();
+        } else {
+            // Record the time first, so changes made while reading are seen
+            long modified = localFile.lastModified();
+            long size = localFile.length();
+            if (modified == 0 && !localFile.exists()) {
+                throw new FileNotFoundException(file.getName().getURI());
+            }
+            load(readFully(localFile), charsetName);
+            lastModified = modified;
+            lastSize = size;
+            lastChecked = -1;
         }
-        load(file.getContent().getInputStream(), charsetName);
-        lastModified = file.getContent().getLastModifiedTime();
+    }
+
+    @Override
+    protected boolean isChangedExternally() {
+        // Always check, regardless of the stale check interval
+        lastChecked = -1;
+        checkFile();
+        return exists && (currentModified != lastModified || currentSize != lastSize);
+    }
+
+    @Override
+    protected void reload() throws IOException {
+        load();
     }
 
     public FileObject getFile() {
@@ -57,15 +184,198 @@ public class LocalDelimitedFlatFile extends DelimitedFlatFile {
         if (!file.exists()) {
             throw new FileNotFoundException(file.getName().getURI());
         }
+        lineStarts = lineEnds = null;
+        File localFile = getLocalFile();
+        if (!append && atomicWrites && localFile != null) {
+            replaceRows(localFile, rows);
+            return;
+        }
         OutputStream output = getFile().getContent().getOutputStream(append);
         try {
 
             for (List<String> row : rows) {
                 write(output, row, charsetName);
             }
-            lastModified = file.getContent().getLastModifiedTime();
         } finally {
             output.close();
         }
+        updateLastModified();
+    }
+
+    /**
+     * Patch changed rows in place when the file system allows random access
+     * writes and none of the rows have changed length.
+     */
+    @Override
+    protected boolean writeChangedRows(SortedSet<Integer> positions) throws IOException {
+        if (getFilter() != null || isFirstRowIsHeading()
+            || !CompactRowStore.isSupported(charsetName, getFieldSeparator(), getEscapeCharacter())
+            || !file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)) {
+            return false;
+        }
+
+        file.refresh();
+        if (!file.exists() || file.getContent().getLastModifiedTime() != lastModified) {
+            // Changed by something else since flush() checked, and a rewrite would lose that change
+            throw new IOException(file.getName().getURI() + " was changed by something else while being written.");
+        }
+        if (lineStarts == null) {
+            findLines();
+        }
+        if (lineStarts.length != size()) {
+            return false;
+        }
+
+        byte[][] patches = new byte[positions.size()][];
+        int i = 0;
+        for (Integer position : positions) {
+            byte[] patch = rowToString(getContents().get(position)).getBytes(charsetName);
+            if (patch.length != lineEnds[position] - lineStarts[position]) {
+                return false;
+            }
+            patches[i++] = patch;
+        }
+
+        RandomAccessContent content = file.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+        try {
+            i = 0;
+            for (Integer position : positions) {
+                content.seek(lineStarts[position]);
+                content.write(patches[i++]);
+            }
+        } finally {
+            content.close();
+        }
+        file.refresh();
+        updateLastModified();
+        return true;
+    }
+
+    private void replaceRows(File target, List<List<String>> rows) throws IOException {
+        File tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            OutputStream output = new FileOutputStream(tmp);
+            try {
+                for (List<String> row : rows) {
+                    write(output, row, charsetName);
+                }
+            } finally {
+                output.close();
+            }
+            if (!tmp.renameTo(target)) {
+                // Some platforms will not rename over an existing file
+                if (!target.delete() || !tmp.renameTo(target)) {
+                    throw new IOException("Failed to replace " + target + " with " + tmp);
+                }
+            }
+        } finally {
+            tmp.delete();
+        }
+        file.refresh();
+        updateLastModified();
+    }
+
+    private void findLines() throws IOException {
+        byte[] data;
+        File localFile = getLocalFile();
+        if (localFile == null) {
+            InputStream in = file.getContent().getInputStream();
+            try {
+                data = IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+        } else {
+            data = readFully(localFile);
+        }
+
+        // Same line breaks as onLoad()
+        int lines = 0;
+        long[] starts = new long[Math.max(16, size())];
+        long[] ends = new long[starts.length];
+        int pos = 0;
+        while (pos < data.length) {
+            int i = pos;
+            while (i < data.length && data[i] != '\n' && data[i] != '\r') {
+                i++;
+            }
+            if (lines == starts.length) {
+                long[] newStarts = new long[lines * 2];
+                long[] newEnds = new long[lines * 2];
+                System.arraycopy(starts, 0, newStarts, 0, lines);
+                System.arraycopy(ends, 0, newEnds, 0, lines);
+                starts = newStarts;
+                ends = newEnds;
+            }
+            starts[lines] = pos;
+            ends[lines++] = i;
+            if (i < data.length && data[i] == '\r' && i + 1 < data.length && data[i + 1] == '\n') {
+                i++;
+            }
+            pos = i + 1;
+        }
+        lineStarts = new long[lines];
+        lineEnds = new long[lines];
+        System.arraycopy(starts, 0, lineStarts, 0, lines);
+        System.arraycopy(ends, 0, lineEnds, 0, lines);
+    }
+
+    private void checkFile() {
+        long now = System.currentTimeMillis();
+        if (staleCheckInterval > 0 && lastChecked != -1 && now - lastChecked < staleCheckInterval) {
+            return;
+        }
+        lastChecked = now;
+        File localFile = getLocalFile();
+        if (localFile == null) {
+            try {
+                exists = file.exists();
+                if (exists) {
+                    currentModified = file.getContent().getLastModifiedTime();
+                    currentSize = file.getContent().getSize();
+                }
+            } catch (FileSystemException e) {
+                exists = false;
+            }
+        } else {
+            currentModified = localFile.lastModified();
+            currentSize = localFile.length();
+            exists = currentModified != 0 || localFile.exists();
+        }
+    }
+
+    private void updateLastModified() throws FileSystemException {
+        lastModified = file.getContent().getLastModifiedTime();
+        lastSize = file.getContent().getSize();
+        lastChecked = -1;
+    }
+
+    private File getLocalFile() {
+        if ("file".equals(file.getName().getScheme())) {
+            try {
+                return FileUtils.toFile(file.getURL());
+            } catch (FileSystemException e) {
+                // Fall back to VFS
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            byte[] data = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+            return buffer.hasRemaining() ? Arrays.copyOf(data, buffer.position()) : data;
+        } finally {
+            in.close();
+        }
     }
-}
\ No newline at end of file
+}
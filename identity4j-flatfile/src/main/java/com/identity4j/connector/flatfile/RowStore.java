@@ -0,0 +1,71 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+import java.util.List;
+
+/**
+ * Holds the rows of an {@link AbstractFlatFile} and the indexes used to find
+ * them by key.
+ */
+interface RowStore {
+
+	/**
+	 * Index rows on the given column. Must be called before rows are added.
+	 *
+	 * @param column column
+	 */
+	void addIndex(int column);
+
+	/**
+	 * Get a row given the value of an indexed column.
+	 *
+	 * @param column indexed column
+	 * @param key value
+	 * @return row or <code>null</code> if there is no such row
+	 */
+	List<String> getRowByKeyField(int column, String key);
+
+	/**
+	 * Add a row, indexing it on every indexed column it has a value for.
+	 *
+	 * @param row row
+	 * @return added
+	 */
+	boolean add(List<String> row);
+
+	/**
+	 * Remove a row and its index entries.
+	 *
+	 * @param row row
+	 * @return removed
+	 */
+	boolean remove(List<String> row);
+
+	/**
+	 * Get the position of a row, as returned by {@link #getRows()}. Rows are
+	 * matched by identity.
+	 *
+	 * @param row row
+	 * @return position or -1 if the row is not held by this store
+	 */
+	int indexOf(List<String> row);
+
+	/**
+	 * Get all rows, in file order.
+	 *
+	 * @return rows
+	 */
+	List<List<String>> getRows();
+
+	/**
+	 * Get the number of rows.
+	 *
+	 * @return rows
+	 */
+	int size();
+
+	/**
+	 * Remove all rows and index entries.
+	 */
+	void clear();
+}
@@ -0,0 +1,102 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompactRowStoreTest {
+
+	private static final String CONTENT = "root:x:0:0:root:/root:/bin/bash\r\n"
+			+ "joe:x:1000:1000:Joe Bloggs\\: Admin:/home/joe:/bin/bash\n"
+			+ "\n"
+			+ "fr\u00e9d:x:1001:1001::/home/fred:\n"
+			+ "bob:x:1002:1002:Bob:/home/bob:/bin/sh";
+
+	@Test
+	public void sameRowsAsListStorage() throws Exception {
+		TestFlatFile list = load(false);
+		TestFlatFile compact = load(true);
+		assertTrue(compact.isCompactStorage());
+		assertEquals(list.size(), compact.size());
+		assertEquals(5, compact.size());
+		assertEquals(list.getContents(), compact.getContents());
+		assertEquals(Arrays.asList("joe", "x", "1000", "1000", "Joe Bloggs: Admin", "/home/joe", "/bin/bash"),
+			compact.getRowByKeyField(0, "joe"));
+		assertEquals("", compact.getRowByKeyField(0, "fr\u00e9d").get(6));
+		assertEquals("bob", compact.getRowByKeyField(2, "1002").get(0));
+		assertNull(compact.getRowByKeyField(0, "nobody"));
+	}
+
+	@Test
+	public void modifyAddAndRemove() throws Exception {
+		TestFlatFile compact = load(true);
+
+		compact.getRowByKeyField(0, "joe").set(1, "secret");
+		assertEquals("secret", compact.getRowByKeyField(0, "joe").get(1));
+		assertEquals("secret", compact.getContents().get(1).get(1));
+
+		List<String> row = new ArrayList<String>(Arrays.asList("jim", "x", "1003", "1003", "", "/home/jim", ""));
+		compact.add(row);
+		assertEquals(6, compact.size());
+		assertEquals(row, compact.getRowByKeyField(2, "1003"));
+
+		assertTrue(compact.remove(row));
+		assertNull(compact.getRowByKeyField(0, "jim"));
+		assertTrue(compact.remove("root"));
+		assertFalse(compact.remove("root"));
+		assertNull(compact.getRowByKeyField(2, "0"));
+		assertEquals(4, compact.size());
+		assertEquals("joe", compact.getContents().get(0).get(0));
+	}
+
+	@Test
+	public void manyRows() throws Exception {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			content.append("user").append(i).append(":x:").append(i).append('\n');
+		}
+		TestFlatFile compact = new TestFlatFile(true);
+		compact.load(new ByteArrayInputStream(content.toString().getBytes("UTF-8")), "UTF-8");
+		assertEquals(10000, compact.size());
+		for (int i = 0; i < 10000; i += 7) {
+			assertEquals("user" + i, compact.getRowByKeyField(2, String.valueOf(i)).get(0));
+		}
+		for (int i = 0; i < 10000; i += 2) {
+			assertTrue(compact.remove("user" + i));
+		}
+		assertEquals(5000, compact.size());
+		assertNull(compact.getRowByKeyField(0, "user10"));
+		assertEquals("9999", compact.getRowByKeyField(0, "user9999").get(2));
+	}
+
+	private static TestFlatFile load(boolean compact) throws IOException {
+		TestFlatFile file = new TestFlatFile(compact);
+		file.load(new ByteArrayInputStream(CONTENT.getBytes("UTF-8")), "UTF-8");
+		return file;
+	}
+
+	static class TestFlatFile extends DelimitedFlatFile {
+		TestFlatFile(boolean compact) {
+			setCompactStorage(compact);
+			addIndex(0);
+			addIndex(2);
+			setFieldSeparator(':');
+			setEscapeCharacter('\\');
+		}
+
+		@Override
+		protected void writeRows(List<List<String>> rows, boolean append) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FlatFileSnapshotTest {
+
+	@Test
+	public void allAddedWithoutPrevious() {
+		FlatFileSnapshot snapshot = new FlatFileSnapshot();
+		snapshot.addIdentity("joe", "1000", "joe:x:1000");
+		snapshot.addIdentity("bob", "1001", "bob:x:1001");
+
+		List<String> added = new ArrayList<String>();
+		List<String> modified = new ArrayList<String>();
+		List<String> deleted = new ArrayList<String>();
+		snapshot.diffIdentities(null, added, modified, deleted);
+		assertEquals(2, added.size());
+		assertTrue(modified.isEmpty());
+		assertTrue(deleted.isEmpty());
+	}
+
+	@Test
+	public void diffAgainstPrevious() {
+		FlatFileSnapshot previous = new FlatFileSnapshot();
+		previous.addIdentity("joe", "1000", "joe:x:1000");
+		previous.addIdentity("bob", "1001", "bob:x:1001");
+		previous.addIdentity("ann", "1002", "ann:x:1002");
+		previous.addRole("users", "100", "users:x:100:joe");
+
+		FlatFileSnapshot current = new FlatFileSnapshot();
+		current.addIdentity("joe", "1000", "joe:x:1000");
+		current.addIdentity("bob", "1001", "bob:x:1001:/bin/zsh");
+		current.addIdentity("sue", "1003", "sue:x:1003");
+		current.addRole("users", "100", "users:x:100:joe,sue");
+		assertNotSame(previous.getId(), current.getId());
+
+		List<String> added = new ArrayList<String>();
+		List<String> modified = new ArrayList<String>();
+		List<String> deleted = new ArrayList<String>();
+		current.diffIdentities(previous, added, modified, deleted);
+		assertEquals(Arrays.asList("sue"), added);
+		assertEquals(Arrays.asList("bob"), modified);
+		assertEquals(Arrays.asList("1002"), deleted);
+
+		added.clear();
+		modified.clear();
+		deleted.clear();
+		current.diffRoles(previous, added, modified, deleted);
+		assertTrue(added.isEmpty());
+		assertEquals(Arrays.asList("users"), modified);
+		assertTrue(deleted.isEmpty());
+	}
+}
@@ -0,0 +1,179 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.vfs2.VFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalDelimitedFlatFileTest {
+
+	private static final String CONTENT = "root:x:0:0:root:/root:/bin/bash\n"
+			+ "joe:x:1000:1000:Joe:/home/joe:/bin/bash\r\n"
+			+ "bob:x:1002:1002:Bob:/home/bob:/bin/sh\n";
+
+	private File file;
+
+	@Before
+	public void createFile() throws Exception {
+		file = File.createTempFile("passwd", ".txt");
+		FileUtils.writeStringToFile(file, CONTENT, "UTF-8");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void sameLengthRowPatchedInPlace() throws Exception {
+		for (boolean compact : new boolean[] { false, true }) {
+			FileUtils.writeStringToFile(file, CONTENT, "UTF-8");
+			LocalDelimitedFlatFile flatFile = load(compact);
+			List<String> row = flatFile.getRowByKeyField(0, "joe");
+			row.set(1, "!");
+			flatFile.writeRow(row);
+			// Line endings are only kept if the row was patched
+			assertEquals(CONTENT.replace("joe:x", "joe:!"), FileUtils.readFileToString(file, "UTF-8"));
+		}
+	}
+
+	@Test
+	public void longerRowRewritesFile() throws Exception {
+		LocalDelimitedFlatFile flatFile = load(false);
+		List<String> row = flatFile.getRowByKeyField(0, "bob");
+		row.set(1, "$1$salt$hash");
+		flatFile.writeRow(row);
+		assertTrue(FileUtils.readFileToString(file, "UTF-8").contains("bob:$1$salt$hash:1002"));
+		assertFalse(flatFile.isStale());
+	}
+
+	@Test
+	public void changesWrittenBehind() throws Exception {
+		LocalDelimitedFlatFile flatFile = load(false);
+		flatFile.setFlushInterval(60000);
+		flatFile.getRowByKeyField(0, "joe").set(1, "!");
+		flatFile.writeRow(flatFile.getRowByKeyField(0, "joe"));
+		flatFile.remove("root");
+		flatFile.writeRows();
+		assertTrue(flatFile.isDirty());
+		assertFalse(flatFile.isStale());
+		assertEquals(CONTENT, FileUtils.readFileToString(file, "UTF-8"));
+
+		flatFile.flush();
+		assertFalse(flatFile.isDirty());
+		String content = FileUtils.readFileToString(file, "UTF-8");
+		assertFalse(content.contains("root"));
+		assertTrue(content.contains("joe:!:1000"));
+	}
+
+	@Test
+	public void externalChangeMergedOnFlush() throws Exception {
+		for (boolean compact : new boolean[] { false, true }) {
+			FileUtils.writeStringToFile(file, CONTENT, "UTF-8");
+			LocalDelimitedFlatFile flatFile = load(compact);
+			flatFile.setFlushInterval(60000);
+			flatFile.getRowByKeyField(0, "joe").set(1, "!");
+			flatFile.writeRow(flatFile.getRowByKeyField(0, "joe"));
+			flatFile.remove("root");
+			flatFile.writeRows(Collections.<List<String>>emptyList());
+
+			// Something else, such as useradd, changes the file
+			FileUtils.writeStringToFile(file, CONTENT.replace("/bin/sh", "/bin/zsh")
+					+ "jim:x:1003:1003:Jim:/home/jim:/bin/sh\n", "UTF-8");
+
+			flatFile.flush();
+			assertFalse(flatFile.isDirty());
+			String content = FileUtils.readFileToString(file, "UTF-8");
+			assertFalse(content.contains("root"));
+			assertTrue(content.contains("joe:!:1000"));
+			assertTrue(content.contains("bob:x:1002:1002:Bob:/home/bob:/bin/zsh"));
+			assertTrue(content.contains("jim:x:1003"));
+			assertEquals(3, flatFile.size());
+			assertFalse(flatFile.isStale());
+		}
+	}
+
+	@Test
+	public void unmergeableExternalChangeNotOverwritten() throws Exception {
+		LocalDelimitedFlatFile flatFile = load(false);
+		flatFile.setFlushInterval(60000);
+		flatFile.getRowByKeyField(0, "joe").set(1, "!");
+		flatFile.writeRows();
+
+		String external = CONTENT + "jim:x:1003:1003:Jim:/home/jim:/bin/sh\n";
+		FileUtils.writeStringToFile(file, external, "UTF-8");
+
+		try {
+			flatFile.flush();
+			fail("Expected flush to fail");
+		} catch (IOException ioe) {
+			// Expected
+		}
+		assertEquals(external, FileUtils.readFileToString(file, "UTF-8"));
+		assertTrue(flatFile.isDirty());
+		try {
+			flatFile.clear();
+			fail("Expected clear to fail");
+		} catch (IllegalStateException ise) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void atomicWriteReplacesFile() throws Exception {
+		LocalDelimitedFlatFile flatFile = load(false);
+		flatFile.setAtomicWrites(true);
+		flatFile.remove("bob");
+		flatFile.writeRows();
+		assertFalse(FileUtils.readFileToString(file, "UTF-8").contains("bob"));
+		assertEquals(0, file.getParentFile().listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(file.getName()) && name.endsWith(".tmp");
+			}
+		}).length);
+	}
+
+	@Test
+	public void staleChecksThrottled() throws Exception {
+		LocalDelimitedFlatFile flatFile = load(true);
+		flatFile.setStaleCheckInterval(60000);
+		assertFalse(flatFile.isStale());
+		long modified = file.lastModified();
+		FileUtils.writeStringToFile(file, CONTENT + "jim:x:1003:1003:Jim:/home/jim:/bin/sh\n", "UTF-8");
+		// Same time, different size
+		file.setLastModified(modified);
+		assertFalse(flatFile.isStale());
+
+		flatFile.setStaleCheckInterval(0);
+		assertTrue(flatFile.isStale());
+		flatFile.reloadIfStale();
+		assertEquals(4, flatFile.size());
+		assertEquals("1003", flatFile.getRowByKeyField(0, "jim").get(2));
+		assertFalse(flatFile.isStale());
+		assertTrue(flatFile.exists());
+	}
+
+	private LocalDelimitedFlatFile load(boolean compact) throws Exception {
+		LocalDelimitedFlatFile flatFile = new LocalDelimitedFlatFile(VFS.getManager().resolveFile(file.getAbsolutePath()),
+			"UTF-8");
+		flatFile.setCompactStorage(compact);
+		flatFile.addIndex(0);
+		flatFile.setFieldSeparator(':');
+		flatFile.setEscapeCharacter('\\');
+		flatFile.load();
+		return flatFile;
+	}
+}
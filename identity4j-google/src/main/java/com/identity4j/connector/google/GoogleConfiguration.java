@@ -25,8 +25,11 @@ public class GoogleConfiguration extends AbstractConnectorConfiguration{
 	public static final String GOOGLE_CUSTOMER_DOMAIN ="googleCustomerDomain";
 	public static final String GOOGLE_FETCH_ROLES ="googleFetchRoles";
 	public static final String GOOGLE_FETCH_DELAY ="googleRequestInterval";
+	public static final String GOOGLE_REQUEST_BURST ="googleRequestBurst";
 	public static final String GOOGLE_INCLUDE_ORGUNITS ="googleIncludeOrgunits";
 	public static final String GOOGLE_EXCLUDE_ORGUNITS ="googleExcludeOrgunits";
+	public static final String GOOGLE_ROLE_MEMBERSHIP_MODE ="googleRoleMembershipMode";
+	public static final String GOOGLE_ROLE_MEMBERSHIP_TTL ="googleRoleMembershipTTL";
 	
 	
 	public GoogleConfiguration(MultiMap configurationParameters) {
@@ -113,10 +116,42 @@ public class GoogleConfiguration extends AbstractConnectorConfiguration{
 		return configurationParameters.getBooleanOrDefault(GOOGLE_FETCH_ROLES, false);
 	}
 
+	/**
+	 * How the groups of a user are resolved when roles are fetched, the
+	 * default is {@link RoleMembershipMode#perUser}.
+	 * 
+	 * @return role membership mode
+	 */
+	public RoleMembershipMode getRoleMembershipMode() {
+		return RoleMembershipMode.valueOf(configurationParameters.getStringOrDefault(GOOGLE_ROLE_MEMBERSHIP_MODE,
+				RoleMembershipMode.perUser.name()));
+	}
+
+	/**
+	 * How long the reverse index of user to groups is reused for, in
+	 * milliseconds, the default is 300000 (5 minutes).
+	 * 
+	 * @return role membership time to live
+	 */
+	public int getRoleMembershipTTL() {
+		return configurationParameters.getIntegerOrDefault(GOOGLE_ROLE_MEMBERSHIP_TTL, 300000);
+	}
+
 	public Integer getRequestInterval() {
 		return configurationParameters.getIntegerOrDefault(GOOGLE_FETCH_DELAY, 50);
 	}
 
+	/**
+	 * Number of requests that may be made at once after being idle, before
+	 * being held to one every {@link #getRequestInterval()} milliseconds, the
+	 * default is 10.
+	 * 
+	 * @return request burst
+	 */
+	public int getRequestBurst() {
+		return configurationParameters.getIntegerOrDefault(GOOGLE_REQUEST_BURST, 10);
+	}
+
 	/**
 	 * Get a list of Orgunits to include the search. If not specified, all orgunits are
 	 * included..
@@ -3,7 +3,9 @@ package com.identity4j.connector.google;
 import static com.identity4j.util.StringUtil.isNullOrEmpty;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.nio.charset.Charset;
@@ -17,11 +19,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.codec.binary.Base64InputStream;
 import org.apache.commons.logging.Log;
@@ -31,11 +39,17 @@ import com.google.api.client.auth.oauth2.TokenResponseException;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential.Builder;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonError.ErrorInfo;
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
 import com.google.api.client.http.apache.ApacheHttpTransport;
 import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.JsonFactory;
@@ -44,17 +58,20 @@ import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.PemReader;
 import com.google.api.client.util.PemReader.Section;
 import com.google.api.client.util.SecurityUtils;
+import com.google.api.client.util.StringUtils;
 import com.google.api.services.admin.directory.Directory;
 import com.google.api.services.admin.directory.DirectoryScopes;
 import com.google.api.services.admin.directory.model.Group;
 import com.google.api.services.admin.directory.model.Groups;
 import com.google.api.services.admin.directory.model.Member;
+import com.google.api.services.admin.directory.model.Members;
 import com.google.api.services.admin.directory.model.User;
 import com.google.api.services.admin.directory.model.Users;
 import com.identity4j.connector.AbstractConnector;
 import com.identity4j.connector.ConnectorCapability;
 import com.identity4j.connector.ConnectorConfigurationParameters;
 import com.identity4j.connector.PrincipalType;
+import com.identity4j.connector.Projection;
 import com.identity4j.connector.WebAuthenticationAPI;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
@@ -62,6 +79,7 @@ import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.util.CollectionUtil;
+import com.identity4j.util.RateLimiter;
 import com.identity4j.util.StringUtil;
 import com.identity4j.util.passwords.PasswordCharacteristics;
 
@@ -94,6 +112,8 @@ import com.identity4j.util.passwords.PasswordCharacteristics;
  */
 public class GoogleConnector extends AbstractConnector {
 
+	private static final int FORBIDDEN = 403;
+	private static final int MAX_ERROR_SIZE = 65536;
 	private static final int RESOURCE_CONFLICT = 409;
 	private static final int RESOURCE_NOT_FOUND = 404;
 
@@ -104,7 +124,14 @@ public class GoogleConnector extends AbstractConnector {
 
 	private static final Log log = LogFactory.getLog(GoogleConnector.class);
 
-	private long lastRequestTime = 0L;
+	private RateLimiter rateLimiter;
+
+	// Reverse index of user id and email to groups, guarded by roleMembershipLock
+	private final Object roleMembershipLock = new Object();
+	private Map<String, List<Role>> roleMembership;
+	private long roleMembershipExpires;
+	private FutureTask<Map<String, List<Role>>> roleMembershipBuild;
+	private int roleMembershipGeneration;
 
 	static Set<ConnectorCapability> capabilities = new HashSet<ConnectorCapability>(
 			Arrays.asList(new ConnectorCapability[] { ConnectorCapability.passwordChange,
@@ -124,17 +151,22 @@ public class GoogleConnector extends AbstractConnector {
 		return capabilities;
 	}
 
+	/**
+	 * Wait until the rate limiter allows another request. Safe to call from
+	 * any number of threads.
+	 */
 	protected void checkRequestInterval() {
-		if (lastRequestTime > 0) {
-			long sinceLastRequest = System.currentTimeMillis() - lastRequestTime;
-			if (sinceLastRequest > 0 && sinceLastRequest < configuration.getRequestInterval()) {
-				try {
-					Thread.sleep(configuration.getRequestInterval() - sinceLastRequest);
-				} catch (InterruptedException e) {
-				}
-			}
-		}
-		lastRequestTime = System.currentTimeMillis();
+		rateLimiter.acquire();
+	}
+
+	/**
+	 * Get the rate limiter that paces requests to Google, which also records
+	 * how long requests were throttled.
+	 * 
+	 * @return rate limiter
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
 	}
 
 	/**
@@ -224,6 +256,7 @@ public class GoogleConnector extends AbstractConnector {
 		try {
 			checkRequestInterval();
 			directory.users().delete(principalName).execute();
+			invalidateRoleMembership();
 		} catch (GoogleJsonResponseException e) {
 			log.error("Problem in delete identity " + e.getMessage(), e);
 			if (e.getStatusCode() == RESOURCE_NOT_FOUND)
@@ -320,7 +353,7 @@ public class GoogleConnector extends AbstractConnector {
 			User user = directory.users().get(name).execute();
 			GoogleIdentity identity = GoogleModelConvertor.googleUserToGoogleIdentity(user);
 			if (configuration.getFetchRoles()) {
-				List<Role> roles = findAllRolesForAUser(user.getPrimaryEmail());
+				List<Role> roles = findRolesForUser(user);
 				identity.setRoles(roles);
 			}
 			return identity;
@@ -368,6 +401,24 @@ public class GoogleConnector extends AbstractConnector {
 	 */
 	@Override
 	public Iterator<Identity> allIdentities() throws ConnectorException {
+		return listIdentities(null, configuration.getFetchRoles());
+	}
+
+	/**
+	 * Lists all identities, only requesting the user fields required by the
+	 * projection with a <code>fields</code> partial response mask. Roles are
+	 * only found if they are configured to be fetched and are projected.
+	 */
+	@Override
+	public Iterator<Identity> allIdentities(Projection projection) throws ConnectorException {
+		if (projection.isAll()) {
+			return allIdentities();
+		}
+		return listIdentities(getFields(projection),
+				configuration.getFetchRoles() && projection.includes(Projection.ROLES));
+	}
+
+	private Iterator<Identity> listIdentities(final String fields, final boolean fetchRoles) {
 		if (log.isWarnEnabled()) {
 			log.warn("Listing all google identities");
 		}
@@ -391,6 +442,10 @@ public class GoogleConnector extends AbstractConnector {
 
 					list.setMaxResults(500);
 
+					if (fields != null) {
+						list.setFields(fields);
+					}
+
 					if (pageToken != null) {
 						list.setPageToken(pageToken);
 					}
@@ -416,8 +471,8 @@ public class GoogleConnector extends AbstractConnector {
 								&& (excludes.isEmpty() || !excludes.contains(orgUnit))) {
 
 							GoogleIdentity identity = GoogleModelConvertor.googleUserToGoogleIdentity(user);
-							if (configuration.getFetchRoles()) {
-								List<Role> roles = findAllRolesForAUser(user.getPrimaryEmail());
+							if (fetchRoles) {
+								List<Role> roles = findRolesForUser(user);
 								identity.setRoles(roles);
 							}
 							googleIdentities.add(identity);
@@ -460,6 +515,9 @@ public class GoogleConnector extends AbstractConnector {
 
 			@Override
 			public Identity next() {
+				if (currentIterator == null) {
+					getMoreResults();
+				}
 				if (currentIterator.hasNext()) {
 					return currentIterator.next();
 				} else if (expectMoreResults) {
@@ -761,6 +819,7 @@ public class GoogleConnector extends AbstractConnector {
 		try {
 			checkRequestInterval();
 			directory.groups().delete(principleName).execute();
+			invalidateRoleMembership();
 		} catch (GoogleJsonResponseException e) {
 			log.error("Problem in delete identity " + e.getMessage(), e);
 			if (e.getStatusCode() == RESOURCE_NOT_FOUND)
@@ -808,6 +867,170 @@ public class GoogleConnector extends AbstractConnector {
 		}
 	}
 
+	/**
+	 * Helper method to find the roles of a user, using the configured
+	 * {@link RoleMembershipMode}.
+	 * 
+	 * @param user
+	 * 
+	 * @throws ConnectorException
+	 *             for api, connection related errors.
+	 * 
+	 * @return all roles associated with the user
+	 */
+	private List<Role> findRolesForUser(User user) {
+		if (configuration.getRoleMembershipMode() != RoleMembershipMode.reverse) {
+			return findAllRolesForAUser(user.getPrimaryEmail());
+		}
+		Map<String, List<Role>> membership = getRoleMembership();
+		// Members may be listed by id, email or both, so take either
+		Set<Role> roles = new LinkedHashSet<Role>();
+		if (user.getId() != null && membership.containsKey(user.getId())) {
+			roles.addAll(membership.get(user.getId()));
+		}
+		if (user.getPrimaryEmail() != null && membership.containsKey(user.getPrimaryEmail().toLowerCase())) {
+			roles.addAll(membership.get(user.getPrimaryEmail().toLowerCase()));
+		}
+		return new ArrayList<Role>(roles);
+	}
+
+	/**
+	 * Get the reverse index of user id and email address to groups, listing
+	 * every group and its members if there is no index or it has expired.
+	 * Only one thread builds the index, without holding any lock while it
+	 * does. Until it is done, other threads are given the expired index if
+	 * there is one, or otherwise wait for the new one.
+	 * 
+	 * @throws ConnectorException
+	 *             for api, connection related errors.
+	 * 
+	 * @return index of user to roles
+	 */
+	private Map<String, List<Role>> getRoleMembership() {
+		FutureTask<Map<String, List<Role>>> build;
+		boolean building = false;
+		synchronized (roleMembershipLock) {
+			if (roleMembership != null && System.currentTimeMillis() < roleMembershipExpires) {
+				return roleMembership;
+			}
+			if (roleMembershipBuild == null) {
+				final int generation = roleMembershipGeneration;
+				roleMembershipBuild = new FutureTask<Map<String, List<Role>>>(new Callable<Map<String, List<Role>>>() {
+					public Map<String, List<Role>> call() {
+						Map<String, List<Role>> membership = indexRoleMembership();
+						synchronized (roleMembershipLock) {
+							// Memberships may have changed while indexing
+							if (generation == roleMembershipGeneration) {
+								roleMembership = membership;
+								roleMembershipExpires = System.currentTimeMillis()
+										+ configuration.getRoleMembershipTTL();
+							}
+						}
+						return membership;
+					}
+				});
+				building = true;
+			} else if (roleMembership != null) {
+				return roleMembership;
+			}
+			build = roleMembershipBuild;
+		}
+		try {
+			if (building) {
+				build.run();
+			}
+			return build.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted waiting for group members to be indexed.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new ConnectorException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			if (building) {
+				synchronized (roleMembershipLock) {
+					if (roleMembershipBuild == build) {
+						roleMembershipBuild = null;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * List every group and its members to build a reverse index of user id
+	 * and email address to groups. Only members of type <code>USER</code>
+	 * are indexed, see {@link RoleMembershipMode#reverse}.
+	 * 
+	 * @throws ConnectorException
+	 *             for api, connection related errors.
+	 * 
+	 * @return index of user to roles
+	 */
+	private Map<String, List<Role>> indexRoleMembership() {
+		if (log.isInfoEnabled()) {
+			log.info("Indexing google group members");
+		}
+		Map<String, List<Role>> membership = new HashMap<String, List<Role>>();
+		try {
+			for (Iterator<Role> it = allRoles(); it.hasNext();) {
+				Role role = it.next();
+				String pageToken = null;
+				do {
+					com.google.api.services.admin.directory.Directory.Members.List list = directory.members()
+							.list(role.getGuid());
+					list.setMaxResults(200);
+					if (pageToken != null) {
+						list.setPageToken(pageToken);
+					}
+					checkRequestInterval();
+					Members members = list.execute();
+					pageToken = members.getNextPageToken();
+					if (members.getMembers() != null) {
+						for (Member member : members.getMembers()) {
+							if (!"USER".equals(member.getType())) {
+								continue;
+							}
+							if (member.getId() != null) {
+								addRoleMembership(membership, member.getId(), role);
+							}
+							if (member.getEmail() != null) {
+								addRoleMembership(membership, member.getEmail().toLowerCase(), role);
+							}
+						}
+					}
+				} while (pageToken != null);
+			}
+		} catch (IOException e) {
+			log.error("Problem in indexing group members " + e.getMessage(), e);
+			throw new ConnectorException(e.getMessage(), e);
+		}
+		return membership;
+	}
+
+	private static void addRoleMembership(Map<String, List<Role>> membership, String key, Role role) {
+		List<Role> roles = membership.get(key);
+		if (roles == null) {
+			roles = new ArrayList<Role>();
+			membership.put(key, roles);
+		}
+		roles.add(role);
+	}
+
+	/**
+	 * Discard the reverse index of user to groups after memberships change,
+	 * so it is rebuilt when next needed. An index being built is not kept.
+	 */
+	private void invalidateRoleMembership() {
+		synchronized (roleMembershipLock) {
+			roleMembership = null;
+			roleMembershipBuild = null;
+			roleMembershipGeneration++;
+		}
+	}
+
 	/**
 	 * Helper method to find all roles associated with a principal. <br/>
 	 * <b>Note:</b> Role in google data store is referred as groups and
@@ -871,6 +1094,7 @@ public class GoogleConnector extends AbstractConnector {
 			member.setType("USER");
 			checkRequestInterval();
 			directory.members().insert(getRoleByName(roleName).getGuid(), member).execute();
+			invalidateRoleMembership();
 		} catch (IOException e) {
 			log.error("Problem in adding role " + e.getMessage(), e);
 			throw new ConnectorException(e.getMessage(), e);
@@ -903,6 +1127,7 @@ public class GoogleConnector extends AbstractConnector {
 			member.setType("USER");
 			checkRequestInterval();
 			directory.members().delete(getRoleByName(roleName).getGuid(), email).execute();
+			invalidateRoleMembership();
 		} catch (IOException e) {
 			log.error("Problem in removing role " + e.getMessage(), e);
 			throw new ConnectorException(e.getMessage(), e);
@@ -986,7 +1211,7 @@ public class GoogleConnector extends AbstractConnector {
 		if (log.isWarnEnabled()) {
 			log.warn("Opening google directory");
 		}
-		configuration = (GoogleConfiguration) parameters;
+		configure((GoogleConfiguration) parameters);
 
 		try {
 			// consents given to service account id
@@ -1080,8 +1305,7 @@ public class GoogleConnector extends AbstractConnector {
 			});
 
 			// directory instance provides API for remote methods
-			directory = new Directory.Builder(createTransport(), JSON_FACTORY, credential)
-					.setApplicationName("Identity4J").build();
+			directory = createDirectory(createTransport(), credential);
 
 			log.info("Directory instance created");
 		} catch (Exception e) {
@@ -1094,6 +1318,70 @@ public class GoogleConnector extends AbstractConnector {
 
 	}
 
+	/**
+	 * Build the <code>fields</code> mask of a user listing for a projection.
+	 * The id, primary email and organisational unit are always requested, as
+	 * they are needed to identify and filter users and find their roles. Names
+	 * that are not one of the projection constants are taken to be user
+	 * fields.
+	 * 
+	 * @param projection parts of the identity required
+	 * @return fields mask
+	 */
+	static String getFields(Projection projection) {
+		Set<String> fields = new LinkedHashSet<String>();
+		fields.add("id");
+		fields.add("primaryEmail");
+		fields.add("orgUnitPath");
+		for (String attr : projection.getAttributes()) {
+			if (attr.equalsIgnoreCase(Projection.FULL_NAME)) {
+				fields.add("name/fullName");
+			} else if (attr.equalsIgnoreCase(Projection.ACCOUNT_STATUS)) {
+				fields.add("suspended");
+			} else if (attr.equalsIgnoreCase(Projection.PASSWORD_STATUS)) {
+				fields.add("changePasswordAtNextLogin");
+			} else if (attr.equalsIgnoreCase(Projection.LAST_SIGN_ON)) {
+				fields.add("lastLoginTime");
+			} else if (!attr.equalsIgnoreCase(Projection.EMAIL) && !attr.equalsIgnoreCase(Projection.OTHER_NAME)
+					&& !attr.equalsIgnoreCase(Projection.MOBILE) && !attr.equalsIgnoreCase(Projection.ROLES)
+					&& attr.matches("[A-Za-z]+")) {
+				// Anything that is not a plain field name would change the mask
+				fields.add(attr);
+			}
+		}
+		return "nextPageToken,users(" + StringUtil.toString(fields, ",") + ")";
+	}
+
+	/**
+	 * Open against a transport without credentials, so tests may answer
+	 * requests themselves.
+	 * 
+	 * @param configuration configuration
+	 * @param transport transport
+	 */
+	void open(GoogleConfiguration configuration, HttpTransport transport) {
+		configure(configuration);
+		directory = createDirectory(transport, null);
+	}
+
+	private void configure(GoogleConfiguration configuration) {
+		this.configuration = configuration;
+		rateLimiter = RateLimiter.forInterval(configuration.getRequestInterval(), configuration.getRequestBurst());
+	}
+
+	private Directory createDirectory(HttpTransport transport, final HttpRequestInitializer credential) {
+		return new Directory.Builder(transport, JSON_FACTORY, new HttpRequestInitializer() {
+			@Override
+			public void initialize(HttpRequest httpRequest) throws IOException {
+				if (credential != null) {
+					credential.initialize(httpRequest);
+				}
+				httpRequest.setUnsuccessfulResponseHandler(
+						new BackoffResponseHandler(httpRequest.getUnsuccessfulResponseHandler()));
+			}
+		}).setApplicationName("Identity4J").build();
+	}
+
 	private static PrivateKey privateKeyFromPkcs8(String privateKeyPem) throws IOException {
 		Reader reader = new StringReader(privateKeyPem);
 		Section section = PemReader.readFirstSectionAndClose(reader, "PRIVATE KEY");
@@ -1153,4 +1441,105 @@ public class GoogleConnector extends AbstractConnector {
 			throw new ConnectorException(e.getMessage(), e);
 		}
 	}
+
+	/**
+	 * Retries requests Google rejected for their rate, or because it was
+	 * temporarily unavailable, after backing off. Any other failure is left to
+	 * the handler that was installed before, e.g. the credential refreshing
+	 * its token.
+	 * <p>
+	 * Google also rejects requests for their rate with a 403 status, which can
+	 * only be told apart from being forbidden by the reason in the error body.
+	 * So the (small) body of a 403 is read to check it, and if the request is
+	 * not retried the error is thrown from the body that was read, as it can
+	 * not be read again.
+	 */
+	private class BackoffResponseHandler implements HttpUnsuccessfulResponseHandler {
+		private final HttpUnsuccessfulResponseHandler delegate;
+		private int attempt;
+
+		BackoffResponseHandler(HttpUnsuccessfulResponseHandler delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+				throws IOException {
+			if (delegate != null && delegate.handleResponse(request, response, supportsRetry)) {
+				return true;
+			}
+			if (supportsRetry && RateLimiter.isRetryable(response.getStatusCode())) {
+				if (log.isWarnEnabled()) {
+					log.warn("Google request rejected with status " + response.getStatusCode() + ", backing off");
+				}
+				return rateLimiter.backoff(attempt++, RateLimiter
+						.parseRetryAfter(response.getHeaders().getFirstHeaderStringValue(RateLimiter.RETRY_AFTER)));
+			}
+			if (response.getStatusCode() == FORBIDDEN) {
+				String content = readContent(response);
+				GoogleJsonError details = parseError(content);
+				if (supportsRetry && isRateLimitExceeded(details)) {
+					if (log.isWarnEnabled()) {
+						log.warn("Google request rejected for exceeding rate limit, backing off");
+					}
+					if (rateLimiter.backoff(attempt++, -1)) {
+						return true;
+					}
+				}
+				StringBuilder message = HttpResponseException.computeMessageBuffer(response);
+				String detail = details == null ? content : details.toPrettyString();
+				if (!isNullOrEmpty(detail)) {
+					message.append(StringUtils.LINE_SEPARATOR).append(detail);
+				}
+				throw new GoogleJsonResponseException(new HttpResponseException.Builder(response.getStatusCode(),
+						response.getStatusMessage(), response.getHeaders()).setContent(content)
+								.setMessage(message.toString()),
+						details);
+			}
+			return false;
+		}
+	}
+
+	private static String readContent(HttpResponse response) throws IOException {
+		InputStream in = response.getContent();
+		if (in == null) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int r;
+			while (out.size() < MAX_ERROR_SIZE && (r = in.read(buf)) != -1) {
+				out.write(buf, 0, r);
+			}
+			return new String(out.toByteArray(), response.getContentCharset());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static GoogleJsonError parseError(String content) {
+		if (isNullOrEmpty(content)) {
+			return null;
+		}
+		try {
+			GoogleJsonErrorContainer container = JSON_FACTORY.fromString(content, GoogleJsonErrorContainer.class);
+			return container == null ? null : container.getError();
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	static boolean isRateLimitExceeded(GoogleJsonError details) {
+		if (details != null && details.getErrors() != null) {
+			for (ErrorInfo error : details.getErrors()) {
+				if ("rateLimitExceeded".equals(error.getReason()) || "userRateLimitExceeded".equals(error.getReason())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
 }
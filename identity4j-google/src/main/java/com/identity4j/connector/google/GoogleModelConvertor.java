@@ -41,7 +41,9 @@ class GoogleModelConvertor {
 	public static GoogleIdentity googleUserToGoogleIdentity(User user){
 		GoogleIdentity googleIdentity = new GoogleIdentity(user.getId(),user.getPrimaryEmail());
 		
-		googleIdentity.setFullName(user.getName().getFullName());
+		// Name is not present when a listing did not ask for it
+		if(user.getName() != null)
+			googleIdentity.setFullName(user.getName().getFullName());
 		googleIdentity.setAddress(Media.email, user.getPrimaryEmail());
 		
 		// TODO how?
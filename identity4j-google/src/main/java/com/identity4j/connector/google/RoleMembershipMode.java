@@ -0,0 +1,21 @@
+package com.identity4j.connector.google;
+
+/**
+ * How the groups of a user are resolved when roles are fetched.
+ */
+public enum RoleMembershipMode {
+	/**
+	 * List the groups of each user with its own request.
+	 */
+	perUser,
+	/**
+	 * List every group and its members once, building a reverse index of
+	 * user to groups that is reused until it expires. Best suited to full
+	 * enumerations.
+	 * <p>
+	 * Only members of type <code>USER</code> are indexed, so a user gets only
+	 * the groups it is a direct member of. Groups it belongs to through a
+	 * nested group are left out, which may differ from {@link #perUser}.
+	 */
+	reverse
+}
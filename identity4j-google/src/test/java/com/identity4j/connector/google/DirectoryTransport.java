@@ -0,0 +1,60 @@
+package com.identity4j.connector.google;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.identity4j.util.MultiMap;
+
+/**
+ * Transport that answers Directory API requests in tests, recording the URL of
+ * each.
+ */
+abstract class DirectoryTransport extends MockHttpTransport {
+
+	final List<GenericUrl> requests = new CopyOnWriteArrayList<GenericUrl>();
+
+	@Override
+	public LowLevelHttpRequest buildRequest(final String method, final String url) throws IOException {
+		return new MockLowLevelHttpRequest(url) {
+			@Override
+			public LowLevelHttpResponse execute() throws IOException {
+				GenericUrl genericUrl = new GenericUrl(url);
+				requests.add(genericUrl);
+				return respond(method, genericUrl);
+			}
+		};
+	}
+
+	protected abstract LowLevelHttpResponse respond(String method, GenericUrl url) throws IOException;
+
+	static MockLowLevelHttpResponse json(String content) {
+		return json(200, content);
+	}
+
+	static MockLowLevelHttpResponse json(int status, String content) {
+		return new MockLowLevelHttpResponse().setStatusCode(status).setContentType(Json.MEDIA_TYPE)
+				.setContent(content);
+	}
+
+	static GoogleConnector open(DirectoryTransport transport, String... parameters) {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(GoogleConfiguration.GOOGLE_CUSTOMER_DOMAIN, "example.com");
+		properties.put(GoogleConfiguration.GOOGLE_FETCH_DELAY, "0");
+		for (int i = 0; i < parameters.length; i += 2) {
+			properties.put(parameters[i], parameters[i + 1]);
+		}
+		GoogleConnector connector = new GoogleConnector();
+		connector.open(new GoogleConfiguration(MultiMap.toMultiMap(properties)), transport);
+		return connector;
+	}
+}
@@ -0,0 +1,63 @@
+package com.identity4j.connector.google;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.identity4j.connector.exception.ConnectorException;
+
+public class GoogleBackoffTest {
+
+	private static final String GROUP = "{\"id\":\"g1\",\"email\":\"staff@example.com\",\"name\":\"Staff\"}";
+
+	@Test
+	public void itShouldRetryRequestsRejectedForTheirRate() {
+		final AtomicInteger rejections = new AtomicInteger(2);
+		DirectoryTransport transport = new DirectoryTransport() {
+			@Override
+			protected LowLevelHttpResponse respond(String method, GenericUrl url) throws IOException {
+				if (rejections.getAndDecrement() > 0) {
+					return json(403, error(403, rejections.get() == 1 ? "rateLimitExceeded" : "userRateLimitExceeded"));
+				}
+				return json(GROUP);
+			}
+		};
+		GoogleConnector connector = DirectoryTransport.open(transport);
+		connector.getRateLimiter().setInitialBackoff(1);
+		Assert.assertEquals("g1", connector.getRoleByName("staff@example.com").getGuid());
+		Assert.assertEquals(3, transport.requests.size());
+		Assert.assertEquals(2, connector.getRateLimiter().getBackoffCount());
+	}
+
+	@Test
+	public void itShouldNotRetryForbiddenRequestsAndKeepTheirError() {
+		DirectoryTransport transport = new DirectoryTransport() {
+			@Override
+			protected LowLevelHttpResponse respond(String method, GenericUrl url) throws IOException {
+				return json(403, error(403, "forbidden"));
+			}
+		};
+		GoogleConnector connector = DirectoryTransport.open(transport);
+		try {
+			connector.getRoleByName("staff@example.com");
+			Assert.fail("Expected failure");
+		} catch (ConnectorException ce) {
+			GoogleJsonResponseException e = (GoogleJsonResponseException) ce.getCause();
+			Assert.assertEquals(403, e.getStatusCode());
+			Assert.assertEquals(403, e.getDetails().getCode());
+			Assert.assertEquals("forbidden", e.getDetails().getErrors().get(0).getReason());
+		}
+		Assert.assertEquals(1, transport.requests.size());
+		Assert.assertEquals(0, connector.getRateLimiter().getBackoffCount());
+	}
+
+	private static String error(int code, String reason) {
+		return "{\"error\":{\"errors\":[{\"domain\":\"usageLimits\",\"reason\":\"" + reason
+				+ "\",\"message\":\"Rejected\"}],\"code\":" + code + ",\"message\":\"Rejected\"}}";
+	}
+}
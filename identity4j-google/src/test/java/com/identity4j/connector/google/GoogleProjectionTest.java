@@ -0,0 +1,52 @@
+package com.identity4j.connector.google;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.identity4j.connector.Projection;
+import com.identity4j.connector.principal.Identity;
+
+public class GoogleProjectionTest {
+
+	private static final String USERS = "{\"users\":[{\"id\":\"1\",\"primaryEmail\":\"jdoe@example.com\",\"suspended\":true}]}";
+
+	private final DirectoryTransport transport = new DirectoryTransport() {
+		@Override
+		protected LowLevelHttpResponse respond(String method, GenericUrl url) throws IOException {
+			return json(USERS);
+		}
+	};
+
+	@Test
+	public void itShouldRequestOnlyProjectedFields() {
+		GoogleConnector connector = DirectoryTransport.open(transport);
+		Iterator<Identity> it = connector.allIdentities(new Projection(Projection.ACCOUNT_STATUS, Projection.EMAIL));
+		Identity identity = it.next();
+		Assert.assertFalse(it.hasNext());
+		Assert.assertEquals("nextPageToken,users(id,primaryEmail,orgUnitPath,suspended)",
+				transport.requests.get(0).getFirst("fields"));
+		Assert.assertEquals("jdoe@example.com", identity.getPrincipalName());
+		Assert.assertNull(identity.getFullName());
+		Assert.assertTrue(identity.getAccountStatus().isDisabled());
+	}
+
+	@Test
+	public void itShouldMapPartsAndKeepPlainFieldNames() {
+		Assert.assertEquals(
+				"nextPageToken,users(id,primaryEmail,orgUnitPath,customerId,name/fullName,lastLoginTime)",
+				GoogleConnector.getFields(new Projection(Projection.FULL_NAME, Projection.LAST_SIGN_ON,
+						Projection.ROLES, "customerId", "name,password")));
+	}
+
+	@Test
+	public void itShouldRequestAllFieldsForAllProjection() {
+		GoogleConnector connector = DirectoryTransport.open(transport);
+		connector.allIdentities(Projection.ALL).next();
+		Assert.assertNull(transport.requests.get(0).getFirst("fields"));
+	}
+}
@@ -0,0 +1,104 @@
+package com.identity4j.connector.google;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Role;
+
+public class GoogleRoleMembershipTest {
+
+	private static final String USERS = "{\"users\":["
+			+ "{\"id\":\"1\",\"primaryEmail\":\"alice@example.com\"},"
+			+ "{\"id\":\"2\",\"primaryEmail\":\"Bob@example.com\"},"
+			+ "{\"id\":\"3\",\"primaryEmail\":\"carol@example.com\"}]}";
+	private static final String GROUPS = "{\"groups\":["
+			+ "{\"id\":\"g1\",\"email\":\"staff@example.com\",\"name\":\"Staff\"},"
+			+ "{\"id\":\"g2\",\"email\":\"admin@example.com\",\"name\":\"Admin\"}]}";
+
+	// What groups.list answers for each user key
+	private static final Map<String, String> USER_GROUPS = new HashMap<String, String>();
+	// What members.list answers for each group, over more than one page
+	private static final Map<String, String[]> MEMBERS = new HashMap<String, String[]>();
+
+	static {
+		USER_GROUPS.put("alice@example.com",
+				"{\"groups\":[{\"id\":\"g1\",\"email\":\"staff@example.com\",\"name\":\"Staff\"}]}");
+		USER_GROUPS.put("Bob@example.com", GROUPS);
+		USER_GROUPS.put("carol@example.com", "{}");
+		MEMBERS.put("g1", new String[] {
+				"{\"members\":[{\"id\":\"1\",\"email\":\"alice@example.com\",\"type\":\"USER\"}],\"nextPageToken\":\"p2\"}",
+				"{\"members\":[{\"id\":\"2\",\"email\":\"bob@example.com\",\"type\":\"USER\"},"
+						+ "{\"id\":\"g3\",\"email\":\"others@example.com\",\"type\":\"GROUP\"}]}" });
+		MEMBERS.put("g2", new String[] { "{\"members\":[{\"email\":\"BOB@example.com\",\"type\":\"USER\"}]}" });
+	}
+
+	private final DirectoryTransport transport = new DirectoryTransport() {
+		@Override
+		protected LowLevelHttpResponse respond(String method, GenericUrl url) throws IOException {
+			String path = url.getRawPath();
+			if (path.endsWith("/users")) {
+				return json(USERS);
+			} else if (path.endsWith("/groups")) {
+				String userKey = (String) url.getFirst("userKey");
+				return json(userKey == null ? GROUPS : USER_GROUPS.get(userKey));
+			} else if (path.endsWith("/members")) {
+				String group = path.substring(0, path.lastIndexOf('/'));
+				String[] pages = MEMBERS.get(group.substring(group.lastIndexOf('/') + 1));
+				return json(url.getFirst("pageToken") == null ? pages[0] : pages[1]);
+			}
+			return json(404, "{}");
+		}
+	};
+
+	@Test
+	public void itShouldFindTheSameRolesInEitherMode() {
+		Map<String, Set<String>> perUser = roles(RoleMembershipMode.perUser);
+		Map<String, Set<String>> reverse = roles(RoleMembershipMode.reverse);
+		Assert.assertEquals(3, perUser.size());
+		Assert.assertEquals(new TreeSet<String>(Arrays.asList("Admin", "Staff")),
+				perUser.get("Bob@example.com"));
+		Assert.assertEquals(perUser, reverse);
+	}
+
+	@Test
+	public void itShouldReuseTheIndexUntilMembershipsChange() {
+		GoogleConnector connector = open(RoleMembershipMode.reverse);
+		connector.allIdentities().next();
+		int requests = transport.requests.size();
+		for (Iterator<Identity> it = connector.allIdentities(); it.hasNext();) {
+			it.next();
+		}
+		// Only the users are listed again
+		Assert.assertEquals(requests + 1, transport.requests.size());
+	}
+
+	private Map<String, Set<String>> roles(RoleMembershipMode mode) {
+		GoogleConnector connector = open(mode);
+		Map<String, Set<String>> roles = new HashMap<String, Set<String>>();
+		for (Iterator<Identity> it = connector.allIdentities(); it.hasNext();) {
+			Identity identity = it.next();
+			Set<String> names = new TreeSet<String>();
+			for (Role role : identity.getRoles()) {
+				names.add(role.getPrincipalName());
+			}
+			roles.put(identity.getPrincipalName(), names);
+		}
+		return roles;
+	}
+
+	private GoogleConnector open(RoleMembershipMode mode) {
+		return DirectoryTransport.open(transport, GoogleConfiguration.GOOGLE_FETCH_ROLES, "true",
+				GoogleConfiguration.GOOGLE_ROLE_MEMBERSHIP_MODE, mode.name());
+	}
+}
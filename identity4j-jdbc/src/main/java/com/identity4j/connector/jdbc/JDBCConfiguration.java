@@ -1,8 +1,11 @@
 package com.identity4j.connector.jdbc;
 
+import java.sql.Types;
+
 import com.identity4j.connector.AbstractConnectorConfiguration;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.util.MultiMap;
+import com.identity4j.util.StringUtil;
 
 public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 
@@ -14,6 +17,13 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	public static final String JDBC_PASSWORD = "jdbcPassword";
 	public static final String JDBC_DATABASE = "jdbcDatabase";
 	
+	// Result streaming
+	public static final String SQL_STREAM_RESULTS = "sqlStreamResults";
+	public static final String SQL_FETCH_SIZE = "sqlFetchSize";
+	public static final String JDBC_POOL_SIZE = "jdbcPoolSize";
+	public static final String JDBC_POOL_TIMEOUT = "jdbcPoolTimeout";
+	public static final String JDBC_STATEMENT_CACHE_SIZE = "jdbcStatementCacheSize";
+	
 	// Identity Table
 	public static final String SQL_IDENTITY_TABLE = "sqlIdentityTable";
 	public static final String SQL_IDENTITY_TABLE_SELECT = "sqlIdentityTableSelect";
@@ -22,6 +32,7 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	
 	// Identity Columns
 	public static final String SQL_IDENTITY_TABLE_GUID = "sqlIdentityTableGuid";
+	public static final String SQL_IDENTITY_TABLE_GUID_TYPE = "sqlIdentityTableGuidType";
 	public static final String SQL_IDENTITY_TABLE_PRINCIPAL_NAME = "sqlIdentityTablePrincipalName";
 	public static final String SQL_IDENTITY_TABLE_FULLNAME = "sqlIdentityTableFullname";
 	public static final String SQL_IDENTITY_TABLE_OTHER_NAME = "sqlIdentityTableOtherName";
@@ -29,6 +40,12 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	public static final String SQL_IDENTITY_TABLE_MOBILE = "sqlIdentityTableMobile";
 	public static final String SQL_IDENTITY_TABLE_LAST_SIGNON = "sqlIdentityTableLastSignon";
 	
+	// Incremental synchronisation
+	public static final String SQL_IDENTITY_TABLE_CHANGED = "sqlIdentityTableChanged";
+	public static final String SQL_IDENTITY_TABLE_CREATED = "sqlIdentityTableCreated";
+	public static final String SQL_IDENTITY_TABLE_SELECT_CHANGED = "sqlIdentityTableSelectChanged";
+	public static final String SQL_IDENTITY_DELETED_SELECT = "sqlIdentityDeletedSelect";
+	
 	// Password
 	public static final String SQL_IDENTITY_TABLE_PASSWORD = "sqlIdentityTablePassword";
 	public static final String SQL_IDENTITY_PASSWORD_ENCODING = "passwordEncoding";
@@ -38,6 +55,12 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	public static final String SQL_ROLE_TABLE = "sqlRoleTable";
 	public static final String SQL_ROLE_TABLE_SELECT = "sqlRoleTableSelect";
 	public static final String SQL_ROLE_TABLE_SELECT_BY_IDENTITY = "sqlRoleTableSelectByIdentity";
+	public static final String SQL_ROLE_TABLE_SELECT_BY_IDENTITIES = "sqlRoleTableSelectByIdentities";
+	public static final String SQL_IDENTITY_ROLE_JOIN_SELECT = "sqlIdentityRoleJoinSelect";
+	
+	// Role loading
+	public static final String SQL_ROLE_LOADING = "sqlRoleLoading";
+	public static final String SQL_ROLE_BATCH_SIZE = "sqlRoleBatchSize";
 	
 	// Role Columns
 	public static final String SQL_ROLE_TABLE_IDENTITY_GUID = "sqlRoleTableIdentityGuid";
@@ -56,8 +79,12 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 		return null;
 	}
 	
+	// Value tokens, bound as parameters by the statement getters
+	public static final String IDENTITY_GUID_VALUE = "${identityGuidValue}";
+	public static final String PASSWORD_VALUE = "${password}";
+
 	protected String replaceTokens(String str, Identity identity) {
-		str = str.replace("${identityGuidValue}", identity.getGuid());
+		str = str.replace(IDENTITY_GUID_VALUE, identity.getGuid());
 		return replaceTokens(str);
 	}
 	
@@ -110,11 +137,109 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 				"SELECT * FROM ${identityTable}"));
 	}
 
+	/**
+	 * Get the SQL used to select identities changed since the last
+	 * synchronisation. The single parameter is the highest value of the
+	 * change column seen so far. The default selects all rows from the
+	 * identity table whose change column is at or after the parameter, so
+	 * rows changed in the same instant as the last row seen are not missed.
+	 * Rows that were already reported are skipped by the connector.
+	 * 
+	 * @return changed identities SQL
+	 */
+	public String getSelectChangedIdentitiesSQL() {
+		return replaceToken(replaceTokens(configurationParameters.getStringOrDefault(SQL_IDENTITY_TABLE_SELECT_CHANGED,
+				"SELECT * FROM ${identityTable} WHERE ${identityChanged} >= ?")), "${identityChanged}", getIdentityChangedColumn());
+	}
+
+	/**
+	 * Get the SQL used to select the GUIDs of identities deleted since the
+	 * last synchronisation, for example from a table maintained by a trigger.
+	 * The single parameter is the highest value of the change column seen so
+	 * far. There is no default, in which case deletions are not reported.
+	 * 
+	 * @return deleted identities SQL or <code>null</code>
+	 */
+	public String getSelectDeletedIdentitiesSQL() {
+		String sql = configurationParameters.getStringOrNull(SQL_IDENTITY_DELETED_SELECT);
+		return StringUtil.isNullOrEmpty(sql) ? null : replaceTokens(sql);
+	}
+
 	public String getSelectIdentitiesRolesSQL(Identity identity) {
 		return replaceTokens(configurationParameters.getStringOrDefault(SQL_ROLE_TABLE_SELECT_BY_IDENTITY,
 				"SELECT * FROM ${roleTable} WHERE ${roleIdentityGuid} = ${identityGuidValue}"), identity);
 	}
 
+	/**
+	 * Get the SQL used to select the roles of an identity, with the
+	 * <code>${identityGuidValue}</code> token as a parameter so the statement
+	 * can be reused for every identity.
+	 * 
+	 * @return statement
+	 */
+	public ParameterizedSQL getSelectIdentityRolesStatement() {
+		return new ParameterizedSQL(replaceTokens(configurationParameters.getStringOrDefault(SQL_ROLE_TABLE_SELECT_BY_IDENTITY,
+				"SELECT * FROM ${roleTable} WHERE ${roleIdentityGuid} = ${identityGuidValue}")), IDENTITY_GUID_VALUE);
+	}
+
+
+	/**
+	 * Get the SQL used to select the roles of a batch of identities. The
+	 * <code>${identityGuidValues}</code> token is replaced with one parameter
+	 * for each identity, set to its GUID as a string. The default selects all
+	 * rows from the role table whose identity GUID column is in the list.
+	 * 
+	 * @param count number of identities
+	 * @return roles of identities SQL
+	 */
+	public String getSelectIdentitiesRolesSQL(int count) {
+		StringBuilder params = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				params.append(",");
+			}
+			params.append("?");
+		}
+		return replaceToken(replaceTokens(configurationParameters.getStringOrDefault(SQL_ROLE_TABLE_SELECT_BY_IDENTITIES,
+				"SELECT * FROM ${roleTable} WHERE ${roleIdentityGuid} IN (${identityGuidValues})")), "${identityGuidValues}",
+				params.toString());
+	}
+
+	/**
+	 * Get the SQL used to select all identities joined with their roles. It
+	 * must return every identity at least once, ordered so that all rows of
+	 * an identity are together, with the role columns empty for identities
+	 * with no roles. The default is a left join of the identity and role
+	 * tables, which should be replaced with one that names its columns if
+	 * the two tables have column names in common.
+	 * 
+	 * @return identities joined with roles SQL
+	 */
+	public String getSelectIdentitiesWithRolesSQL() {
+		return replaceToken(replaceTokens(configurationParameters.getStringOrDefault(SQL_IDENTITY_ROLE_JOIN_SELECT,
+				"SELECT * FROM ${identityTable} LEFT JOIN ${roleTable} ON ${roleTable}.${roleIdentityGuid} = ${identityTable}.${identityGuid} ORDER BY ${identityTable}.${identityGuid}")),
+				"${identityGuid}", getIdentityGuidColumn());
+	}
+
+	/**
+	 * Get how the roles of identities are loaded, the default is
+	 * {@link RoleLoading#perIdentity}.
+	 * 
+	 * @return role loading
+	 */
+	public RoleLoading getRoleLoading() {
+		return RoleLoading.valueOf(configurationParameters.getStringOrDefault(SQL_ROLE_LOADING, RoleLoading.perIdentity.name()));
+	}
+
+	/**
+	 * Get the number of identities whose roles are selected together when
+	 * loading roles in batches, the default is <code>100</code>.
+	 * 
+	 * @return role batch size
+	 */
+	public int getRoleBatchSize() {
+		return configurationParameters.getIntegerOrDefault(SQL_ROLE_BATCH_SIZE, 100);
+	}
 
 	public String getSelectRolesSQL() {
 		return replaceTokens(configurationParameters.getStringOrDefault(SQL_ROLE_TABLE_SELECT,
@@ -123,13 +248,48 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	
 	public String getSelectPasswordSQL(Identity identity, String password) {
 		return replaceToken(replaceTokens(configurationParameters.getString(SQL_PASSWORD_SELECT), identity),
-				"${password}", password);
+				PASSWORD_VALUE, password);
+	}
+
+	/**
+	 * Get the SQL used to check a password, with the
+	 * <code>${identityGuidValue}</code> and <code>${password}</code> tokens
+	 * as parameters, so the password is never part of the SQL itself.
+	 * 
+	 * @return statement
+	 */
+	public ParameterizedSQL getSelectPasswordStatement() {
+		return new ParameterizedSQL(replaceTokens(configurationParameters.getString(SQL_PASSWORD_SELECT)), IDENTITY_GUID_VALUE,
+				PASSWORD_VALUE);
 	}
 	
 	public String getIdentityGuidColumn() {
 		return configurationParameters.getString(SQL_IDENTITY_TABLE_GUID);
 	}
 
+	/**
+	 * Get the SQL type GUIDs are bound as when passed as query parameters,
+	 * configured as the name of one of the constants of {@link Types}, for
+	 * example <code>BIGINT</code> for a numeric key column. By default GUIDs
+	 * are bound as strings, which some databases, such as PostgreSQL, will
+	 * not compare with a numeric column.
+	 * 
+	 * @return SQL type or <code>null</code> to bind as strings
+	 */
+	public Integer getIdentityGuidSQLType() {
+		String type = configurationParameters.getStringOrNull(SQL_IDENTITY_TABLE_GUID_TYPE);
+		if (StringUtil.isNullOrEmpty(type)) {
+			return null;
+		}
+		try {
+			return Types.class.getField(type.toUpperCase()).getInt(null);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalArgumentException("Unknown SQL type " + type + " for " + SQL_IDENTITY_TABLE_GUID_TYPE);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	public String getIdentityPrincipalNameColumn() {
 		return configurationParameters.getString(SQL_IDENTITY_TABLE_PRINCIPAL_NAME);
 	}
@@ -154,6 +314,29 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 		return configurationParameters.getString(SQL_IDENTITY_TABLE_LAST_SIGNON);
 	}
 	
+	/**
+	 * Get the timestamp column that is updated whenever an identity row
+	 * changes. If not set, incremental synchronisation always returns all
+	 * identities.
+	 * 
+	 * @return change column or empty string
+	 */
+	public String getIdentityChangedColumn() {
+		return configurationParameters.getString(SQL_IDENTITY_TABLE_CHANGED);
+	}
+	
+	/**
+	 * Get the timestamp column that holds when an identity row was created,
+	 * used to tell added identities from modified ones. If not set, every
+	 * identity returned by incremental synchronisation after the first is
+	 * reported as modified.
+	 * 
+	 * @return creation column or empty string
+	 */
+	public String getIdentityCreatedColumn() {
+		return configurationParameters.getString(SQL_IDENTITY_TABLE_CREATED);
+	}
+	
 	public String getIdentityPasswordColumn() {
 		return configurationParameters.getString(SQL_IDENTITY_TABLE_PASSWORD);
 	}
@@ -169,6 +352,71 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	public String getRolePrincipalNameColumn() {
 		return configurationParameters.getString(SQL_ROLE_TABLE_PRINCIPAL_NAME);
 	}
+	
+	public String getRoleIdentityGuidColumn() {
+		return configurationParameters.getString(SQL_ROLE_TABLE_IDENTITY_GUID);
+	}
+
+	/**
+	 * Whether identity and role listings should be read from the database as
+	 * they are iterated, rather than all being read up front, the default is
+	 * <code>true</code>.
+	 * 
+	 * @return stream results
+	 */
+	public boolean isStreamResults() {
+		return configurationParameters.getBooleanOrDefault(SQL_STREAM_RESULTS, true);
+	}
+
+	/**
+	 * Get the number of rows the driver should fetch at a time when streaming
+	 * results, the default is {@link #getDefaultFetchSize()}.
+	 * 
+	 * @return fetch size
+	 */
+	public int getFetchSize() {
+		return configurationParameters.getIntegerOrDefault(SQL_FETCH_SIZE, getDefaultFetchSize());
+	}
+
+	/**
+	 * Get the fetch size used when none is configured. Override this for
+	 * drivers that need a particular value to stream results.
+	 * 
+	 * @return default fetch size
+	 */
+	protected int getDefaultFetchSize() {
+		return 1000;
+	}
+
+	/**
+	 * Get the maximum number of connections the connector opens, the default
+	 * is 10. Not used when a data source is supplied.
+	 * 
+	 * @return pool size
+	 */
+	public int getPoolSize() {
+		return configurationParameters.getIntegerOrDefault(JDBC_POOL_SIZE, 10);
+	}
+
+	/**
+	 * Get how long to wait for a connection when all are in use, in
+	 * milliseconds, the default is 30000.
+	 * 
+	 * @return pool timeout
+	 */
+	public int getPoolTimeout() {
+		return configurationParameters.getIntegerOrDefault(JDBC_POOL_TIMEOUT, 30000);
+	}
+
+	/**
+	 * Get the number of prepared statements each connection keeps for reuse,
+	 * the default is 50. Zero turns caching off.
+	 * 
+	 * @return statement cache size
+	 */
+	public int getStatementCacheSize() {
+		return configurationParameters.getIntegerOrDefault(JDBC_STATEMENT_CACHE_SIZE, 50);
+	}
 
 	public String getCharset() {
 		return configurationParameters.getStringOrDefault(CHARSET, "UTF-8");
@@ -0,0 +1,365 @@
+package com.identity4j.connector.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lends connections to one operation at a time. If a {@link DataSource} is
+ * supplied, connections are simply obtained from and returned to it, and
+ * any pooling or statement caching is left to the data source. Otherwise
+ * connections are opened as needed, up to a maximum, kept open when
+ * returned, and each keeps a cache of its most recently used prepared
+ * statements.
+ * <p>
+ * Connections held while a result set is streamed are borrowed with
+ * {@link #borrowForStreaming()}, which always leaves one connection of the
+ * built in pool free. The short queries made while reading each row, such as
+ * selecting the roles of an identity, can then always get a connection, even
+ * when every other connection is held by a streaming query waiting on them.
+ * <p>
+ * A thread that borrows a connection while it already holds one, other than
+ * one held for streaming, is lent the same connection again. A query made
+ * while reading the rows of another, such as selecting the roles of an
+ * identity, then never waits on a second connection, which a pool of one
+ * could not provide.
+ */
+public abstract class JDBCConnectionPool {
+
+	final static Log LOG = LogFactory.getLog(JDBCConnectionPool.class);
+
+	private final DataSource dataSource;
+	private final int size;
+	private final int statementCacheSize;
+	private final long timeout;
+	private final Semaphore permits;
+	private final Semaphore streamingPermits;
+	private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+	private final Map<Connection, PooledConnection> inUse = new IdentityHashMap<Connection, PooledConnection>();
+	private final Map<Connection, Boolean> streaming = new IdentityHashMap<Connection, Boolean>();
+	private boolean closed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dataSource data source or <code>null</code> to use the built in
+	 *            pool
+	 * @param size maximum number of connections of the built in pool
+	 * @param statementCacheSize number of prepared statements cached by each
+	 *            connection of the built in pool
+	 * @param timeout how long to wait for a connection when all are in use,
+	 *            in milliseconds
+	 */
+	public JDBCConnectionPool(DataSource dataSource, int size, int statementCacheSize, long timeout) {
+		this.dataSource = dataSource;
+		this.size = Math.max(1, size);
+		this.statementCacheSize = statementCacheSize;
+		this.timeout = timeout;
+		this.permits = new Semaphore(this.size, true);
+		this.streamingPermits = new Semaphore(this.size - 1, true);
+	}
+
+	/**
+	 * Get whether a connection may be held for streaming a result set, which
+	 * is not the case if the built in pool only has one connection.
+	 *
+	 * @return can stream
+	 */
+	public boolean canStream() {
+		return dataSource != null || size > 1;
+	}
+
+	/**
+	 * Open a new connection for the built in pool.
+	 *
+	 * @return connection
+	 * @throws SQLException
+	 */
+	protected abstract Connection open() throws SQLException;
+
+	/**
+	 * Borrow a connection. It must be given back with
+	 * {@link #release(Connection, boolean)}.
+	 *
+	 * @return connection
+	 * @throws SQLException if no connection could be opened, or none became
+	 *             free in time
+	 */
+	public Connection borrow() throws SQLException {
+		if (dataSource != null) {
+			return dataSource.getConnection();
+		}
+		synchronized (this) {
+			for (PooledConnection pooled : inUse.values()) {
+				if (pooled.owner == Thread.currentThread() && !streaming.containsKey(pooled.connection)) {
+					pooled.holds++;
+					return pooled.connection;
+				}
+			}
+		}
+		return borrowNew();
+	}
+
+	private Connection borrowNew() throws SQLException {
+		try {
+			if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out waiting for a free connection.");
+			}
+		} catch (InterruptedException e) {
+			throw new SQLException("Interrupted waiting for a free connection.");
+		}
+		try {
+			PooledConnection pooled = null;
+			synchronized (this) {
+				if (closed) {
+					throw new SQLException("Pool is closed.");
+				}
+				while (pooled == null && !idle.isEmpty()) {
+					pooled = idle.removeFirst();
+					if (pooled.connection.isClosed()) {
+						pooled = null;
+					}
+				}
+			}
+			if (pooled == null) {
+				pooled = new PooledConnection(open());
+			}
+			pooled.owner = Thread.currentThread();
+			pooled.holds = 1;
+			pooled.failed = false;
+			synchronized (this) {
+				inUse.put(pooled.connection, pooled);
+			}
+			return pooled.connection;
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Borrow a connection to hold while streaming a result set. At most one
+	 * less than the size of the built in pool may be held this way at once,
+	 * see {@link #canStream()}. It must be given back with
+	 * {@link #release(Connection, boolean)}.
+	 *
+	 * @return connection
+	 * @throws SQLException if no connection could be opened, or none became
+	 *             free in time
+	 */
+	public Connection borrowForStreaming() throws SQLException {
+		if (dataSource != null) {
+			return dataSource.getConnection();
+		}
+		try {
+			if (!streamingPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out waiting for a free streaming connection.");
+			}
+		} catch (InterruptedException e) {
+			throw new SQLException("Interrupted waiting for a free streaming connection.");
+		}
+		Connection connection = null;
+		try {
+			connection = borrowNew();
+			synchronized (this) {
+				streaming.put(connection, Boolean.TRUE);
+			}
+			return connection;
+		} finally {
+			if (connection == null) {
+				streamingPermits.release();
+			}
+		}
+	}
+
+	/**
+	 * Give back a borrowed connection. A connection that failed is closed
+	 * rather than being used again, once every borrower of it on the thread
+	 * has given it back.
+	 *
+	 * @param connection connection
+	 * @param failed whether the connection failed
+	 */
+	public void release(Connection connection, boolean failed) {
+		if (connection == null) {
+			return;
+		}
+		if (dataSource != null) {
+			close(connection);
+			return;
+		}
+		PooledConnection pooled;
+		boolean discard;
+		boolean streamed;
+		synchronized (this) {
+			pooled = inUse.get(connection);
+			if (pooled != null) {
+				pooled.failed |= failed;
+				if (--pooled.holds > 0) {
+					return;
+				}
+				inUse.remove(connection);
+			}
+			streamed = streaming.remove(connection) != null;
+			discard = closed || failed || (pooled != null && pooled.failed);
+			if (pooled != null && !discard) {
+				idle.addFirst(pooled);
+			}
+		}
+		if (pooled != null) {
+			if (discard) {
+				pooled.close();
+			}
+			permits.release();
+		}
+		if (streamed) {
+			streamingPermits.release();
+		}
+	}
+
+	/**
+	 * Get a prepared statement for a borrowed connection, from the cache if
+	 * possible. It must be given back with
+	 * {@link #release(Connection, Statement)} rather than being closed.
+	 *
+	 * @param connection connection
+	 * @param sql SQL
+	 * @return statement
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+		PooledConnection pooled;
+		synchronized (this) {
+			pooled = inUse.get(connection);
+		}
+		return pooled == null || statementCacheSize < 1 ? connection.prepareStatement(sql) : pooled.prepare(sql);
+	}
+
+	/**
+	 * Give back a statement obtained from {@link #prepare(Connection, String)}
+	 * or created on the connection.
+	 *
+	 * @param connection connection
+	 * @param statement statement
+	 */
+	public void release(Connection connection, Statement statement) {
+		if (statement == null) {
+			return;
+		}
+		PooledConnection pooled;
+		synchronized (this) {
+			pooled = inUse.get(connection);
+		}
+		if (pooled != null && pooled.busy.remove(statement) && pooled.statements.containsValue(statement)) {
+			try {
+				((PreparedStatement) statement).clearParameters();
+			} catch (SQLException e) {
+				pooled.statements.values().remove(statement);
+				close(statement);
+			}
+		} else {
+			close(statement);
+		}
+	}
+
+	/**
+	 * Close all idle connections and close others as they are released.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			for (PooledConnection pooled : idle) {
+				pooled.close();
+			}
+			idle.clear();
+		}
+	}
+
+	private static void close(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			LOG.debug("Failed to close connection.", e);
+		}
+	}
+
+	private static void close(Statement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			LOG.debug("Failed to close statement.", e);
+		}
+	}
+
+	/**
+	 * A connection of the built in pool and its statement cache, which is
+	 * only used by whoever has borrowed the connection. A cached statement
+	 * in use by a query is busy, and a query nested inside it with the same
+	 * SQL gets a statement of its own.
+	 */
+	class PooledConnection {
+		final Connection connection;
+		final Map<String, PreparedStatement> statements;
+		final Set<PreparedStatement> busy = Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+		Thread owner;
+		int holds;
+		boolean failed;
+
+		@SuppressWarnings("serial")
+		PooledConnection(Connection connection) {
+			this.connection = connection;
+			statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+					if (size() > statementCacheSize) {
+						// A busy statement is closed when given back instead
+						if (!busy.contains(eldest.getValue())) {
+							JDBCConnectionPool.close(eldest.getValue());
+						}
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			} else if (busy.contains(statement)) {
+				return connection.prepareStatement(sql);
+			}
+			busy.add(statement);
+			return statement;
+		}
+
+		void close() {
+			for (Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext();) {
+				JDBCConnectionPool.close(it.next());
+				it.remove();
+			}
+			busy.clear();
+			JDBCConnectionPool.close(connection);
+		}
+	}
+}
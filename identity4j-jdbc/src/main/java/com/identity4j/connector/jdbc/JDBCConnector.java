@@ -1,41 +1,62 @@
 package com.identity4j.connector.jdbc;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import javax.sql.DataSource;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.identity4j.connector.AbstractConnector;
+import com.identity4j.connector.ChangeSet;
 import com.identity4j.connector.ConnectorCapability;
 import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.IncrementalConnector;
+import com.identity4j.connector.Projection;
+import com.identity4j.connector.SyncToken;
 import com.identity4j.connector.Media;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.principal.AccountStatus;
 import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
 import com.identity4j.connector.principal.PasswordStatus;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.util.StringUtil;
 import com.identity4j.util.crypt.EncoderManager;
 import com.identity4j.util.crypt.impl.DefaultEncoderManager;
 
-public abstract class JDBCConnector extends AbstractConnector {
+public abstract class JDBCConnector extends AbstractConnector implements IncrementalConnector {
 
 	protected final static EncoderManager encoderManager = DefaultEncoderManager
 			.getInstance();
 
-	protected Connection connect = null;
 	protected JDBCConfiguration configuration = null;
+	private JDBCConnectionPool pool;
+	private DataSource dataSource;
+	private Connection connect;
+	private Integer guidSQLType;
 
 	static Log log = LogFactory.getLog(JDBCConnector.class);
 
@@ -52,7 +73,8 @@ public abstract class JDBCConnector extends AbstractConnector {
 			ConnectorCapability.deleteRole,
 			ConnectorCapability.updateRole,
 			ConnectorCapability.authentication,
-			ConnectorCapability.identities
+			ConnectorCapability.identities,
+			ConnectorCapability.incrementalSync
 	}));
 	
 	@Override
@@ -60,53 +82,232 @@ public abstract class JDBCConnector extends AbstractConnector {
 		return capabilities;
 	}
 
+	/**
+	 * Identities are read from the database as the iterator is used, see
+	 * {@link #jdbcIterator(String, Object[], JDBCResultsetBlock)}. Their
+	 * roles are loaded as configured by {@link JDBCConfiguration#getRoleLoading()}.
+	 */
 	public Iterator<Identity> allIdentities() throws ConnectorException {
+		return allIdentities(configuration.getRoleLoading());
+	}
 
-		List<Identity> identities = new ArrayList<Identity>();
-		Statement statement = null;
-		ResultSet resultSet = null;
-		try {
-			statement = connect.createStatement();
-			resultSet = statement.executeQuery(configuration
-					.getSelectIdentitiesSQL());
+	/**
+	 * Roles are only loaded if included in the projection.
+	 */
+	@Override
+	public Iterator<Identity> allIdentities(Projection projection) throws ConnectorException {
+		return allIdentities(projection.includes(Projection.ROLES) ? configuration.getRoleLoading() : RoleLoading.none);
+	}
+
+	protected Iterator<Identity> allIdentities(final RoleLoading roleLoading) throws ConnectorException {
+		switch (roleLoading) {
+		case join:
+			return new JoinedRolesIterator(jdbcIterator(configuration.getSelectIdentitiesWithRolesSQL(), new Object[0],
+				new JDBCResultsetBlock<Identity>() {
+					public Identity apply(ResultSet resultSet) throws SQLException {
+						Identity identity = createIdentity(resultSet, roleLoading);
+						String roleGuid = resultSet.getString(configuration.getRoleGuidColumn());
+						if (roleGuid != null && identity instanceof IdentityImpl) {
+							((IdentityImpl) identity).addRole(createRole(resultSet));
+						}
+						return identity;
+					}
+				}));
+		default:
+			Iterator<Identity> identities = jdbcIterator(configuration.getSelectIdentitiesSQL(), new Object[0],
+				new JDBCResultsetBlock<Identity>() {
+					public Identity apply(ResultSet resultSet) throws SQLException {
+						return createIdentity(resultSet, roleLoading);
+					}
+				});
+			return roleLoading == RoleLoading.batch ? new BatchedRolesIterator(identities) : identities;
+		}
+	}
 
-			while (resultSet.next()) {
-				identities.add(createIdentity(resultSet));
+	/**
+	 * Changes are found using the configured change column, a timestamp that
+	 * is updated whenever an identity row changes. The token holds the
+	 * highest value seen, and the GUIDs of the rows seen with that value.
+	 * Rows changed at or after that value are selected, so rows changed in the
+	 * same instant as the last one are not missed, and those already reported
+	 * are skipped. If no change column is configured every call returns a
+	 * full listing.
+	 * <p>
+	 * If a creation column is configured, rows created at or after the
+	 * previous token are reported as added, otherwise every row after the
+	 * first synchronisation is reported as modified. Roles are not tracked
+	 * separately, a change in role membership is only reported if it also
+	 * updates the identity row.
+	 */
+	@Override
+	public ChangeSet changesSince(SyncToken token) throws ConnectorException {
+		final String changedColumn = configuration.getIdentityChangedColumn();
+		final String createdColumn = configuration.getIdentityCreatedColumn();
+		Timestamp since = null;
+		final Set<String> reported = new HashSet<String>();
+		if (token != null && !StringUtil.isNullOrEmpty(changedColumn) && token.getValue().length() > 0) {
+			String[] values = token.getValue().split(",");
+			try {
+				since = Timestamp.valueOf(values[0]);
+				for (int i = 1; i < values.length; i++) {
+					reported.add(URLDecoder.decode(values[i], "UTF-8"));
+				}
+			} catch (IllegalArgumentException iae) {
+				log.warn("Invalid synchronisation token '" + token + "', returning all identities.");
+				since = null;
+				reported.clear();
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
 			}
-		} catch (SQLException e) {
-			throw new ConnectorException(e);
-		} finally {
-			closeStatement(statement);
-			closeResultSet(resultSet);
 		}
 
-		return identities.iterator();
+		final ChangeSet changes = new ChangeSet(since == null);
+		final Timestamp previous = since;
+		final List<Identity> identities = new ArrayList<Identity>();
+		// GUIDs of the rows seen with the highest change value
+		final Set<String> seenAtHighest = new HashSet<String>(reported);
+		final RoleLoading roleLoading = configuration.getRoleLoading() == RoleLoading.join ? RoleLoading.batch
+				: configuration.getRoleLoading();
+		Timestamp highest = jdbcAction(since == null ? configuration.getSelectIdentitiesSQL()
+				: configuration.getSelectChangedIdentitiesSQL(), since == null ? new Object[0] : new Object[] { since },
+			new JDBCResultsetBlock<Timestamp>() {
+				public Timestamp apply(ResultSet resultSet) throws SQLException {
+					Timestamp highest = previous;
+					while (resultSet.next()) {
+						String guid = resultSet.getString(configuration.getIdentityGuidColumn());
+						Timestamp changed = StringUtil.isNullOrEmpty(changedColumn) ? null
+								: resultSet.getTimestamp(changedColumn);
+						if (previous != null && changed != null && changed.equals(previous) && reported.contains(guid)) {
+							// Already reported by the previous call
+							continue;
+						}
+						Identity identity = createIdentity(resultSet, roleLoading);
+						identities.add(identity);
+						if (previous == null) {
+							changes.getAddedIdentities().add(identity);
+						} else {
+							Timestamp created = StringUtil.isNullOrEmpty(createdColumn) ? null
+									: resultSet.getTimestamp(createdColumn);
+							if (created != null && !created.before(previous)) {
+								changes.getAddedIdentities().add(identity);
+							} else {
+								changes.getModifiedIdentities().add(identity);
+							}
+						}
+						if (changed != null) {
+							if (highest == null || changed.after(highest)) {
+								highest = changed;
+								seenAtHighest.clear();
+							}
+							if (changed.equals(highest)) {
+								seenAtHighest.add(guid);
+							}
+						}
+					}
+					return highest;
+				}
+			});
+
+		String deletedSql = configuration.getSelectDeletedIdentitiesSQL();
+		if (since != null && deletedSql != null) {
+			jdbcAction(deletedSql, new Object[] { since }, new JDBCResultsetBlock<Void>() {
+				public Void apply(ResultSet resultSet) throws SQLException {
+					while (resultSet.next()) {
+						changes.getDeletedIdentities().add(resultSet.getString(1));
+					}
+					return null;
+				}
+			});
+		}
+
+		if (roleLoading == RoleLoading.batch) {
+			selectIdentityRoles(identities);
+		}
+
+		changes.setToken(new SyncToken(highest == null ? "" : toTokenValue(highest, seenAtHighest)));
+		return changes;
+	}
+
+	private static String toTokenValue(Timestamp highest, Set<String> seenAtHighest) {
+		StringBuilder buf = new StringBuilder(highest.toString());
+		try {
+			for (String guid : seenAtHighest) {
+				buf.append(',');
+				buf.append(URLEncoder.encode(guid, "UTF-8"));
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return buf.toString();
 	}
 
 	protected List<Role> selectIdentityRoles(Identity identity) {
 
-		List<Role> roles = new ArrayList<Role>();
-		Statement statement = null;
-		ResultSet resultSet = null;
-		try {
-			statement = connect.createStatement();
-			resultSet = statement.executeQuery(configuration
-					.getSelectIdentitiesRolesSQL(identity));
+		ParameterizedSQL sql = configuration.getSelectIdentityRolesStatement();
+		return jdbcAction(sql.getSQL(),
+				sql.getParameters(Collections.singletonMap(JDBCConfiguration.IDENTITY_GUID_VALUE, guidParameter(identity.getGuid()))),
+				new JDBCResultsetBlock<List<Role>>() {
+					public List<Role> apply(ResultSet resultSet) throws SQLException {
+						List<Role> roles = new ArrayList<Role>();
+						while (resultSet.next()) {
+							roles.add(createRole(resultSet));
+						}
+						return roles;
+					}
+				});
+	}
 
-			while (resultSet.next()) {
-				roles.add(createRole(resultSet));
+	/**
+	 * Select the roles of many identities and add them, a batch at a time,
+	 * see {@link JDBCConfiguration#getSelectIdentitiesRolesSQL(int)}.
+	 * 
+	 * @param identities identities
+	 */
+	protected void selectIdentityRoles(List<? extends Identity> identities) {
+		int batchSize = Math.max(1, configuration.getRoleBatchSize());
+		for (int start = 0; start < identities.size(); start += batchSize) {
+			List<? extends Identity> batch = identities.subList(start, Math.min(identities.size(), start + batchSize));
+			final Map<String, IdentityImpl> byGuid = new HashMap<String, IdentityImpl>();
+			Object[] guids = new Object[batch.size()];
+			for (int i = 0; i < guids.length; i++) {
+				Identity identity = batch.get(i);
+				guids[i] = guidParameter(identity.getGuid());
+				if (identity instanceof IdentityImpl) {
+					byGuid.put(identity.getGuid(), (IdentityImpl) identity);
+				}
 			}
-		} catch (SQLException e) {
-			throw new ConnectorException(e);
-		} finally {
-			closeStatement(statement);
-			closeResultSet(resultSet);
+			jdbcAction(configuration.getSelectIdentitiesRolesSQL(guids.length), guids, new JDBCResultsetBlock<Void>() {
+				public Void apply(ResultSet resultSet) throws SQLException {
+					String column = configuration.getRoleIdentityGuidColumn();
+					while (resultSet.next()) {
+						IdentityImpl identity = byGuid.get(resultSet.getString(column));
+						if (identity != null) {
+							identity.addRole(createRole(resultSet));
+						}
+					}
+					return null;
+				}
+			});
 		}
-
-		return roles;
 	}
 
 	protected Identity createIdentity(ResultSet resultSet) throws SQLException {
+		return createIdentity(resultSet, configuration.getRoleLoading());
+	}
+
+	/**
+	 * Create an identity from the current row. Roles are selected straight
+	 * away or set up to be selected on first use, according to
+	 * <code>roleLoading</code>. For {@link RoleLoading#batch} and
+	 * {@link RoleLoading#join} no roles are added, the caller is expected to
+	 * add them.
+	 * 
+	 * @param resultSet result set
+	 * @param roleLoading how roles are loaded
+	 * @return identity
+	 * @throws SQLException
+	 */
+	protected Identity createIdentity(ResultSet resultSet, RoleLoading roleLoading) throws SQLException {
 
 		JDBCIdentity i = new JDBCIdentity(resultSet.getString(configuration
 				.getIdentityGuidColumn()), resultSet.getString(configuration
@@ -140,7 +341,16 @@ public abstract class JDBCConnector extends AbstractConnector {
 					.getIdentityLastSignOnColumn()));
 		}
 
-		i.setRoles(selectIdentityRoles(i));
+		switch (roleLoading) {
+		case perIdentity:
+			i.setRoles(selectIdentityRoles(i));
+			break;
+		case lazy:
+			i.setLazyRoles(this);
+			break;
+		default:
+			break;
+		}
 
 		// Account status is currently unsupported
 		AccountStatus status = new AccountStatus();
@@ -185,48 +395,63 @@ public abstract class JDBCConnector extends AbstractConnector {
 		}
 	}
 
-	public Iterator<Role> allRoles() throws ConnectorException {
-		List<Role> roles = new ArrayList<Role>();
-		Statement statement = null;
-		ResultSet resultSet = null;
-		try {
-			statement = connect.createStatement();
-			resultSet = statement.executeQuery(configuration
-					.getSelectRolesSQL());
-
-			while (resultSet.next()) {
-				roles.add(createRole(resultSet));
+	protected void closeConnection(Connection connection) {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
 			}
-		} catch (SQLException e) {
-			throw new ConnectorException(e);
-		} finally {
-			closeStatement(statement);
-			closeResultSet(resultSet);
 		}
+	}
 
-		return roles.iterator();
+	/**
+	 * Roles are read from the database as the iterator is used, see
+	 * {@link #jdbcIterator(String, Object[], JDBCResultsetBlock)}.
+	 */
+	public Iterator<Role> allRoles() throws ConnectorException {
+		return jdbcIterator(configuration.getSelectRolesSQL(), new Object[0], new JDBCResultsetBlock<Role>() {
+			public Role apply(ResultSet resultSet) throws SQLException {
+				return createRole(resultSet);
+			}
+		});
 	}
 
 	public boolean isOpen() {
-		try {
-			return connect != null && !connect.isClosed();
-		} catch (SQLException e) {
-			return false;
-		}
+		return pool != null;
 	}
 
 	public void onClose() {
 		if (isOpen()) {
-			try {
-				connect.close();
-			} catch (SQLException e) {
-			} finally {
+			synchronized (this) {
+				closeConnection(connect);
 				connect = null;
-				configuration = null;
 			}
+			pool.close();
+			pool = null;
+			configuration = null;
 		}
 	}
 
+	/**
+	 * Set a data source to obtain connections from instead of the driver.
+	 * Pooling and statement caching are then left to the data source. This
+	 * must be set before the connector is opened.
+	 * 
+	 * @param dataSource data source
+	 */
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Get the data source connections are obtained from, if any.
+	 * 
+	 * @return data source or <code>null</code>
+	 */
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
 	public boolean isReadOnly() {
 		// TODO Auto-generated method stub
 		return false;
@@ -252,14 +477,21 @@ public abstract class JDBCConnector extends AbstractConnector {
 			throws ConnectorException {
 
 		configuration = (JDBCConfiguration) parameters;
+		guidSQLType = configuration.getIdentityGuidSQLType();
 
 		try {
 
 			// This will load the MySQL driver, each DB has its own driver
 			Class.forName(configuration.getDriverClassName());
-			// Setup the connection with the DB
-			connect = DriverManager.getConnection(configuration
-					.generateJDBCUrl());
+			// Setup the connection pool, and check the DB can be reached
+			pool = new JDBCConnectionPool(dataSource, configuration.getPoolSize(),
+					configuration.getStatementCacheSize(), configuration.getPoolTimeout()) {
+				@Override
+				protected Connection open() throws SQLException {
+					return openConnection();
+				}
+			};
+			releaseConnection(borrowConnection(), false);
 
 		} catch (Exception e) {
 			log.error(
@@ -270,6 +502,68 @@ public abstract class JDBCConnector extends AbstractConnector {
 
 	}
 
+	/**
+	 * Open a new connection to the database. Connections are pooled, so use
+	 * {@link #borrowConnection()} rather than calling this directly.
+	 * 
+	 * @return connection
+	 * @throws SQLException
+	 */
+	protected Connection openConnection() throws SQLException {
+		return DriverManager.getConnection(configuration.generateJDBCUrl());
+	}
+
+	/**
+	 * Get a connection of this connector's own, kept open outside of the pool
+	 * until the connector is closed. This stands in for the
+	 * <code>connect</code> field subclasses used before connections were
+	 * pooled. Such a connection is shared by every thread, so its statements
+	 * are not cached and nothing stops two threads using it at once.
+	 * 
+	 * @return connection
+	 * @throws SQLException
+	 * @deprecated borrow a connection with {@link #borrowConnection()} and give
+	 *             it back with {@link #releaseConnection(Connection, boolean)}
+	 */
+	@Deprecated
+	protected synchronized Connection getConnection() throws SQLException {
+		if (pool == null) {
+			throw new ConnectorException("Connector is not open.");
+		}
+		if (connect == null || connect.isClosed()) {
+			connect = dataSource == null ? openConnection() : dataSource.getConnection();
+		}
+		return connect;
+	}
+
+	/**
+	 * Borrow a connection from the pool. It must be given back with
+	 * {@link #releaseConnection(Connection, boolean)}.
+	 * 
+	 * @return connection
+	 * @throws SQLException
+	 */
+	protected Connection borrowConnection() throws SQLException {
+		if (pool == null) {
+			throw new ConnectorException("Connector is not open.");
+		}
+		return pool.borrow();
+	}
+
+	/**
+	 * Give a borrowed connection back to the pool.
+	 * 
+	 * @param connection connection
+	 * @param failed whether the connection failed, in which case it is closed
+	 */
+	protected void releaseConnection(Connection connection, boolean failed) {
+		if (pool == null) {
+			closeConnection(connection);
+		} else {
+			pool.release(connection, failed);
+		}
+	}
+
 	@Override
 	protected boolean areCredentialsValid(Identity identity, char[] password)
 			throws ConnectorException {
@@ -280,20 +574,15 @@ public abstract class JDBCConnector extends AbstractConnector {
 				configuration.getIdentityPasswordEncoding(),
 				configuration.getCharset(), null, null));
 
-		Statement statement = null;
-		ResultSet resultSet = null;
-		try {
-			statement = connect.createStatement();
-			resultSet = statement.executeQuery(configuration
-					.getSelectPasswordSQL(identity, encodedPassword));
-
-			return resultSet.next();
-		} catch (SQLException e) {
-			throw new ConnectorException(e);
-		} finally {
-			closeStatement(statement);
-			closeResultSet(resultSet);
-		}
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put(JDBCConfiguration.IDENTITY_GUID_VALUE, guidParameter(identity.getGuid()));
+		values.put(JDBCConfiguration.PASSWORD_VALUE, encodedPassword);
+		ParameterizedSQL sql = configuration.getSelectPasswordStatement();
+		return jdbcAction(sql.getSQL(), sql.getParameters(values), new JDBCResultsetBlock<Boolean>() {
+			public Boolean apply(ResultSet resultSet) throws SQLException {
+				return resultSet.next();
+			}
+		});
 	}
 
 	@Override
@@ -367,7 +656,7 @@ public abstract class JDBCConnector extends AbstractConnector {
 	 */
 	protected void autoCommitTrue(Connection connection){
 		try {
-			connect.setAutoCommit(true);
+			connection.setAutoCommit(true);
 		} catch (SQLException e) {
 			throw new ConnectorException("Problem in setting auto commit to true.", e);
 		}
@@ -380,7 +669,7 @@ public abstract class JDBCConnector extends AbstractConnector {
 	 */
 	protected void rollback(Connection connection){
 		try {
-			connect.rollback();
+			connection.rollback();
 		} catch (SQLException e) {
 			throw new ConnectorException("Problem in rollback.", e);
 		}
@@ -396,26 +685,291 @@ public abstract class JDBCConnector extends AbstractConnector {
 	 * @return object instance as per the logic in block
 	 */
 	protected <T> T jdbcAction(String sql,Object[] params,JDBCResultsetBlock<T> block){
+		Connection connection = null;
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		boolean failed = true;
 		try {
-			statement = connect.prepareStatement(sql);
-			
-			for (int i = 0; i < params.length; i++) {
-				statement.setObject(i + 1, params[i]);
-			}
+			connection = borrowConnection();
+			statement = pool.prepare(connection, sql);
+			setParameters(statement, params);
 			
 			resultSet = statement.executeQuery();
 
-			return block.apply(resultSet);
+			T result = block.apply(resultSet);
+			failed = false;
+			return result;
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
 			closeResultSet(resultSet);
+			releaseStatement(connection, statement);
+			releaseConnection(connection, failed);
+		}
+	}
+
+	/**
+	 * Get the value to pass as a query parameter for a GUID, which is bound
+	 * with the SQL type given by
+	 * {@link JDBCConfiguration#getIdentityGuidSQLType()}, if any.
+	 * 
+	 * @param guid GUID
+	 * @return parameter
+	 */
+	protected Object guidParameter(String guid) {
+		return guidSQLType == null ? guid : new TypedParameter(guid, guidSQLType);
+	}
+
+	private static void setParameters(PreparedStatement statement, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] instanceof TypedParameter) {
+				TypedParameter typed = (TypedParameter) params[i];
+				statement.setObject(i + 1, typed.value, typed.sqlType);
+			} else {
+				statement.setObject(i + 1, params[i]);
+			}
+		}
+	}
+
+	/**
+	 * A query parameter to be converted to a particular SQL type by the
+	 * driver when bound.
+	 */
+	static final class TypedParameter {
+		final Object value;
+		final int sqlType;
+
+		TypedParameter(Object value, int sqlType) {
+			this.value = value;
+			this.sqlType = sqlType;
+		}
+	}
+
+	private void releaseStatement(Connection connection, Statement statement) {
+		if (pool == null) {
 			closeStatement(statement);
+		} else {
+			pool.release(connection, statement);
 		}
 	}
 	
+	/**
+	 * Helper which executes a sql query with arguments passed and returns an
+	 * iterator over the rows, each mapped by block as it is read. The query
+	 * holds a connection of its own, using the configured fetch size, so
+	 * only a few rows are held in memory at once and other connections in
+	 * the pool stay free for any queries block makes. The connection is
+	 * given back when the iterator is exhausted or closed, so callers that
+	 * stop early must close it.
+	 * <p>
+	 * If streaming is turned off, or the pool only has one connection so none
+	 * would be left for the queries block makes, all rows are read and mapped
+	 * before returning.
+	 * 
+	 * @param sql query to be processed
+	 * @param params parameters if any to be passed on to sql query
+	 * @param block logic to map the current row of the result set to an instance of type T
+	 * @return iterator, which is also {@link Closeable}
+	 */
+	protected <T> Iterator<T> jdbcIterator(String sql, Object[] params, final JDBCResultsetBlock<T> block) {
+		if (pool == null) {
+			throw new ConnectorException("Connector is not open.");
+		}
+		if (!configuration.isStreamResults() || !pool.canStream()) {
+			return jdbcAction(sql, params, new JDBCResultsetBlock<List<T>>() {
+				public List<T> apply(ResultSet resultSet) throws SQLException {
+					List<T> results = new ArrayList<T>();
+					while (resultSet.next()) {
+						results.add(block.apply(resultSet));
+					}
+					return results;
+				}
+			}).iterator();
+		}
+
+		Connection connection = null;
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		try {
+			connection = pool.borrowForStreaming();
+			// Some drivers only use a cursor outside of auto commit
+			connection.setAutoCommit(false);
+			statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(configuration.getFetchSize());
+			setParameters(statement, params);
+			resultSet = statement.executeQuery();
+			return new ResultSetIterator<T>(connection, statement, resultSet, block);
+		} catch (SQLException e) {
+			closeResultSet(resultSet);
+			closeStatement(statement);
+			releaseConnection(connection, true);
+			throw new ConnectorException(e);
+		}
+	}
+
+	/**
+	 * Iterator over an open result set, mapping each row as it is read. The
+	 * result set and statement are closed, and the connection given back,
+	 * when the last row has been read or when the iterator is closed. An
+	 * iterator abandoned part way through keeps its connection until it is
+	 * closed.
+	 * 
+	 * @param <T>
+	 */
+	protected class ResultSetIterator<T> implements Iterator<T>, Closeable {
+		private final Connection connection;
+		private final Statement statement;
+		private final JDBCResultsetBlock<T> block;
+		private ResultSet resultSet;
+		private Boolean hasNext;
+
+		public ResultSetIterator(Connection connection, Statement statement, ResultSet resultSet, JDBCResultsetBlock<T> block) {
+			this.connection = connection;
+			this.statement = statement;
+			this.resultSet = resultSet;
+			this.block = block;
+		}
+
+		public boolean hasNext() {
+			if (hasNext == null) {
+				if (resultSet == null) {
+					return false;
+				}
+				try {
+					hasNext = resultSet.next();
+				} catch (SQLException e) {
+					close();
+					throw new ConnectorException(e);
+				}
+				if (!hasNext) {
+					close();
+				}
+			}
+			return hasNext;
+		}
+
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			hasNext = null;
+			try {
+				return block.apply(resultSet);
+			} catch (SQLException e) {
+				close();
+				throw new ConnectorException(e);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		public void close() {
+			if (resultSet != null) {
+				closeResultSet(resultSet);
+				closeStatement(statement);
+				boolean failed = false;
+				try {
+					connection.setAutoCommit(true);
+				} catch (SQLException e) {
+					failed = true;
+				}
+				releaseConnection(connection, failed);
+				resultSet = null;
+				hasNext = Boolean.FALSE;
+			}
+		}
+	}
+
+	/**
+	 * Reads identities in batches, adding the roles of each batch with a
+	 * single query before returning them.
+	 */
+	class BatchedRolesIterator implements Iterator<Identity>, Closeable {
+		private final Iterator<Identity> identities;
+		private final LinkedList<Identity> batch = new LinkedList<Identity>();
+
+		BatchedRolesIterator(Iterator<Identity> identities) {
+			this.identities = identities;
+		}
+
+		public boolean hasNext() {
+			if (batch.isEmpty()) {
+				int batchSize = Math.max(1, configuration.getRoleBatchSize());
+				while (batch.size() < batchSize && identities.hasNext()) {
+					batch.add(identities.next());
+				}
+				if (!batch.isEmpty()) {
+					selectIdentityRoles(batch);
+				}
+			}
+			return !batch.isEmpty();
+		}
+
+		public Identity next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return batch.removeFirst();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		public void close() throws IOException {
+			if (identities instanceof Closeable) {
+				((Closeable) identities).close();
+			}
+		}
+	}
+
+	/**
+	 * Merges consecutive rows of the same identity, each with at most one
+	 * role, into a single identity with all of the roles.
+	 */
+	class JoinedRolesIterator implements Iterator<Identity>, Closeable {
+		private final Iterator<Identity> rows;
+		private Identity pending;
+
+		JoinedRolesIterator(Iterator<Identity> rows) {
+			this.rows = rows;
+		}
+
+		public boolean hasNext() {
+			return pending != null || rows.hasNext();
+		}
+
+		public Identity next() {
+			Identity identity = pending == null ? rows.next() : pending;
+			pending = null;
+			while (rows.hasNext()) {
+				Identity row = rows.next();
+				if (!row.getGuid().equals(identity.getGuid())) {
+					pending = row;
+					break;
+				}
+				if (identity instanceof IdentityImpl) {
+					for (Role role : row.getRoles()) {
+						((IdentityImpl) identity).addRole(role);
+					}
+				}
+			}
+			return identity;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		public void close() throws IOException {
+			if (rows instanceof Closeable) {
+				((Closeable) rows).close();
+			}
+		}
+	}
+
 	/**
 	 * Update helper which executes a SQL DML query.
 	 * 
@@ -424,18 +978,20 @@ public abstract class JDBCConnector extends AbstractConnector {
 	 * 
 	 */
 	protected void updateHelper(String sql,Object...params){
+		Connection connection = null;
 		PreparedStatement statement = null;
+		boolean failed = true;
 		try {
-			statement = connect.prepareStatement(sql);
-			for (int i = 0; i < params.length; i++) {
-				statement.setObject(i + 1, params[i]);
-			}
+			connection = borrowConnection();
+			statement = pool.prepare(connection, sql);
+			setParameters(statement, params);
 			statement.executeUpdate();
-			
+			failed = false;
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
-			closeStatement(statement);
+			releaseStatement(connection, statement);
+			releaseConnection(connection, failed);
 		}
 	}
 	
@@ -450,13 +1006,20 @@ public abstract class JDBCConnector extends AbstractConnector {
 	 * @param block
 	 */
 	protected void inTransaction(String sql,JDBCBlock block){
+		Connection connection;
+		try {
+			connection = borrowConnection();
+		} catch (SQLException e) {
+			throw new ConnectorException(e);
+		}
 		Statement statement = null;
+		boolean failed = true;
 		try{
-			connect.setAutoCommit(false);
+			connection.setAutoCommit(false);
 			if(!StringUtil.isNullOrEmpty(sql)){
-				statement = connect.prepareStatement(sql);
+				statement = connection.prepareStatement(sql);
 			}else{
-				statement = connect.createStatement();
+				statement = connection.createStatement();
 			}
 			
 			block.apply(statement);
@@ -465,13 +1028,19 @@ public abstract class JDBCConnector extends AbstractConnector {
 			
 			checkBatchCommit(codes);
 			
-			connect.commit();
+			connection.commit();
+			failed = false;
 		}catch (SQLException e) {
-			rollback(connect);
+			rollback(connection);
 			throw new ConnectorException(e);
 		} finally {
-			autoCommitTrue(connect);
 			closeStatement(statement);
+			try {
+				autoCommitTrue(connection);
+			} catch (ConnectorException e) {
+				failed = true;
+			}
+			releaseConnection(connection, failed);
 		}
 	}
 	
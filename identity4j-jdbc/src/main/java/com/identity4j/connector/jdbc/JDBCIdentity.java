@@ -1,13 +1,47 @@
 package com.identity4j.connector.jdbc;
 
+import java.util.List;
+
+import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Role;
 
 public class JDBCIdentity extends IdentityImpl {
 
 	private static final long serialVersionUID = 4140374422471162920L;
 
+	private transient JDBCConnector roleLoader;
+
 	public JDBCIdentity(String guid, String principalName) {
 		super(guid, principalName);
 	}
 
+	/**
+	 * Load the roles from the given connector when they are first used.
+	 * 
+	 * @param roleLoader connector
+	 */
+	void setLazyRoles(JDBCConnector roleLoader) {
+		this.roleLoader = roleLoader;
+	}
+
+	/**
+	 * Roles set up to be loaded on first use can only be loaded while the
+	 * connector that created this identity is still open.
+	 * 
+	 * @throws ConnectorException if the connector has been closed
+	 */
+	@Override
+	protected synchronized void loadRoles() {
+		if (roleLoader != null) {
+			if (!roleLoader.isOpen()) {
+				throw new ConnectorException("Cannot load the roles of " + getPrincipalName()
+						+ ", the connector has been closed.");
+			}
+			List<Role> roles = roleLoader.selectIdentityRoles(this);
+			roleLoader = null;
+			setRoles(roles);
+		}
+	}
+
 }
@@ -0,0 +1,81 @@
+package com.identity4j.connector.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQL in which value tokens, such as <code>${password}</code>, have been
+ * replaced by parameters so the statement can be prepared once and reused.
+ * A token enclosed in single quotes is replaced along with its quotes.
+ */
+public class ParameterizedSQL {
+
+	private final String sql;
+	private final List<String> parameters = new ArrayList<String>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sql SQL containing tokens
+	 * @param tokens tokens to replace with parameters
+	 */
+	public ParameterizedSQL(String sql, String... tokens) {
+		StringBuilder buf = new StringBuilder();
+		int pos = 0;
+		while (true) {
+			int found = -1;
+			String token = null;
+			for (String t : tokens) {
+				int idx = sql.indexOf(t, pos);
+				if (idx != -1 && (found == -1 || idx < found)) {
+					found = idx;
+					token = t;
+				}
+			}
+			if (found == -1) {
+				break;
+			}
+			int end = found + token.length();
+			if (found > pos && sql.charAt(found - 1) == '\'' && end < sql.length() && sql.charAt(end) == '\'') {
+				buf.append(sql, pos, found - 1);
+				end++;
+			} else {
+				buf.append(sql, pos, found);
+			}
+			buf.append('?');
+			parameters.add(token);
+			pos = end;
+		}
+		buf.append(sql.substring(pos));
+		this.sql = buf.toString();
+	}
+
+	/**
+	 * Get the SQL with parameters in place of the tokens.
+	 *
+	 * @return SQL
+	 */
+	public String getSQL() {
+		return sql;
+	}
+
+	/**
+	 * Get the parameter values, in order, given the value of each token.
+	 *
+	 * @param values values keyed by token
+	 * @return parameters
+	 */
+	public Object[] getParameters(Map<String, ?> values) {
+		Object[] params = new Object[parameters.size()];
+		for (int i = 0; i < params.length; i++) {
+			params[i] = values.get(parameters.get(i));
+		}
+		return params;
+	}
+
+	@Override
+	public String toString() {
+		return sql;
+	}
+}
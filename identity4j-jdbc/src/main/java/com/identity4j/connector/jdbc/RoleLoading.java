@@ -0,0 +1,31 @@
+package com.identity4j.connector.jdbc;
+
+/**
+ * How the roles of identities are loaded when listing them.
+ */
+public enum RoleLoading {
+	/**
+	 * Select the roles of each identity as it is read, one query per
+	 * identity.
+	 */
+	perIdentity,
+	/**
+	 * Read identities in batches and select the roles of each batch with a
+	 * single <code>IN (...)</code> query.
+	 */
+	batch,
+	/**
+	 * Select identities joined with their roles in a single query, ordered
+	 * by identity, and group the rows of each identity. Identities listed
+	 * any other way are loaded as {@link #batch}.
+	 */
+	join,
+	/**
+	 * Select the roles of an identity only when they are first used.
+	 */
+	lazy,
+	/**
+	 * Do not load roles.
+	 */
+	none
+}
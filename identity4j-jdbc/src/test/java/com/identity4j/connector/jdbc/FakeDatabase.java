@@ -0,0 +1,425 @@
+package com.identity4j.connector.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.util.MultiMap;
+
+/**
+ * An in memory stand in for a database with a table of users and a table of
+ * the roles each user has, reached through the driver {@link FakeDriver}. The
+ * JDBC objects it hands out are proxies that answer the connector's default
+ * queries, and count how they are used so tests can check connections,
+ * statements and result sets are given back.
+ */
+class FakeDatabase {
+
+	static final String USERS = "users";
+	static final String ROLES = "roles";
+
+	private static final Map<String, FakeDatabase> DATABASES = new ConcurrentHashMap<String, FakeDatabase>();
+	private static final AtomicInteger NEXT = new AtomicInteger();
+
+	final String name = "db" + NEXT.incrementAndGet();
+	final List<Map<String, Object>> users = new ArrayList<Map<String, Object>>();
+	final List<Map<String, Object>> roles = new ArrayList<Map<String, Object>>();
+
+	final AtomicInteger connectionsOpened = new AtomicInteger();
+	final AtomicInteger connectionsClosed = new AtomicInteger();
+	final AtomicInteger statementsOpen = new AtomicInteger();
+	final AtomicInteger resultSetsOpen = new AtomicInteger();
+	final AtomicInteger rowsRead = new AtomicInteger();
+	final Map<String, AtomicInteger> prepared = new ConcurrentHashMap<String, AtomicInteger>();
+	final Map<String, AtomicInteger> executed = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private volatile String failingSQL;
+
+	FakeDatabase() {
+		DATABASES.put(name, this);
+	}
+
+	/**
+	 * Add a user and the roles it has.
+	 */
+	FakeDatabase user(String guid, String name, String... roleNames) {
+		Map<String, Object> user = new LinkedHashMap<String, Object>();
+		user.put("guid", guid);
+		user.put("name", name);
+		user.put("email", name + "@example.com");
+		users.add(user);
+		for (String roleName : roleNames) {
+			Map<String, Object> role = new LinkedHashMap<String, Object>();
+			role.put("role_guid", "r-" + roleName);
+			role.put("role_name", roleName);
+			role.put("identity_guid", guid);
+			roles.add(role);
+		}
+		return this;
+	}
+
+	/**
+	 * Make any query starting with the given SQL fail, or none if
+	 * <code>null</code>.
+	 */
+	void failOn(String sql) {
+		failingSQL = sql;
+	}
+
+	int connectionsOpen() {
+		return connectionsOpened.get() - connectionsClosed.get();
+	}
+
+	int prepared(String sql) {
+		AtomicInteger count = prepared.get(sql);
+		return count == null ? 0 : count.get();
+	}
+
+	int executed(String sql) {
+		AtomicInteger count = executed.get(sql);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Create configuration for a connector reaching this database.
+	 */
+	FakeConfiguration configuration(String... parameters) {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(JDBCConfiguration.JDBC_HOSTNAME, "localhost");
+		properties.put(JDBCConfiguration.JDBC_DATABASE, name);
+		properties.put(JDBCConfiguration.SQL_IDENTITY_TABLE, USERS);
+		properties.put(JDBCConfiguration.SQL_IDENTITY_TABLE_GUID, "guid");
+		properties.put(JDBCConfiguration.SQL_IDENTITY_TABLE_PRINCIPAL_NAME, "name");
+		properties.put(JDBCConfiguration.SQL_IDENTITY_TABLE_EMAIL, "email");
+		properties.put(JDBCConfiguration.SQL_ROLE_TABLE, ROLES);
+		properties.put(JDBCConfiguration.SQL_ROLE_TABLE_GUID, "role_guid");
+		properties.put(JDBCConfiguration.SQL_ROLE_TABLE_PRINCIPAL_NAME, "role_name");
+		properties.put(JDBCConfiguration.SQL_ROLE_TABLE_IDENTITY_GUID, "identity_guid");
+		for (int i = 0; i < parameters.length; i += 2) {
+			properties.put(parameters[i], parameters[i + 1]);
+		}
+		return new FakeConfiguration(MultiMap.toMultiMap(properties));
+	}
+
+	/**
+	 * Open a connector on this database.
+	 */
+	JDBCConnector open(String... parameters) {
+		JDBCConnector connector = new JDBCConnector() {
+		};
+		connector.open(configuration(parameters));
+		return connector;
+	}
+
+	Connection connect() {
+		connectionsOpened.incrementAndGet();
+		return proxy(Connection.class, new FakeConnection());
+	}
+
+	private List<Map<String, Object>> query(String sql, List<Object> parameters) throws SQLException {
+		count(executed, sql);
+		String failing = failingSQL;
+		if (failing != null && sql.startsWith(failing)) {
+			throw new SQLException("Failed query " + sql);
+		}
+		if (sql.equals("SELECT * FROM users")) {
+			return users;
+		}
+		if (sql.equals("SELECT * FROM roles")) {
+			return roles;
+		}
+		if (sql.equals("SELECT * FROM roles WHERE identity_guid = ?")
+				|| sql.startsWith("SELECT * FROM roles WHERE identity_guid IN (")) {
+			List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+			for (Map<String, Object> role : roles) {
+				if (parameters.contains(role.get("identity_guid"))) {
+					rows.add(role);
+				}
+			}
+			return rows;
+		}
+		if (sql.equals(
+				"SELECT * FROM users LEFT JOIN roles ON roles.identity_guid = users.guid ORDER BY users.guid")) {
+			List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+			for (Map<String, Object> user : users) {
+				boolean joined = false;
+				for (Map<String, Object> role : roles) {
+					if (role.get("identity_guid").equals(user.get("guid"))) {
+						Map<String, Object> row = new HashMap<String, Object>(user);
+						row.putAll(role);
+						rows.add(row);
+						joined = true;
+					}
+				}
+				if (!joined) {
+					rows.add(user);
+				}
+			}
+			return rows;
+		}
+		throw new SQLException("Unexpected query " + sql);
+	}
+
+	private static void count(Map<String, AtomicInteger> counts, String sql) {
+		synchronized (counts) {
+			AtomicInteger count = counts.get(sql);
+			if (count == null) {
+				count = new AtomicInteger();
+				counts.put(sql, count);
+			}
+			count.incrementAndGet();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == Boolean.TYPE) {
+			return Boolean.FALSE;
+		} else if (type == Integer.TYPE) {
+			return 0;
+		} else if (type == Long.TYPE) {
+			return 0L;
+		} else if (type.isPrimitive() && type != Void.TYPE) {
+			throw new UnsupportedOperationException("Unexpected primitive " + type);
+		}
+		return null;
+	}
+
+	private abstract static class Handler implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			} else if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (method.getName().equals("toString")) {
+				return getClass().getSimpleName();
+			}
+			return handle(method.getName(), args == null ? new Object[0] : args, method.getReturnType());
+		}
+
+		abstract Object handle(String name, Object[] args, Class<?> returnType) throws Exception;
+	}
+
+	private class FakeConnection extends Handler {
+		private boolean closed;
+		private boolean autoCommit = true;
+
+		@Override
+		Object handle(String name, Object[] args, Class<?> returnType) throws Exception {
+			if (name.equals("isClosed")) {
+				return closed;
+			}
+			if (closed) {
+				throw new SQLException("Connection is closed.");
+			}
+			if (name.equals("close")) {
+				closed = true;
+				connectionsClosed.incrementAndGet();
+				return null;
+			} else if (name.equals("prepareStatement")) {
+				String sql = (String) args[0];
+				count(prepared, sql);
+				statementsOpen.incrementAndGet();
+				return proxy(PreparedStatement.class, new FakeStatement(sql));
+			} else if (name.equals("setAutoCommit")) {
+				autoCommit = (Boolean) args[0];
+				return null;
+			} else if (name.equals("getAutoCommit")) {
+				return autoCommit;
+			}
+			return defaultValue(returnType);
+		}
+	}
+
+	private class FakeStatement extends Handler {
+		private final String sql;
+		private final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+		private boolean closed;
+
+		FakeStatement(String sql) {
+			this.sql = sql;
+		}
+
+		@Override
+		Object handle(String name, Object[] args, Class<?> returnType) throws Exception {
+			if (name.equals("isClosed")) {
+				return closed;
+			}
+			if (closed) {
+				throw new SQLException("Statement is closed.");
+			}
+			if (name.equals("close")) {
+				closed = true;
+				statementsOpen.decrementAndGet();
+				return null;
+			} else if (name.equals("setObject") || name.equals("setString")) {
+				parameters.put((Integer) args[0], args[1]);
+				return null;
+			} else if (name.equals("clearParameters")) {
+				parameters.clear();
+				return null;
+			} else if (name.equals("executeQuery")) {
+				List<Object> values = new ArrayList<Object>();
+				for (int i = 1; i <= parameters.size(); i++) {
+					values.add(parameters.get(i));
+				}
+				List<Map<String, Object>> rows = query(sql, values);
+				resultSetsOpen.incrementAndGet();
+				return proxy(ResultSet.class, new FakeResultSet(rows));
+			}
+			return defaultValue(returnType);
+		}
+	}
+
+	private class FakeResultSet extends Handler {
+		private final List<Map<String, Object>> rows;
+		private int row = -1;
+		private boolean closed;
+
+		FakeResultSet(List<Map<String, Object>> rows) {
+			this.rows = Collections.unmodifiableList(new ArrayList<Map<String, Object>>(rows));
+		}
+
+		@Override
+		Object handle(String name, Object[] args, Class<?> returnType) throws Exception {
+			if (name.equals("isClosed")) {
+				return closed;
+			}
+			if (closed) {
+				throw new SQLException("Result set is closed.");
+			}
+			if (name.equals("close")) {
+				closed = true;
+				resultSetsOpen.decrementAndGet();
+				return null;
+			} else if (name.equals("next")) {
+				if (row + 1 < rows.size()) {
+					row++;
+					rowsRead.incrementAndGet();
+					return true;
+				}
+				row = rows.size();
+				return false;
+			} else if (name.startsWith("get") && args.length == 1 && args[0] instanceof String) {
+				if (row < 0 || row >= rows.size()) {
+					throw new SQLException("No current row.");
+				}
+				Object value = rows.get(row).get(args[0]);
+				return name.equals("getString") && value != null ? value.toString() : value;
+			}
+			return defaultValue(returnType);
+		}
+	}
+
+	/**
+	 * Driver for <code>jdbc:fake:</code> URLs, naming a {@link FakeDatabase}.
+	 */
+	public static class FakeDriver implements Driver {
+		static {
+			try {
+				DriverManager.registerDriver(new FakeDriver());
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public Connection connect(String url, Properties info) throws SQLException {
+			if (!acceptsURL(url)) {
+				return null;
+			}
+			String name = url.substring(url.lastIndexOf('/') + 1);
+			int idx = name.indexOf('?');
+			FakeDatabase database = DATABASES.get(idx == -1 ? name : name.substring(0, idx));
+			if (database == null) {
+				throw new SQLException("No database for " + url);
+			}
+			return database.connect();
+		}
+
+		public boolean acceptsURL(String url) throws SQLException {
+			return url.startsWith("jdbc:fake:");
+		}
+
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+			return new DriverPropertyInfo[0];
+		}
+
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		public java.util.logging.Logger getParentLogger() {
+			return java.util.logging.Logger.getLogger(FakeDriver.class.getName());
+		}
+	}
+
+	static class FakeConfiguration extends JDBCConfiguration {
+
+		FakeConfiguration(MultiMap configurationParameters) {
+			super(configurationParameters);
+		}
+
+		@Override
+		public String getJDBUrlProperties() {
+			return "";
+		}
+
+		@Override
+		public String getJDBCDriverName() {
+			return "fake";
+		}
+
+		@Override
+		public Integer getDefaultPort() {
+			return 1;
+		}
+
+		@Override
+		public String getDriverClassName() {
+			return FakeDriver.class.getName();
+		}
+	}
+
+	static List<String> names(Iterable<? extends Principal> principals) {
+		List<String> names = new ArrayList<String>();
+		for (Principal principal : principals) {
+			names.add(principal.getPrincipalName());
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	static List<String> names(Principal... principals) {
+		return names(Arrays.asList(principals));
+	}
+}
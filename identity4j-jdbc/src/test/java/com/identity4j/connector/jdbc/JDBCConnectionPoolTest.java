@@ -0,0 +1,177 @@
+package com.identity4j.connector.jdbc;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.jdbc.JDBCConnector.JDBCResultsetBlock;
+import com.identity4j.connector.principal.Role;
+
+public class JDBCConnectionPoolTest {
+
+	private static final String BY_IDENTITY = "SELECT * FROM roles WHERE identity_guid = ?";
+
+	private FakeDatabase database;
+	private JDBCConnector connector;
+
+	@Before
+	public void setup() {
+		database = new FakeDatabase().user("1", "alice", "staff").user("2", "bob", "staff", "admin").user("3", "carol");
+	}
+
+	@After
+	public void close() {
+		if (connector != null) {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void itShouldGiveBackStreamingConnectionsWhenQueriesFail() throws Exception {
+		connector = database.open(JDBCConfiguration.JDBC_POOL_SIZE, "2", JDBCConfiguration.JDBC_POOL_TIMEOUT, "100");
+		assertGivenBackWhenQueriesFail();
+	}
+
+	@Test
+	public void itShouldGiveBackConnectionsWhenQueriesFail() throws Exception {
+		connector = database.open(JDBCConfiguration.JDBC_POOL_SIZE, "2", JDBCConfiguration.JDBC_POOL_TIMEOUT, "100",
+				JDBCConfiguration.SQL_STREAM_RESULTS, "false");
+		assertGivenBackWhenQueriesFail();
+	}
+
+	@Test
+	public void itShouldReusePreparedStatements() throws Exception {
+		connector = database.open();
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(3, count(connector.allIdentities()));
+		}
+		Assert.assertEquals(9, database.executed(BY_IDENTITY));
+		Assert.assertEquals(1, database.prepared(BY_IDENTITY));
+		Assert.assertEquals(1, database.statementsOpen.get());
+
+		// Cached statements are closed along with the pool
+		connector.close();
+		connector = null;
+		Assert.assertEquals(0, database.statementsOpen.get());
+		Assert.assertEquals(0, database.connectionsOpen());
+	}
+
+	@Test
+	public void itShouldNotCacheStatementsIfCacheIsEmpty() throws Exception {
+		connector = database.open(JDBCConfiguration.JDBC_STATEMENT_CACHE_SIZE, "0");
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(3, count(connector.allIdentities()));
+		}
+		Assert.assertEquals(9, database.prepared(BY_IDENTITY));
+		Assert.assertEquals(0, database.statementsOpen.get());
+	}
+
+	@Test
+	public void itShouldLeaveAConnectionFreeWhileStreaming() throws Exception {
+		connector = database.open(JDBCConfiguration.JDBC_POOL_SIZE, "2", JDBCConfiguration.JDBC_POOL_TIMEOUT, "100");
+		Iterator<Role> roles = connector.allRoles();
+		roles.next();
+
+		// The only other connection is still free for short queries
+		Assert.assertEquals(Integer.valueOf(2), connector.jdbcAction(BY_IDENTITY, new Object[] { "2" },
+				new JDBCResultsetBlock<Integer>() {
+					public Integer apply(ResultSet resultSet) throws SQLException {
+						int rows = 0;
+						while (resultSet.next()) {
+							rows++;
+						}
+						return rows;
+					}
+				}));
+
+		// But may not be held for streaming too
+		try {
+			connector.allRoles();
+			Assert.fail("Expected to time out waiting for a streaming connection.");
+		} catch (ConnectorException ce) {
+			Assert.assertTrue(ce.getCause().getMessage().startsWith("Timed out"));
+		}
+
+		((Closeable) roles).close();
+		Assert.assertEquals(3, count(connector.allRoles()));
+		Assert.assertEquals(2, database.connectionsOpen());
+	}
+
+	@Test
+	public void itShouldLendTheSameConnectionToNestedQueries() throws Exception {
+		connector = database.open(JDBCConfiguration.JDBC_POOL_SIZE, "1", JDBCConfiguration.JDBC_POOL_TIMEOUT, "100");
+		Assert.assertEquals(3, count(connector.allIdentities()));
+		Assert.assertEquals(1, database.connectionsOpened.get());
+		Assert.assertEquals(3, database.executed(BY_IDENTITY));
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void itShouldKeepAConnectionOutsideThePoolForSubclasses() throws Exception {
+		connector = database.open(JDBCConfiguration.JDBC_POOL_SIZE, "1", JDBCConfiguration.JDBC_POOL_TIMEOUT, "100");
+		Connection connection = connector.getConnection();
+		Assert.assertSame(connection, connector.getConnection());
+
+		// It does not take the only pooled connection
+		Assert.assertEquals(3, count(connector.allIdentities()));
+		Assert.assertEquals(2, database.connectionsOpen());
+
+		connector.close();
+		connector = null;
+		Assert.assertTrue(connection.isClosed());
+		Assert.assertEquals(0, database.connectionsOpen());
+	}
+
+	private void assertGivenBackWhenQueriesFail() {
+		database.failOn(BY_IDENTITY);
+		for (int i = 0; i < 5; i++) {
+			try {
+				count(connector.allIdentities());
+				Assert.fail("Expected query to fail.");
+			} catch (ConnectorException ce) {
+				Assert.assertTrue(ce.getCause().getMessage().startsWith("Failed query"));
+			}
+		}
+		database.failOn("SELECT * FROM users");
+		for (int i = 0; i < 5; i++) {
+			try {
+				connector.allIdentities();
+				Assert.fail("Expected query to fail.");
+			} catch (ConnectorException ce) {
+				Assert.assertTrue(ce.getCause().getMessage().startsWith("Failed query"));
+			}
+		}
+
+		// No permits were lost, and failed connections were not kept
+		database.failOn(null);
+		Assert.assertEquals(3, count(connector.allIdentities()));
+		Assert.assertEquals(10, database.connectionsClosed.get());
+		Assert.assertTrue(database.connectionsOpen() <= 2);
+		Assert.assertEquals(0, database.resultSetsOpen.get());
+	}
+
+	private static int count(Iterator<?> it) {
+		int count = 0;
+		try {
+			for (; it.hasNext(); count++) {
+				it.next();
+			}
+		} finally {
+			if (it instanceof Closeable) {
+				try {
+					((Closeable) it).close();
+				} catch (Exception e) {
+				}
+			}
+		}
+		return count;
+	}
+}
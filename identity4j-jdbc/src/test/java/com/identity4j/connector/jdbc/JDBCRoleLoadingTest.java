@@ -0,0 +1,112 @@
+package com.identity4j.connector.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.Projection;
+import com.identity4j.connector.principal.Identity;
+
+public class JDBCRoleLoadingTest {
+
+	private static final String BY_IDENTITY = "SELECT * FROM roles WHERE identity_guid = ?";
+	private static final String JOIN = "SELECT * FROM users LEFT JOIN roles ON roles.identity_guid = users.guid ORDER BY users.guid";
+
+	private FakeDatabase database;
+	private JDBCConnector connector;
+
+	@Before
+	public void setup() {
+		database = new FakeDatabase().user("1", "alice", "staff").user("2", "bob", "staff", "admin").user("3", "carol")
+				.user("4", "dave", "admin");
+	}
+
+	@After
+	public void close() {
+		if (connector != null) {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void itShouldSelectRolesOfEachIdentity() {
+		Assert.assertEquals(expected(), list(RoleLoading.perIdentity));
+		Assert.assertEquals(4, database.executed(BY_IDENTITY));
+	}
+
+	@Test
+	public void itShouldSelectRolesLazily() {
+		connector = database.open(JDBCConfiguration.SQL_ROLE_LOADING, RoleLoading.lazy.name());
+		List<Identity> identities = listIdentities();
+		Assert.assertEquals(0, database.executed(BY_IDENTITY));
+		Assert.assertEquals(expected(), roles(identities));
+		Assert.assertEquals(4, database.executed(BY_IDENTITY));
+	}
+
+	@Test
+	public void itShouldSelectRolesInBatches() {
+		Assert.assertEquals(expected(), list(RoleLoading.batch));
+		Assert.assertEquals(0, database.executed(BY_IDENTITY));
+		Assert.assertEquals(1, database.executed("SELECT * FROM roles WHERE identity_guid IN (?,?,?)"));
+		Assert.assertEquals(1, database.executed("SELECT * FROM roles WHERE identity_guid IN (?)"));
+	}
+
+	@Test
+	public void itShouldSelectRolesByJoin() {
+		Assert.assertEquals(expected(), list(RoleLoading.join));
+		Assert.assertEquals(0, database.executed(BY_IDENTITY));
+		Assert.assertEquals(1, database.executed(JOIN));
+	}
+
+	@Test
+	public void itShouldNotSelectRolesUnlessProjected() {
+		connector = database.open();
+		Iterator<Identity> it = connector.allIdentities(new Projection(Projection.EMAIL));
+		int count = 0;
+		for (; it.hasNext(); count++) {
+			Assert.assertEquals(0, it.next().getRoles().length);
+		}
+		Assert.assertEquals(4, count);
+		Assert.assertEquals(0, database.executed(BY_IDENTITY));
+	}
+
+	private Map<String, List<String>> list(RoleLoading roleLoading) {
+		connector = database.open(JDBCConfiguration.SQL_ROLE_LOADING, roleLoading.name(),
+				JDBCConfiguration.SQL_ROLE_BATCH_SIZE, "3");
+		return roles(listIdentities());
+	}
+
+	private List<Identity> listIdentities() {
+		List<Identity> identities = new ArrayList<Identity>();
+		for (Iterator<Identity> it = connector.allIdentities(); it.hasNext();) {
+			identities.add(it.next());
+		}
+		return identities;
+	}
+
+	private static Map<String, List<String>> roles(List<Identity> identities) {
+		Map<String, List<String>> roles = new LinkedHashMap<String, List<String>>();
+		for (Identity identity : identities) {
+			roles.put(identity.getPrincipalName(), FakeDatabase.names(identity.getRoles()));
+		}
+		return roles;
+	}
+
+	private static Map<String, List<String>> expected() {
+		Map<String, List<String>> roles = new LinkedHashMap<String, List<String>>();
+		roles.put("alice", Arrays.asList("staff"));
+		roles.put("bob", Arrays.asList("admin", "staff"));
+		roles.put("carol", Collections.<String> emptyList());
+		roles.put("dave", Arrays.asList("admin"));
+		return roles;
+	}
+}
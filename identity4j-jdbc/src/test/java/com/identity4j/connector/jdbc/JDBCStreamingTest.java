@@ -0,0 +1,80 @@
+package com.identity4j.connector.jdbc;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.principal.Role;
+
+public class JDBCStreamingTest {
+
+	private FakeDatabase database;
+	private JDBCConnector connector;
+
+	@Before
+	public void setup() {
+		database = new FakeDatabase().user("1", "alice", "staff").user("2", "bob", "staff", "admin").user("3", "carol");
+	}
+
+	@After
+	public void close() {
+		if (connector != null) {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void itShouldReadRowsAsTheyAreUsed() throws Exception {
+		connector = database.open();
+		Iterator<Role> it = connector.allRoles();
+		Assert.assertEquals("r-staff", it.next().getGuid());
+		Assert.assertEquals(1, database.rowsRead.get());
+		Assert.assertEquals(1, database.resultSetsOpen.get());
+		List<Role> roles = new ArrayList<Role>();
+		while (it.hasNext()) {
+			roles.add(it.next());
+		}
+		Assert.assertEquals(2, roles.size());
+		Assert.assertEquals(0, database.resultSetsOpen.get());
+		Assert.assertEquals(0, database.statementsOpen.get());
+	}
+
+	@Test
+	public void itShouldGiveBackWhatItHoldsWhenClosedEarly() throws Exception {
+		connector = database.open();
+		Iterator<Role> it = connector.allRoles();
+		it.next();
+		Assert.assertTrue(it instanceof Closeable);
+		((Closeable) it).close();
+		Assert.assertFalse(it.hasNext());
+		Assert.assertEquals(0, database.resultSetsOpen.get());
+		Assert.assertEquals(0, database.statementsOpen.get());
+
+		// And can list again
+		List<String> names = new ArrayList<String>();
+		for (Iterator<Role> again = connector.allRoles(); again.hasNext();) {
+			names.add(again.next().getPrincipalName());
+		}
+		Assert.assertEquals(Arrays.asList("staff", "staff", "admin"), names);
+	}
+
+	@Test
+	public void itShouldReadAllRowsFirstWhenNotStreaming() throws Exception {
+		connector = database.open(JDBCConfiguration.SQL_STREAM_RESULTS, "false");
+		Iterator<Role> it = connector.allRoles();
+		Assert.assertEquals(3, database.rowsRead.get());
+		Assert.assertEquals(0, database.resultSetsOpen.get());
+		int count = 0;
+		for (; it.hasNext(); count++) {
+			it.next();
+		}
+		Assert.assertEquals(3, count);
+	}
+}
@@ -0,0 +1,64 @@
+package com.identity4j.connector.jdbc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParameterizedSQLTest {
+
+	private static final Map<String, Object> VALUES = new HashMap<String, Object>();
+
+	static {
+		VALUES.put("${principalName}", "jdoe");
+		VALUES.put("${password}", "secret");
+		VALUES.put("${guid}", 42);
+	}
+
+	@Test
+	public void itShouldReplaceTokensWithParameters() {
+		ParameterizedSQL sql = new ParameterizedSQL("UPDATE users SET password = ${password} WHERE name = ${principalName}",
+				"${principalName}", "${password}");
+		Assert.assertEquals("UPDATE users SET password = ? WHERE name = ?", sql.getSQL());
+		Assert.assertEquals(Arrays.asList("secret", "jdoe"), Arrays.asList(sql.getParameters(VALUES)));
+	}
+
+	@Test
+	public void itShouldReplaceQuotesAroundTokens() {
+		ParameterizedSQL sql = new ParameterizedSQL("SELECT * FROM users WHERE name = '${principalName}' AND id = ${guid}",
+				"${principalName}", "${guid}");
+		Assert.assertEquals("SELECT * FROM users WHERE name = ? AND id = ?", sql.getSQL());
+		Assert.assertEquals(Arrays.<Object> asList("jdoe", 42), Arrays.asList(sql.getParameters(VALUES)));
+	}
+
+	@Test
+	public void itShouldKeepQuotesOnOneSideOnly() {
+		ParameterizedSQL sql = new ParameterizedSQL("SELECT * FROM users WHERE name LIKE '${principalName}%'",
+				"${principalName}");
+		Assert.assertEquals("SELECT * FROM users WHERE name LIKE '?%'", sql.getSQL());
+	}
+
+	@Test
+	public void itShouldAddAParameterForEachUseOfAToken() {
+		ParameterizedSQL sql = new ParameterizedSQL("INSERT INTO users (name, email) VALUES ('${principalName}', '${principalName}')",
+				"${principalName}");
+		Assert.assertEquals("INSERT INTO users (name, email) VALUES (?, ?)", sql.getSQL());
+		Assert.assertEquals(Arrays.asList("jdoe", "jdoe"), Arrays.asList(sql.getParameters(VALUES)));
+	}
+
+	@Test
+	public void itShouldLeaveSQLWithoutTokensAlone() {
+		ParameterizedSQL sql = new ParameterizedSQL("SELECT * FROM users", "${principalName}");
+		Assert.assertEquals("SELECT * FROM users", sql.getSQL());
+		Assert.assertEquals("SELECT * FROM users", sql.toString());
+		Assert.assertEquals(0, sql.getParameters(VALUES).length);
+	}
+
+	@Test
+	public void itShouldUseNullForMissingValues() {
+		ParameterizedSQL sql = new ParameterizedSQL("DELETE FROM users WHERE name = ${principalName}", "${principalName}");
+		Assert.assertArrayEquals(new Object[] { null }, sql.getParameters(new HashMap<String, Object>()));
+	}
+}
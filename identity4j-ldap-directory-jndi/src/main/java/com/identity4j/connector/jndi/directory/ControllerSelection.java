@@ -0,0 +1,21 @@
+/* HEADER */
+package com.identity4j.connector.jndi.directory;
+
+/**
+ * How reads are spread across the configured controller hosts. Writes are
+ * always sent to the preferred controller while it is available.
+ */
+public enum ControllerSelection {
+	/**
+	 * Always prefer the first available host, in the order configured.
+	 */
+	ordered,
+	/**
+	 * Rotate through the available hosts.
+	 */
+	roundRobin,
+	/**
+	 * Prefer the available host with the lowest measured response time.
+	 */
+	leastLatency
+}
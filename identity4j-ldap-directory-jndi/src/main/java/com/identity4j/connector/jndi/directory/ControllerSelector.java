@@ -0,0 +1,333 @@
+/* HEADER */
+package com.identity4j.connector.jndi.directory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Decides which controller host each connection should be made to, and
+ * tracks the health of every host.
+ * <p>
+ * Reads are spread across the hosts according to the configured
+ * {@link ControllerSelection}. Writes are always sent to the preferred host
+ * while it is available, and for a short time after a thread has written
+ * its reads are too, so it sees its own changes before they have replicated.
+ * <p>
+ * Each host has a circuit breaker. After a number of consecutive failures a
+ * host is only used once all others have failed, until the retry interval
+ * has passed. Optional background probes read the root DSE of every host,
+ * both to measure response times and to bring recovered hosts back into use
+ * without waiting for a real request to fail against them.
+ * <p>
+ * Hosts are identified by their index in
+ * {@link DirectoryConfiguration#getControllerHosts()}, which is also the
+ * order of {@link DirectoryConfiguration#getProviderURLList()}.
+ */
+public class ControllerSelector {
+
+	final static Log LOG = LogFactory.getLog(ControllerSelector.class);
+
+	private static final String[] PROBE_ATTRIBUTES = new String[] { "supportedLDAPVersion" };
+
+	/**
+	 * Weight given to each new latency sample.
+	 */
+	private static final double LATENCY_WEIGHT = 0.3;
+
+	private final List<Controller> controllers = new ArrayList<Controller>();
+	private final ControllerSelection selection;
+	private final int failureThreshold;
+	private final long retryInterval;
+	private final long writeStickiness;
+	private final AtomicInteger next = new AtomicInteger();
+	private final ThreadLocal<Long> lastWrite = new ThreadLocal<Long>();
+	private volatile int preferred;
+	private Timer prober;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param configuration configuration
+	 * @param environment base environment used for probe connections
+	 */
+	public ControllerSelector(DirectoryConfiguration configuration, Hashtable<String, String> environment) {
+		this.selection = configuration.getControllerSelection();
+		this.failureThreshold = Math.max(1, configuration.getControllerFailureThreshold());
+		this.retryInterval = configuration.getControllerRetryInterval();
+		this.writeStickiness = configuration.getControllerWriteStickiness();
+
+		String[] hosts = configuration.getControllerHosts();
+		String[] providerUrls = configuration.getProviderURLList();
+		for (int i = 0; i < providerUrls.length; i++) {
+			Hashtable<String, String> env = new Hashtable<String, String>(environment);
+			env.put(Context.PROVIDER_URL, providerUrls[i]);
+			env.put("com.sun.jndi.ldap.connect.pool", "false");
+			controllers.add(new Controller(i, i < hosts.length ? hosts[i] : providerUrls[i], providerUrls[i], env));
+		}
+		if (!setPreferred(configuration.getPreferredController())) {
+			LOG.warn("Preferred controller " + configuration.getPreferredController()
+				+ " is not one of the configured controller hosts, using " + getHost(0));
+		}
+
+		long probeInterval = configuration.getControllerProbeInterval();
+		if (probeInterval > 0 && controllers.size() > 1) {
+			prober = new Timer("ControllerSelector-prober", true);
+			prober.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					probe();
+				}
+			}, 0, probeInterval);
+		}
+	}
+
+	/**
+	 * Get the number of controller hosts.
+	 *
+	 * @return controller hosts
+	 */
+	public int size() {
+		return controllers.size();
+	}
+
+	/**
+	 * Get the configured host name (and port if set) of a controller.
+	 *
+	 * @param index controller index
+	 * @return host
+	 */
+	public String getHost(int index) {
+		return controllers.get(index).host;
+	}
+
+	/**
+	 * Get the provider URL of a controller.
+	 *
+	 * @param index controller index
+	 * @return provider URL
+	 */
+	public String getProviderUrl(int index) {
+		return controllers.get(index).providerUrl;
+	}
+
+	/**
+	 * Set the controller that writes are sent to. The host is matched against
+	 * the configured controller hosts ignoring case, with or without the
+	 * port.
+	 *
+	 * @param host host
+	 * @return <code>true</code> if the host is a configured controller
+	 */
+	public boolean setPreferred(String host) {
+		if (host != null) {
+			for (Controller c : controllers) {
+				if (c.host.equalsIgnoreCase(host)
+						|| DirectoryConfiguration.getControllerHostWithoutPort(c.host).equalsIgnoreCase(host)) {
+					preferred = c.index;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the index of the controller writes are sent to.
+	 *
+	 * @return preferred controller index
+	 */
+	public int getPreferred() {
+		return preferred;
+	}
+
+	/**
+	 * Get the order in which controllers should be tried for an operation.
+	 * Controllers whose circuit is open are always last, but are still
+	 * included so an operation is attempted even if every host has recently
+	 * failed.
+	 *
+	 * @param write <code>true</code> if the operation modifies the directory
+	 * @return controller indexes in the order they should be tried
+	 */
+	public List<Integer> order(boolean write) {
+		long now = System.currentTimeMillis();
+		if (write) {
+			lastWrite.set(now);
+		} else {
+			Long last = lastWrite.get();
+			write = last != null && now - last < writeStickiness;
+		}
+
+		List<Controller> available = new ArrayList<Controller>(controllers.size());
+		List<Controller> unavailable = new ArrayList<Controller>();
+		for (Controller c : controllers) {
+			(c.isAvailable(now) ? available : unavailable).add(c);
+		}
+
+		if (write) {
+			Controller p = controllers.get(preferred);
+			if (available.remove(p)) {
+				available.add(0, p);
+			}
+		} else {
+			switch (selection) {
+			case roundRobin:
+				if (!available.isEmpty()) {
+					Collections.rotate(available, -((next.getAndIncrement() & Integer.MAX_VALUE) % available.size()));
+				}
+				break;
+			case leastLatency:
+				Collections.sort(available, new Comparator<Controller>() {
+					@Override
+					public int compare(Controller o1, Controller o2) {
+						return o1.latency < o2.latency ? -1 : (o1.latency > o2.latency ? 1 : 0);
+					}
+				});
+				break;
+			default:
+				break;
+			}
+		}
+
+		List<Integer> order = new ArrayList<Integer>(controllers.size());
+		for (Controller c : available) {
+			order.add(c.index);
+		}
+		for (Controller c : unavailable) {
+			order.add(c.index);
+		}
+		return order;
+	}
+
+	/**
+	 * Record a successful operation against a controller, closing its
+	 * circuit if it was open.
+	 *
+	 * @param index controller index
+	 */
+	public void success(int index) {
+		Controller c = controllers.get(index);
+		synchronized (c) {
+			if (c.failures >= failureThreshold) {
+				LOG.info("Controller " + c.host + " is available again");
+			}
+			c.failures = 0;
+			c.openUntil = 0;
+		}
+	}
+
+	/**
+	 * Record a successful operation against a controller along with the time
+	 * it took.
+	 *
+	 * @param index controller index
+	 * @param nanos time taken in nanoseconds
+	 */
+	public void success(int index, long nanos) {
+		success(index);
+		Controller c = controllers.get(index);
+		synchronized (c) {
+			c.latency = c.latency == 0 ? nanos : (long) ((LATENCY_WEIGHT * nanos) + ((1 - LATENCY_WEIGHT) * c.latency));
+		}
+	}
+
+	/**
+	 * Record a failure to connect to, or communicate with, a controller. Once
+	 * the failure threshold is reached the controller's circuit is opened.
+	 *
+	 * @param index controller index
+	 */
+	public void failure(int index) {
+		Controller c = controllers.get(index);
+		synchronized (c) {
+			c.failures++;
+			if (c.failures >= failureThreshold) {
+				if (c.failures == failureThreshold) {
+					LOG.warn("Controller " + c.host + " has failed " + c.failures + " times, not using it for "
+						+ (retryInterval / 1000) + " seconds");
+				}
+				c.openUntil = System.currentTimeMillis() + retryInterval;
+			}
+		}
+	}
+
+	/**
+	 * Get if a controller is currently in use, i.e. its circuit is closed or
+	 * its retry interval has passed.
+	 *
+	 * @param index controller index
+	 * @return available
+	 */
+	public boolean isAvailable(int index) {
+		return controllers.get(index).isAvailable(System.currentTimeMillis());
+	}
+
+	/**
+	 * Stop background probes.
+	 */
+	public void close() {
+		if (prober != null) {
+			prober.cancel();
+			prober = null;
+		}
+	}
+
+	/**
+	 * Check every controller by reading its root DSE over a new connection,
+	 * recording the outcome and response time.
+	 */
+	void probe() {
+		for (Controller c : controllers) {
+			long started = System.nanoTime();
+			try {
+				LdapContext context = new InitialLdapContext(c.env, null);
+				try {
+					context.getAttributes("", PROBE_ATTRIBUTES);
+				} finally {
+					LdapContextPool.closeQuietly(context);
+				}
+				success(c.index, System.nanoTime() - started);
+			} catch (NamingException ne) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Probe of " + c.host + " failed", ne);
+				}
+				failure(c.index);
+			}
+		}
+	}
+
+	static class Controller {
+		final int index;
+		final String host;
+		final String providerUrl;
+		final Hashtable<String, String> env;
+		int failures;
+		volatile long openUntil;
+		volatile long latency;
+
+		Controller(int index, String host, String providerUrl, Hashtable<String, String> env) {
+			this.index = index;
+			this.host = host;
+			this.providerUrl = providerUrl;
+			this.env = env;
+		}
+
+		boolean isAvailable(long now) {
+			return now >= openUntil;
+		}
+	}
+}
@@ -80,7 +80,95 @@ public class DirectoryConfiguration extends AbstractConnectorConfiguration {
 	 * Follow referrals?
 	 */
 	public static final String DIRECTORY_FOLLOW_REFERRALS = "directory.followReferrals";
-	
+
+	/**
+	 * Configuration property key for enabling the connection pool
+	 */
+	public static final String DIRECTORY_POOL_ENABLED = "directory.pool.enabled";
+
+	/**
+	 * Configuration property key for the minimum number of idle service
+	 * connections kept per controller host
+	 */
+	public static final String DIRECTORY_POOL_MIN_SIZE = "directory.pool.minSize";
+
+	/**
+	 * Configuration property key for the maximum number of service connections
+	 * per controller host
+	 */
+	public static final String DIRECTORY_POOL_MAX_SIZE = "directory.pool.maxSize";
+
+	/**
+	 * Configuration property key for the maximum number of user authentication
+	 * connections per controller host
+	 */
+	public static final String DIRECTORY_POOL_AUTHENTICATION_MAX_SIZE = "directory.pool.authenticationMaxSize";
+
+	/**
+	 * Configuration property key for the number of seconds a pooled connection
+	 * may be idle before it is closed
+	 */
+	public static final String DIRECTORY_POOL_IDLE_TIMEOUT = "directory.pool.idleTimeout";
+
+	/**
+	 * Configuration property key for the number of seconds to wait for a
+	 * connection when the pool is exhausted
+	 */
+	public static final String DIRECTORY_POOL_MAX_WAIT = "directory.pool.maxWait";
+
+	/**
+	 * Configuration property key for validating pooled connections before use
+	 */
+	public static final String DIRECTORY_POOL_VALIDATE_ON_BORROW = "directory.pool.validateOnBorrow";
+
+	/**
+	 * Configuration property key for the number of pages of search results
+	 * to read ahead in a background thread
+	 */
+	public static final String DIRECTORY_PREFETCH_PAGES = "directory.prefetch.pages";
+
+	/**
+	 * Configuration property key for the number of threads used to map
+	 * prefetched search results
+	 */
+	public static final String DIRECTORY_PREFETCH_MAPPING_THREADS = "directory.prefetch.mappingThreads";
+
+	/**
+	 * Configuration property key for how reads are spread across controller
+	 * hosts
+	 */
+	public static final String DIRECTORY_CONTROLLER_SELECTION = "directory.controller.selection";
+
+	/**
+	 * Configuration property key for the controller host that writes are sent
+	 * to
+	 */
+	public static final String DIRECTORY_CONTROLLER_PREFERRED = "directory.controller.preferred";
+
+	/**
+	 * Configuration property key for the number of consecutive failures after
+	 * which a controller host is no longer used
+	 */
+	public static final String DIRECTORY_CONTROLLER_FAILURE_THRESHOLD = "directory.controller.failureThreshold";
+
+	/**
+	 * Configuration property key for the number of seconds before a failed
+	 * controller host is tried again
+	 */
+	public static final String DIRECTORY_CONTROLLER_RETRY_INTERVAL = "directory.controller.retryInterval";
+
+	/**
+	 * Configuration property key for the number of seconds between background
+	 * health and latency checks of each controller host
+	 */
+	public static final String DIRECTORY_CONTROLLER_PROBE_INTERVAL = "directory.controller.probeInterval";
+
+	/**
+	 * Configuration property key for the number of seconds reads made by a
+	 * thread are sent to the preferred controller after that thread writes
+	 */
+	public static final String DIRECTORY_CONTROLLER_WRITE_STICKINESS = "directory.controller.writeStickiness";
+
 	/**
      */
 	public static final char PORT_SEPARATOR = ':';
@@ -297,6 +385,163 @@ public class DirectoryConfiguration extends AbstractConnectorConfiguration {
 		return configurationParameters.getIntegerOrDefault("directory.maxPageSize", 1000);
 	}
 
+	/**
+	 * Whether connections to the directory should be pooled, the default is
+	 * <code>true</code>.
+	 *
+	 * @return pool connections
+	 */
+	public boolean isPoolEnabled() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_POOL_ENABLED, Boolean.TRUE);
+	}
+
+	/**
+	 * The minimum number of idle service account connections to keep open to
+	 * each controller host, the default is 0.
+	 *
+	 * @return minimum pool size
+	 */
+	public int getPoolMinSize() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_MIN_SIZE, 0);
+	}
+
+	/**
+	 * The maximum number of service account connections to open to each
+	 * controller host, the default is 10.
+	 *
+	 * @return maximum pool size
+	 */
+	public int getPoolMaxSize() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_MAX_SIZE, 10);
+	}
+
+	/**
+	 * The maximum number of connections used for checking user credentials to
+	 * open to each controller host, the default is 10.
+	 *
+	 * @return maximum authentication pool size
+	 */
+	public int getAuthenticationPoolMaxSize() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_AUTHENTICATION_MAX_SIZE, 10);
+	}
+
+	/**
+	 * The time in milliseconds a pooled connection may be idle before it is
+	 * closed, the default is 300 seconds. Zero disables eviction.
+	 *
+	 * @return idle timeout
+	 */
+	public long getPoolIdleTimeout() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_IDLE_TIMEOUT, 300) * 1000l;
+	}
+
+	/**
+	 * The time in milliseconds to wait for a connection to become available
+	 * when the pool is exhausted, the default is the connect timeout.
+	 *
+	 * @return maximum wait
+	 */
+	public long getPoolMaxWait() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_MAX_WAIT, getTimeout() / 1000) * 1000l;
+	}
+
+	/**
+	 * Whether pooled connections should be checked before they are used, the
+	 * default is <code>true</code>.
+	 *
+	 * @return validate on borrow
+	 */
+	public boolean isPoolValidateOnBorrow() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_POOL_VALIDATE_ON_BORROW, Boolean.TRUE);
+	}
+
+	/**
+	 * The number of pages of search results to read ahead of the caller in a
+	 * background thread while earlier results are mapped by a pool of
+	 * threads, the default is 0 which disables prefetching.
+	 *
+	 * @return pages to prefetch
+	 */
+	public int getPrefetchPages() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_PREFETCH_PAGES, 0);
+	}
+
+	/**
+	 * The number of threads used to map prefetched search results, the
+	 * default is the number of available processors.
+	 *
+	 * @return mapping threads
+	 */
+	public int getPrefetchMappingThreads() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_PREFETCH_MAPPING_THREADS,
+			Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * How reads are spread across the controller hosts when connections are
+	 * pooled, the default is {@link ControllerSelection#ordered}.
+	 *
+	 * @return controller selection
+	 */
+	public ControllerSelection getControllerSelection() {
+		return ControllerSelection.valueOf(configurationParameters.getStringOrDefault(DIRECTORY_CONTROLLER_SELECTION,
+			ControllerSelection.ordered.name()));
+	}
+
+	/**
+	 * The controller host that writes and password changes are sent to while
+	 * it is available, the default is the first controller host.
+	 *
+	 * @return preferred controller host
+	 */
+	public String getPreferredController() {
+		return configurationParameters.getStringOrDefault(DIRECTORY_CONTROLLER_PREFERRED, getControllerHosts()[0]);
+	}
+
+	/**
+	 * The number of consecutive connection failures after which a controller
+	 * host is taken out of use until the retry interval has passed, the
+	 * default is 3.
+	 *
+	 * @return failure threshold
+	 */
+	public int getControllerFailureThreshold() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_CONTROLLER_FAILURE_THRESHOLD, 3);
+	}
+
+	/**
+	 * The time in milliseconds before a controller host that was taken out
+	 * of use is tried again, the default is 30 seconds.
+	 *
+	 * @return retry interval
+	 */
+	public long getControllerRetryInterval() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_CONTROLLER_RETRY_INTERVAL, 30) * 1000l;
+	}
+
+	/**
+	 * The time in milliseconds between background checks of the health and
+	 * response time of each controller host, the default is 30 seconds when
+	 * reads are balanced, otherwise 0 which disables the checks.
+	 *
+	 * @return probe interval
+	 */
+	public long getControllerProbeInterval() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_CONTROLLER_PROBE_INTERVAL,
+			getControllerSelection() == ControllerSelection.ordered ? 0 : 30) * 1000l;
+	}
+
+	/**
+	 * The time in milliseconds that reads made by a thread are sent to the
+	 * preferred controller after that thread has written, so changes are
+	 * seen before they have replicated, the default is 10 seconds.
+	 *
+	 * @return write stickiness
+	 */
+	public long getControllerWriteStickiness() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_CONTROLLER_WRITE_STICKINESS, 10) * 1000l;
+	}
+
 	/**
 	 * The value to use for <code>java.naming.ldap.version</code>, the default
 	 * is 3.
@@ -518,20 +763,20 @@ public class DirectoryConfiguration extends AbstractConnectorConfiguration {
 				switch (port) {
 				case 389:
 				case 3268:
-					builder.append(LDAP_PROTOCOL).append(controllerHost).append(":").append(port);
+					builder.append(LDAP_PROTOCOL).append(getControllerHostWithoutPort(controllerHost)).append(":").append(port);
 					break;
 				case 636:
 				case 3269:
-					builder.append(LDAPS_PROTOCOL).append(controllerHost).append(":").append(port);
+					builder.append(LDAPS_PROTOCOL).append(getControllerHostWithoutPort(controllerHost)).append(":").append(port);
 					break;
 				default:
 					LOG.warn("Unexpected LDAP port in controller host " + controllerHost);
-					builder.append(ssl ? LDAPS_PROTOCOL : LDAP_PROTOCOL).append(controllerHost).append(":").append(port);
+					builder.append(ssl ? LDAPS_PROTOCOL : LDAP_PROTOCOL).append(getControllerHostWithoutPort(controllerHost)).append(":").append(port);
 				}
 			} else {
 				builder.append(ssl ? LDAPS_PROTOCOL : LDAP_PROTOCOL).append(controllerHost).append(":").append(ssl ? 636 : 389);
 			}
-
+			builder.append(" ");
 		}
 		return builder.toString().trim();
 	}
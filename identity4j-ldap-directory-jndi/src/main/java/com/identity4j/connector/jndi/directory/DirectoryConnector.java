@@ -26,17 +26,22 @@ import org.apache.commons.logging.LogFactory;
 import com.identity4j.connector.AbstractConnector;
 import com.identity4j.connector.BrowseNode;
 import com.identity4j.connector.BrowseableConnector;
+import com.identity4j.connector.ChangeSet;
 import com.identity4j.connector.ConnectorCapability;
 import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.IncrementalConnector;
+import com.identity4j.connector.Projection;
+import com.identity4j.connector.SyncToken;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
 import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Principal;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.util.CollectionUtil;
 import com.identity4j.util.StringUtil;
 
-public class DirectoryConnector extends AbstractConnector implements BrowseableConnector {
+public class DirectoryConnector extends AbstractConnector implements BrowseableConnector, IncrementalConnector {
 
 	protected static final Iterator<Identity> IDENTITY_ITERATOR = CollectionUtil.emptyIterator(Identity.class);
 	protected static final Iterator<Role> ROLE_ITERATOR = CollectionUtil.emptyIterator(Role.class);
@@ -48,6 +53,12 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 	/**
      */
 	public static final String OBJECT_CLASS_ATTRIBUTE = "objectClass";
+	/**
+     */
+	public static final String MODIFY_TIMESTAMP_ATTRIBUTE = "modifyTimestamp";
+	/**
+     */
+	public static final String CREATE_TIMESTAMP_ATTRIBUTE = "createTimestamp";
 
 	private DirectoryConfiguration directoryConfiguration;
 	protected LdapService ldapService;
@@ -66,6 +77,7 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 			ConnectorCapability.identities,
 			ConnectorCapability.tracksLastPasswordChange,
 			ConnectorCapability.tracksLastSignOnDate,
+			ConnectorCapability.incrementalSync,
 	}));
 	
 	@Override
@@ -76,9 +88,13 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 	@Override
 	public boolean isOpen() {
 		try {
-			ldapService = new LdapService();
-			ldapService.init(directoryConfiguration);
-			ldapService.openConnection();
+			if(ldapService == null) {
+				ldapService = new LdapService();
+				ldapService.init(directoryConfiguration);
+				ldapService.openConnection();
+			} else {
+				ldapService.lookupContext(directoryConfiguration.getBaseDn());
+			}
 			return true;
 		} catch(ConnectorException ex) { 
 			throw ex;
@@ -161,6 +177,11 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 		return getIdentities(buildIdentityFilter(WILDCARD_SEARCH));
 	}
 
+	@Override
+	public final Iterator<Identity> allIdentities(Projection projection) throws ConnectorException {
+		return getIdentities(buildIdentityFilter(WILDCARD_SEARCH), projection);
+	}
+
 	@Override
 	public long countIdentities() throws ConnectorException {
 		// There is no method for generic LDAP so it's better to return nothing
@@ -180,16 +201,15 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 	}
 
 	protected Iterator<Identity> getIdentities(String filter) {
-		try {
-			return ldapService.search(filter, new ResultMapper<Identity>() {
+		return getIdentities(filter, Projection.ALL);
+	}
 
-				public Identity apply(SearchResult result) throws NamingException {
-					return mapIdentity(result);
-				}
-				public boolean isApplyFilters() {
-					return true;
-				}
-			});
+	protected Iterator<Identity> getIdentities(String filter, Projection projection) {
+		try {
+			SearchControls searchControls = ldapService.getSearchControls();
+			searchControls.setReturningAttributes(getIdentityAttributes(projection));
+			return ldapService.search(directoryConfiguration.getBaseDn(), filter, createIdentityMapper(projection),
+				searchControls);
 		} catch (NamingException e) {
 			LOG.error("Problem in getting identities.", e);
 		} catch (IOException e) {
@@ -199,6 +219,44 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 		return IDENTITY_ITERATOR;
 	}
 
+	/**
+	 * Get the attributes to retrieve for identities given a projection. The
+	 * default returns the GUID, name and DN attributes plus whatever the
+	 * projection names, unknown attributes are ignored by the server.
+	 * 
+	 * @param projection projection
+	 * @return attributes or <code>null</code> for all attributes
+	 */
+	protected String[] getIdentityAttributes(Projection projection) {
+		if (projection.isAll()) {
+			return null;
+		}
+		Set<String> attributes = new HashSet<String>(projection.getAttributes());
+		attributes.add(directoryConfiguration.getIdentityGuidAttribute());
+		attributes.add(directoryConfiguration.getIdentityNameAttribute());
+		attributes.add("distinguishedName");
+		return attributes.toArray(new String[attributes.size()]);
+	}
+
+	/**
+	 * Create the mapper used to turn search results into identities. Only
+	 * the parts of the identity named by the projection need be mapped.
+	 * 
+	 * @param projection projection
+	 * @return identity mapper
+	 */
+	protected ResultMapper<Identity> createIdentityMapper(Projection projection) {
+		return new ResultMapper<Identity>() {
+
+			public Identity apply(SearchResult result) throws NamingException {
+				return mapIdentity(result);
+			}
+			public boolean isApplyFilters() {
+				return true;
+			}
+		};
+	}
+
 	protected Identity mapIdentity(SearchResult result) throws NamingException {
 		String guid = StringUtil.nonNull(result.getAttributes().get(directoryConfiguration.getIdentityGuidAttribute()).get().toString());
 		String identityName = StringUtil.nonNull(result.getAttributes().get(directoryConfiguration.getIdentityNameAttribute()).get().toString());
@@ -234,16 +292,7 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 	
 	protected Iterator<Role> getRoles(String filter) {
 		try {
-			return ldapService.search(filter, new ResultMapper<Role>() {
-
-				public Role apply(SearchResult result) throws NamingException {
-					return mapRole(result);
-				}
-				
-				public boolean isApplyFilters() {
-					return true;
-				}
-			});
+			return ldapService.search(filter, createRoleMapper());
 		} catch (NamingException e) {
 			LOG.error("Problem in getting roles.", e);
 		} catch (IOException e) {
@@ -252,6 +301,24 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 		return ROLE_ITERATOR;
 	}
 
+	/**
+	 * Create the mapper used to turn search results into roles.
+	 * 
+	 * @return role mapper
+	 */
+	protected ResultMapper<Role> createRoleMapper() {
+		return new ResultMapper<Role>() {
+
+			public Role apply(SearchResult result) throws NamingException {
+				return mapRole(result);
+			}
+			
+			public boolean isApplyFilters() {
+				return true;
+			}
+		};
+	}
+
 	protected Role mapRole(SearchResult result) throws NamingException {
 		String guid = StringUtil.nonNull(result.getAttributes().get(directoryConfiguration.getRoleGuidAttribute()).get().toString());
 		String identityName = StringUtil.nonNull(result.getAttributes().get(directoryConfiguration.getRoleNameAttribute()).get().toString());
@@ -260,6 +327,131 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 	}
 
 
+	/**
+	 * Changes are found by searching for entries whose modification timestamp
+	 * is at or after the highest one seen by the previous call, which is what
+	 * the returned token holds. Deletions cannot be detected in a standard
+	 * way, so are only reported if {@link #collectDeletions(ChangeSet, String, String)}
+	 * is implemented by a subclass.
+	 */
+	@Override
+	public ChangeSet changesSince(SyncToken token) throws ConnectorException {
+		String since = token == null || token.getValue().length() == 0 ? null : token.getValue();
+		ChangeSet changes = new ChangeSet(since == null);
+		String highest = since;
+		try {
+			highest = collectChanges(buildIdentityFilter(WILDCARD_SEARCH), since, createIdentityMapper(Projection.ALL),
+				changes.getAddedIdentities(), changes.getModifiedIdentities(), highest);
+			if (getConfiguration().isEnableRoles()) {
+				highest = collectChanges(buildRoleFilter(WILDCARD_SEARCH, true), since, createRoleMapper(),
+					changes.getAddedRoles(), changes.getModifiedRoles(), highest);
+			}
+			if (since != null) {
+				highest = collectDeletions(changes, since, highest);
+			}
+		} catch (NamingException e) {
+			processNamingException(e);
+		} catch (IOException e) {
+			throw new ConnectorException("Failed to get changes.", e);
+		}
+		changes.setToken(new SyncToken(highest == null ? "" : highest));
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Changes since " + since + " are " + changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Add principals deleted at or after the given timestamp to the change
+	 * set. The default implementation does nothing, as there is no standard
+	 * way of finding deleted entries.
+	 * 
+	 * @param changes change set to add to
+	 * @param since timestamp from previous token
+	 * @param highest highest timestamp seen so far
+	 * @return new highest timestamp
+	 * @throws NamingException on error
+	 * @throws IOException on error
+	 */
+	protected String collectDeletions(ChangeSet changes, String since, String highest) throws NamingException, IOException {
+		return highest;
+	}
+
+	/**
+	 * Get the name of the attribute holding the time an entry was last
+	 * modified.
+	 * 
+	 * @return modification timestamp attribute
+	 */
+	protected String getModifiedTimestampAttribute() {
+		return MODIFY_TIMESTAMP_ATTRIBUTE;
+	}
+
+	/**
+	 * Get the name of the attribute holding the time an entry was created.
+	 * 
+	 * @return creation timestamp attribute
+	 */
+	protected String getCreatedTimestampAttribute() {
+		return CREATE_TIMESTAMP_ATTRIBUTE;
+	}
+
+	private <P extends Principal> String collectChanges(String filter, String since, final ResultMapper<P> mapper,
+			List<? super P> added, List<? super P> modified, String highest) throws NamingException, IOException {
+		final String modifiedAttribute = getModifiedTimestampAttribute();
+		final String createdAttribute = getCreatedTimestampAttribute();
+		if (since != null) {
+			filter = String.format("(&%s(%s>=%s))", filter, modifiedAttribute, since);
+		}
+
+		// Timestamps are operational attributes on most servers, so must be asked for
+		SearchControls searchControls = ldapService.getSearchControls();
+		searchControls.setReturningAttributes(new String[] { WILDCARD_SEARCH, createdAttribute, modifiedAttribute });
+
+		for (Iterator<Change<P>> it = ldapService.search(directoryConfiguration.getBaseDn(), filter,
+			new ResultMapper<Change<P>>() {
+				public Change<P> apply(SearchResult result) throws NamingException, IOException {
+					Attributes attributes = result.getAttributes();
+					return new Change<P>(mapper.apply(result), getStringValue(attributes.get(createdAttribute)),
+						getStringValue(attributes.get(modifiedAttribute)));
+				}
+
+				public boolean isApplyFilters() {
+					return mapper.isApplyFilters();
+				}
+			}, searchControls); it.hasNext();) {
+			Change<P> change = it.next();
+			if (change.principal == null) {
+				continue;
+			}
+			if (since == null || (change.created != null && change.created.compareTo(since) >= 0)) {
+				added.add(change.principal);
+			} else {
+				modified.add(change.principal);
+			}
+			if (change.modified != null && (highest == null || change.modified.compareTo(highest) > 0)) {
+				highest = change.modified;
+			}
+		}
+		return highest;
+	}
+
+	private static String getStringValue(Attribute attribute) throws NamingException {
+		return attribute == null || attribute.get() == null ? null : attribute.get().toString();
+	}
+
+	static class Change<P> {
+		final P principal;
+		final String created;
+		final String modified;
+
+		Change(P principal, String created, String modified) {
+			this.principal = principal;
+			this.created = created;
+			this.modified = modified;
+		}
+	}
+
 	protected SearchControls configureSearchControls(SearchControls searchControls) {
 		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
 		// searchControls.setCountLimit(0);
@@ -321,6 +513,14 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 		}
 	}
 
+	@Override
+	protected void onClose() {
+		if(ldapService != null) {
+			ldapService.close();
+			ldapService = null;
+		}
+	}
+
 	protected String processNamingException(NamingException nme) {
 		DirectoryExceptionParser dep = new DirectoryExceptionParser(nme);
 		String message = dep.getMessage();
@@ -430,7 +630,11 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 				}
 			});
 			 
-			 return nodes.hasNext() ? nodes.next().iterator() : new ArrayList<BrowseNode>().iterator(); 
+			 try {
+				 return nodes.hasNext() ? nodes.next().iterator() : new ArrayList<BrowseNode>().iterator();
+			 } finally {
+				 closeIterator(nodes);
+			 }
 		} catch (NamingException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -0,0 +1,484 @@
+/* HEADER */
+package com.identity4j.connector.jndi.directory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded pool of {@link LdapContext} objects. The pool is partitioned by
+ * controller host, each partition only holding contexts connected to that
+ * host. Partitions are tried in the order decided by a
+ * {@link ControllerSelector}, which by default is the order the hosts were
+ * configured, so the first host is preferred and the remaining hosts are
+ * used when it is full or cannot be reached. Connection failures and
+ * response times are reported back to the selector.
+ * <p>
+ * Two flavours of pool are used by {@link LdapService}. The <i>service</i>
+ * pool holds contexts bound as the service account, and is used for all
+ * searches and modifications. The <i>authentication</i> pool holds contexts
+ * that are re-bound as whatever user is being authenticated each time they
+ * are borrowed, so a credentials check costs a single bind rather than a new
+ * connection.
+ */
+public class LdapContextPool {
+
+	final static Log LOG = LogFactory.getLog(LdapContextPool.class);
+
+	/**
+	 * Attribute read from the root DSE to check a pooled context is still
+	 * alive.
+	 */
+	private static final String[] VALIDATION_ATTRIBUTES = new String[] { "supportedLDAPVersion" };
+
+	private final List<Partition> partitions = new ArrayList<Partition>();
+	private final Map<LdapContext, Partition> leased = new IdentityHashMap<LdapContext, Partition>();
+	private final int minSize;
+	private final int maxSize;
+	private final long idleTimeout;
+	private final long maxWait;
+	private final boolean validateOnBorrow;
+	private final boolean authentication;
+	private final ControllerSelector selector;
+	private final boolean ownSelector;
+	private Timer evictor;
+	private boolean closed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param configuration configuration
+	 * @param environment base environment for new contexts
+	 * @param authentication <code>true</code> if this pool is used for user
+	 *            authentication, in which case the environment should not
+	 *            contain any credentials
+	 */
+	public LdapContextPool(DirectoryConfiguration configuration, Hashtable<String, String> environment, boolean authentication) {
+		this(configuration, environment, authentication, new ControllerSelector(configuration, environment), true);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param configuration configuration
+	 * @param environment base environment for new contexts
+	 * @param authentication <code>true</code> if this pool is used for user
+	 *            authentication, in which case the environment should not
+	 *            contain any credentials
+	 * @param selector selector used to choose controller hosts, which may be
+	 *            shared between pools
+	 */
+	public LdapContextPool(DirectoryConfiguration configuration, Hashtable<String, String> environment, boolean authentication,
+			ControllerSelector selector) {
+		this(configuration, environment, authentication, selector, false);
+	}
+
+	private LdapContextPool(DirectoryConfiguration configuration, Hashtable<String, String> environment, boolean authentication,
+			ControllerSelector selector, boolean ownSelector) {
+		this.selector = selector;
+		this.ownSelector = ownSelector;
+		this.authentication = authentication;
+		this.minSize = authentication ? 0 : configuration.getPoolMinSize();
+		this.maxSize = authentication ? configuration.getAuthenticationPoolMaxSize() : configuration.getPoolMaxSize();
+		this.idleTimeout = configuration.getPoolIdleTimeout();
+		this.maxWait = configuration.getPoolMaxWait();
+		this.validateOnBorrow = configuration.isPoolValidateOnBorrow();
+
+		for (int i = 0; i < selector.size(); i++) {
+			String providerUrl = selector.getProviderUrl(i);
+			Hashtable<String, String> env = new Hashtable<String, String>(environment);
+			env.put(Context.PROVIDER_URL, providerUrl);
+			/*
+			 * Connections are pooled here, the JNDI provider's own pool would
+			 * otherwise share the underlying connection between contexts and
+			 * prevent them from being re-bound
+			 */
+			env.put("com.sun.jndi.ldap.connect.pool", "false");
+			partitions.add(new Partition(i, providerUrl, env));
+		}
+
+		if (idleTimeout > 0) {
+			evictor = new Timer("LdapContextPool-evictor", true);
+			long period = Math.max(1000, idleTimeout / 2);
+			evictor.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					evict();
+				}
+			}, period, period);
+		}
+	}
+
+	/**
+	 * Borrow a context bound as the account the pool's environment was
+	 * created with. The context must be returned using
+	 * {@link #release(LdapContext)}, or {@link #invalidate(LdapContext)} if it
+	 * is found to be broken.
+	 *
+	 * @return context
+	 * @throws NamingException if no context could be obtained
+	 */
+	public LdapContext borrow() throws NamingException {
+		return borrow(false);
+	}
+
+	/**
+	 * Borrow a context bound as the account the pool's environment was
+	 * created with, to be used for either reading or modifying the
+	 * directory. Writes are sent to the preferred controller while it is
+	 * available.
+	 *
+	 * @param write <code>true</code> if the context will modify the directory
+	 * @return context
+	 * @throws NamingException if no context could be obtained
+	 */
+	public LdapContext borrow(boolean write) throws NamingException {
+		return borrow(write, null, null);
+	}
+
+	/**
+	 * Borrow a context bound as the provided account. If an idle context is
+	 * available it is re-bound, otherwise a new connection is made using the
+	 * supplied credentials. An {@link AuthenticationException} is thrown if
+	 * the credentials are rejected.
+	 *
+	 * @param principal principal to bind as, or <code>null</code> to use the
+	 *            pool's environment
+	 * @param credentials credentials
+	 * @return context
+	 * @throws NamingException if no context could be obtained
+	 */
+	public LdapContext borrow(String principal, String credentials) throws NamingException {
+		return borrow(false, principal, credentials);
+	}
+
+	private LdapContext borrow(boolean write, String principal, String credentials) throws NamingException {
+		long deadline = System.currentTimeMillis() + maxWait;
+		List<Integer> order = selector.order(write);
+		Set<Partition> failed = new HashSet<Partition>();
+		NamingException lastError = null;
+
+		while (true) {
+			Partition partition = null;
+			PooledContext pooled = null;
+
+			synchronized (this) {
+				if (closed) {
+					throw new NamingException("Connection pool is closed");
+				}
+				for (Integer i : order) {
+					Partition p = partitions.get(i);
+					if (failed.contains(p)) {
+						continue;
+					}
+					if (!p.idle.isEmpty()) {
+						pooled = p.idle.removeFirst();
+						partition = p;
+						break;
+					}
+					if (p.size < maxSize) {
+						// Reserve the slot, the connection is made outside of the lock
+						p.size++;
+						partition = p;
+						break;
+					}
+				}
+
+				if (partition == null) {
+					if (failed.size() == partitions.size()) {
+						throw lastError == null ? new NamingException("No controller hosts configured") : lastError;
+					}
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						throw new NamingException("Timed out waiting for a pooled connection to " + getProviderUrls());
+					}
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new NamingException("Interrupted waiting for a pooled connection");
+					}
+					continue;
+				}
+			}
+
+			if (pooled != null) {
+				try {
+					long started = System.nanoTime();
+					if (activate(pooled.context, principal, credentials)) {
+						selector.success(partition.index, System.nanoTime() - started);
+					}
+					lease(pooled.context, partition);
+					return pooled.context;
+				} catch (AuthenticationException ae) {
+					discard(pooled.context, partition);
+					throw ae;
+				} catch (NamingException ne) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Discarding stale pooled connection to " + partition.providerUrl, ne);
+					}
+					discard(pooled.context, partition);
+					continue;
+				}
+			}
+
+			try {
+				long started = System.nanoTime();
+				LdapContext context = partition.create(principal, credentials);
+				selector.success(partition.index, System.nanoTime() - started);
+				lease(context, partition);
+				return context;
+			} catch (AuthenticationException ae) {
+				discard(null, partition);
+				throw ae;
+			} catch (NamingException ne) {
+				LOG.warn("Failed to connect to " + partition.providerUrl + ". " + ne.getMessage());
+				selector.failure(partition.index);
+				discard(null, partition);
+				failed.add(partition);
+				lastError = ne;
+			}
+		}
+	}
+
+	/**
+	 * Return a context to the pool.
+	 *
+	 * @param context context
+	 */
+	public void release(LdapContext context) {
+		Partition partition;
+		synchronized (this) {
+			partition = leased.remove(context);
+		}
+		if (partition == null) {
+			closeQuietly(context);
+			return;
+		}
+
+		try {
+			context.setRequestControls(null);
+			if (authentication) {
+				context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+			}
+		} catch (NamingException ne) {
+			discard(context, partition);
+			return;
+		}
+
+		synchronized (this) {
+			if (closed) {
+				partition.size--;
+			} else {
+				partition.idle.addFirst(new PooledContext(context));
+				notifyAll();
+				return;
+			}
+		}
+		closeQuietly(context);
+	}
+
+	/**
+	 * Remove a broken context from the pool, closing it.
+	 *
+	 * @param context context
+	 */
+	public void invalidate(LdapContext context) {
+		Partition partition;
+		synchronized (this) {
+			partition = leased.remove(context);
+		}
+		if (partition == null) {
+			closeQuietly(context);
+		} else {
+			selector.failure(partition.index);
+			discard(context, partition);
+		}
+	}
+
+	/**
+	 * Close the pool and all idle contexts. Contexts that are currently
+	 * borrowed are closed as they are returned.
+	 */
+	public void close() {
+		List<LdapContext> toClose = new ArrayList<LdapContext>();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (evictor != null) {
+				evictor.cancel();
+			}
+			if (ownSelector) {
+				selector.close();
+			}
+			for (Partition p : partitions) {
+				for (PooledContext pc : p.idle) {
+					toClose.add(pc.context);
+					p.size--;
+				}
+				p.idle.clear();
+			}
+			notifyAll();
+		}
+		for (LdapContext context : toClose) {
+			closeQuietly(context);
+		}
+	}
+
+	/**
+	 * Close contexts that have been idle for longer than the idle timeout,
+	 * then top each partition back up to the minimum size.
+	 */
+	void evict() {
+		List<LdapContext> toClose = new ArrayList<LdapContext>();
+		List<Partition> toFill = new ArrayList<Partition>();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			for (Partition p : partitions) {
+				for (Iterator<PooledContext> it = p.idle.descendingIterator(); it.hasNext() && p.size > minSize;) {
+					PooledContext pc = it.next();
+					if (now - pc.lastUsed >= idleTimeout) {
+						it.remove();
+						p.size--;
+						toClose.add(pc.context);
+					}
+				}
+				for (int i = p.size; i < minSize; i++) {
+					p.size++;
+					toFill.add(p);
+				}
+			}
+		}
+
+		for (LdapContext context : toClose) {
+			closeQuietly(context);
+		}
+
+		for (Partition p : toFill) {
+			try {
+				LdapContext context = p.create(null, null);
+				synchronized (this) {
+					if (!closed) {
+						p.idle.addLast(new PooledContext(context));
+						notifyAll();
+						continue;
+					}
+					p.size--;
+				}
+				closeQuietly(context);
+			} catch (NamingException ne) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Failed to pre-fill pool for " + p.providerUrl, ne);
+				}
+				discard(null, p);
+			}
+		}
+	}
+
+	/**
+	 * Prepare an idle context for use, returning <code>true</code> if a
+	 * request was made to the controller.
+	 */
+	private boolean activate(LdapContext context, String principal, String credentials) throws NamingException {
+		if (principal != null) {
+			context.addToEnvironment(Context.SECURITY_PRINCIPAL, principal);
+			context.addToEnvironment(Context.SECURITY_CREDENTIALS, credentials);
+			context.reconnect(null);
+			return true;
+		} else if (validateOnBorrow) {
+			context.getAttributes("", VALIDATION_ATTRIBUTES);
+			return true;
+		}
+		return false;
+	}
+
+	private synchronized void lease(LdapContext context, Partition partition) {
+		leased.put(context, partition);
+	}
+
+	private void discard(LdapContext context, Partition partition) {
+		synchronized (this) {
+			partition.size--;
+			notifyAll();
+		}
+		if (context != null) {
+			closeQuietly(context);
+		}
+	}
+
+	private String getProviderUrls() {
+		StringBuilder buf = new StringBuilder();
+		for (Partition p : partitions) {
+			if (buf.length() > 0) {
+				buf.append(' ');
+			}
+			buf.append(p.providerUrl);
+		}
+		return buf.toString();
+	}
+
+	static void closeQuietly(LdapContext context) {
+		try {
+			context.close();
+		} catch (NamingException ne) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Failed to close context", ne);
+			}
+		}
+	}
+
+	class Partition {
+		final int index;
+		final String providerUrl;
+		final Hashtable<String, String> env;
+		final LinkedList<PooledContext> idle = new LinkedList<PooledContext>();
+		int size;
+
+		Partition(int index, String providerUrl, Hashtable<String, String> env) {
+			this.index = index;
+			this.providerUrl = providerUrl;
+			this.env = env;
+		}
+
+		LdapContext create(String principal, String credentials) throws NamingException {
+			if (principal == null) {
+				return new InitialLdapContext(env, null);
+			}
+			Hashtable<String, String> userEnv = new Hashtable<String, String>(env);
+			userEnv.put(Context.SECURITY_PRINCIPAL, principal);
+			userEnv.put(Context.SECURITY_CREDENTIALS, credentials);
+			return new InitialLdapContext(userEnv, null);
+		}
+	}
+
+	static class PooledContext {
+		final LdapContext context;
+		final long lastUsed = System.currentTimeMillis();
+
+		PooledContext(LdapContext context) {
+			this.context = context;
+		}
+	}
+}
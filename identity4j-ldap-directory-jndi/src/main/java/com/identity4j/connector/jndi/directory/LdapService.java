@@ -1,17 +1,31 @@
 package com.identity4j.connector.jndi.directory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.Name;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.PartialResultException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
@@ -49,6 +63,19 @@ public class LdapService {
 
     private Hashtable<String,String> env = new Hashtable<String,String>();
     
+    private LdapContextPool servicePool;
+    private LdapContextPool authenticationPool;
+    private ControllerSelector controllerSelector;
+    
+    private ExecutorService prefetchReaders;
+    private ExecutorService mappingWorkers;
+    
+    /**
+     * Set on mapping threads, so searches made by a mapper do not prefetch
+     * and so cannot wait on mapping threads themselves
+     */
+    private final static ThreadLocal<Boolean> MAPPING_THREAD = new ThreadLocal<Boolean>();
+    
     public void openConnection() throws NamingException, IOException{
     	checkLDAPHost();
     	env.put(Context.SECURITY_PRINCIPAL, configuration.getServiceAccountDn());  
@@ -57,9 +84,58 @@ public class LdapService {
 	    env.put(Context.PROVIDER_URL,
 	    		configuration.buildProviderUrl(configuration.getSecurityProtocol().equalsIgnoreCase(DirectoryConfiguration.SSL), 
 	    				configuration.getControllerHosts()));
+	    
+	    if(configuration.isPoolEnabled()) {
+	    	close();
+	    	controllerSelector = new ControllerSelector(configuration, env);
+	    	servicePool = new LdapContextPool(configuration, env, false, controllerSelector);
+	    	authenticationPool = new LdapContextPool(configuration, 
+	    			new Hashtable<String, String>(configuration.getConnectorConfigurationParameters()), true, controllerSelector);
+	    }
+	    
     	lookupContext(configuration.getBaseDn());
     }
     
+    /**
+     * Close any pooled connections. The service may be used again after
+     * calling {@link #openConnection()}.
+     */
+    public void close() {
+    	if(servicePool != null) {
+    		servicePool.close();
+    		servicePool = null;
+    	}
+    	if(authenticationPool != null) {
+    		authenticationPool.close();
+    		authenticationPool = null;
+    	}
+    	if(controllerSelector != null) {
+    		controllerSelector.close();
+    		controllerSelector = null;
+    	}
+    	synchronized(this) {
+	    	if(prefetchReaders != null) {
+	    		prefetchReaders.shutdownNow();
+	    		prefetchReaders = null;
+	    	}
+	    	if(mappingWorkers != null) {
+	    		mappingWorkers.shutdownNow();
+	    		mappingWorkers = null;
+	    	}
+    	}
+    }
+    
+    /**
+     * Get the selector that decides which controller host each pooled
+     * connection is made to, or <code>null</code> if connections are not
+     * pooled.
+     * 
+     * @return controller selector
+     */
+    public ControllerSelector getControllerSelector() {
+    	return controllerSelector;
+    }
+    
     public LdapContext getConnection(Control... controls) throws NamingException{
     	return new InitialLdapContext(env,controls);
     }
@@ -79,7 +155,11 @@ public class LdapService {
     
     public boolean authenticate(String account,String password) throws IOException{
     	try{
-    		getConnection(account, password);
+    		if(authenticationPool == null) {
+    			close(getConnection(account, password));
+    		} else {
+    			authenticationPool.release(authenticationPool.borrow(account, password));
+    		}
     	}catch (NamingException nme) {
 			// http://stackoverflow.com/questions/2672125/what-does-sub-error-code-568-mean-for-ldap-error-49-with-active-directory
 			DirectoryExceptionParser dep = new DirectoryExceptionParser(nme);
@@ -95,7 +175,7 @@ public class LdapService {
     }
     
     public void setPassword(final String account,final char[] newPassword) throws NamingException,IOException{
-    	processBlock(new Block<Void>() {
+    	processWriteBlock(new Block<Void>() {
 
 			public Void apply(LdapContext context) throws NamingException {
 		            ModificationItem[] mods = new ModificationItem[1];
@@ -110,7 +190,7 @@ public class LdapService {
     }
     
     public void setPassword(final String account,final byte[] encodedPassword, Control... controls) throws NamingException,IOException{
-    	processBlock(new Block<Void>() {
+    	processWriteBlock(new Block<Void>() {
 
 			public Void apply(LdapContext context) throws NamingException {
 		            ModificationItem[] mods = new ModificationItem[1];
@@ -144,7 +224,7 @@ public class LdapService {
 	}
 	
 	public void rename(final LdapName currentDN, final LdapName newDN) throws NamingException, IOException {
-		processBlock(new Block<Void>() {
+		processWriteBlock(new Block<Void>() {
 
 			@Override
 			public Void apply(LdapContext context) throws NamingException,IOException {
@@ -159,15 +239,236 @@ public class LdapService {
 	}
 	
 	public <T> Iterator<T> search(final Name baseDN, final String filter,final ResultMapper<T> resultMapper)throws NamingException,IOException{
-		return processBlock(new Block<Iterator<T>>() {
+		return search(baseDN, filter, resultMapper, getSearchControls());
+	}
+	
+	/**
+	 * Search using the supplied search controls, and optionally additional
+	 * request controls that are sent along with the paged results control for
+	 * every page.
+	 */
+	public <T> Iterator<T> search(final Name baseDN, final String filter,final ResultMapper<T> resultMapper, SearchControls searchControls, Control... controls)throws NamingException,IOException{
+		/* The context is held by the iterator until it is exhausted or closed */
+		if(configuration.getPrefetchPages() > 0 && !Boolean.TRUE.equals(MAPPING_THREAD.get())) {
+			return new PrefetchingSearchIterator<T>(new SearchResultIterator<SearchResult>(baseDN, borrowContext(), filter,
+					new RawResultMapper(resultMapper.isApplyFilters()), searchControls, controls), resultMapper);
+		}
+		return new SearchResultIterator<T>(baseDN, borrowContext(), filter, resultMapper, searchControls, controls);
+	}
+	
+	private synchronized ExecutorService getPrefetchReaders() {
+		if(prefetchReaders == null) {
+			prefetchReaders = Executors.newCachedThreadPool(new DaemonThreadFactory("LdapService-prefetch"));
+		}
+		return prefetchReaders;
+	}
+	
+	private synchronized ExecutorService getMappingWorkers() {
+		if(mappingWorkers == null) {
+			mappingWorkers = Executors.newFixedThreadPool(Math.max(1, configuration.getPrefetchMappingThreads()), 
+					new DaemonThreadFactory("LdapService-mapper"));
+		}
+		return mappingWorkers;
+	}
+	
+	static class DaemonThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+		
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/**
+	 * Passes search results through unmapped, so they may be mapped elsewhere.
+	 */
+	static class RawResultMapper implements ResultMapper<SearchResult> {
+		private final boolean applyFilters;
+		
+		RawResultMapper(boolean applyFilters) {
+			this.applyFilters = applyFilters;
+		}
+
+		@Override
+		public SearchResult apply(SearchResult result) {
+			return result;
+		}
+
+		@Override
+		public boolean isApplyFilters() {
+			return applyFilters;
+		}
+	}
+	
+	/**
+	 * Iterates over search results that are read ahead by a background thread,
+	 * which keeps up to the configured number of pages queued while the
+	 * results are mapped by a pool of threads. Results are returned in the
+	 * order they were read. The reader holds its context until the results
+	 * are exhausted or the iterator is closed, so callers that stop early
+	 * must close it.
+	 */
+	class PrefetchingSearchIterator<T> implements Iterator<T>, Closeable {
+		
+		private final PrefetchReader<T> reader;
+		private boolean finished;
+		private T nextElement;
+		
+		PrefetchingSearchIterator(SearchResultIterator<SearchResult> results, ResultMapper<T> resultMapper) {
+			reader = new PrefetchReader<T>(results, resultMapper);
+			getPrefetchReaders().execute(reader);
+		}
+		
+		private void fetch() {
+			while(nextElement == null && !finished) {
+				Future<T> future;
+				try {
+					future = reader.queue.take();
+				} catch (InterruptedException e) {
+					close();
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted waiting for search results", e);
+				}
+				if(future == reader.end) {
+					finished = true;
+					break;
+				}
+				try {
+					// Mappers that return null are skipped
+					nextElement = future.get();
+				} catch (InterruptedException e) {
+					close();
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted waiting for search results", e);
+				} catch (ExecutionException e) {
+					close();
+					LOG.error("Failed to get results", e.getCause());
+					if(e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException)e.getCause();
+					}
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			fetch();
+			return nextElement != null;
+		}
+
+		@Override
+		public T next() {
+			fetch();
+			if(nextElement == null) {
+				throw new NoSuchElementException();
+			}
+			try {
+				return nextElement;
+			} finally {
+				nextElement = null;
+			}
+		}
+
+		@Override
+		public void remove() {
+		}
 
-			public Iterator<T> apply(LdapContext context) throws IOException, NamingException {
-				return new SearchResultIterator<T>(baseDN, context, filter, resultMapper);
+		@Override
+		public void close() {
+			finished = true;
+			nextElement = null;
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Reads search results for a {@link PrefetchingSearchIterator}, queuing
+	 * them for mapping. Once closed it stops reading, and gives back its
+	 * context, within a second even if waiting for room in the queue.
+	 */
+	class PrefetchReader<T> implements Runnable {
+		
+		private final SearchResultIterator<SearchResult> results;
+		private final ResultMapper<T> resultMapper;
+		private final BlockingQueue<Future<T>> queue;
+		private final Future<T> end = new FutureTask<T>(new Callable<T>() {
+			@Override
+			public T call() {
+				return null;
 			}
 		});
+		private volatile boolean closed;
+		
+		PrefetchReader(SearchResultIterator<SearchResult> results, ResultMapper<T> resultMapper) {
+			this.results = results;
+			this.resultMapper = resultMapper;
+			this.queue = new ArrayBlockingQueue<Future<T>>(Math.max(1, configuration.getPrefetchPages() * configuration.getMaxPageSize()));
+		}
+
+		@Override
+		public void run() {
+			ExecutorService workers = getMappingWorkers();
+			try {
+				while(!closed && results.hasNext()) {
+					final SearchResult result = results.next();
+					enqueue(workers.submit(new Callable<T>() {
+						@Override
+						public T call() throws Exception {
+							MAPPING_THREAD.set(Boolean.TRUE);
+							return resultMapper.apply(result);
+						}
+					}));
+				}
+			} catch(final Throwable t) {
+				FutureTask<T> failed = new FutureTask<T>(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						if(t instanceof Exception) {
+							throw (Exception)t;
+						}
+						throw (Error)t;
+					}
+				});
+				failed.run();
+				enqueue(failed);
+			} finally {
+				results.close();
+				enqueue(end);
+			}
+		}
+		
+		private void enqueue(Future<T> future) {
+			try {
+				while(!closed) {
+					if(queue.offer(future, 1, TimeUnit.SECONDS)) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			future.cancel(false);
+		}
+		
+		void close() {
+			closed = true;
+			Future<T> future;
+			while((future = queue.poll()) != null) {
+				future.cancel(false);
+			}
+		}
 	}
 	
-	class SearchResultIterator<T> implements Iterator<T> {
+	class SearchResultIterator<T> implements Iterator<T>, Closeable {
 
 		NamingEnumeration<SearchResult> results = null;
 		ResultMapper<T> resultMapper;
@@ -176,23 +477,58 @@ public class LdapService {
 		LdapContext context;
 		Name baseDN;
 		String filter;
+		SearchControls searchControls;
+		Control[] controls;
 		
-		SearchResultIterator(Name baseDN, LdapContext context, String filter, ResultMapper<T> resultMapper) throws NamingException, IOException {
+		SearchResultIterator(Name baseDN, LdapContext context, String filter, ResultMapper<T> resultMapper, SearchControls searchControls, Control[] controls) throws NamingException, IOException {
 			this.resultMapper = resultMapper;
 			this.baseDN = baseDN;
 			this.context = context;
 			this.filter = filter;
-			buildResults();
-			nextElement = getNextElement();
+			this.searchControls = searchControls;
+			this.controls = controls;
+			boolean ok = false;
+			try {
+				buildResults();
+				nextElement = getNextElement();
+				ok = true;
+			} finally {
+				if(!ok) {
+					done(true);
+				}
+			}
+		}
+		
+		private void done(boolean broken) {
+			if(context != null) {
+				if(results != null) {
+					try {
+						results.close();
+					} catch (NamingException e) {
+						broken = true;
+					}
+				}
+				returnContext(context, broken);
+				context = null;
+			}
+		}
+		
+		@Override
+		public void close() {
+			nextElement = null;
+			done(false);
 		}
 		
 		private void buildResults() throws NamingException, IOException {
+			Control[] requestControls = new Control[controls.length + 1];
 			if(cookie!=null) {
-				context.setRequestControls(new Control[]{new PagedResultsControl(configuration.getMaxPageSize(), cookie, Control.CRITICAL) });
+				requestControls[0] = new PagedResultsControl(configuration.getMaxPageSize(), cookie, Control.CRITICAL);
 			} else {
-				context.setRequestControls(new Control[]{new PagedResultsControl(configuration.getMaxPageSize(), Control.CRITICAL) });
+				requestControls[0] = new PagedResultsControl(configuration.getMaxPageSize(), Control.CRITICAL);
 			}
-			results = context.search(baseDN, filter, getSearchControls());
+			System.arraycopy(controls, 0, requestControls, 1, controls.length);
+			context.setRequestControls(requestControls);
+			results = context.search(baseDN, filter, searchControls);
 
 		}
 		
@@ -236,9 +572,11 @@ public class LdapService {
 					}
 				} catch (NamingException e) {
 					LOG.error("Failed to get results", e);
+					done(true);
 					throw new IllegalStateException(e);
 				} catch (IOException e) {
 					LOG.error("Failed to get results", e);
+					done(true);
 					throw new IllegalStateException(e);
 				}
 			}
@@ -259,7 +597,7 @@ public class LdapService {
 				
 				
 				if(cookie==null) {
-					close(context);
+					done(false);
 					return null;
 				}
 				
@@ -267,9 +605,11 @@ public class LdapService {
 				return getNextElement();
 			} catch (NamingException e) {
 				LOG.error("Failed to get results", e);
+				done(true);
 				throw new IllegalStateException(e);
 			} catch (IOException e) {
 				LOG.error("Failed to get results", e);
+				done(true);
 				throw new IllegalStateException(e);
 			}
 		}
@@ -301,7 +641,7 @@ public class LdapService {
 	}
 	
 	public void unbind(final Name name) throws NamingException, IOException{
-		processBlock(new Block<Void>() {
+		processWriteBlock(new Block<Void>() {
 
 			@Override
 			public Void apply(LdapContext context) throws NamingException,IOException {
@@ -313,7 +653,7 @@ public class LdapService {
 	
 	
 	public void update(final Name name,final ModificationItem...mods) throws NamingException, IOException{
-		processBlock(new Block<Void>() {
+		processWriteBlock(new Block<Void>() {
 
 			@Override
 			public Void apply(LdapContext context) throws NamingException,IOException {
@@ -325,7 +665,7 @@ public class LdapService {
 	
 	
 	public void bind(final Name name,final Attribute...attrs) throws NamingException, IOException{
-		processBlock(new Block<Void>() {
+		processWriteBlock(new Block<Void>() {
 
 			@Override
 			public Void apply(LdapContext context) throws NamingException,IOException {
@@ -348,6 +688,25 @@ public class LdapService {
 		});
 	}
 	
+	/**
+	 * Read only the given attributes of an object. Unlike a search, this is
+	 * a base scope read, so may be used for constructed attributes such as
+	 * Active Directory's <code>tokenGroups</code>, and ranged attribute
+	 * retrieval such as <code>member;range=1500-*</code>.
+	 * 
+	 * @param dn distinguished name of object
+	 * @param attributeIds attributes to read
+	 * @return attributes
+	 */
+	public Attributes getAttributes(final Name dn, final String... attributeIds) throws NamingException,IOException{
+		return processBlock(new Block<Attributes>() {
+
+			public Attributes apply(LdapContext context) throws NamingException {
+				return context.getAttributes(dn, attributeIds);
+			}
+		});
+	}
+	
 	public final String buildObjectClassFilter(String objectClass, String principalNameFilterAttribute, String principalName) {
 		return String.format("(&(objectClass=%s)(%s=%s))",objectClass,principalNameFilterAttribute,principalName);
 	}
@@ -367,9 +726,63 @@ public class LdapService {
 	}
 	
 	private <T> T processBlock(Block<T> block, Control... controls) throws NamingException, IOException{
-		LdapContext ctx = null;
-		ctx = getConnection(controls);
-		return block.apply(ctx);
+		return processBlock(false, block, controls);
+	}
+	
+	private <T> T processWriteBlock(Block<T> block, Control... controls) throws NamingException, IOException{
+		return processBlock(true, block, controls);
+	}
+	
+	private <T> T processBlock(boolean write, Block<T> block, Control... controls) throws NamingException, IOException{
+		if(controls.length > 0) {
+			/* Connection controls apply to the bind, so these cannot use a pooled context */
+			LdapContext ctx;
+			if(write && controllerSelector != null) {
+				/* Try the preferred controller first, then the rest as before */
+				Hashtable<String,String> writeEnv = new Hashtable<String, String>(env);
+				writeEnv.put(Context.PROVIDER_URL, controllerSelector.getProviderUrl(controllerSelector.getPreferred()) 
+						+ " " + env.get(Context.PROVIDER_URL));
+				ctx = new InitialLdapContext(writeEnv, controls);
+			} else {
+				ctx = getConnection(controls);
+			}
+			try {
+				return block.apply(ctx);
+			} finally {
+				LdapContextPool.closeQuietly(ctx);
+			}
+		}
+		
+		LdapContext ctx = borrowContext(write);
+		boolean broken = true;
+		try {
+			T result = block.apply(ctx);
+			broken = false;
+			return result;
+		} catch(NamingException ne) {
+			broken = ne instanceof CommunicationException || ne instanceof ServiceUnavailableException;
+			throw ne;
+		} finally {
+			returnContext(ctx, broken);
+		}
+	}
+	
+	private LdapContext borrowContext() throws NamingException {
+		return borrowContext(false);
+	}
+	
+	private LdapContext borrowContext(boolean write) throws NamingException {
+		return servicePool == null ? getConnection() : servicePool.borrow(write);
+	}
+	
+	private void returnContext(LdapContext ctx, boolean broken) {
+		if(servicePool == null) {
+			LdapContextPool.closeQuietly(ctx);
+		} else if(broken) {
+			servicePool.invalidate(ctx);
+		} else {
+			servicePool.release(ctx);
+		}
 	}
 	
 	public interface ResultMapper<T>{
@@ -0,0 +1,84 @@
+package com.identity4j.connector.jndi.directory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.identity4j.util.MultiMap;
+
+public class ControllerSelectorTest {
+
+	@Test
+	public void roundRobinReads() {
+		ControllerSelector selector = selector(ControllerSelection.roundRobin, null);
+		Set<Integer> first = new HashSet<Integer>();
+		for (int i = 0; i < 3; i++) {
+			first.add(selector.order(false).get(0));
+		}
+		assertEquals(3, first.size());
+		assertEquals(3, selector.order(false).size());
+	}
+
+	@Test
+	public void orderedReadsPreferFirstHost() {
+		ControllerSelector selector = selector(ControllerSelection.ordered, null);
+		assertEquals(Arrays.asList(0, 1, 2), selector.order(false));
+		assertEquals(Arrays.asList(0, 1, 2), selector.order(false));
+	}
+
+	@Test
+	public void leastLatencyReads() {
+		ControllerSelector selector = selector(ControllerSelection.leastLatency, null);
+		selector.success(0, 3000000);
+		selector.success(1, 1000000);
+		selector.success(2, 2000000);
+		assertEquals(Arrays.asList(1, 2, 0), selector.order(false));
+	}
+
+	@Test
+	public void writesPinnedToPreferred() throws Exception {
+		ControllerSelector selector = selector(ControllerSelection.roundRobin, "dc2.test.com");
+		assertEquals(1, selector.getPreferred());
+		assertEquals(Integer.valueOf(1), selector.order(true).get(0));
+		// Reads straight after a write stay on the same controller
+		assertEquals(Integer.valueOf(1), selector.order(false).get(0));
+		assertEquals(Integer.valueOf(1), selector.order(false).get(0));
+	}
+
+	@Test
+	public void failedControllerIsTriedLast() {
+		ControllerSelector selector = selector(ControllerSelection.ordered, null);
+		selector.failure(0);
+		assertTrue(selector.isAvailable(0));
+		selector.failure(0);
+		assertFalse(selector.isAvailable(0));
+		assertEquals(Arrays.asList(1, 2, 0), selector.order(false));
+		// Writes fail over while the preferred controller is unavailable
+		assertEquals(Arrays.asList(1, 2, 0), selector.order(true));
+
+		selector.success(0);
+		assertTrue(selector.isAvailable(0));
+		assertEquals(Arrays.asList(0, 1, 2), selector.order(true));
+	}
+
+	private static ControllerSelector selector(ControllerSelection selection, String preferred) {
+		MultiMap map = new MultiMap();
+		map.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "dc1.test.com");
+		map.set(DirectoryConfiguration.DIRECTORY_BACKUP_HOSTNAMES, "dc2.test.com", "dc3.test.com:3389");
+		map.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=test,dc=com");
+		map.set(DirectoryConfiguration.DIRECTORY_CONTROLLER_SELECTION, selection.name());
+		map.set(DirectoryConfiguration.DIRECTORY_CONTROLLER_FAILURE_THRESHOLD, "2");
+		map.set(DirectoryConfiguration.DIRECTORY_CONTROLLER_PROBE_INTERVAL, "0");
+		if (preferred != null) {
+			map.set(DirectoryConfiguration.DIRECTORY_CONTROLLER_PREFERRED, preferred);
+		}
+		return new ControllerSelector(new DirectoryConfiguration(map), new Hashtable<String, String>());
+	}
+}
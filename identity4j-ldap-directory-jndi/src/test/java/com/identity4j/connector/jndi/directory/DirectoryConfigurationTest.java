@@ -0,0 +1,40 @@
+package com.identity4j.connector.jndi.directory;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.identity4j.util.MultiMap;
+
+public class DirectoryConfigurationTest {
+
+	@Test
+	public void providerUrlForHost() {
+		DirectoryConfiguration configuration = configuration();
+		assertEquals("ldap://ldap1.test.com:389", configuration.buildProviderUrl(false, "ldap1.test.com"));
+		assertEquals("ldaps://ldap1.test.com:636", configuration.buildProviderUrl(true, "ldap1.test.com"));
+	}
+
+	@Test
+	public void providerUrlForHostAndPort() {
+		DirectoryConfiguration configuration = configuration();
+		assertEquals("ldap://ldap1.test.com:389", configuration.buildProviderUrl(true, "ldap1.test.com:389"));
+		assertEquals("ldaps://ldap1.test.com:636", configuration.buildProviderUrl(false, "ldap1.test.com:636"));
+		assertEquals("ldap://ldap1.test.com:1389", configuration.buildProviderUrl(false, "ldap1.test.com:1389"));
+		assertEquals("ldaps://ldap1.test.com:1636", configuration.buildProviderUrl(true, "ldap1.test.com:1636"));
+	}
+
+	@Test
+	public void providerUrlForMultipleControllers() {
+		DirectoryConfiguration configuration = configuration();
+		assertEquals("ldap://ldap1.test.com:389 ldap://ldap2.test.com:1389 ldaps://ldap3.test.com:636",
+			configuration.buildProviderUrl(false, "ldap1.test.com", "ldap2.test.com:1389", "ldap3.test.com:636"));
+	}
+
+	private static DirectoryConfiguration configuration() {
+		MultiMap map = new MultiMap();
+		map.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "ldap1.test.com");
+		map.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=test,dc=com");
+		return new DirectoryConfiguration(map);
+	}
+}
@@ -0,0 +1,204 @@
+package com.identity4j.connector.jndi.directory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.util.MultiMap;
+
+public class PrefetchingSearchIteratorTest {
+
+	private static final AtomicInteger OPENED = new AtomicInteger();
+	private static final AtomicInteger CLOSED = new AtomicInteger();
+	private static final AtomicInteger READ = new AtomicInteger();
+	private static volatile int results;
+
+	private LdapService service;
+
+	@Before
+	public void open() throws Exception {
+		OPENED.set(0);
+		CLOSED.set(0);
+		READ.set(0);
+		results = 50;
+		MultiMap map = new MultiMap();
+		map.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "ldap.test.com");
+		map.set(DirectoryConfiguration.DIRECTORY_BACKUP_HOSTNAMES);
+		map.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=test,dc=com");
+		map.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_USERNAME, "cn=admin,dc=test,dc=com");
+		map.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_PASSWORD, "secret");
+		map.set(DirectoryConfiguration.DIRECTORY_POOL_ENABLED, "false");
+		map.set(DirectoryConfiguration.DIRECTORY_PREFETCH_PAGES, "1");
+		map.set(DirectoryConfiguration.DIRECTORY_PREFETCH_MAPPING_THREADS, "4");
+		map.set("directory.maxPageSize", "2");
+		map.set("directory.initialContextFactory", FakeContextFactory.class.getName());
+		service = new LdapService();
+		service.init(new DirectoryConfiguration(map));
+		service.openConnection();
+	}
+
+	@After
+	public void close() {
+		service.close();
+	}
+
+	@Test
+	public void resultsAreReturnedInTheOrderTheyWereRead() throws Exception {
+		Iterator<String> it = service.search("(objectClass=*)", new SlowMapper());
+		assertTrue(it instanceof Closeable);
+		for (int i = 0; i < results; i++) {
+			assertTrue(it.hasNext());
+			assertEquals("cn=user" + i + ",dc=test,dc=com", it.next());
+		}
+		assertFalse(it.hasNext());
+		try {
+			it.next();
+			fail("Expected no more results.");
+		} catch (NoSuchElementException nsee) {
+		}
+		waitForContexts();
+		assertEquals(OPENED.get(), CLOSED.get());
+	}
+
+	@Test
+	public void closingEarlyGivesBackTheContext() throws Exception {
+		results = 1000;
+		Iterator<String> it = service.search("(objectClass=*)", new SlowMapper());
+		assertEquals("cn=user0,dc=test,dc=com", it.next());
+		((Closeable) it).close();
+		assertFalse(it.hasNext());
+		waitForContexts();
+		assertEquals(OPENED.get(), CLOSED.get());
+		// The reader stopped, rather than reading to the end
+		assertTrue(READ.get() < results);
+	}
+
+	private static void waitForContexts() throws InterruptedException {
+		for (int i = 0; i < 50 && CLOSED.get() < OPENED.get(); i++) {
+			Thread.sleep(100);
+		}
+	}
+
+	/**
+	 * Takes longest to map the earliest results, so mapping finishes out of
+	 * order.
+	 */
+	static class SlowMapper implements ResultMapper<String> {
+		@Override
+		public String apply(SearchResult result) throws NamingException {
+			int index = Integer.parseInt(result.getName().substring(7));
+			try {
+				Thread.sleep((3 - index % 4) * 5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return result.getNameInNamespace();
+		}
+
+		@Override
+		public boolean isApplyFilters() {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates contexts whose searches return a single page of
+	 * {@link PrefetchingSearchIteratorTest#results} results.
+	 */
+	public static class FakeContextFactory implements InitialContextFactory {
+		@Override
+		public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+			OPENED.incrementAndGet();
+			return (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class },
+				new InvocationHandler() {
+					private boolean closed;
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("close")) {
+							if (!closed) {
+								closed = true;
+								CLOSED.incrementAndGet();
+							}
+							return null;
+						} else if (name.equals("lookup")) {
+							return proxy;
+						} else if (name.equals("getAttributes")) {
+							return new BasicAttributes(true);
+						} else if (name.equals("search")) {
+							return new Results(results);
+						} else if (name.equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						} else if (name.equals("equals")) {
+							return proxy == args[0];
+						}
+						return null;
+					}
+				});
+		}
+	}
+
+	static class Results implements NamingEnumeration<SearchResult> {
+		private final int count;
+		private int index;
+
+		Results(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			return index < count;
+		}
+
+		@Override
+		public SearchResult nextElement() {
+			if (index >= count) {
+				throw new NoSuchElementException();
+			}
+			READ.incrementAndGet();
+			SearchResult result = new SearchResult("cn=user" + index, null, new BasicAttributes(true));
+			result.setNameInNamespace("cn=user" + index + ",dc=test,dc=com");
+			index++;
+			return result;
+		}
+
+		@Override
+		public boolean hasMore() {
+			return hasMoreElements();
+		}
+
+		@Override
+		public SearchResult next() {
+			return nextElement();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package com.identity4j.connector.mysql.users;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rebuilds the grants of every account from the MySQL privilege tables, so
+ * they can be listed without running <code>SHOW GRANTS</code> for each
+ * account. Grants are in the same form as
+ * {@link MySQLUsersConnector} stores them, i.e. without the keyword GRANT
+ * and anything from <code>TO</code> onwards.
+ * <p>
+ * Global, database, table and column privileges are covered. Routine
+ * privileges and, on MySQL 8, roles and dynamic privileges are not.
+ */
+class GrantHarvester {
+
+	// Privilege columns of mysql.user, in the order SHOW GRANTS lists them
+	private static final String[][] GLOBAL_PRIVILEGES = { { "Select_priv", "SELECT" }, { "Insert_priv", "INSERT" },
+			{ "Update_priv", "UPDATE" }, { "Delete_priv", "DELETE" }, { "Create_priv", "CREATE" }, { "Drop_priv", "DROP" },
+			{ "Reload_priv", "RELOAD" }, { "Shutdown_priv", "SHUTDOWN" }, { "Process_priv", "PROCESS" },
+			{ "File_priv", "FILE" }, { "References_priv", "REFERENCES" }, { "Index_priv", "INDEX" },
+			{ "Alter_priv", "ALTER" }, { "Show_db_priv", "SHOW DATABASES" }, { "Super_priv", "SUPER" },
+			{ "Create_tmp_table_priv", "CREATE TEMPORARY TABLES" }, { "Lock_tables_priv", "LOCK TABLES" },
+			{ "Execute_priv", "EXECUTE" }, { "Repl_slave_priv", "REPLICATION SLAVE" },
+			{ "Repl_client_priv", "REPLICATION CLIENT" }, { "Create_view_priv", "CREATE VIEW" },
+			{ "Show_view_priv", "SHOW VIEW" }, { "Create_routine_priv", "CREATE ROUTINE" },
+			{ "Alter_routine_priv", "ALTER ROUTINE" }, { "Create_user_priv", "CREATE USER" }, { "Event_priv", "EVENT" },
+			{ "Trigger_priv", "TRIGGER" }, { "Create_tablespace_priv", "CREATE TABLESPACE" },
+			{ "Create_role_priv", "CREATE ROLE" }, { "Drop_role_priv", "DROP ROLE" } };
+
+	// Privilege columns of mysql.db, in the order SHOW GRANTS lists them
+	private static final String[][] DATABASE_PRIVILEGES = { { "Select_priv", "SELECT" }, { "Insert_priv", "INSERT" },
+			{ "Update_priv", "UPDATE" }, { "Delete_priv", "DELETE" }, { "Create_priv", "CREATE" }, { "Drop_priv", "DROP" },
+			{ "References_priv", "REFERENCES" }, { "Index_priv", "INDEX" }, { "Alter_priv", "ALTER" },
+			{ "Create_tmp_table_priv", "CREATE TEMPORARY TABLES" }, { "Lock_tables_priv", "LOCK TABLES" },
+			{ "Execute_priv", "EXECUTE" }, { "Create_view_priv", "CREATE VIEW" }, { "Show_view_priv", "SHOW VIEW" },
+			{ "Create_routine_priv", "CREATE ROUTINE" }, { "Alter_routine_priv", "ALTER ROUTINE" },
+			{ "Event_priv", "EVENT" }, { "Trigger_priv", "TRIGGER" } };
+
+	// Values of the Table_priv set of mysql.tables_priv, in the order SHOW GRANTS lists them
+	private static final String[] TABLE_PRIVILEGES = { "SELECT", "INSERT", "UPDATE", "DELETE", "CREATE", "DROP",
+			"REFERENCES", "INDEX", "ALTER", "CREATE VIEW", "SHOW VIEW", "TRIGGER" };
+
+	private static final String ALL_PRIVILEGES = "ALL PRIVILEGES";
+	private static final String USAGE = "USAGE";
+
+	private final Map<String, List<String>> grants = new HashMap<String, List<String>>();
+	private final Map<String, Map<String, TableGrant>> tables = new LinkedHashMap<String, Map<String, TableGrant>>();
+
+	/**
+	 * Read the global privileges from rows of <code>mysql.user</code>.
+	 *
+	 * @param resultSet rows
+	 * @throws SQLException
+	 */
+	void readGlobal(ResultSet resultSet) throws SQLException {
+		String[][] privileges = present(resultSet.getMetaData(), GLOBAL_PRIVILEGES);
+		while (resultSet.next()) {
+			grants(resultSet).add(0, privileges(resultSet, privileges, USAGE) + " ON *.*");
+		}
+	}
+
+	/**
+	 * Read the database privileges from rows of <code>mysql.db</code>.
+	 *
+	 * @param resultSet rows
+	 * @throws SQLException
+	 */
+	void readDatabases(ResultSet resultSet) throws SQLException {
+		String[][] privileges = present(resultSet.getMetaData(), DATABASE_PRIVILEGES);
+		while (resultSet.next()) {
+			String granted = privileges(resultSet, privileges, null);
+			if (granted != null) {
+				grants(resultSet).add(granted + " ON " + quote(resultSet.getString("Db")) + ".*");
+			}
+		}
+	}
+
+	/**
+	 * Read the table privileges from rows of <code>mysql.tables_priv</code>.
+	 *
+	 * @param resultSet rows
+	 * @throws SQLException
+	 */
+	void readTables(ResultSet resultSet) throws SQLException {
+		while (resultSet.next()) {
+			TableGrant table = table(resultSet);
+			String privileges = resultSet.getString("Table_priv");
+			if (privileges != null && privileges.length() > 0) {
+				for (String privilege : privileges.split(",")) {
+					table.privileges.add(privilege.toUpperCase());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the column privileges from rows of <code>mysql.columns_priv</code>.
+	 *
+	 * @param resultSet rows
+	 * @throws SQLException
+	 */
+	void readColumns(ResultSet resultSet) throws SQLException {
+		while (resultSet.next()) {
+			TableGrant table = table(resultSet);
+			String privileges = resultSet.getString("Column_priv");
+			if (privileges != null && privileges.length() > 0) {
+				for (String privilege : privileges.split(",")) {
+					privilege = privilege.toUpperCase();
+					List<String> columns = table.columns.get(privilege);
+					if (columns == null) {
+						columns = new ArrayList<String>();
+						table.columns.put(privilege, columns);
+					}
+					columns.add(resultSet.getString("Column_name"));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the grants of an account, one per line.
+	 *
+	 * @param user user column
+	 * @param host host column
+	 * @return grants
+	 */
+	String getGrants(String user, String host) {
+		String key = key(user, host);
+		StringBuilder buf = new StringBuilder();
+		List<String> accountGrants = grants.get(key);
+		if (accountGrants != null) {
+			for (String grant : accountGrants) {
+				buf.append(grant).append(MySqlUsersConstants.NEW_LINE);
+			}
+		}
+		Map<String, TableGrant> accountTables = tables.get(key);
+		if (accountTables != null) {
+			for (TableGrant table : accountTables.values()) {
+				String grant = table.toString();
+				if (grant != null) {
+					buf.append(grant).append(MySqlUsersConstants.NEW_LINE);
+				}
+			}
+		}
+		return buf.toString();
+	}
+
+	private List<String> grants(ResultSet resultSet) throws SQLException {
+		String key = key(resultSet.getString("User"), resultSet.getString("Host"));
+		List<String> accountGrants = grants.get(key);
+		if (accountGrants == null) {
+			accountGrants = new ArrayList<String>();
+			grants.put(key, accountGrants);
+		}
+		return accountGrants;
+	}
+
+	private TableGrant table(ResultSet resultSet) throws SQLException {
+		String key = key(resultSet.getString("User"), resultSet.getString("Host"));
+		Map<String, TableGrant> accountTables = tables.get(key);
+		if (accountTables == null) {
+			accountTables = new LinkedHashMap<String, TableGrant>();
+			tables.put(key, accountTables);
+		}
+		String name = quote(resultSet.getString("Db")) + "." + quote(resultSet.getString("Table_name"));
+		TableGrant table = accountTables.get(name);
+		if (table == null) {
+			table = new TableGrant(name);
+			accountTables.put(name, table);
+		}
+		return table;
+	}
+
+	private static String privileges(ResultSet resultSet, String[][] privileges, String none) throws SQLException {
+		StringBuilder buf = new StringBuilder();
+		boolean all = privileges.length > 0;
+		for (String[] privilege : privileges) {
+			if ("Y".equalsIgnoreCase(resultSet.getString(privilege[0]))) {
+				if (buf.length() > 0) {
+					buf.append(", ");
+				}
+				buf.append(privilege[1]);
+			} else {
+				all = false;
+			}
+		}
+		return all ? ALL_PRIVILEGES : (buf.length() == 0 ? none : buf.toString());
+	}
+
+	private static String[][] present(ResultSetMetaData metaData, String[][] privileges) throws SQLException {
+		Set<String> columns = new HashSet<String>();
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			columns.add(metaData.getColumnLabel(i).toLowerCase());
+		}
+		List<String[]> present = new ArrayList<String[]>();
+		for (String[] privilege : privileges) {
+			if (columns.contains(privilege[0].toLowerCase())) {
+				present.add(privilege);
+			}
+		}
+		return present.toArray(new String[present.size()][]);
+	}
+
+	private static String key(String user, String host) {
+		return user + "@" + host;
+	}
+
+	private static String quote(String name) {
+		return "`" + name.replace("`", "``") + "`";
+	}
+
+	/**
+	 * Table and column privileges on one table, which SHOW GRANTS lists
+	 * together.
+	 */
+	private static class TableGrant {
+		final String name;
+		final Set<String> privileges = new HashSet<String>();
+		final Map<String, List<String>> columns = new HashMap<String, List<String>>();
+
+		TableGrant(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			boolean all = columns.isEmpty();
+			StringBuilder buf = new StringBuilder();
+			for (String privilege : TABLE_PRIVILEGES) {
+				List<String> privilegeColumns = columns.get(privilege);
+				if (privileges.contains(privilege) || privilegeColumns != null) {
+					if (buf.length() > 0) {
+						buf.append(", ");
+					}
+					buf.append(privilege);
+					if (privilegeColumns != null) {
+						buf.append(" (");
+						for (int i = 0; i < privilegeColumns.size(); i++) {
+							if (i > 0) {
+								buf.append(", ");
+							}
+							buf.append(privilegeColumns.get(i));
+						}
+						buf.append(")");
+					}
+				}
+				if (!privileges.contains(privilege)) {
+					all = false;
+				}
+			}
+			if (all) {
+				return ALL_PRIVILEGES + " ON " + name;
+			}
+			return buf.length() == 0 ? null : buf + " ON " + name;
+		}
+	}
+}
@@ -18,6 +18,13 @@ public class MySQLUsersConfiguration extends JDBCConfiguration{
 	public static final String SQL_IDENTITY_TABLE_GRANT_SHOW = "sqlIdentityTableGrantShow";
 	public static final String SQL_IDENTITY_TABLE_ENABLE_DISABLE = "sqlIdentityTableEnableDisable";
 	
+	//Bulk grants
+	public static final String SQL_GRANT_HARVEST = "sqlGrantHarvest";
+	public static final String SQL_GRANT_HARVEST_GLOBAL = "sqlGrantHarvestGlobal";
+	public static final String SQL_GRANT_HARVEST_DATABASES = "sqlGrantHarvestDatabases";
+	public static final String SQL_GRANT_HARVEST_TABLES = "sqlGrantHarvestTables";
+	public static final String SQL_GRANT_HARVEST_COLUMNS = "sqlGrantHarvestColumns";
+	
 	//Password
 	public static final String SQL_PASSWORD_SET = "sqlPasswordSet";
 	
@@ -54,6 +61,15 @@ public class MySQLUsersConfiguration extends JDBCConfiguration{
 		buf.append(configurationParameters.getString(JDBC_PASSWORD));
 		return buf.toString();
 	}
+
+	/**
+	 * MySQL only streams results row by row with a fetch size of
+	 * {@link Integer#MIN_VALUE}, any other value reads the whole result.
+	 */
+	@Override
+	protected int getDefaultFetchSize() {
+		return Integer.MIN_VALUE;
+	}
 	
 	public String getSelectIdentitySQL() {
 		return configurationParameters.getStringOrDefault(SQL_IDENTITY_TABLE_SELECT,
@@ -81,6 +97,37 @@ public class MySQLUsersConfiguration extends JDBCConfiguration{
 				"SHOW GRANTS FOR ?@?"));
 	}
 	
+	/**
+	 * Whether grants should be rebuilt from the privilege tables with a few
+	 * queries when listing all identities, rather than running SHOW GRANTS
+	 * for each one, the default is <code>false</code>.
+	 * 
+	 * @return harvest grants
+	 */
+	public boolean isGrantHarvest() {
+		return configurationParameters.getBooleanOrDefault(SQL_GRANT_HARVEST, false);
+	}
+	
+	public String getGrantHarvestGlobalSQL() {
+		return configurationParameters.getStringOrDefault(SQL_GRANT_HARVEST_GLOBAL,
+				"SELECT * FROM mysql.user");
+	}
+	
+	public String getGrantHarvestDatabasesSQL() {
+		return configurationParameters.getStringOrDefault(SQL_GRANT_HARVEST_DATABASES,
+				"SELECT * FROM mysql.db ORDER BY Db");
+	}
+	
+	public String getGrantHarvestTablesSQL() {
+		return configurationParameters.getStringOrDefault(SQL_GRANT_HARVEST_TABLES,
+				"SELECT User, Host, Db, Table_name, Table_priv FROM mysql.tables_priv ORDER BY Db, Table_name");
+	}
+	
+	public String getGrantHarvestColumnsSQL() {
+		return configurationParameters.getStringOrDefault(SQL_GRANT_HARVEST_COLUMNS,
+				"SELECT User, Host, Db, Table_name, Column_name, Column_priv FROM mysql.columns_priv ORDER BY Db, Table_name, Column_name");
+	}
+	
 	public String getCreateIdentitySQL(String user,String host,String password){
 		return String.format(configurationParameters.getStringOrDefault(SQL_IDENTITY_TABLE_CREATE,
 				"CREATE USER '%s'@'%s' IDENTIFIED BY '%s'"),user,host,password);
@@ -1,5 +1,6 @@
 package com.identity4j.connector.mysql.users;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -11,8 +12,11 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
+import com.identity4j.connector.ChangeSet;
 import com.identity4j.connector.ConnectorCapability;
+import com.identity4j.connector.SyncToken;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.jdbc.JDBCConnector;
@@ -40,6 +44,9 @@ import com.identity4j.util.StringUtil;
  */
 public class MySQLUsersConnector extends JDBCConnector{
 	
+	private static final Pattern GRANT_PATTERN = Pattern.compile(MySqlUsersConstants.GRANT_MATCHER);
+	private static final Pattern PASSWORD_PATTERN = Pattern.compile(MySqlUsersConstants.PASSWORD_MATCHER);
+	
 	private static Set<ConnectorCapability> capabilities = new HashSet<ConnectorCapability>(Arrays.asList(new ConnectorCapability[] { 
 			ConnectorCapability.passwordChange,
 			ConnectorCapability.passwordSet,
@@ -100,27 +107,37 @@ public class MySQLUsersConnector extends JDBCConnector{
 	
 	/**
 	 * Fetches all MySQL Identities along with all the database grants associated with it.
+	 * Identities are read as the iterator is used.
+	 * <br />
+	 * If grant harvesting is configured, the grants of all identities are first rebuilt from
+	 * the privilege tables, instead of running SHOW GRANTS for each identity.
 	 */
 	@Override
 	public Iterator<Identity> allIdentities() throws ConnectorException {
-		final List<Identity> identities = new ArrayList<Identity>();
-		
-		jdbcAction(getMySQLUserConfiguration()
-					.getSelectIdentitiesSQL(), new String[0], new JDBCResultsetBlock<Void>() {
+		final GrantHarvester harvester = getMySQLUserConfiguration().isGrantHarvest() ? harvestGrants() : null;
+		return jdbcIterator(getMySQLUserConfiguration()
+					.getSelectIdentitiesSQL(), new String[0], new JDBCResultsetBlock<Identity>() {
 
 						@Override
-						public Void apply(ResultSet resultSet)
+						public Identity apply(ResultSet resultSet)
 								throws SQLException {
-							Identity identity = null;
-							while (resultSet.next()) {
-								identity = prepareIdentity(resultSet);
-								identities.add(identity);
-							}
-							return null;
+							return prepareIdentity(resultSet, harvester);
 						}
 					});
-			
-		return identities.iterator();
+	}
+	
+	/**
+	 * MySQL users have no change timestamp, so this always returns a full
+	 * listing of all identities.
+	 */
+	@Override
+	public ChangeSet changesSince(SyncToken token) throws ConnectorException {
+		ChangeSet changes = new ChangeSet(true);
+		for (Iterator<Identity> it = allIdentities(); it.hasNext();) {
+			changes.getAddedIdentities().add(it.next());
+		}
+		changes.setToken(new SyncToken(""));
+		return changes;
 	}
 	
 	/**
@@ -149,7 +166,7 @@ public class MySQLUsersConnector extends JDBCConnector{
 					
 					int flag = -1;
 					while (resultSet.next()) {
-						identity = prepareIdentity(resultSet);
+						identity = prepareIdentity(resultSet, null);
 						
 						//increment the flag to check how many records processed
 						//the query contains OR condition, hence an extra precautionary check
@@ -172,10 +189,11 @@ public class MySQLUsersConnector extends JDBCConnector{
 	 * Helper method which sets the properties of identity from JDBC result set.
 	 * 
 	 * @param resultSet
+	 * @param harvester harvested grants, or <code>null</code> to fetch them
 	 * @return
 	 * @throws SQLException
 	 */
-	private JDBCIdentity prepareIdentity(ResultSet resultSet)
+	private JDBCIdentity prepareIdentity(ResultSet resultSet, GrantHarvester harvester)
 			throws SQLException {
 		JDBCIdentity identity;
 		//checking for host, if disable flag is appended we need to extract it from host
@@ -195,8 +213,10 @@ public class MySQLUsersConnector extends JDBCConnector{
 				startsWith(getMySQLUserConfiguration().getDisableFlag()));
 		
 		//fetch all grants
-		identity.setAttribute(MySqlUsersConstants.USER_ACCESS, fetchGrants(resultSet
-				.getString(MySqlUsersConstants.USER_TABLE_USER_COLUMN),resultSet.getString(MySqlUsersConstants.USER_TABLE_HOST_COLUMN)));
+		String user = resultSet.getString(MySqlUsersConstants.USER_TABLE_USER_COLUMN);
+		String rawHost = resultSet.getString(MySqlUsersConstants.USER_TABLE_HOST_COLUMN);
+		identity.setAttribute(MySqlUsersConstants.USER_ACCESS,
+				harvester == null ? fetchGrants(user, rawHost) : harvester.getGrants(user, rawHost));
 		
 		return identity;
 	}
@@ -322,6 +342,45 @@ public class MySQLUsersConnector extends JDBCConnector{
 					});
 	}
 	
+	/**
+	 * Rebuilds the grants of all users from the privilege tables, with one query per table.
+	 * 
+	 * @return harvested grants
+	 */
+	private GrantHarvester harvestGrants() {
+		final GrantHarvester harvester = new GrantHarvester();
+		MySQLUsersConfiguration config = getMySQLUserConfiguration();
+		jdbcAction(config.getGrantHarvestGlobalSQL(), new Object[0], new JDBCResultsetBlock<Void>() {
+			@Override
+			public Void apply(ResultSet resultSet) throws SQLException {
+				harvester.readGlobal(resultSet);
+				return null;
+			}
+		});
+		jdbcAction(config.getGrantHarvestDatabasesSQL(), new Object[0], new JDBCResultsetBlock<Void>() {
+			@Override
+			public Void apply(ResultSet resultSet) throws SQLException {
+				harvester.readDatabases(resultSet);
+				return null;
+			}
+		});
+		jdbcAction(config.getGrantHarvestTablesSQL(), new Object[0], new JDBCResultsetBlock<Void>() {
+			@Override
+			public Void apply(ResultSet resultSet) throws SQLException {
+				harvester.readTables(resultSet);
+				return null;
+			}
+		});
+		jdbcAction(config.getGrantHarvestColumnsSQL(), new Object[0], new JDBCResultsetBlock<Void>() {
+			@Override
+			public Void apply(ResultSet resultSet) throws SQLException {
+				harvester.readColumns(resultSet);
+				return null;
+			}
+		});
+		return harvester;
+	}
+	
 	/**
 	 * Fetches all grants associated with an identity
 	 * 
@@ -372,13 +431,13 @@ public class MySQLUsersConnector extends JDBCConnector{
 	 * @param grants
 	 * @return
 	 */
-	private String parseGrants(List<String> grants){
+	static String parseGrants(List<String> grants){
 		StringBuilder parsedGrants = new StringBuilder();
 		for (String grant : grants) {
-			grant = grant.replaceAll(MySqlUsersConstants.GRANT_MATCHER, MySqlUsersConstants.EMPTY_STRING);
+			grant = GRANT_PATTERN.matcher(grant).replaceAll(MySqlUsersConstants.EMPTY_STRING);
 			//if grant contains password, remove it
 			if(grant.contains(MySqlUsersConstants.IDENTIFIED_BY_PASSWORD)){
-				grant = grant.replaceAll(MySqlUsersConstants.PASSWORD_MATCHER, MySqlUsersConstants.EMPTY_STRING);
+				grant = PASSWORD_PATTERN.matcher(grant).replaceAll(MySqlUsersConstants.EMPTY_STRING);
 			}
 			parsedGrants.append(StringUtil.getBefore(grant,MySqlUsersConstants._TO_)).append(MySqlUsersConstants.NEW_LINE);
 		}
@@ -392,11 +451,18 @@ public class MySQLUsersConnector extends JDBCConnector{
 	 * @param newHostName
 	 */
 	private void enableDisableHelper(UserHost userHost,String newHostName) {
+		Connection connection;
+		try {
+			connection = borrowConnection();
+		} catch (SQLException e) {
+			throw new ConnectorException(e);
+		}
 		PreparedStatement statementEnableDisable = null;
 		Statement flush = null;
+		boolean failed = true;
 		try {
-			connect.setAutoCommit(false);
-			statementEnableDisable = connect.prepareStatement(getMySQLUserConfiguration().getEnableDisableIdentitySQL());
+			connection.setAutoCommit(false);
+			statementEnableDisable = connection.prepareStatement(getMySQLUserConfiguration().getEnableDisableIdentitySQL());
 			
 			statementEnableDisable.setString(1, newHostName);
 			statementEnableDisable.setString(2, userHost.user);
@@ -406,18 +472,24 @@ public class MySQLUsersConnector extends JDBCConnector{
 			
 			//We need to flush privileges, else latest updates made to mysql.user tables are not reflected
 			//in mysql space
-			flush = connect.createStatement();
+			flush = connection.createStatement();
 			flush.execute(getMySQLUserConfiguration().getFlushPrivilegesSQL());
 			
-			connect.commit();
+			connection.commit();
+			failed = false;
 			
 		} catch (SQLException e) {
-			rollback(connect);
+			rollback(connection);
 			throw new ConnectorException(e);
 		} finally {
-			autoCommitTrue(connect);
 			closeStatement(statementEnableDisable);
 			closeStatement(flush);
+			try {
+				autoCommitTrue(connection);
+			} catch (ConnectorException e) {
+				failed = true;
+			}
+			releaseConnection(connection, failed);
 		}
 	}
 	
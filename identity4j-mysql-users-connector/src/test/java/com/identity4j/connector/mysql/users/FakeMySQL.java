@@ -0,0 +1,380 @@
+package com.identity4j.connector.mysql.users;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.identity4j.util.MultiMap;
+
+/**
+ * An in memory stand in for the privilege tables of a MySQL server. Each
+ * {@link Account} holds both the rows of the privilege tables and what
+ * <code>SHOW GRANTS</code> prints for them, so the two ways the connector
+ * reads grants can be compared. The JDBC objects it hands out are proxies
+ * answering just the connector's default queries.
+ */
+class FakeMySQL {
+
+	// Privilege columns the fake mysql.user and mysql.db tables have
+	static final String[] PRIVILEGE_COLUMNS = { "Select_priv", "Insert_priv", "Update_priv", "Delete_priv",
+			"Grant_priv" };
+
+	final List<Account> accounts = new ArrayList<Account>();
+	final AtomicInteger showGrants = new AtomicInteger();
+
+	FakeMySQL(Account... accounts) {
+		this.accounts.addAll(Arrays.asList(accounts));
+	}
+
+	/**
+	 * Open a connector on this server.
+	 */
+	MySQLUsersConnector open(String... parameters) {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("jdbcHostname", "localhost");
+		properties.put("jdbcDatabase", "mysql");
+		for (int i = 0; i < parameters.length; i += 2) {
+			properties.put(parameters[i], parameters[i + 1]);
+		}
+		MySQLUsersConnector connector = new MySQLUsersConnector() {
+			@Override
+			protected Connection openConnection() throws SQLException {
+				return proxy(Connection.class, new FakeConnection());
+			}
+		};
+		connector.open(new MySQLUsersConfiguration(MultiMap.toMultiMap(properties)));
+		return connector;
+	}
+
+	/**
+	 * Rows of mysql.user.
+	 */
+	Rows users() {
+		Rows rows = new Rows("User", "Host");
+		rows.columns.addAll(Arrays.asList(PRIVILEGE_COLUMNS));
+		for (Account account : accounts) {
+			rows.add(account.user, account.host, account.global);
+		}
+		return rows;
+	}
+
+	/**
+	 * Rows of mysql.db, ordered by database.
+	 */
+	Rows databases() {
+		Rows rows = new Rows("User", "Host", "Db");
+		rows.columns.addAll(Arrays.asList(PRIVILEGE_COLUMNS));
+		for (Account account : accounts) {
+			for (Map<String, Object> db : account.databases) {
+				rows.add(account.user, account.host, db);
+			}
+		}
+		rows.sort("Db");
+		return rows;
+	}
+
+	/**
+	 * Rows of mysql.tables_priv, ordered by database and table.
+	 */
+	Rows tables() {
+		Rows rows = new Rows("User", "Host", "Db", "Table_name", "Table_priv");
+		for (Account account : accounts) {
+			for (Map<String, Object> table : account.tables) {
+				rows.add(account.user, account.host, table);
+			}
+		}
+		rows.sort("Db", "Table_name");
+		return rows;
+	}
+
+	/**
+	 * Rows of mysql.columns_priv, ordered by database, table and column.
+	 */
+	Rows columns() {
+		Rows rows = new Rows("User", "Host", "Db", "Table_name", "Column_name", "Column_priv");
+		for (Account account : accounts) {
+			for (Map<String, Object> column : account.columns) {
+				rows.add(account.user, account.host, column);
+			}
+		}
+		rows.sort("Db", "Table_name", "Column_name");
+		return rows;
+	}
+
+	private Rows query(String sql, List<Object> parameters) throws SQLException {
+		if (sql.equals("SELECT * FROM mysql.user")) {
+			return users();
+		} else if (sql.equals("SELECT * FROM mysql.db ORDER BY Db")) {
+			return databases();
+		} else if (sql.startsWith("SELECT User, Host, Db, Table_name, Table_priv FROM mysql.tables_priv")) {
+			return tables();
+		} else if (sql.startsWith("SELECT User, Host, Db, Table_name, Column_name, Column_priv FROM mysql.columns_priv")) {
+			return columns();
+		} else if (sql.equals("SHOW GRANTS FOR ?@?")) {
+			showGrants.incrementAndGet();
+			for (Account account : accounts) {
+				if (account.user.equals(parameters.get(0)) && account.host.equals(parameters.get(1))) {
+					Rows rows = new Rows("Grants for " + account.user + "@" + account.host);
+					for (String grant : account.shows) {
+						Map<String, Object> row = new HashMap<String, Object>();
+						row.put(rows.columns.get(0), grant);
+						rows.rows.add(row);
+					}
+					return rows;
+				}
+			}
+			throw new SQLException("There is no such grant defined for user '" + parameters.get(0) + "' on host '"
+					+ parameters.get(1) + "'");
+		}
+		throw new SQLException("Unexpected query " + sql);
+	}
+
+	/**
+	 * An account, its privileges and what <code>SHOW GRANTS</code> prints
+	 * for them.
+	 */
+	static class Account {
+		final String user;
+		final String host;
+		final Map<String, Object> global = new HashMap<String, Object>();
+		final List<Map<String, Object>> databases = new ArrayList<Map<String, Object>>();
+		final List<Map<String, Object>> tables = new ArrayList<Map<String, Object>>();
+		final List<Map<String, Object>> columns = new ArrayList<Map<String, Object>>();
+		final List<String> shows = new ArrayList<String>();
+
+		Account(String user, String host) {
+			this.user = user;
+			this.host = host;
+		}
+
+		/**
+		 * Grant global privileges, given as columns of mysql.user.
+		 */
+		Account global(String... privileges) {
+			for (String privilege : privileges) {
+				global.put(privilege, "Y");
+			}
+			return this;
+		}
+
+		/**
+		 * Grant privileges on a database, given as columns of mysql.db.
+		 */
+		Account database(String db, String... privileges) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("Db", db);
+			for (String privilege : privileges) {
+				row.put(privilege, "Y");
+			}
+			databases.add(row);
+			return this;
+		}
+
+		/**
+		 * Grant privileges on a table, given as the Table_priv set.
+		 */
+		Account table(String db, String table, String privileges) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("Db", db);
+			row.put("Table_name", table);
+			row.put("Table_priv", privileges);
+			tables.add(row);
+			return this;
+		}
+
+		/**
+		 * Grant privileges on a column, given as the Column_priv set.
+		 */
+		Account column(String db, String table, String column, String privileges) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("Db", db);
+			row.put("Table_name", table);
+			row.put("Column_name", column);
+			row.put("Column_priv", privileges);
+			columns.add(row);
+			return this;
+		}
+
+		/**
+		 * Set what <code>SHOW GRANTS</code> prints for the account.
+		 */
+		Account shows(String... grants) {
+			shows.addAll(Arrays.asList(grants));
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return "'" + user + "'@'" + host + "'";
+		}
+	}
+
+	/**
+	 * Rows of a table, readable as a result set. Privilege columns that are
+	 * not set read as <code>N</code>.
+	 */
+	static class Rows {
+		final List<String> columns = new ArrayList<String>();
+		final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+
+		Rows(String... columns) {
+			this.columns.addAll(Arrays.asList(columns));
+		}
+
+		void add(String user, String host, Map<String, Object> values) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			for (String column : columns) {
+				if (column.endsWith("_priv") && !column.equals("Table_priv") && !column.equals("Column_priv")) {
+					row.put(column, "N");
+				}
+			}
+			row.putAll(values);
+			row.put("User", user);
+			row.put("Host", host);
+			rows.add(row);
+		}
+
+		void sort(final String... by) {
+			Collections.sort(rows, new Comparator<Map<String, Object>>() {
+				public int compare(Map<String, Object> o1, Map<String, Object> o2) {
+					for (String column : by) {
+						int c = ((String) o1.get(column)).compareTo((String) o2.get(column));
+						if (c != 0) {
+							return c;
+						}
+					}
+					return 0;
+				}
+			});
+		}
+
+		ResultSet resultSet() {
+			return proxy(ResultSet.class, new FakeResultSet(this));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(FakeMySQL.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == Boolean.TYPE) {
+			return Boolean.FALSE;
+		} else if (type == Integer.TYPE) {
+			return 0;
+		} else if (type.isPrimitive() && type != Void.TYPE) {
+			throw new UnsupportedOperationException("Unexpected primitive " + type);
+		}
+		return null;
+	}
+
+	private abstract static class Handler implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			} else if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (method.getName().equals("toString")) {
+				return getClass().getSimpleName();
+			}
+			return handle(method.getName(), args == null ? new Object[0] : args, method.getReturnType());
+		}
+
+		abstract Object handle(String name, Object[] args, Class<?> returnType) throws Exception;
+	}
+
+	private class FakeConnection extends Handler {
+		private boolean closed;
+
+		@Override
+		Object handle(String name, Object[] args, Class<?> returnType) throws Exception {
+			if (name.equals("isClosed")) {
+				return closed;
+			} else if (name.equals("close")) {
+				closed = true;
+				return null;
+			} else if (name.equals("prepareStatement")) {
+				return proxy(PreparedStatement.class, new FakeStatement((String) args[0]));
+			}
+			return defaultValue(returnType);
+		}
+	}
+
+	private class FakeStatement extends Handler {
+		private final String sql;
+		private final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+
+		FakeStatement(String sql) {
+			this.sql = sql;
+		}
+
+		@Override
+		Object handle(String name, Object[] args, Class<?> returnType) throws Exception {
+			if (name.equals("setObject") || name.equals("setString")) {
+				parameters.put((Integer) args[0], args[1]);
+				return null;
+			} else if (name.equals("clearParameters")) {
+				parameters.clear();
+				return null;
+			} else if (name.equals("executeQuery")) {
+				List<Object> values = new ArrayList<Object>();
+				for (int i = 1; i <= parameters.size(); i++) {
+					values.add(parameters.get(i));
+				}
+				return query(sql, values).resultSet();
+			}
+			return defaultValue(returnType);
+		}
+	}
+
+	private static class FakeResultSet extends Handler {
+		private final Rows rows;
+		private int row = -1;
+
+		FakeResultSet(Rows rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		Object handle(String name, Object[] args, Class<?> returnType) throws Exception {
+			if (name.equals("next")) {
+				row = Math.min(row + 1, rows.rows.size());
+				return row < rows.rows.size();
+			} else if (name.equals("getMetaData")) {
+				return proxy(ResultSetMetaData.class, new Handler() {
+					@Override
+					Object handle(String name, Object[] args, Class<?> returnType) throws Exception {
+						if (name.equals("getColumnCount")) {
+							return rows.columns.size();
+						} else if (name.equals("getColumnLabel") || name.equals("getColumnName")) {
+							return rows.columns.get((Integer) args[0] - 1);
+						}
+						return defaultValue(returnType);
+					}
+				});
+			} else if (name.equals("getString")) {
+				if (row < 0 || row >= rows.rows.size()) {
+					throw new SQLException("No current row.");
+				}
+				String column = args[0] instanceof Integer ? rows.columns.get((Integer) args[0] - 1) : (String) args[0];
+				Object value = rows.rows.get(row).get(column);
+				return value == null ? null : value.toString();
+			}
+			return defaultValue(returnType);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.identity4j.connector.mysql.users;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.identity4j.connector.mysql.users.FakeMySQL.Account;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.util.StringUtil;
+
+public class GrantHarvesterTest {
+
+	// Each account as held in the privilege tables, and as SHOW GRANTS prints it on MySQL 5.x
+	private static final Account[] ACCOUNTS = {
+			new Account("app", "%").database("shop", "Select_priv", "Insert_priv").shows(
+					"GRANT USAGE ON *.* TO 'app'@'%' IDENTIFIED BY PASSWORD '*6BB4837EB74329105EE4568DDA7DC67ED2CA2AD9'",
+					"GRANT SELECT, INSERT ON `shop`.* TO 'app'@'%'"),
+			new Account("root", "localhost").global("Select_priv", "Insert_priv", "Update_priv", "Delete_priv", "Grant_priv")
+					.shows("GRANT ALL PRIVILEGES ON *.* TO 'root'@'localhost' WITH GRANT OPTION"),
+			new Account("audit", "localhost").global("Select_priv", "Update_priv")
+					.shows("GRANT SELECT, UPDATE ON *.* TO 'audit'@'localhost'"),
+			new Account("lead", "10.0.%").database("shop", "Select_priv", "Grant_priv").shows(
+					"GRANT USAGE ON *.* TO 'lead'@'10.0.%'",
+					"GRANT SELECT ON `shop`.* TO 'lead'@'10.0.%' WITH GRANT OPTION"),
+			new Account("report", "%").database("tenant\\_%", "Select_priv").database("log%", "Select_priv", "Insert_priv")
+					.shows("GRANT USAGE ON *.* TO 'report'@'%'",
+							"GRANT SELECT, INSERT ON `log%`.* TO 'report'@'%'",
+							"GRANT SELECT ON `tenant\\_%`.* TO 'report'@'%'"),
+			new Account("odd", "%").database("odd`name", "Select_priv").table("odd`name", "my table", "Select,Update")
+					.shows("GRANT USAGE ON *.* TO 'odd'@'%'",
+							"GRANT SELECT ON `odd``name`.* TO 'odd'@'%'",
+							"GRANT SELECT, UPDATE ON `odd``name`.`my table` TO 'odd'@'%'"),
+			new Account("clerk", "localhost").table("shop", "orders", "Select").column("shop", "orders", "status", "Update")
+					.column("shop", "customers", "email", "Select,Update").column("shop", "customers", "id", "Select")
+					.shows("GRANT USAGE ON *.* TO 'clerk'@'localhost'",
+							"GRANT SELECT (email, id), UPDATE (email) ON `shop`.`customers` TO 'clerk'@'localhost'",
+							"GRANT SELECT, UPDATE (status) ON `shop`.`orders` TO 'clerk'@'localhost'"),
+			new Account("owner", "localhost")
+					.table("shop", "orders",
+							"Select,Insert,Update,Delete,Create,Drop,References,Index,Alter,Create View,Show view,Trigger")
+					.shows("GRANT USAGE ON *.* TO 'owner'@'localhost'",
+							"GRANT ALL PRIVILEGES ON `shop`.`orders` TO 'owner'@'localhost'") };
+
+	@Test
+	public void itShouldHarvestWhatShowGrantsPrints() throws Exception {
+		FakeMySQL mysql = new FakeMySQL(ACCOUNTS);
+		GrantHarvester harvester = new GrantHarvester();
+		harvester.readGlobal(mysql.users().resultSet());
+		harvester.readDatabases(mysql.databases().resultSet());
+		harvester.readTables(mysql.tables().resultSet());
+		harvester.readColumns(mysql.columns().resultSet());
+		for (Account account : ACCOUNTS) {
+			Assert.assertEquals(account.toString(), lines(MySQLUsersConnector.parseGrants(account.shows)),
+					lines(harvester.getGrants(account.user, account.host)));
+		}
+	}
+
+	@Test
+	public void itShouldStripWhatIsNotPartOfTheGrant() {
+		Assert.assertEquals(
+				"ALL PRIVILEGES ON *.*" + MySqlUsersConstants.NEW_LINE + "SELECT ON `shop`.*" + MySqlUsersConstants.NEW_LINE,
+				MySQLUsersConnector.parseGrants(Arrays.asList(
+						"GRANT ALL PRIVILEGES ON *.* TO 'root'@'localhost' IDENTIFIED BY PASSWORD '*81F5E21E35407D884A6CD4A731AEBFB6AF209E1B' WITH GRANT OPTION",
+						"grant SELECT ON `shop`.* TO 'root'@'localhost'")));
+	}
+
+	@Test
+	public void itShouldListTheSameGrantsWhenHarvesting() throws Exception {
+		FakeMySQL mysql = new FakeMySQL(ACCOUNTS);
+		Map<String, Set<String>> perUser = grants(mysql, false);
+		Assert.assertEquals(ACCOUNTS.length, mysql.showGrants.get());
+
+		mysql.showGrants.set(0);
+		Map<String, Set<String>> harvested = grants(mysql, true);
+		Assert.assertEquals(0, mysql.showGrants.get());
+
+		Assert.assertEquals(ACCOUNTS.length, perUser.size());
+		Assert.assertEquals(perUser, harvested);
+	}
+
+	private static Map<String, Set<String>> grants(FakeMySQL mysql, boolean harvest) {
+		MySQLUsersConnector connector = mysql.open(MySQLUsersConfiguration.SQL_GRANT_HARVEST, String.valueOf(harvest));
+		try {
+			Map<String, Set<String>> grants = new HashMap<String, Set<String>>();
+			for (Iterator<Identity> it = connector.allIdentities(); it.hasNext();) {
+				Identity identity = it.next();
+				grants.put(identity.getPrincipalName(), lines(identity.getAttribute(MySqlUsersConstants.USER_ACCESS)));
+			}
+			return grants;
+		} finally {
+			connector.close();
+		}
+	}
+
+	// SHOW GRANTS lists database and table grants in no particular order
+	private static Set<String> lines(String grants) {
+		return new HashSet<String>(StringUtil.toList(grants, MySqlUsersConstants.NEW_LINE));
+	}
+}
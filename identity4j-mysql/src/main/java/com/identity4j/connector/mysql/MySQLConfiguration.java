@@ -35,4 +35,13 @@ public class MySQLConfiguration extends JDBCConfiguration {
 		return buf.toString();
 	}
 
+	/**
+	 * MySQL only streams results row by row with a fetch size of
+	 * {@link Integer#MIN_VALUE}, any other value reads the whole result.
+	 */
+	@Override
+	protected int getDefaultFetchSize() {
+		return Integer.MIN_VALUE;
+	}
+
 }
@@ -40,6 +40,8 @@ public class Office365Configuration extends AbstractConnectorConfiguration{
 	 * Other
 	 */
 	public static final String OFFICE365_REQUEST_SIZE_LIMIT = "office365RequestSizeLimit";
+	public static final String OFFICE365_REQUESTS_PER_SECOND = "office365RequestsPerSecond";
+	public static final String OFFICE365_REQUEST_BURST = "office365RequestBurst";
 	
 	/**
 	 * Property for role having delete rights
@@ -201,6 +203,21 @@ public class Office365Configuration extends AbstractConnectorConfiguration{
 		return configurationParameters.getIntegerOrDefault(OFFICE365_REQUEST_SIZE_LIMIT, 500);
 	}	
 	
+	/**
+	 * @return steady rate of Graph requests, zero for no limit, the default is no limit. Throttled
+	 *         requests are retried either way
+	 */
+	public int getRequestsPerSecond() {
+		return configurationParameters.getIntegerOrDefault(OFFICE365_REQUESTS_PER_SECOND, 0);
+	}
+	
+	/**
+	 * @return number of Graph requests that may be made at once after being idle, the default is 20
+	 */
+	public int getRequestBurst() {
+		return configurationParameters.getIntegerOrDefault(OFFICE365_REQUEST_BURST, 20);
+	}
+	
 	/**
 	 * Set a list of groups to which users must be belong to at least one of to be included in the search. 
 	 * If not specified, all groups are included.
@@ -1,11 +1,13 @@
 package com.identity4j.connector.office365;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -16,6 +18,7 @@ import org.apache.commons.logging.LogFactory;
 import com.identity4j.connector.AbstractConnector;
 import com.identity4j.connector.ConnectorCapability;
 import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.Projection;
 import com.identity4j.connector.WebAuthenticationAPI;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
@@ -23,11 +26,12 @@ import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.office365.entity.Group;
 import com.identity4j.connector.office365.entity.Groups;
 import com.identity4j.connector.office365.entity.User;
-import com.identity4j.connector.office365.entity.Users;
 import com.identity4j.connector.office365.services.Directory;
+import com.identity4j.connector.office365.services.UserService;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.util.CollectionUtil;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.passwords.PasswordCharacteristics;
 
 /**
@@ -59,7 +63,7 @@ import com.identity4j.util.passwords.PasswordCharacteristics;
  */
 public class Office365Connector extends AbstractConnector {
 
-	private final class FilterIterator implements Iterator<Identity> {
+	private final class FilterIterator implements Iterator<Identity>, Closeable {
 		private Identity current;
 		private Iterator<Identity> source;
 
@@ -85,6 +89,11 @@ public class Office365Connector extends AbstractConnector {
 			}
 		}
 
+		@Override
+		public void close() {
+			closeIterator(source);
+		}
+
 		private void checkNext() {
 			if (current == null) {
 				while (true) {
@@ -142,17 +151,52 @@ public class Office365Connector extends AbstractConnector {
 		}
 	}
 
-	private final class IdentityIterator implements Iterator<Identity> {
-		private Users users;
+	private final class IdentityIterator implements Iterator<Identity>, Closeable {
+		private final String select;
+		private final boolean withRoles;
+		private JsonArrayIterator<User> users;
+		private Iterator<User> probed;
 		private String nextLink;
-		private Iterator<User> inner;
-		private User current;
 		private boolean eof;
 
+		IdentityIterator() {
+			this(null, false);
+		}
+
+		IdentityIterator(String select, boolean withRoles) {
+			this.select = select;
+			this.withRoles = withRoles;
+		}
+
 		@Override
 		public boolean hasNext() {
-			checkNext();
-			return current != null;
+			if (probed != null && probed.hasNext()) {
+				return true;
+			}
+			while (!eof) {
+				if (users == null) {
+					// Get the next batch, users are mapped as they are read
+					users = directory.users().stream(nextLink, select);
+				}
+				if (users.hasNext()) {
+					if (withRoles) {
+						// Find the groups of the next few users together
+						List<User> next = new ArrayList<User>();
+						while (next.size() < ROLE_PROBE_SIZE && users.hasNext()) {
+							next.add(users.next());
+						}
+						directory.users().probeGroupsAndRoles(next);
+						probed = next.iterator();
+					}
+					return true;
+				}
+
+				// Finished batch
+				nextLink = users.getProperty(UserService.NEXT_LINK);
+				users = null;
+				eof = nextLink == null;
+			}
+			return false;
 		}
 
 		@Override
@@ -162,53 +206,30 @@ public class Office365Connector extends AbstractConnector {
 
 		@Override
 		public Identity next() {
-			checkNext();
-			if (current == null)
+			if (!hasNext())
 				throw new NoSuchElementException();
-			try {
-				return Office365ModelConvertor.convertOffice365UserToOfficeIdentity(current);
-			} finally {
-				current = null;
-			}
+			return Office365ModelConvertor.convertOffice365UserToOfficeIdentity(withRoles ? probed.next() : users.next());
 		}
 
-		private void checkNext() {
-			if (current != null)
-				// Already have an unconsumed user
-				return;
-
-			while (!eof) {
-				while (!eof) {
-					if (users == null) {
-						// Get the next batch
-						users = directory.users().all(nextLink);
-						nextLink = users.getNextLink();
-						eof = nextLink == null;
-						inner = users.getUsers().iterator();
-					}
-
-					if (inner.hasNext()) {
-						break;
-					}
-
-					// Finished inner iterator,
-					users = null;
-					inner = null;
-
-					if (nextLink == null) {
-						// No more
-						break;
-					}
-				}
-
-				if (inner != null && inner.hasNext())
-					current = inner.next();
-
+		@Override
+		public void close() {
+			// Release the connection of a page that was not read to the end
+			if (users != null) {
+				users.close();
+				users = null;
 			}
-
+			probed = null;
+			eof = true;
 		}
 	}
 
+	/**
+	 * Number of users whose groups are found together when listing identities with
+	 * their roles, which is the number of <code>$batch</code> requests made at once
+	 * multiplied by the queries in each.
+	 */
+	private static final int ROLE_PROBE_SIZE = 50;
+
 	private Office365Configuration configuration;
 	private Directory directory;
 	private static final Log log = LogFactory.getLog(Office365Connector.class);
@@ -240,6 +261,14 @@ public class Office365Connector extends AbstractConnector {
 		return directory != null;
 	}
 
+	@Override
+	protected void onClose() {
+		if (directory != null) {
+			directory.close();
+			directory = null;
+		}
+	}
+
 	/**
 	 * Check to see connector if in read only mode
 	 */
@@ -421,7 +450,20 @@ public class Office365Connector extends AbstractConnector {
 	 */
 	@Override
 	public Iterator<Identity> allIdentities() throws ConnectorException {
-		return isGroupFilterInUse() ? new FilterIterator(new IdentityIterator()) : new IdentityIterator();
+		return isGroupFilterInUse() ? new FilterIterator(new IdentityIterator(null, true)) : new IdentityIterator();
+	}
+
+	/**
+	 * Lists all identities, only requesting the user properties required by
+	 * the projection using <code>$select</code>. When a group filter is in use
+	 * all properties are retrieved, as the filter needs them.
+	 */
+	@Override
+	public Iterator<Identity> allIdentities(Projection projection) throws ConnectorException {
+		if (projection.isAll() || isGroupFilterInUse()) {
+			return allIdentities();
+		}
+		return new IdentityIterator(getSelect(projection), false);
 	}
 
 	/**
@@ -696,58 +738,22 @@ public class Office365Connector extends AbstractConnector {
 			Collection<Role> rolesToRemove = CollectionUtil.objectsNotPresentInProbeCollection(rolesCurrentlyAssigned,
 					rolesToBeAssigned);
 
+			// Additions and removals are made together in batches
+			List<String> groupsToAdd = new ArrayList<String>();
 			for (Role role : newRolesToAdd) {
-				addRoleToUser(role.getGuid(), identity.getGuid());
+				groupsToAdd.add(role.getGuid());
 			}
-
+			List<String> groupsToRemove = new ArrayList<String>();
 			for (Role role : rolesToRemove) {
-				removeRoleFromUser(role.getGuid(), identity.getGuid());
+				groupsToRemove.add(role.getGuid());
 			}
+			directory.groups().updateUserGroups(identity.getGuid(), groupsToAdd, groupsToRemove);
 		} catch (Exception e) {
 			log.error("Problem in adjusting roles " + e.getMessage(), e);
 			throw new ConnectorException(e.getMessage(), e);
 		}
 	}
 
-	/**
-	 * Removes a Role(Group) from an identity. <br/>
-	 * <b>Refer groups by guid as all operations on groups are performed using
-	 * only guid.</b> <br/>
-	 * Please refer
-	 * <a href="http://msdn.microsoft.com/en-us/library/dn151610.aspx">Groups
-	 * </a>.
-	 * </p>
-	 * 
-	 * @param roleName
-	 * @param principal
-	 * 
-	 * @throws ConnectorException
-	 *             for api, connection related errors.
-	 */
-	private void removeRoleFromUser(String guidRole, String guidUser) {
-		directory.groups().removeUserFromGroup(guidUser, guidRole);
-
-	}
-
-	/**
-	 * Adds a Role(Group) to an identity. <br/>
-	 * <b>Refer groups by guid as all operations on groups are performed using
-	 * only guid.</b> <br/>
-	 * Please refer
-	 * <a href="http://msdn.microsoft.com/en-us/library/dn151610.aspx">Groups
-	 * </a>.
-	 * </p>
-	 * 
-	 * @param roleName
-	 * @param principal
-	 * 
-	 * @throws ConnectorException
-	 *             for api, connection related errors.
-	 */
-	private void addRoleToUser(String guidRole, String guidUser) {
-		directory.groups().addUserToGroup(guidUser, guidRole);
-	}
-
 	/**
 	 * Helper utility method which checks the presence of a Role in list of
 	 * Roles
@@ -767,6 +773,34 @@ public class Office365Connector extends AbstractConnector {
 		return false;
 	}
 
+	private String getSelect(Projection projection) {
+		Set<String> properties = new LinkedHashSet<String>();
+		properties.add("objectId");
+		properties.add("userPrincipalName");
+		for (String attr : projection.getAttributes()) {
+			if (attr.equalsIgnoreCase(Projection.FULL_NAME)) {
+				properties.add("displayName");
+			} else if (attr.equalsIgnoreCase(Projection.EMAIL)) {
+				properties.add("mail");
+			} else if (attr.equalsIgnoreCase(Projection.MOBILE)) {
+				properties.add("mobile");
+			} else if (attr.equalsIgnoreCase(Projection.ACCOUNT_STATUS)) {
+				properties.add("accountEnabled");
+			} else if (!attr.equalsIgnoreCase(Projection.OTHER_NAME) && !attr.equalsIgnoreCase(Projection.ROLES)
+					&& !attr.equalsIgnoreCase(Projection.PASSWORD_STATUS) && !attr.equalsIgnoreCase(Projection.LAST_SIGN_ON)) {
+				properties.add(attr);
+			}
+		}
+		StringBuilder select = new StringBuilder();
+		for (String property : properties) {
+			if (select.length() > 0) {
+				select.append(',');
+			}
+			select.append(property);
+		}
+		return select.toString();
+	}
+
 	private boolean isGroupFilterInUse() {
 		return !configuration.getIncludedGroups().isEmpty() || !configuration.getIncludedGroups().isEmpty();
 	}
@@ -1,8 +1,12 @@
 package com.identity4j.connector.office365.services;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.apache.http.client.methods.HttpRequestBase;
 
@@ -46,14 +50,23 @@ public abstract class AbstractRestAPIService {
 	 * @param request
 	 */
 	protected void setAuthHeaders(HttpRequestBase request) {
-		if(token.willExpireIn(2)){
-			try {
-				TokenHolder.refreshToken(token, office365Configuration);
-			} catch (IOException e) {
-				throw new ConnectorException("Problem in getting new token.",e);
+		String bearerAccessToken;
+		/*
+		 * Requests run concurrently and the token is shared and updated in
+		 * place, so only one of them may refresh it, and none may read it
+		 * while it is half updated
+		 */
+		synchronized (token) {
+			if(token.willExpireIn(2)){
+				try {
+					TokenHolder.refreshToken(token, office365Configuration);
+				} catch (IOException e) {
+					throw new ConnectorException("Problem in getting new token.",e);
+				}
 			}
+			bearerAccessToken = token.getBearerAccessToken();
 		}
-		request.setHeader(Office365Configuration.AUTHORIZATION_HEADER,	token.getBearerAccessToken());
+		request.setHeader(Office365Configuration.AUTHORIZATION_HEADER,	bearerAccessToken);
 	}
 
 	/**
@@ -71,6 +84,46 @@ public abstract class AbstractRestAPIService {
 		}
 	}
 	
+	/**
+	 * Utility function to make several requests with as few <code>$batch</code> requests as
+	 * possible. The batches themselves are made concurrently.
+	 * @param operations operations
+	 * @return responses to each operation, in the same order
+	 */
+	protected List<HttpResponse> batch(List<BatchRequest.Operation> operations) {
+		List<Callable<List<HttpResponse>>> calls = new ArrayList<Callable<List<HttpResponse>>>();
+		BatchRequest batch = null;
+		for (BatchRequest.Operation operation : operations) {
+			if (batch == null || !batch.add(operation)) {
+				batch = new BatchRequest();
+				batch.add(operation);
+				final BatchRequest request = batch;
+				calls.add(new Callable<List<HttpResponse>>() {
+					@Override
+					public List<HttpResponse> call() {
+						return postBatch(request);
+					}
+				});
+			}
+		}
+		List<HttpResponse> responses = new ArrayList<HttpResponse>(operations.size());
+		for (List<HttpResponse> batchResponses : httpRequestHandler.invokeAll(calls)) {
+			responses.addAll(batchResponses);
+		}
+		return responses;
+	}
+	
+	private List<HttpResponse> postBatch(final BatchRequest batch) {
+		HttpResponse response = httpRequestHandler.handleRequestPost(constructURI("/$batch", null), batch.getBody(), new HTTPHook() {
+			@Override
+			public void apply(HttpRequestBase httpRequestBase) {
+				setAuthHeaders(httpRequestBase);
+				httpRequestBase.setHeader(Office365Configuration.CONTENT_TYPE, batch.getContentType());
+			}
+		});
+		return batch.parse(response);
+	}
+	
 	/**
 	 * Utility function to construct error object from response error JSON.
 	 * @param httpResponse
@@ -79,4 +132,20 @@ public abstract class AbstractRestAPIService {
 		AppErrorMessage appErrorMessage = JsonMapperService.getInstance().getObject(AppErrorMessage.class, httpResponse.getData().toString().replaceAll("odata.error", "error"));
 		throw new ConnectorException(appErrorMessage.getError().getCode() + ":" + appErrorMessage.getError().getMessage().getValue());
 	}
+
+	/**
+	 * Utility function to get the body of a streamed response, constructing error
+	 * object from response error JSON if the request failed.
+	 * @param httpResponse
+	 * @return body stream, which must be closed
+	 */
+	protected InputStream getStream(HttpResponse httpResponse) {
+		if(httpResponse.getData() instanceof InputStream) {
+			return (InputStream) httpResponse.getData();
+		}
+		if(httpResponse.getData() != null) {
+			throwAppException(httpResponse);
+		}
+		throw new ConnectorException("Request failed with status " + httpResponse.getHttpStatusCodes().getStatusCode() + ". " + httpResponse.getHttpStatusCodes().getResonPhrase());
+	}
 }
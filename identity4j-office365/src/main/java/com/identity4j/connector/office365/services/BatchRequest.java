@@ -0,0 +1,294 @@
+package com.identity4j.connector.office365.services;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.office365.Office365Configuration;
+import com.identity4j.util.http.response.HttpResponse;
+
+/**
+ * Packs several Graph API requests into one OData <code>$batch</code> request,
+ * and splits its multipart response back into one response per request.
+ * <br />
+ * A batch holds at most {@link #MAX_PARTS} parts, each either a query or a
+ * change set. Consecutive link operations on the same source object, e.g.
+ * adding members to one group, share a change set of at most
+ * {@link #MAX_CHANGE_SET_SIZE} operations. A change set is atomic, so if it
+ * fails every operation in it is given the same error response.
+ *
+ * @see <a href="https://msdn.microsoft.com/en-us/library/azure/ad/graph/howto/azure-ad-graph-api-batch-processing">Batch processing</a>
+ */
+class BatchRequest {
+
+	/**
+	 * Maximum number of queries and change sets in one batch.
+	 */
+	static final int MAX_PARTS = 5;
+
+	/**
+	 * Maximum number of operations in one change set.
+	 */
+	static final int MAX_CHANGE_SET_SIZE = 20;
+
+	private static final String CRLF = "\r\n";
+	private static final String MULTIPART_MIXED = "multipart/mixed";
+
+	private final String boundary = "batch_" + UUID.randomUUID();
+	private final List<List<Operation>> parts = new ArrayList<List<Operation>>();
+	private int size;
+
+	/**
+	 * Add an operation to the batch.
+	 *
+	 * @param operation operation
+	 * @return <code>false</code> if the batch is full
+	 */
+	boolean add(Operation operation) {
+		if (operation.source != null && !parts.isEmpty()) {
+			List<Operation> last = parts.get(parts.size() - 1);
+			if (operation.source.equals(last.get(0).source) && last.size() < MAX_CHANGE_SET_SIZE) {
+				last.add(operation);
+				size++;
+				return true;
+			}
+		}
+		if (parts.size() >= MAX_PARTS) {
+			return false;
+		}
+		List<Operation> part = new ArrayList<Operation>();
+		part.add(operation);
+		parts.add(part);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Get the number of operations in the batch.
+	 *
+	 * @return size
+	 */
+	int size() {
+		return size;
+	}
+
+	String getContentType() {
+		return MULTIPART_MIXED + "; boundary=" + boundary;
+	}
+
+	String getBody() {
+		StringBuilder buf = new StringBuilder();
+		for (List<Operation> part : parts) {
+			buf.append("--").append(boundary).append(CRLF);
+			Operation first = part.get(0);
+			if (first.isQuery()) {
+				appendOperation(buf, first);
+			} else {
+				String changeSet = "changeset_" + UUID.randomUUID();
+				buf.append(Office365Configuration.CONTENT_TYPE).append(": ").append(MULTIPART_MIXED)
+						.append("; boundary=").append(changeSet).append(CRLF);
+				buf.append(CRLF);
+				for (Operation operation : part) {
+					buf.append("--").append(changeSet).append(CRLF);
+					appendOperation(buf, operation);
+				}
+				buf.append("--").append(changeSet).append("--").append(CRLF);
+			}
+		}
+		buf.append("--").append(boundary).append("--").append(CRLF);
+		return buf.toString();
+	}
+
+	/**
+	 * Split the response to the batch into the responses to each operation, in
+	 * the order they were added.
+	 *
+	 * @param response batch response
+	 * @return operation responses
+	 * @throws ConnectorException if the batch as a whole failed
+	 */
+	List<HttpResponse> parse(HttpResponse response) {
+		int status = response.getHttpStatusCodes().getStatusCode().intValue();
+		String contentType = response.getHeader(Office365Configuration.CONTENT_TYPE);
+		if (status / 100 != 2 || contentType == null || !contentType.startsWith(MULTIPART_MIXED)
+				|| response.getData() == null) {
+			throw new ConnectorException("Problem in batch request as status code is " + status + " : "
+					+ response.getData());
+		}
+		List<String> responseParts = split(response.getData().toString().replace(CRLF, "\n"), getBoundary(contentType));
+		if (responseParts.size() != parts.size()) {
+			throw new ConnectorException("Batch response has " + responseParts.size() + " parts, expected "
+					+ parts.size() + ".");
+		}
+		List<HttpResponse> responses = new ArrayList<HttpResponse>(size);
+		for (int i = 0; i < parts.size(); i++) {
+			List<Operation> part = parts.get(i);
+			List<HttpResponse> partResponses = new ArrayList<HttpResponse>();
+			readPart(responseParts.get(i), partResponses);
+			if (partResponses.size() == part.size()) {
+				responses.addAll(partResponses);
+			} else if (partResponses.size() == 1) {
+				// A failed change set has a single response for all of its operations
+				for (int j = 0; j < part.size(); j++) {
+					responses.add(partResponses.get(0));
+				}
+			} else {
+				throw new ConnectorException("Batch response part " + i + " has " + partResponses.size()
+						+ " responses, expected " + part.size() + ".");
+			}
+		}
+		return responses;
+	}
+
+	private static void appendOperation(StringBuilder buf, Operation operation) {
+		buf.append(Office365Configuration.CONTENT_TYPE).append(": application/http").append(CRLF);
+		buf.append("Content-Transfer-Encoding: binary").append(CRLF);
+		buf.append(CRLF);
+		buf.append(operation.method).append(' ').append(operation.uri.toASCIIString()).append(" HTTP/1.1").append(CRLF);
+		if (operation.body == null) {
+			buf.append("Accept: ").append(Office365Configuration.contentTypeJSON).append(CRLF);
+			buf.append(CRLF);
+		} else {
+			buf.append(Office365Configuration.CONTENT_TYPE).append(": ").append(Office365Configuration.contentTypeJSON)
+					.append(CRLF);
+			buf.append(CRLF);
+			buf.append(operation.body).append(CRLF);
+		}
+	}
+
+	private static void readPart(String part, List<HttpResponse> responses) {
+		String[] headersAndContent = splitHeaders(part);
+		String contentType = getHeader(headersAndContent[0], Office365Configuration.CONTENT_TYPE);
+		if (contentType != null && contentType.startsWith(MULTIPART_MIXED)) {
+			for (String inner : split(headersAndContent[1], getBoundary(contentType))) {
+				readPart(inner, responses);
+			}
+			return;
+		}
+
+		// An embedded HTTP response, status line, headers then body
+		String[] statusAndRest = headersAndContent[1].split("\n", 2);
+		String[] statusLine = statusAndRest[0].trim().split(" ", 3);
+		String[] httpHeadersAndBody = splitHeaders(statusAndRest.length > 1 ? statusAndRest[1] : "");
+		HttpResponse response = new HttpResponse();
+		response.getHttpStatusCodes().setProtocolVersion(statusLine[0]);
+		response.getHttpStatusCodes().setStatusCode(Integer.valueOf(statusLine[1]));
+		response.getHttpStatusCodes().setResonPhrase(statusLine.length > 2 ? statusLine[2] : null);
+		for (String line : httpHeadersAndBody[0].split("\n")) {
+			int idx = line.indexOf(':');
+			if (idx != -1) {
+				response.setHeader(line.substring(0, idx).trim(), line.substring(idx + 1).trim());
+			}
+		}
+		String body = httpHeadersAndBody[1].trim();
+		if (body.length() > 0) {
+			response.setData(body);
+		}
+		responses.add(response);
+	}
+
+	private static List<String> split(String content, String boundary) {
+		List<String> parts = new ArrayList<String>();
+		String delimiter = "--" + boundary;
+		int idx = content.indexOf(delimiter);
+		while (idx != -1) {
+			int start = idx + delimiter.length();
+			if (content.startsWith("--", start)) {
+				// Closing delimiter
+				break;
+			}
+			int end = content.indexOf(delimiter, start);
+			if (end == -1) {
+				break;
+			}
+			parts.add(content.substring(start, end));
+			idx = end;
+		}
+		return parts;
+	}
+
+	private static String[] splitHeaders(String part) {
+		// Skip the line break that follows a boundary
+		int start = 0;
+		while (start < part.length() && (part.charAt(start) == '\n' || part.charAt(start) == ' ')) {
+			start++;
+		}
+		part = part.substring(start);
+		int idx = part.indexOf("\n\n");
+		if (idx == -1) {
+			return new String[] { part, "" };
+		}
+		return new String[] { part.substring(0, idx), part.substring(idx + 2) };
+	}
+
+	private static String getHeader(String headers, String name) {
+		for (String line : headers.split("\n")) {
+			int idx = line.indexOf(':');
+			if (idx != -1 && line.substring(0, idx).trim().equalsIgnoreCase(name)) {
+				return line.substring(idx + 1).trim();
+			}
+		}
+		return null;
+	}
+
+	private static String getBoundary(String contentType) {
+		for (String parameter : contentType.split(";")) {
+			parameter = parameter.trim();
+			if (parameter.toLowerCase().startsWith("boundary=")) {
+				String boundary = parameter.substring(9);
+				if (boundary.startsWith("\"") && boundary.endsWith("\"") && boundary.length() > 1) {
+					boundary = boundary.substring(1, boundary.length() - 1);
+				}
+				return boundary;
+			}
+		}
+		throw new ConnectorException("No boundary in " + contentType + ".");
+	}
+
+	/**
+	 * A request to be made as part of a batch.
+	 */
+	static class Operation {
+		final String method;
+		final URI uri;
+		final String source;
+		final String body;
+
+		private Operation(String method, URI uri, String source, String body) {
+			this.method = method;
+			this.uri = uri;
+			this.source = source;
+			this.body = body;
+		}
+
+		/**
+		 * Create a query.
+		 *
+		 * @param uri uri
+		 * @return operation
+		 */
+		static Operation query(URI uri) {
+			return new Operation("GET", uri, null, null);
+		}
+
+		/**
+		 * Create a modification. Those of the same source object may share a
+		 * change set.
+		 *
+		 * @param method HTTP method
+		 * @param uri uri
+		 * @param source object id of the object being modified
+		 * @param body json body or <code>null</code>
+		 * @return operation
+		 */
+		static Operation change(String method, URI uri, String source, String body) {
+			return new Operation(method, uri, source, body);
+		}
+
+		boolean isQuery() {
+			return source == null;
+		}
+	}
+}
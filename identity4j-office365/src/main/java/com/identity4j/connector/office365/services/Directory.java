@@ -1,9 +1,13 @@
 package com.identity4j.connector.office365.services;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import com.identity4j.connector.office365.Office365Configuration;
 import com.identity4j.connector.office365.services.token.handler.ADToken;
+import com.identity4j.util.RateLimiter;
 import com.identity4j.util.http.request.HttpRequestHandler;
 
 /**
@@ -26,12 +30,46 @@ public class Directory {
 	 * @throws IOException
 	 */
 	public void init(Office365Configuration configuration) throws IOException{
+		close();
 		httpRequestHandler = new HttpRequestHandler();
+		httpRequestHandler.setRateLimiter(new RateLimiter(configuration.getRequestsPerSecond(), configuration.getRequestBurst()));
 		ADToken token = TokenHolder.refreshToken(null, configuration);
 		userServices = new UserService(token, httpRequestHandler,configuration);
 		groupService = new GroupService(token, httpRequestHandler, configuration);
 	}
 
+	/**
+	 * Closes the pooled connections and stops the request threads of the
+	 * REST API services.
+	 */
+	public void close() {
+		if (httpRequestHandler != null) {
+			httpRequestHandler.close();
+			httpRequestHandler = null;
+		}
+	}
+
+	/**
+	 * Get the rate limiter shared by all REST API services, which also
+	 * records how long requests were throttled.
+	 * 
+	 * @return rate limiter
+	 */
+	public RateLimiter getRateLimiter() {
+		return httpRequestHandler.getRateLimiter();
+	}
+
+	/**
+	 * Run independent REST calls concurrently over the pooled connections,
+	 * waiting for all of them to finish.
+	 * 
+	 * @param calls calls
+	 * @return results in the same order as the calls
+	 */
+	public <T> List<T> invokeAll(Collection<? extends Callable<T>> calls) {
+		return httpRequestHandler.invokeAll(calls);
+	}
+
 	public UserService users() {
 		return userServices;
 	}
@@ -1,6 +1,11 @@
 package com.identity4j.connector.office365.services;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import com.identity4j.connector.PrincipalType;
 import com.identity4j.connector.exception.ConnectorException;
@@ -153,14 +158,123 @@ public class GroupService extends AbstractRestAPIService{
 	 * @throws ConnectorException for service related exception.
 	 */
 	public void addUserToGroup(String userOjectId,String groupObjectId){
+		HttpResponse response = httpRequestHandler.handleRequestPost(
+				addUserToGroupURI(groupObjectId), addUserToGroupData(userOjectId), HEADER_HTTP_HOOK);
+		checkAddUserToGroup(response, userOjectId, groupObjectId);
+	}
+	
+	/**
+	 * Removes user from group.
+	 * 
+	 * @param groupObjectId
+	 * @param userObjectId
+	 * @throws PrincipalNotFoundException if the group by object id not found in active directory.
+	 * @throws ConnectorException for service related exception.
+	 */
+	public void removeUserFromGroup(String userObjectId,String groupObjectId){
+		HttpResponse response = httpRequestHandler.handleRequestDelete(
+				removeUserFromGroupURI(userObjectId, groupObjectId), HEADER_HTTP_HOOK);
+		checkRemoveUserFromGroup(response);
+	}
+	
+	/**
+	 * Adds many users to a group, up to {@link BatchRequest#MAX_CHANGE_SET_SIZE} in
+	 * each change set of a <code>$batch</code> request.
+	 * <br />
+	 * Change sets are atomic, so if adding any one user fails, none of the users
+	 * in the same change set are added.
+	 * 
+	 * @param groupObjectId
+	 * @param userObjectIds
+	 * @throws PrincipalNotFoundException if the group or a user by object id not found in active directory.
+	 * @throws ConnectorException for service related exception.
+	 */
+	public void addUsersToGroup(String groupObjectId, Collection<String> userObjectIds){
+		updateMemberships(groupObjectId, userObjectIds, Collections.<String>emptyList());
+	}
+	
+	/**
+	 * Removes many users from a group, up to {@link BatchRequest#MAX_CHANGE_SET_SIZE} in
+	 * each change set of a <code>$batch</code> request.
+	 * 
+	 * @param groupObjectId
+	 * @param userObjectIds
+	 * @throws ConnectorException for service related exception.
+	 */
+	public void removeUsersFromGroup(String groupObjectId, Collection<String> userObjectIds){
+		updateMemberships(groupObjectId, Collections.<String>emptyList(), userObjectIds);
+	}
+	
+	/**
+	 * Adds a user to some groups and removes it from others, making the requests in
+	 * <code>$batch</code> requests.
+	 * 
+	 * @param userObjectId
+	 * @param addToGroupObjectIds
+	 * @param removeFromGroupObjectIds
+	 * @throws PrincipalNotFoundException if a group by object id not found in active directory.
+	 * @throws ConnectorException for service related exception.
+	 */
+	public void updateUserGroups(String userObjectId, Collection<String> addToGroupObjectIds, Collection<String> removeFromGroupObjectIds){
+		List<BatchRequest.Operation> operations = new ArrayList<BatchRequest.Operation>();
+		for (String groupObjectId : addToGroupObjectIds) {
+			operations.add(addUserToGroupOperation(userObjectId, groupObjectId));
+		}
+		for (String groupObjectId : removeFromGroupObjectIds) {
+			operations.add(removeUserFromGroupOperation(userObjectId, groupObjectId));
+		}
+		List<HttpResponse> responses = batch(operations);
+		int i = 0;
+		for (String groupObjectId : addToGroupObjectIds) {
+			checkAddUserToGroup(responses.get(i++), userObjectId, groupObjectId);
+		}
+		for (int j = 0; j < removeFromGroupObjectIds.size(); j++) {
+			checkRemoveUserFromGroup(responses.get(i++));
+		}
+	}
+	
+	private void updateMemberships(String groupObjectId, Collection<String> addUserObjectIds, Collection<String> removeUserObjectIds){
+		List<BatchRequest.Operation> operations = new ArrayList<BatchRequest.Operation>();
+		for (String userObjectId : addUserObjectIds) {
+			operations.add(addUserToGroupOperation(userObjectId, groupObjectId));
+		}
+		for (String userObjectId : removeUserObjectIds) {
+			operations.add(removeUserFromGroupOperation(userObjectId, groupObjectId));
+		}
+		List<HttpResponse> responses = batch(operations);
+		int i = 0;
+		for (String userObjectId : addUserObjectIds) {
+			checkAddUserToGroup(responses.get(i++), userObjectId, groupObjectId);
+		}
+		for (int j = 0; j < removeUserObjectIds.size(); j++) {
+			checkRemoveUserFromGroup(responses.get(i++));
+		}
+	}
+	
+	private BatchRequest.Operation addUserToGroupOperation(String userObjectId, String groupObjectId) {
+		return BatchRequest.Operation.change("POST", addUserToGroupURI(groupObjectId), groupObjectId, addUserToGroupData(userObjectId));
+	}
+	
+	private BatchRequest.Operation removeUserFromGroupOperation(String userObjectId, String groupObjectId) {
+		return BatchRequest.Operation.change("DELETE", removeUserFromGroupURI(userObjectId, groupObjectId), groupObjectId, null);
+	}
+	
+	private URI addUserToGroupURI(String groupObjectId) {
+		return constructURI(String.format("/groups/%s/$links/members", groupObjectId), null);
+	}
+	
+	private String addUserToGroupData(String userOjectId) {
 		String dataTemplate = "{ \"url\":\"%s\" }";
 		String url = constructURI(String.format("/directoryObjects/%s",userOjectId), null).toString();
-		String data = String.format(dataTemplate, url);
-		
-		HttpResponse response = httpRequestHandler.handleRequestPost(
-				constructURI(String.format("/groups/%s/$links/members",
-						groupObjectId), null), data, HEADER_HTTP_HOOK);
-		
+		return String.format(dataTemplate, url);
+	}
+	
+	private URI removeUserFromGroupURI(String userObjectId, String groupObjectId) {
+		return constructURI(String.format("/groups/%s/$links/members/%s",
+						groupObjectId, userObjectId), null);
+	}
+	
+	private void checkAddUserToGroup(HttpResponse response, String userOjectId, String groupObjectId) {
 		if(response.getHttpStatusCodes().getStatusCode().intValue() == 404){
 			throw new PrincipalNotFoundException("Principal '" + userOjectId + "' in  '"+ groupObjectId + "' not found.",null,PrincipalType.role);
 		}
@@ -179,19 +293,7 @@ public class GroupService extends AbstractRestAPIService{
 		}
 	}
 	
-	/**
-	 * Removes user from group.
-	 * 
-	 * @param groupObjectId
-	 * @param userObjectId
-	 * @throws PrincipalNotFoundException if the group by object id not found in active directory.
-	 * @throws ConnectorException for service related exception.
-	 */
-	public void removeUserFromGroup(String userObjectId,String groupObjectId){
-		HttpResponse response = httpRequestHandler.handleRequestDelete(
-				constructURI(String.format("/groups/%s/$links/members/%s",
-						groupObjectId, userObjectId), null), HEADER_HTTP_HOOK);
-		
+	private void checkRemoveUserFromGroup(HttpResponse response) {
 		if(response.getHttpStatusCodes().getStatusCode().intValue() != 204){
 			throw new ConnectorException(
 					"Problem in removing user from group as status code is not 204 is "
@@ -200,6 +302,4 @@ public class GroupService extends AbstractRestAPIService{
 		}
 	}
 	
-	
 }
-
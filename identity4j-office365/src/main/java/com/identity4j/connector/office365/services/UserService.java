@@ -1,6 +1,7 @@
 package com.identity4j.connector.office365.services;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +18,7 @@ import com.identity4j.connector.office365.entity.Users;
 import com.identity4j.connector.office365.services.token.handler.ADToken;
 import com.identity4j.util.http.request.HttpRequestHandler;
 import com.identity4j.util.http.response.HttpResponse;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -27,6 +29,11 @@ import com.identity4j.util.json.JsonMapperService;
  */
 public class UserService extends AbstractRestAPIService{
 	
+	/**
+	 * Property of a page of users holding the link to the next page.
+	 */
+	public static final String NEXT_LINK = "odata.nextLink";
+	
 	public UserService(ADToken token, HttpRequestHandler httpRequestHandler,Office365Configuration office365Configuration) {
 		super(token, httpRequestHandler, office365Configuration);
 	}
@@ -71,16 +78,52 @@ public class UserService extends AbstractRestAPIService{
 	 * @return users list
 	 */
 	public Users all(String nextLink) {
+		return all(nextLink, null);
+	}
+
+	/**
+	 * This method retrieves all users present in the data store, continuing a previous pages
+	 * request, only returning the requested properties. If <code>select</code> is
+	 * <code>null</code> all properties are returned.
+	 * 
+	 * @param nextLink next link or <code>null</code> to start afresh
+	 * @param select comma separated list of properties or <code>null</code>
+	 * @return users list
+	 */
+	public Users all(String nextLink, String select) {
+		HttpResponse response = httpRequestHandler.handleRequestGet(constructURI("/users", allQuery(nextLink, select)),HEADER_HTTP_HOOK);
+		String string = response.getData().toString();
+		return JsonMapperService.getInstance().getObject(Users.class, string);
+	}
+
+	/**
+	 * This method retrieves one page of users, as {@link #all(String, String)} does, but
+	 * maps each user as it is read from the response rather than reading the whole page
+	 * first. Once all users have been read, the link to the next page, if any, is the
+	 * {@link #NEXT_LINK} property of the returned iterator.
+	 * 
+	 * @param nextLink next link or <code>null</code> to start afresh
+	 * @param select comma separated list of properties or <code>null</code>
+	 * @return users iterator, which should be closed if not read to the end
+	 */
+	public JsonArrayIterator<User> stream(String nextLink, String select) {
+		HttpResponse response = httpRequestHandler.handleRequestGetStream(constructURI("/users", allQuery(nextLink, select)),HEADER_HTTP_HOOK);
+		return JsonMapperService.getInstance().iterator(User.class, "value", getStream(response));
+	}
+	
+	private String allQuery(String nextLink, String select) {
 		StringBuilder q = new StringBuilder();
 		q.append("$top=");
 		q.append(office365Configuration.getRequestSizeLimit());
+		if(select != null) {
+			q.append("&$select=");
+			q.append(select);
+		}
 		if(nextLink != null) {
 			q.append("&$skiptoken=");
 			q.append(nextLink.substring(nextLink.indexOf("$skiptoken=") + 11));
 		}
-		HttpResponse response = httpRequestHandler.handleRequestGet(constructURI("/users", q.toString()),HEADER_HTTP_HOOK);
-		String string = response.getData().toString();
-		return JsonMapperService.getInstance().getObject(Users.class, string);
+		return q.toString();
 	}
 	
 	/**
@@ -207,6 +250,30 @@ public class UserService extends AbstractRestAPIService{
 		return false;
 	}
 	
+	/**
+	 * Finds roles and groups several users have or belong to, making the requests in
+	 * <code>$batch</code> requests rather than one for each user.
+	 * 
+	 * @param users
+	 * @throws ConnectorException for service related exception.
+	 */
+	public void probeGroupsAndRoles(List<User> users) {
+		List<BatchRequest.Operation> operations = new ArrayList<BatchRequest.Operation>();
+		for (User user : users) {
+			operations.add(BatchRequest.Operation.query(memberOfURI(user)));
+		}
+		List<HttpResponse> responses = batch(operations);
+		for (int i = 0; i < users.size(); i++) {
+			HttpResponse response = responses.get(i);
+			if(response.getHttpStatusCodes().getStatusCode().intValue() != 200){
+				throw new ConnectorException("Problem in finding groups of user as status code is not 200 is " + response.getHttpStatusCodes().getStatusCode().intValue() + " : " + response.getData());
+			}
+			GroupsAndRoles groupsAndRoles = mapGroupsAndRoles(response);
+			users.get(i).setGroups(groupsAndRoles.groups);
+			users.get(i).setRoles(groupsAndRoles.roles);
+		}
+	}
+	
 	/**
 	 * Finds roles and groups a user by specified object id has or belongs.
 	 * 
@@ -215,12 +282,16 @@ public class UserService extends AbstractRestAPIService{
 	 */
 	private void probeGroupsAndRoles(User user) {
 		HttpResponse response = httpRequestHandler
-				.handleRequestGet(constructURI(String.format("/users/%s/memberOf",user.getObjectId()), null),
+				.handleRequestGet(memberOfURI(user),
 						HEADER_HTTP_HOOK);
 		GroupsAndRoles groupsAndRoles = mapGroupsAndRoles(response);
 		user.setGroups(groupsAndRoles.groups);
 		user.setRoles(groupsAndRoles.roles);
 	}
+	
+	private URI memberOfURI(User user) {
+		return constructURI(String.format("/users/%s/memberOf",user.getObjectId()), null);
+	}
 
 	/**
 	 * Helper utility function which segregates groups and roles an object id belongs to into different lists and
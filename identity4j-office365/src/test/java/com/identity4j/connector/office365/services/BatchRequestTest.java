@@ -0,0 +1,96 @@
+package com.identity4j.connector.office365.services;
+
+import java.net.URI;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.identity4j.util.http.response.HttpResponse;
+
+public class BatchRequestTest {
+
+	@Test
+	public void itShouldShareChangeSetsForTheSameSourceOnly() throws Exception {
+		BatchRequest batch = new BatchRequest();
+		for (int i = 0; i < BatchRequest.MAX_CHANGE_SET_SIZE; i++) {
+			Assert.assertTrue(batch.add(BatchRequest.Operation.change("DELETE", new URI("https://h/g1/" + i), "g1", null)));
+		}
+		// Change set for g1 is full, so this starts a new part, as does each other group
+		Assert.assertTrue(batch.add(BatchRequest.Operation.change("DELETE", new URI("https://h/g1/x"), "g1", null)));
+		for (int i = 2; i < BatchRequest.MAX_PARTS; i++) {
+			Assert.assertTrue(batch.add(BatchRequest.Operation.change("DELETE", new URI("https://h/g" + i + "/x"), "g" + i, null)));
+		}
+		Assert.assertFalse(batch.add(BatchRequest.Operation.query(new URI("https://h/users/1"))));
+		Assert.assertEquals(BatchRequest.MAX_CHANGE_SET_SIZE + BatchRequest.MAX_PARTS - 1, batch.size());
+	}
+
+	@Test
+	public void itShouldSplitResponsesByOperation() throws Exception {
+		BatchRequest batch = new BatchRequest();
+		batch.add(BatchRequest.Operation.query(new URI("https://h/users/1/memberOf")));
+		batch.add(BatchRequest.Operation.change("POST", new URI("https://h/groups/g1/$links/members"), "g1", "{}"));
+		batch.add(BatchRequest.Operation.change("POST", new URI("https://h/groups/g1/$links/members"), "g1", "{}"));
+		batch.add(BatchRequest.Operation.change("DELETE", new URI("https://h/groups/g2/$links/members/1"), "g2", null));
+		batch.add(BatchRequest.Operation.change("DELETE", new URI("https://h/groups/g2/$links/members/2"), "g2", null));
+
+		String body = batch.getBody();
+		Assert.assertTrue(body.contains("GET https://h/users/1/memberOf HTTP/1.1\r\n"));
+		Assert.assertTrue(body.contains("POST https://h/groups/g1/$links/members HTTP/1.1\r\n"));
+
+		HttpResponse response = new HttpResponse();
+		response.getHttpStatusCodes().setStatusCode(202);
+		response.setHeader("Content-Type", "multipart/mixed; boundary=batchresponse_1");
+		response.setData("--batchresponse_1\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-Transfer-Encoding: binary\r\n"
+				+ "\r\n"
+				+ "HTTP/1.1 200 OK\r\n"
+				+ "Content-Type: application/json;odata=minimalmetadata\r\n"
+				+ "\r\n"
+				+ "{\"value\":[]}\r\n"
+				+ "--batchresponse_1\r\n"
+				+ "Content-Type: multipart/mixed; boundary=changesetresponse_2\r\n"
+				+ "\r\n"
+				+ "--changesetresponse_2\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-Transfer-Encoding: binary\r\n"
+				+ "\r\n"
+				+ "HTTP/1.1 204 No Content\r\n"
+				+ "\r\n"
+				+ "\r\n"
+				+ "--changesetresponse_2\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-Transfer-Encoding: binary\r\n"
+				+ "\r\n"
+				+ "HTTP/1.1 204 No Content\r\n"
+				+ "\r\n"
+				+ "\r\n"
+				+ "--changesetresponse_2--\r\n"
+				+ "--batchresponse_1\r\n"
+				+ "Content-Type: multipart/mixed; boundary=changesetresponse_3\r\n"
+				+ "\r\n"
+				+ "--changesetresponse_3\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-Transfer-Encoding: binary\r\n"
+				+ "\r\n"
+				+ "HTTP/1.1 404 Not Found\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "\r\n"
+				+ "{\"odata.error\":{}}\r\n"
+				+ "--changesetresponse_3--\r\n"
+				+ "--batchresponse_1--\r\n");
+
+		List<HttpResponse> responses = batch.parse(response);
+		Assert.assertEquals(5, responses.size());
+		Assert.assertEquals(200, responses.get(0).getHttpStatusCodes().getStatusCode().intValue());
+		Assert.assertEquals("{\"value\":[]}", responses.get(0).getData());
+		Assert.assertEquals(204, responses.get(1).getHttpStatusCodes().getStatusCode().intValue());
+		Assert.assertNull(responses.get(1).getData());
+		Assert.assertEquals(204, responses.get(2).getHttpStatusCodes().getStatusCode().intValue());
+		// Failed change set applies to both of its operations
+		Assert.assertEquals(404, responses.get(3).getHttpStatusCodes().getStatusCode().intValue());
+		Assert.assertEquals(404, responses.get(4).getHttpStatusCodes().getStatusCode().intValue());
+		Assert.assertEquals("Not Found", responses.get(4).getHttpStatusCodes().getResonPhrase());
+	}
+}
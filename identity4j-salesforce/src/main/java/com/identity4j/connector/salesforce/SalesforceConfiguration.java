@@ -38,6 +38,9 @@ public class SalesforceConfiguration extends AbstractConnectorConfiguration{
 	private static final String SALESFORCE_REST_PATH = "salesforceRestPath";
 	private static final String SALESFORCE_REST_HOST = "salesforceRestHost";
 	private static final String SALESFORCE_REST_API_VERSION = "salesforceRestApiVersion";
+	private static final String SALESFORCE_REQUESTS_PER_SECOND = "salesforceRequestsPerSecond";
+	private static final String SALESFORCE_REQUEST_BURST = "salesforceRequestBurst";
+	private static final String SALESFORCE_PAGE_SIZE = "salesforcePageSize";
 	
 	/**
 	 * IP range property, is application IP listed in white list IP range in Salesforce console.
@@ -74,6 +77,11 @@ public class SalesforceConfiguration extends AbstractConnectorConfiguration{
      */
     public static final String CONTENT_TYPE = "Content-Type";
     
+    /**
+     * HTTP header salesforce query options, e.g. batch size
+     */
+    public static final String QUERY_OPTIONS = "Sforce-Query-Options";
+    
     /**
      * HTTP header salesforce soap action
      */
@@ -233,6 +241,36 @@ public class SalesforceConfiguration extends AbstractConnectorConfiguration{
 	}
 	
 	
+	/**
+	 * Steady rate of REST requests, zero for no limit, the default is no
+	 * limit. Throttled requests are retried either way.
+	 * 
+	 * @return the salesforceRequestsPerSecond
+	 */
+	public int getRequestsPerSecond(){
+		return configurationParameters.getIntegerOrDefault(SALESFORCE_REQUESTS_PER_SECOND, 0);
+	}
+	
+	/**
+	 * Number of REST requests that may be made at once after being idle, the
+	 * default is 10.
+	 * 
+	 * @return the salesforceRequestBurst
+	 */
+	public int getRequestBurst(){
+		return configurationParameters.getIntegerOrDefault(SALESFORCE_REQUEST_BURST, 10);
+	}
+	
+	/**
+	 * Number of records requested in each page of a query, between 200 and
+	 * 2000, the default is 2000.
+	 * 
+	 * @return the salesforcePageSize
+	 */
+	public int getPageSize(){
+		return configurationParameters.getIntegerOrDefault(SALESFORCE_PAGE_SIZE, 2000);
+	}
+	
 	/**
 	 * @return the salesforceGetByNameUserQuery
 	 */
@@ -1,7 +1,9 @@
 package com.identity4j.connector.salesforce.services;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.http.client.methods.HttpRequestBase;
@@ -9,9 +11,12 @@ import org.codehaus.jackson.type.TypeReference;
 
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.salesforce.SalesforceConfiguration;
+import com.identity4j.connector.salesforce.services.token.handler.Token;
 import com.identity4j.util.http.request.HttpRequestHandler;
 import com.identity4j.util.http.request.HttpRequestHandler.HTTPHook;
+import com.identity4j.util.http.request.PagingIterator.Page;
 import com.identity4j.util.http.response.HttpResponse;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -33,6 +38,14 @@ public abstract class AbstractRestAPIService {
 		}
 	};
 	
+	protected final HTTPHook QUERY_HTTP_HOOK = new HTTPHook() {
+		@Override
+		public void apply(HttpRequestBase httpRequestBase) {
+			HEADER_HTTP_HOOK.apply(httpRequestBase);
+			httpRequestBase.setHeader(SalesforceConfiguration.QUERY_OPTIONS, "batchSize=" + serviceConfiguration.getPageSize());
+		}
+	};
+	
 	AbstractRestAPIService(HttpRequestHandler httpRequestHandler,SalesforceConfiguration serviceConfiguration){
 		this.httpRequestHandler = httpRequestHandler;
 		this.serviceConfiguration = serviceConfiguration;
@@ -43,15 +56,16 @@ public abstract class AbstractRestAPIService {
 	 * @param request
 	 */
 	protected void setAuthHeaders(HttpRequestBase request) {
-		if(TokenHolder.getInstance().getToken().willExpireIn(2)){
+		Token token = TokenHolder.getInstance().getToken();
+		if(token.willExpireIn(2)){
 			try{
-				TokenHolder.getInstance().initToken(serviceConfiguration);
+				token = TokenHolder.getInstance().refreshToken(token, serviceConfiguration);
 			}catch(Exception e){
 				throw new ConnectorException("Problem in getting new token.",e);
 			}
 		}
 		request.setHeader(SalesforceConfiguration.AUTHORIZATION_HEADER,
-				TokenHolder.getInstance().getToken().getBearerAccessToken());
+				token.getBearerAccessToken());
 	}
 
 	/**
@@ -92,6 +106,39 @@ public abstract class AbstractRestAPIService {
 		}
 	}
 	
+	/**
+	 * Utility function to construct the url of the next page of a SOQL query.
+	 * @param nextRecordsUrl path given by the previous page
+	 * @return
+	 */
+	protected URI constructNextRecordsURI(String nextRecordsUrl) {
+		try {
+			return new URI(SalesforceConfiguration.PROTOCOL_NAME,
+					serviceConfiguration.getRestHost(), nextRecordsUrl, null, null);
+		} catch (URISyntaxException e) {
+			throw new ConnectorException(e.getMessage(),e);
+		}
+	}
+	
+	/**
+	 * Utility function to run a SOQL query, or continue one, and read one page of records
+	 * as they arrive.
+	 * @param queryString query to start
+	 * @param nextRecordsUrl path of the next page given by the previous page, or <code>null</code> to start
+	 * @param clazz class records are mapped to
+	 * @return page of records, with the path of the next page unless the query is done
+	 */
+	protected <T> Page<T> queryPage(String queryString, String nextRecordsUrl, Class<T> clazz) {
+		URI uri = nextRecordsUrl == null ? constructSOQLURI(queryString) : constructNextRecordsURI(nextRecordsUrl);
+		HttpResponse response = httpRequestHandler.handleRequestGetStream(uri, QUERY_HTTP_HOOK);
+		JsonArrayIterator<T> records = JsonMapperService.getInstance().iterator(clazz, "records", getStream(response));
+		List<T> results = new ArrayList<T>();
+		while(records.hasNext()) {
+			results.add(records.next());
+		}
+		return new Page<T>(results, "true".equals(records.getProperty("done")) ? null : records.getProperty("nextRecordsUrl"));
+	}
+	
 	/**
 	 * Utility function to construct error object from response error JSON.
 	 * @param httpResponse
@@ -101,4 +148,20 @@ public abstract class AbstractRestAPIService {
 				getObject(new TypeReference<List<AppErrorMessage>>() {}, httpResponse.getData().toString());
 		throw new ConnectorException(appErrorMessages.toString());
 	}
+
+	/**
+	 * Utility function to get the body of a streamed response, constructing error
+	 * object from response error JSON if the request failed.
+	 * @param httpResponse
+	 * @return body stream, which must be closed
+	 */
+	protected InputStream getStream(HttpResponse httpResponse) {
+		if(httpResponse.getData() instanceof InputStream) {
+			return (InputStream) httpResponse.getData();
+		}
+		if(httpResponse.getData() != null) {
+			throwAppException(httpResponse);
+		}
+		throw new ConnectorException("Request failed with status " + httpResponse.getHttpStatusCodes().getStatusCode() + ". " + httpResponse.getHttpStatusCodes().getResonPhrase());
+	}
 }
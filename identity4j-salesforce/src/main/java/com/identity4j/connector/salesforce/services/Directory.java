@@ -1,8 +1,12 @@
 package com.identity4j.connector.salesforce.services;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import com.identity4j.connector.salesforce.SalesforceConfiguration;
+import com.identity4j.util.RateLimiter;
 import com.identity4j.util.http.request.HttpRequestHandler;
 
 /**
@@ -42,7 +46,9 @@ public class Directory {
 	 * @throws IOException
 	 */
 	public void init(SalesforceConfiguration configuration) throws IOException{
+		close();
 		httpRequestHandler = new HttpRequestHandler();
+		httpRequestHandler.setRateLimiter(new RateLimiter(configuration.getRequestsPerSecond(), configuration.getRequestBurst()));
 		
 		TokenHolder.getInstance().initToken(configuration);
 		
@@ -52,6 +58,38 @@ public class Directory {
 		
 	}
 
+	/**
+	 * Closes the pooled connections and stops the request threads of the
+	 * REST API services.
+	 */
+	public void close() {
+		if (httpRequestHandler != null) {
+			httpRequestHandler.close();
+			httpRequestHandler = null;
+		}
+	}
+
+	/**
+	 * Get the rate limiter shared by all REST API services, which also
+	 * records how long requests were throttled.
+	 * 
+	 * @return rate limiter
+	 */
+	public RateLimiter getRateLimiter() {
+		return httpRequestHandler.getRateLimiter();
+	}
+
+	/**
+	 * Run independent REST calls concurrently over the pooled connections,
+	 * waiting for all of them to finish.
+	 * 
+	 * @param calls calls
+	 * @return results in the same order as the calls
+	 */
+	public <T> List<T> invokeAll(Collection<? extends Callable<T>> calls) {
+		return httpRequestHandler.invokeAll(calls);
+	}
+
 	public UserService users() {
 		return userServices;
 	}
@@ -14,6 +14,7 @@ import com.identity4j.connector.salesforce.entity.GroupMembers;
 import com.identity4j.connector.salesforce.entity.Groups;
 import com.identity4j.util.StringUtil;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.http.request.PagingIterator;
 import com.identity4j.util.http.response.HttpResponse;
 import com.identity4j.util.json.JsonMapperService;
 
@@ -116,6 +117,24 @@ public class GroupService extends AbstractRestAPIService{
 		return JsonMapperService.getInstance().getObject(Groups.class, response.getData().toString());
 	}
 	
+	/**
+	 * This method iterates over all groups present in the data store, fetching a page of
+	 * them at a time as they are needed. The next page is requested while the current
+	 * one is consumed.
+	 * <br />
+	 * This method makes use of <b>Salesforce Object Query Language</b>, following <code>nextRecordsUrl</code> until the query is done.
+	 * 
+	 * @return groups iterator
+	 */
+	public PagingIterator<Group> iterator(){
+		return new PagingIterator<Group>(httpRequestHandler) {
+			@Override
+			protected Page<Group> fetch(String next) {
+				return queryPage(String.format(serviceConfiguration.getGetAllGroups(), GROUP_ATTRIBUTES), next, Group.class);
+			}
+		};
+	}
+	
 	/**
 	 * Saves group into Salesforce datastore.
 	 * 
@@ -15,7 +15,7 @@ import com.identity4j.connector.salesforce.services.token.handler.Token;
  */
 class TokenHolder{
 	
-	private Token token;
+	private volatile Token token;
 	
 	private TokenHolder(){}
 
@@ -43,10 +43,25 @@ class TokenHolder{
 	 * @param configuration
 	 * @throws IOException
 	 */
-	public void initToken(SalesforceConfiguration configuration) throws IOException{
+	public synchronized void initToken(SalesforceConfiguration configuration) throws IOException{
 		token = SalesforceAuthorizationHelper.getInstance().login(
 				configuration.getAdminId(), configuration.getAdminPassword(),
 				configuration.getAdminSecretKey());
 	}
 
+	/**
+	 * Fetches a new token to replace an expired one, unless another thread
+	 * has already replaced it.
+	 * 
+	 * @param expired token found to have expired
+	 * @param configuration
+	 * @return current token
+	 * @throws IOException
+	 */
+	public synchronized Token refreshToken(Token expired, SalesforceConfiguration configuration) throws IOException{
+		if(token == expired) {
+			initToken(configuration);
+		}
+		return token;
+	}
 }
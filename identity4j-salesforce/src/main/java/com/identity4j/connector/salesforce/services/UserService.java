@@ -2,12 +2,15 @@ package com.identity4j.connector.salesforce.services;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.codehaus.jackson.type.TypeReference;
 
 import com.identity4j.connector.PrincipalType;
+import com.identity4j.connector.Projection;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
@@ -21,6 +24,7 @@ import com.identity4j.connector.salesforce.services.token.handler.SalesforceAuth
 import com.identity4j.connector.salesforce.services.token.handler.Token;
 import com.identity4j.util.StringUtil;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.http.request.PagingIterator;
 import com.identity4j.util.http.response.HttpResponse;
 import com.identity4j.util.json.JsonMapperService;
 
@@ -145,6 +149,82 @@ public class UserService extends AbstractRestAPIService{
 		return JsonMapperService.getInstance().getObject(Users.class, response.getData().toString());
 	}
 	
+	/**
+	 * This method iterates over all users present in the data store, fetching a page of
+	 * them at a time as they are needed. The next page is requested while the current
+	 * one is consumed.
+	 * <br />
+	 * This method makes use of <b>Salesforce Object Query Language</b>, following <code>nextRecordsUrl</code> until the query is done.
+	 * 
+	 * @return users iterator
+	 */
+	public PagingIterator<User> iterator(){
+		return new PagingIterator<User>(httpRequestHandler) {
+			@Override
+			protected Page<User> fetch(String next) {
+				return queryPage(String.format(serviceConfiguration.getGetAllUsers(), USER_ATTRIBUTES), next, User.class);
+			}
+		};
+	}
+	
+	/**
+	 * This method iterates over all users present in the data store as {@link #iterator()} does,
+	 * only selecting the fields needed for the given projection.
+	 * 
+	 * @param projection parts of the identity required
+	 * @return users iterator
+	 */
+	public PagingIterator<User> iterator(Projection projection){
+		if(projection.isAll()) {
+			return iterator();
+		}
+		final String select = getSelect(projection);
+		return new PagingIterator<User>(httpRequestHandler) {
+			@Override
+			protected Page<User> fetch(String next) {
+				return queryPage(String.format(serviceConfiguration.getGetAllUsers(), select), next, User.class);
+			}
+		};
+	}
+	
+	/**
+	 * Utility function to build the SOQL field list for a projection. Id and Username are
+	 * always selected. Names that are not one of the projection constants are taken to be
+	 * User field names, those that are not fields are ignored so they cannot alter the query.
+	 * 
+	 * @param projection parts of the identity required
+	 * @return comma separated field names
+	 */
+	static String getSelect(Projection projection){
+		Set<String> fields = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		for(String attr : projection.getAttributes()) {
+			if(attr.equalsIgnoreCase(Projection.FULL_NAME)) {
+				fields.add("FirstName");
+				fields.add("LastName");
+			} else if(attr.equalsIgnoreCase(Projection.EMAIL)) {
+				fields.add("Email");
+			} else if(attr.equalsIgnoreCase(Projection.MOBILE)) {
+				fields.add("MobilePhone");
+			} else if(attr.equalsIgnoreCase(Projection.ACCOUNT_STATUS)) {
+				fields.add("IsActive");
+			} else if(attr.equalsIgnoreCase(Projection.PASSWORD_STATUS)) {
+				fields.add("LastPasswordChangeDate");
+			} else if(attr.equalsIgnoreCase(Projection.LAST_SIGN_ON)) {
+				fields.add("LastLoginDate");
+			} else {
+				// Other name is the user name, and roles are not listed with users
+				fields.add(attr);
+			}
+		}
+		StringBuilder select = new StringBuilder("Id,Username");
+		for(String field : USER_ATTRIBUTES.split(",")) {
+			if(!field.equals("Id") && !field.equals("Username") && fields.contains(field)) {
+				select.append(',').append(field);
+			}
+		}
+		return select.toString();
+	}
+	
 	/**
 	 * <p>
 	 * Saves user into Salesforce datastore.
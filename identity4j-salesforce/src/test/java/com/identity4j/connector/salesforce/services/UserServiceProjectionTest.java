@@ -0,0 +1,95 @@
+package com.identity4j.connector.salesforce.services;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.identity4j.connector.Projection;
+import com.identity4j.connector.salesforce.SalesforceConfiguration;
+import com.identity4j.connector.salesforce.entity.User;
+import com.identity4j.util.MultiMap;
+import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.http.request.PagingIterator;
+import com.identity4j.util.http.response.HttpResponse;
+
+public class UserServiceProjectionTest {
+
+	private static final RecordingHttpRequestHandler HTTP_REQUEST_HANDLER = new RecordingHttpRequestHandler();
+
+	@AfterClass
+	public static void close() {
+		HTTP_REQUEST_HANDLER.close();
+	}
+
+	@Test
+	public void itShouldSelectOnlyProjectedFields() throws Exception {
+		List<User> users = list(new Projection(Projection.FULL_NAME, Projection.ACCOUNT_STATUS));
+		Assert.assertEquals("q=SELECT Id,Username,LastName,FirstName,IsActive from User", lastQuery());
+		Assert.assertEquals(1, users.size());
+		Assert.assertEquals("jdoe@example.com", users.get(0).getUsername());
+	}
+
+	@Test
+	public void itShouldSelectNamedUserFieldsAndIgnoreOthers() throws Exception {
+		list(new Projection("department", "Id from User where Name != null", Projection.EMAIL, Projection.ROLES));
+		Assert.assertEquals("q=SELECT Id,Username,Department,Email from User", lastQuery());
+	}
+
+	@Test
+	public void itShouldSelectOnlyIdAndUsernameForNoProjection() throws Exception {
+		list(Projection.NONE);
+		Assert.assertEquals("q=SELECT Id,Username from User", lastQuery());
+	}
+
+	@Test
+	public void itShouldSelectAllFieldsForAllProjection() throws Exception {
+		list(Projection.ALL);
+		Assert.assertTrue(lastQuery().startsWith("q=SELECT Id,Username,LastName,FirstName,Name,CompanyName,"));
+	}
+
+	private List<User> list(Projection projection) {
+		UserService service = new UserService(HTTP_REQUEST_HANDLER, configuration(), null);
+		List<User> users = new ArrayList<User>();
+		PagingIterator<User> it = service.iterator(projection);
+		try {
+			while (it.hasNext()) {
+				users.add(it.next());
+			}
+		} finally {
+			it.close();
+		}
+		return users;
+	}
+
+	private String lastQuery() {
+		return HTTP_REQUEST_HANDLER.uris.get(HTTP_REQUEST_HANDLER.uris.size() - 1).getQuery();
+	}
+
+	private static SalesforceConfiguration configuration() {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("salesforceRestHost", "example.my.salesforce.com");
+		properties.put("salesforceRestApiVersion", "30.0");
+		return new SalesforceConfiguration(MultiMap.toMultiMap(properties));
+	}
+
+	static class RecordingHttpRequestHandler extends HttpRequestHandler {
+		final List<URI> uris = new ArrayList<URI>();
+
+		@Override
+		public synchronized HttpResponse handleRequestGetStream(URI uri, HTTPHook hook) {
+			uris.add(uri);
+			HttpResponse response = new HttpResponse();
+			response.setData(new ByteArrayInputStream(
+					"{\"totalSize\":1,\"done\":true,\"records\":[{\"Id\":\"005A\",\"Username\":\"jdoe@example.com\"}]}"
+							.getBytes()));
+			return response;
+		}
+	}
+}
@@ -1,11 +1,13 @@
 package com.identity4j.connector.unix;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
 import com.identity4j.util.crypt.EncoderException;
+import com.identity4j.util.crypt.PrefixedEncoder;
 import com.identity4j.util.crypt.impl.AbstractEncoder;
 
-public abstract class AbstractUnixSHAEncoder extends AbstractEncoder {
+public abstract class AbstractUnixSHAEncoder extends AbstractEncoder implements PrefixedEncoder {
 
 	private final String saltPrefix;
 	@SuppressWarnings("unused")
@@ -19,34 +21,38 @@ public abstract class AbstractUnixSHAEncoder extends AbstractEncoder {
 
 	@Override
 	public boolean match(byte[] encodedData, byte[] unencodedData, byte[] passphrase, String charset) throws EncoderException {
-		try {
-			if (!isOfType(encodedData, charset)) {
-				throw new EncoderException("Encoded data is not in Unix SHA crypt format");
-			}
-			String encoded = new String(encodedData, charset);
-			if(encoded.equals("*")) {
-				// No login
-				return false;
-			}
-			if(encoded.startsWith("!")) {
-				// Password locked
-				return false;
-			}
-			int sl = saltPrefix.length();
-			int idx = encoded.indexOf('$', sl);
-			if (idx == -1) {
-				throw new EncoderException("Expected end of salt character $");
-			}
-			String salt = encoded.substring(0, idx);
-			String toMatch = doCrypt(unencodedData, charset, salt);
-			return toMatch.equals(encoded);
-			
-		} catch (UnsupportedEncodingException e) {
-			throw new EncoderException(e);
+		if (!isOfType(encodedData, charset)) {
+			throw new EncoderException("Encoded data is not in Unix SHA crypt format");
+		}
+		if (encodedData.length == 1 && encodedData[0] == '*') {
+			// No login
+			return false;
+		}
+		if (encodedData.length > 0 && encodedData[0] == '!') {
+			// Password locked
+			return false;
 		}
+		/*
+		 * The whole hash text is passed as the salt, the crypt stops at the
+		 * '$' after the salt itself, and picks up any round count before it
+		 */
+		return Arrays.equals(doCrypt(unencodedData, encodedData), encodedData);
 	}
 
-    protected abstract String doCrypt(byte[] unencodedData, String charset, String salt) throws UnsupportedEncodingException;
+	/**
+	 * Crypt the password bytes.
+	 * 
+	 * @param unencodedData password
+	 * @param salt salt, round count or hash text, or <code>null</code> for a
+	 *            random salt
+	 * @return hash text as ASCII bytes
+	 */
+	protected abstract byte[] doCrypt(byte[] unencodedData, byte[] salt);
+
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { saltPrefix };
+	}
 
 	@Override
 	public boolean isOfType(byte[] encodedBytes, String charset) {
@@ -61,15 +67,12 @@ public abstract class AbstractUnixSHAEncoder extends AbstractEncoder {
 	public byte[] encode(byte[] toEncode, byte[] salt, byte[] passphrase, String charset) throws EncoderException {
 		try {
 			if (salt == null) {
-	            return doCrypt(toEncode, charset, null).getBytes(charset);
+				return doCrypt(toEncode, null);
 			} else {
-				final String saltString = new String(salt, charset);
-				if (saltString.length() < 2) {
+				if (salt.length < 2) {
 					throw new EncoderException("Salt must be at least 2 characters .");
 				}
-				final String crypt = doCrypt(toEncode, charset, saltString);
-				return crypt.getBytes(charset);
-			    
+				return doCrypt(toEncode, salt);
 			}
 		} catch (Exception e) {
 			throw new EncoderException(e);
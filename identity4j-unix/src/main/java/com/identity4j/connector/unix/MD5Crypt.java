@@ -12,6 +12,7 @@
 package com.identity4j.connector.unix;
 
 import java.io.UnsupportedEncodingException;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -57,13 +58,12 @@ public class MD5Crypt {
     static char[] itoa64 = /* 0 ... 63 => ascii - 64 */
     "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
 
-    private static String cryptTo64(long v, int n) {
-        StringBuilder result = new StringBuilder();
+    private static int cryptTo64(byte[] buffer, int pos, long v, int n) {
         while (--n >= 0) {
-            result.append(itoa64[(int) v & 0x3f]);
+            buffer[pos++] = (byte) itoa64[(int) v & 0x3f];
             v >>= 6;
         }
-        return result.toString();
+        return pos;
     }
 
     /*
@@ -86,6 +86,23 @@ public class MD5Crypt {
                                                   */
     private static int MD5_SIZE = 16;
 
+    private static final byte[] EMPTY = new byte[0];
+
+    /*
+     * MessageDigest.getInstance() walks the security providers on every call,
+     * so each thread keeps its own digest
+     */
+    private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     private static void memset(byte[] array) {
         for (int i = 0; i < array.length; i++) {
             array[i] = 0;
@@ -104,52 +121,58 @@ public class MD5Crypt {
      */
     public static String crypt_md5(byte[] pw, String salt, String magic) throws NoSuchAlgorithmException,
                     UnsupportedEncodingException {
-        StringBuilder passwd = new StringBuilder();
-        String sp, ep;
-        byte[] finalState = new byte[MD5_SIZE];
+        return new String(crypt_md5(pw, salt.getBytes("UTF8"), magic.getBytes("UTF8")), "UTF8");
+    }
 
-        int sl = 0, pl = 0, i = 0;
-        MessageDigest ctx = MessageDigest.getInstance("MD5");
-        MessageDigest ctx1 = MessageDigest.getInstance("MD5");
+    /**
+     * UNIX password, working only on bytes. The salt may start with the magic
+     * string, and stops at the first '$' (which is kept if within the first
+     * 8 characters), so a complete hash text must not be passed as the salt.
+     * 
+     * @param pw password
+     * @param salt salt
+     * @param magic magic string, e.g. <code>$1$</code>
+     * @return hash text as ASCII bytes
+     */
+    public static byte[] crypt_md5(byte[] pw, byte[] salt, byte[] magic) {
+        byte[] finalState = new byte[MD5_SIZE];
+        int sp = 0, sl, pl, i;
+        MessageDigest ctx = MD5.get();
         long l;
 
-        /* Refine the Salt first */
-        sp = salt;
-
         /* If it starts with the magic string, then skip that */
-        if (sp.startsWith(magic)) {
-            sp = sp.substring(magic.length());
+        if (startsWith(salt, magic)) {
+            sp = magic.length;
         }
-        byte[] saltBytes = sp.getBytes("UTF8");
 
         /* It stops at the first '$', max 8 chars */
-        ep = sp;
-        if (ep != null) {
-            int end_salt = ep.indexOf('$');
-            if (end_salt == -1) {
-                sl = ep.length();
-            } else if ((end_salt >= 0) && (end_salt <= 7)) {
-                sl = end_salt + 1;
-            } else {
-                sl = 8;
+        sl = salt.length - sp;
+        for (i = sp; i < salt.length; i++) {
+            if (salt[i] == '$') {
+                sl = i - sp <= 7 ? i - sp + 1 : 8;
+                break;
             }
-        } 
+        }
+        byte[] saltBytes = new byte[sl];
+        System.arraycopy(salt, sp, saltBytes, 0, sl);
 
+        /*
+         * Just as many characters of the MD5(pw,salt,pw) are needed below, so
+         * take that first and the one digest does for both
+         */
         ctx.reset();
+        ctx.update(pw, 0, pw.length);
+        ctx.update(saltBytes, 0, sl);
+        ctx.update(pw, 0, pw.length);
+        digest(ctx, finalState);
+
         /* The password first, since that is what is most unknown */
         ctx.update(pw, 0, pw.length);
         /* Then our magic string */
-        ctx.update(magic.getBytes("UTF8"), 0, magic.length());
+        ctx.update(magic, 0, magic.length);
         /* Then the raw salt */
         ctx.update(saltBytes, 0, sl);
 
-        /* Then just as many characters of the MD5(pw,salt,pw) */
-        ctx1.reset();
-        ctx1.update(pw, 0, pw.length);
-        ctx1.update(saltBytes, 0, sl);
-        ctx1.update(pw, 0, pw.length);
-        finalState = ctx1.digest();
-
         for (pl = pw.length; pl > 0; pl -= MD5_SIZE) {
             ctx.update(finalState, 0, pl > MD5_SIZE ? MD5_SIZE : pl);
         }
@@ -166,61 +189,106 @@ public class MD5Crypt {
             }
         }
 
-        /* Now make the output string */
-        passwd.append(magic);
-        passwd.append(sp.substring(0, sl));
-        passwd.append("$");
+        digest(ctx, finalState);
 
-        finalState = ctx.digest();
+        /*
+         * Each round hashes the previous result together with the password,
+         * and the salt and password again depending on the round number. There
+         * are only four such sequences either side of the previous result, so
+         * lay them out once rather than feeding the digest piecemeal.
+         */
+        byte[][] oddPrefix = new byte[4][];
+        byte[][] evenSuffix = new byte[4][];
+        for (i = 0; i < 4; i++) {
+            byte[] s = (i & 1) != 0 ? saltBytes : EMPTY;
+            byte[] p = (i & 2) != 0 ? pw : EMPTY;
+            oddPrefix[i] = concat(pw, s, p);
+            evenSuffix[i] = concat(s, p, pw);
+        }
 
         /*
          * and now, just to make sure things don't run too fast On a 60 Mhz
          * Pentium this takes 34 msec, so you would need 30 seconds to build a
          * 1000 entry dictionary...
          */
+        int mod3 = 0, mod7 = 0;
         for (i = 0; i < 1000; i++) {
-            ctx1.reset();
+            int seq = (mod3 != 0 ? 1 : 0) | (mod7 != 0 ? 2 : 0);
 
             if ((i & 1) != 0) {
-                ctx1.update(pw, 0, pw.length);
+                ctx.update(oddPrefix[seq], 0, oddPrefix[seq].length);
+                ctx.update(finalState, 0, MD5_SIZE);
             } else {
-                ctx1.update(finalState, 0, MD5_SIZE);
+                ctx.update(finalState, 0, MD5_SIZE);
+                ctx.update(evenSuffix[seq], 0, evenSuffix[seq].length);
             }
 
-            if ((i % 3) != 0) {
-                ctx1.update(saltBytes, 0, sl);
-            }
+            digest(ctx, finalState);
 
-            if ((i % 7) != 0) {
-                ctx1.update(pw, 0, pw.length);
+            if (++mod3 == 3) {
+                mod3 = 0;
             }
-
-            if ((i & 1) != 0) {
-                ctx1.update(finalState, 0, MD5_SIZE);
-            } else {
-                ctx1.update(pw, 0, pw.length);
+            if (++mod7 == 7) {
+                mod7 = 0;
             }
-
-            finalState = ctx1.digest();
         }
 
+        /* Now make the output string */
+        byte[] passwd = new byte[magic.length + sl + 1 + 22];
+        System.arraycopy(magic, 0, passwd, 0, magic.length);
+        System.arraycopy(saltBytes, 0, passwd, magic.length, sl);
+        int pos = magic.length + sl;
+        passwd[pos++] = '$';
+
         l = (byteToUnsigned(finalState[0]) << 16) | (byteToUnsigned(finalState[6]) << 8) | byteToUnsigned(finalState[12]);
-        passwd.append(cryptTo64(l, 4));
+        pos = cryptTo64(passwd, pos, l, 4);
         l = (byteToUnsigned(finalState[1]) << 16) | (byteToUnsigned(finalState[7]) << 8) | byteToUnsigned(finalState[13]);
-        passwd.append(cryptTo64(l, 4));
+        pos = cryptTo64(passwd, pos, l, 4);
         l = (byteToUnsigned(finalState[2]) << 16) | (byteToUnsigned(finalState[8]) << 8) | byteToUnsigned(finalState[14]);
-        passwd.append(cryptTo64(l, 4));
+        pos = cryptTo64(passwd, pos, l, 4);
         l = (byteToUnsigned(finalState[3]) << 16) | (byteToUnsigned(finalState[9]) << 8) | byteToUnsigned(finalState[15]);
-        passwd.append(cryptTo64(l, 4));
+        pos = cryptTo64(passwd, pos, l, 4);
         l = (byteToUnsigned(finalState[4]) << 16) | (byteToUnsigned(finalState[10]) << 8) | byteToUnsigned(finalState[5]);
-        passwd.append(cryptTo64(l, 4));
+        pos = cryptTo64(passwd, pos, l, 4);
         l = byteToUnsigned(finalState[11]);
-        passwd.append(cryptTo64(l, 2));
+        cryptTo64(passwd, pos, l, 2);
 
         /* Don't leave anything around in vm they could use. */
         memset(finalState);
+        for (i = 0; i < 4; i++) {
+            memset(oddPrefix[i]);
+            memset(evenSuffix[i]);
+        }
+
+        return passwd;
+    }
+
+    private static void digest(MessageDigest ctx, byte[] result) {
+        try {
+            ctx.digest(result, 0, result.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b, byte[] c) {
+        byte[] result = new byte[a.length + b.length + c.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        System.arraycopy(c, 0, result, a.length + b.length, c.length);
+        return result;
+    }
 
-        return passwd.toString();
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private static int byteToUnsigned(byte aByte) {
@@ -249,24 +317,34 @@ public class MD5Crypt {
     }
 
     public static String md5Crypt(String password, String charset) throws NoSuchAlgorithmException {
+        try {
+            if (password == null) {
+                password = "";
+            }
+            return new String(md5Crypt(password.getBytes(charset), DEFAULT_MAGIC.getBytes("UTF8")), "UTF8");
+        } catch (UnsupportedEncodingException uee) {
+            return null;
+        }
+    }
+
+    /**
+     * Hash a password with a new random salt.
+     * 
+     * @param password password
+     * @param magic magic string, e.g. <code>$1$</code>
+     * @return hash text as ASCII bytes
+     */
+    public static byte[] md5Crypt(byte[] password, byte[] magic) {
         char saltChars[] = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789./".toCharArray();
         int numSaltChars = saltChars.length;
 
         // Generate a random salt
-        StringBuilder salt = new StringBuilder(8);
+        byte[] salt = new byte[8];
         SecureRandom rand = new SecureRandom();
         for (int i = 0; i < 8; i++) {
-            salt.append(saltChars[rand.nextInt(Integer.MAX_VALUE) % numSaltChars]);
+            salt[i] = (byte) saltChars[rand.nextInt(Integer.MAX_VALUE) % numSaltChars];
         }
 
-        try {
-            if (password == null) {
-                password = "";
-            }
-            String encrypted = crypt_md5(password.getBytes(charset), salt.toString());
-            return encrypted;
-        } catch (UnsupportedEncodingException uee) {
-            return null;
-        }
+        return crypt_md5(password, salt, magic);
     }
 }
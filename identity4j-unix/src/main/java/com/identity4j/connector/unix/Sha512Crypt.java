@@ -81,13 +81,58 @@ public final class Sha512Crypt
 {
   static private final String sha512_salt_prefix = "$6$";
   static private final String sha512_rounds_prefix = "rounds=";
+  static private final byte[] SALT_PREFIX = { '$', '6', '$' };
+  static private final byte[] ROUNDS_PREFIX = { 'r', 'o', 'u', 'n', 'd', 's', '=' };
+  static private final byte[] EMPTY = new byte[0];
   static private final int SALT_LEN_MAX = 16;
   static private final int ROUNDS_DEFAULT = 5000;
   static private final int ROUNDS_MIN = 1000;
   static private final int ROUNDS_MAX = 999999999;
+  static private final int DIGEST_LEN = 64;
+  static private final int HASH_TEXT_LEN = 86;
   static private final String SALTCHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
   static private final String itoa64 = "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
 
+  /* The digest bytes that make up each group of four output
+     characters, most significant first. */
+
+  static private final int[] B64_ORDER =
+    {
+      0, 21, 42,
+      22, 43, 1,
+      44, 2, 23,
+      3, 24, 45,
+      25, 46, 4,
+      47, 5, 26,
+      6, 27, 48,
+      28, 49, 7,
+      50, 8, 29,
+      9, 30, 51,
+      31, 52, 10,
+      53, 11, 32,
+      12, 33, 54,
+      34, 55, 13,
+      56, 14, 35,
+      15, 36, 57,
+      37, 58, 16,
+      59, 17, 38,
+      18, 39, 60,
+      40, 61, 19,
+      62, 20, 41
+    };
+
+  /* MessageDigest.getInstance() walks the security providers on every
+     call, so each thread keeps its own digest. */
+
+  static private final ThreadLocal<MessageDigest> SHA512 = new ThreadLocal<MessageDigest>()
+    {
+      @Override
+      protected MessageDigest initialValue()
+      {
+        return getSHA512();
+      }
+    };
+
   static private MessageDigest getSHA512()
   {
     try
@@ -120,68 +165,90 @@ public final class Sha512Crypt
 
   public static final String Sha512_crypt(String keyStr, String saltStr, int roundsCount)
   {
-    MessageDigest ctx = getSHA512();
-    MessageDigest alt_ctx = getSHA512();
-
-    byte[] alt_result;
-    byte[] temp_result;
-    byte[] p_bytes = null;
-    byte[] s_bytes = null;
-    int cnt, cnt2;
+    return new String(Sha512_crypt(keyStr.getBytes(), saltStr == null ? null : saltStr.getBytes(), roundsCount));
+  }
+
+  /**
+   * <p>Generates an Sha512 crypted password hash from the bytes of a
+   * plaintext password and an encoded salt, without any intermediate
+   * Strings. The hash text is returned as ASCII bytes.</p>
+   *
+   * @param key Plaintext password
+   *
+   * @param saltBytes An encoded salt/rounds, or a complete hash text,
+   * which will be consulted to determine the salt and round count, if
+   * not null
+   *
+   * @param roundsCount If this value is not 0, this many rounds will
+   * used to generate the hash text.
+   *
+   * @return The Sha512 Unix Crypt hash text for the key
+   */
+
+  public static final byte[] Sha512_crypt(byte[] key, byte[] saltBytes, int roundsCount)
+  {
+    MessageDigest ctx = SHA512.get();
+    byte[] alt_result = new byte[DIGEST_LEN];
+    byte[] temp_result = new byte[DIGEST_LEN];
+    byte[] p_bytes;
+    byte[] s_bytes;
+    byte[] salt;
+    int cnt;
     int rounds = ROUNDS_DEFAULT; // Default number of rounds.
-    StringBuilder buffer;
     boolean include_round_count = false;
 
     /* -- */
 
-    if (saltStr != null)
+    if (saltBytes != null)
       {
-        if (saltStr.startsWith(sha512_salt_prefix))
-          {
-            saltStr = saltStr.substring(sha512_salt_prefix.length());
-          }
+        int off = startsWith(saltBytes, 0, SALT_PREFIX) ? SALT_PREFIX.length : 0;
 
-        if (saltStr.startsWith(sha512_rounds_prefix))
+        if (startsWith(saltBytes, off, ROUNDS_PREFIX))
           {
-            String num = saltStr.substring(sha512_rounds_prefix.length(), saltStr.indexOf('$'));
-            int srounds = Integer.valueOf(num).intValue();
-            saltStr = saltStr.substring(saltStr.indexOf('$')+1);
+            int end = indexOf(saltBytes, off, saltBytes.length, (byte) '$');
+
+            if (end == -1)
+              {
+                throw new IllegalArgumentException("Expected $ after round count");
+              }
+
+            int srounds = parseRounds(saltBytes, off + ROUNDS_PREFIX.length, end);
+            off = end + 1;
             rounds = Math.max(ROUNDS_MIN, Math.min(srounds, ROUNDS_MAX));
             include_round_count = true;
           }
 
-        if (saltStr.length() > SALT_LEN_MAX)
-          {
-            saltStr = saltStr.substring(0, SALT_LEN_MAX);
-          }
+        int len = Math.min(saltBytes.length - off, SALT_LEN_MAX);
 
         // gnu libc's crypt(3) implementation allows the salt to end
         // in $ which is then ignored.
 
-        if (saltStr.endsWith("$"))
+        if (len > 0 && saltBytes[off + len - 1] == '$')
           {
-            saltStr = saltStr.substring(0, saltStr.length() - 1);
+            len--;
           }
         else
           {
-            if (saltStr.indexOf("$") != -1)
+            int end = indexOf(saltBytes, off, off + len, (byte) '$');
+
+            if (end != -1)
               {
-                saltStr = saltStr.substring(0, saltStr.indexOf("$"));
+                len = end - off;
               }
           }
+
+        salt = new byte[len];
+        System.arraycopy(saltBytes, off, salt, 0, len);
       }
     else
       {
         java.util.Random randgen = new java.util.Random();
-        StringBuilder saltBuf = new StringBuilder();
+        salt = new byte[SALT_LEN_MAX];
 
-        while (saltBuf.length() < 16)
+        for (cnt = 0; cnt < salt.length; cnt++)
           {
-            int index = (int) (randgen.nextFloat() * SALTCHARS.length());
-            saltBuf.append(SALTCHARS.substring(index, index+1));
+            salt[cnt] = (byte) SALTCHARS.charAt((int) (randgen.nextFloat() * SALTCHARS.length()));
           }
-
-        saltStr = saltBuf.toString();
       }
 
     if (roundsCount != 0)
@@ -189,32 +256,31 @@ public final class Sha512Crypt
         rounds = Math.max(ROUNDS_MIN, Math.min(roundsCount, ROUNDS_MAX));
       }
 
-    byte[] key = keyStr.getBytes();
-    byte[] salt = saltStr.getBytes();
+    /* The alternate sum is taken first so that a single digest can be
+       used throughout; digest() leaves it reset for the next sum. */
 
     ctx.reset();
     ctx.update(key, 0, key.length);
     ctx.update(salt, 0, salt.length);
+    ctx.update(key, 0, key.length);
 
-    alt_ctx.reset();
-    alt_ctx.update(key, 0, key.length);
-    alt_ctx.update(salt, 0, salt.length);
-    alt_ctx.update(key, 0, key.length);
+    digest(ctx, temp_result);
 
-    alt_result = alt_ctx.digest();
+    ctx.update(key, 0, key.length);
+    ctx.update(salt, 0, salt.length);
 
-    for (cnt = key.length; cnt > 64; cnt -= 64)
+    for (cnt = key.length; cnt > DIGEST_LEN; cnt -= DIGEST_LEN)
       {
-        ctx.update(alt_result, 0, 64);
+        ctx.update(temp_result, 0, DIGEST_LEN);
       }
 
-    ctx.update(alt_result, 0, cnt);
+    ctx.update(temp_result, 0, cnt);
 
     for (cnt = key.length; cnt > 0; cnt >>= 1)
       {
         if ((cnt & 1) != 0)
           {
-            ctx.update(alt_result, 0, 64);
+            ctx.update(temp_result, 0, DIGEST_LEN);
           }
         else
           {
@@ -222,141 +288,239 @@ public final class Sha512Crypt
           }
       }
 
-    alt_result = ctx.digest();
-
-    alt_ctx.reset();
+    digest(ctx, alt_result);
 
     for (cnt = 0; cnt < key.length; ++cnt)
       {
-        alt_ctx.update(key, 0, key.length);
+        ctx.update(key, 0, key.length);
       }
 
-    temp_result = alt_ctx.digest();
-
-    p_bytes = new byte[key.length];
-
-    for (cnt2 = 0, cnt = p_bytes.length; cnt >= 64; cnt -= 64)
-      {
-        System.arraycopy(temp_result, 0, p_bytes, cnt2, 64);
-        cnt2 += 64;
-      }
-
-    System.arraycopy(temp_result, 0, p_bytes, cnt2, cnt);
-
-    alt_ctx.reset();
+    digest(ctx, temp_result);
+    p_bytes = repeat(temp_result, key.length);
 
     for (cnt = 0; cnt < 16 + (alt_result[0]&0xFF); ++cnt)
       {
-        alt_ctx.update(salt, 0, salt.length);
+        ctx.update(salt, 0, salt.length);
       }
 
-    temp_result = alt_ctx.digest();
+    digest(ctx, temp_result);
+    s_bytes = repeat(temp_result, salt.length);
 
-    s_bytes = new byte[salt.length];
+    /* Each round hashes the previous result together with P, and S
+       and P again depending on the round number. There are only four
+       such sequences either side of the previous result, so they are
+       laid out once here rather than fed to the digest piecemeal. */
 
-    for (cnt2 = 0, cnt = s_bytes.length; cnt >= 64; cnt -= 64)
+    byte[][] odd_prefix = new byte[4][];
+    byte[][] even_suffix = new byte[4][];
+
+    for (cnt = 0; cnt < 4; cnt++)
       {
-        System.arraycopy(temp_result, 0, s_bytes, cnt2, 64);
-        cnt2 += 64;
-      }
+        byte[] s = (cnt & 1) != 0 ? s_bytes : EMPTY;
+        byte[] p = (cnt & 2) != 0 ? p_bytes : EMPTY;
 
-    System.arraycopy(temp_result, 0, s_bytes, cnt2, cnt);
+        odd_prefix[cnt] = concat(p_bytes, s, p);
+        even_suffix[cnt] = concat(s, p, p_bytes);
+      }
 
     /* Repeatedly run the collected hash value through SHA512 to burn
        CPU cycles.  */
 
+    int mod3 = 0;
+    int mod7 = 0;
+
     for (cnt = 0; cnt < rounds; ++cnt)
       {
-        ctx.reset();
+        byte[] seq;
 
         if ((cnt & 1) != 0)
           {
-            ctx.update(p_bytes, 0, key.length);
+            seq = odd_prefix[(mod3 != 0 ? 1 : 0) | (mod7 != 0 ? 2 : 0)];
+            ctx.update(seq, 0, seq.length);
+            ctx.update(alt_result, 0, DIGEST_LEN);
           }
         else
           {
-            ctx.update (alt_result, 0, 64);
+            seq = even_suffix[(mod3 != 0 ? 1 : 0) | (mod7 != 0 ? 2 : 0)];
+            ctx.update(alt_result, 0, DIGEST_LEN);
+            ctx.update(seq, 0, seq.length);
           }
 
-        if (cnt % 3 != 0)
+        digest(ctx, alt_result);
+
+        if (++mod3 == 3)
           {
-            ctx.update(s_bytes, 0, salt.length);
+            mod3 = 0;
           }
 
-        if (cnt % 7 != 0)
+        if (++mod7 == 7)
           {
-            ctx.update(p_bytes, 0, key.length);
+            mod7 = 0;
           }
+      }
 
-        if ((cnt & 1) != 0)
+    int len = SALT_PREFIX.length + salt.length + 1 + HASH_TEXT_LEN;
+    int digits = 0;
+
+    if (include_round_count || rounds != ROUNDS_DEFAULT)
+      {
+        for (cnt = rounds; cnt > 0; cnt /= 10)
           {
-            ctx.update(alt_result, 0, 64);
+            digits++;
           }
-        else
+
+        len += ROUNDS_PREFIX.length + digits + 1;
+      }
+
+    byte[] buffer = new byte[len];
+    int pos = put(buffer, 0, SALT_PREFIX);
+
+    if (digits > 0)
+      {
+        pos = put(buffer, pos, ROUNDS_PREFIX);
+
+        for (cnt = rounds, len = digits; len > 0; cnt /= 10)
           {
-            ctx.update(p_bytes, 0, key.length);
+            buffer[pos + --len] = (byte) ('0' + cnt % 10);
           }
 
-        alt_result = ctx.digest();
+        pos += digits;
+        buffer[pos++] = '$';
       }
 
-    buffer = new StringBuilder(sha512_salt_prefix);
+    pos = put(buffer, pos, salt);
+    buffer[pos++] = '$';
 
-    if (include_round_count || rounds != ROUNDS_DEFAULT)
+    for (cnt = 0; cnt < B64_ORDER.length; cnt += 3)
       {
-        buffer.append(sha512_rounds_prefix);
-        buffer.append(rounds);
-        buffer.append("$");
+        pos = b64_from_24bit (alt_result[B64_ORDER[cnt]], alt_result[B64_ORDER[cnt + 1]], alt_result[B64_ORDER[cnt + 2]], 4, buffer, pos);
       }
 
-    buffer.append(saltStr);
-    buffer.append("$");
-
-    buffer.append(b64_from_24bit (alt_result[0], alt_result[21], alt_result[42], 4));
-    buffer.append(b64_from_24bit (alt_result[22], alt_result[43], alt_result[1], 4));
-    buffer.append(b64_from_24bit (alt_result[44], alt_result[2], alt_result[23], 4));
-    buffer.append(b64_from_24bit (alt_result[3], alt_result[24], alt_result[45], 4));
-    buffer.append(b64_from_24bit (alt_result[25], alt_result[46], alt_result[4], 4));
-    buffer.append(b64_from_24bit (alt_result[47], alt_result[5], alt_result[26], 4));
-    buffer.append(b64_from_24bit (alt_result[6], alt_result[27], alt_result[48], 4));
-    buffer.append(b64_from_24bit (alt_result[28], alt_result[49], alt_result[7], 4));
-    buffer.append(b64_from_24bit (alt_result[50], alt_result[8], alt_result[29], 4));
-    buffer.append(b64_from_24bit (alt_result[9], alt_result[30], alt_result[51], 4));
-    buffer.append(b64_from_24bit (alt_result[31], alt_result[52], alt_result[10], 4));
-    buffer.append(b64_from_24bit (alt_result[53], alt_result[11], alt_result[32], 4));
-    buffer.append(b64_from_24bit (alt_result[12], alt_result[33], alt_result[54], 4));
-    buffer.append(b64_from_24bit (alt_result[34], alt_result[55], alt_result[13], 4));
-    buffer.append(b64_from_24bit (alt_result[56], alt_result[14], alt_result[35], 4));
-    buffer.append(b64_from_24bit (alt_result[15], alt_result[36], alt_result[57], 4));
-    buffer.append(b64_from_24bit (alt_result[37], alt_result[58], alt_result[16], 4));
-    buffer.append(b64_from_24bit (alt_result[59], alt_result[17], alt_result[38], 4));
-    buffer.append(b64_from_24bit (alt_result[18], alt_result[39], alt_result[60], 4));
-    buffer.append(b64_from_24bit (alt_result[40], alt_result[61], alt_result[19], 4));
-    buffer.append(b64_from_24bit (alt_result[62], alt_result[20], alt_result[41], 4));
-    buffer.append(b64_from_24bit ((byte)0x00, (byte)0x00, alt_result[63], 2));
+    pos = b64_from_24bit ((byte)0x00, (byte)0x00, alt_result[63], 2, buffer, pos);
 
     /* Clear the buffer for the intermediate result so that people
        attaching to processes or reading core dumps cannot get any
        information. */
 
-    ctx.reset();
+    java.util.Arrays.fill(alt_result, (byte) 0);
+    java.util.Arrays.fill(temp_result, (byte) 0);
+    java.util.Arrays.fill(p_bytes, (byte) 0);
 
-    return buffer.toString();
+    for (cnt = 0; cnt < 4; cnt++)
+      {
+        java.util.Arrays.fill(odd_prefix[cnt], (byte) 0);
+        java.util.Arrays.fill(even_suffix[cnt], (byte) 0);
+      }
+
+    return buffer;
   }
 
-  private static final String b64_from_24bit(byte B2, byte B1, byte B0, int size)
+  private static final void digest(MessageDigest ctx, byte[] result)
   {
-    int v = ((((int) B2) & 0xFF) << 16) | ((((int) B1) & 0xFF) << 8) | ((int)B0 & 0xff);
+    try
+      {
+        ctx.digest(result, 0, result.length);
+      }
+    catch (java.security.DigestException ex)
+      {
+        throw new RuntimeException(ex);
+      }
+  }
+
+  /**
+   * <p>Fills an array of the given length with the digest repeated as
+   * many times as it takes.</p>
+   */
+
+  private static final byte[] repeat(byte[] digest, int length)
+  {
+    byte[] result = new byte[length];
+
+    for (int cnt = 0; cnt < length; cnt += digest.length)
+      {
+        System.arraycopy(digest, 0, result, cnt, Math.min(digest.length, length - cnt));
+      }
+
+    return result;
+  }
+
+  private static final byte[] concat(byte[] a, byte[] b, byte[] c)
+  {
+    byte[] result = new byte[a.length + b.length + c.length];
+
+    System.arraycopy(a, 0, result, 0, a.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    System.arraycopy(c, 0, result, a.length + b.length, c.length);
+
+    return result;
+  }
+
+  private static final int put(byte[] buffer, int pos, byte[] bytes)
+  {
+    System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+
+    return pos + bytes.length;
+  }
+
+  private static final boolean startsWith(byte[] bytes, int off, byte[] prefix)
+  {
+    if (bytes.length - off < prefix.length)
+      {
+        return false;
+      }
 
-    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < prefix.length; i++)
+      {
+        if (bytes[off + i] != prefix[i])
+          {
+            return false;
+          }
+      }
+
+    return true;
+  }
+
+  private static final int indexOf(byte[] bytes, int from, int to, byte b)
+  {
+    for (int i = from; i < to; i++)
+      {
+        if (bytes[i] == b)
+          {
+            return i;
+          }
+      }
+
+    return -1;
+  }
+
+  /**
+   * <p>Parses the decimal round count in the given range, accepting the
+   * same input as Integer.valueOf().</p>
+   */
+
+  private static final int parseRounds(byte[] bytes, int from, int to)
+  {
+    char[] num = new char[to - from];
+
+    for (int i = 0; i < num.length; i++)
+      {
+        num[i] = (char) (bytes[from + i] & 0xFF);
+      }
+
+    return Integer.parseInt(new String(num));
+  }
+
+  private static final int b64_from_24bit(byte B2, byte B1, byte B0, int size, byte[] buffer, int pos)
+  {
+    int v = ((((int) B2) & 0xFF) << 16) | ((((int) B1) & 0xFF) << 8) | ((int)B0 & 0xff);
 
     while (--size >= 0)
       {
-        result.append(itoa64.charAt((int) (v & 0x3f)));
+        buffer[pos++] = (byte) itoa64.charAt((int) (v & 0x3f));
         v >>>= 6;
       }
 
-    return result.toString();
+    return pos;
   }
 
   /**
@@ -3,9 +3,10 @@ package com.identity4j.connector.unix;
 import java.io.UnsupportedEncodingException;
 
 import com.identity4j.util.crypt.EncoderException;
+import com.identity4j.util.crypt.PrefixedEncoder;
 import com.identity4j.util.crypt.impl.AbstractEncoder;
 
-public class UnixBlowfishEncoder extends AbstractEncoder {
+public class UnixBlowfishEncoder extends AbstractEncoder implements PrefixedEncoder {
 
 	public static final String ID = "unix-blowfish";
 
@@ -34,6 +35,11 @@ public class UnixBlowfishEncoder extends AbstractEncoder {
 		}
 	}
 
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { "$2$", "$2a$" };
+	}
+
 	@Override
 	public boolean isOfType(byte[] encodedBytes, String charset) {
 		try {
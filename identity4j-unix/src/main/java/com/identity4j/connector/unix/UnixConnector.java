@@ -7,6 +7,7 @@ import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -25,6 +26,7 @@ import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.flatfile.AbstractFlatFile;
 import com.identity4j.connector.flatfile.FlatFileConnector;
+import com.identity4j.connector.flatfile.FlatFileSnapshot;
 import com.identity4j.connector.flatfile.LocalDelimitedFlatFile;
 import com.identity4j.connector.flatfile.LocalFixedWidthFlatFile;
 import com.identity4j.connector.principal.AccountStatusType;
@@ -160,13 +162,13 @@ public class UnixConnector extends FlatFileConnector {
 			if (!password.startsWith("!")) {
 				password = "!" + password;
 				row.set(getConfiguration().getPasswordFieldIndex(), password);
-				getPasswordFile().writeRows();
+				getPasswordFile().writeRow(row);
 			}
 			if (passwordsInShadow) {
 				final long now = System.currentTimeMillis();
 				setOnRowOrAdd(shadowRow, DAYS_SINCE_ACCOUNT_WAS_DISABLED_INDEX,
 						String.valueOf(now / 1000 / 60 / 60 / 24));
-				shadowFlatFile.writeRows();
+				shadowFlatFile.writeRow(shadowRow);
 			}
 			identity.getAccountStatus().lock();
 		} catch (IOException e) {
@@ -393,11 +395,11 @@ public class UnixConnector extends FlatFileConnector {
 			if (password.startsWith("!")) {
 				password = password.substring(1);
 				row.set(getConfiguration().getPasswordFieldIndex(), password);
-				getPasswordFile().writeRows();
+				getPasswordFile().writeRow(row);
 			}
 			if (passwordsInShadow) {
 				shadowRow.set(DAYS_SINCE_ACCOUNT_WAS_DISABLED_INDEX, "");
-				shadowFlatFile.writeRows();
+				shadowFlatFile.writeRow(shadowRow);
 			}
 			identity.getAccountStatus().unlock();
 		} catch (IOException e) {
@@ -419,7 +421,7 @@ public class UnixConnector extends FlatFileConnector {
 			row.set(DAYS_SINCE_LAST_PASSWORD_CHANGE_INDEX, String.valueOf(now / 1000 / 60 / 60 / 24));
 			identity.setPasswordStatus(createPasswordStatusFromShadowRow(row));
 			try {
-				shadowFlatFile.writeRows();
+				shadowFlatFile.writeRow(row);
 			} catch (IOException e) {
 				throw new ConnectorException("Write failure", e);
 			}
@@ -498,7 +500,7 @@ public class UnixConnector extends FlatFileConnector {
 					ATTR_DAYS_AFTER_PASSWORD_EXPIRES_THAT_ACCOUNT_IS_DISABLED, identity, shadowRow);
 			maybeSet(DAYS_SINCE_ACCOUNT_WAS_DISABLED_INDEX, ATTR_DAYS_SINCE_ACCOUNT_WAS_DISABLED, identity, shadowRow);
 			try {
-				shadowFlatFile.writeRows();
+				shadowFlatFile.writeRow(shadowRow);
 			} catch (IOException e) {
 				throw new ConnectorException("Write failure", e);
 			}
@@ -544,9 +546,9 @@ public class UnixConnector extends FlatFileConnector {
 		List<String> row = groupFlatFile.getRowByKeyField(GID_INDEX, role.getGuid());
 		row.set(0, role.getPrincipalName());
 
-		// write the entire file
+		// write the changed row
 		try {
-			groupFlatFile.writeRows();
+			groupFlatFile.writeRow(row);
 		} catch (IOException e) {
 			throw new ConnectorException("Write failure", e);
 		}
@@ -574,7 +576,7 @@ public class UnixConnector extends FlatFileConnector {
 			if (groupFlatFile.getFile().getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
 				groupFlatFile.appendRow(row);
 			} else {
-				groupFlatFile.writeRows();
+				groupFlatFile.writeRows(Collections.singletonList(row));
 			}
 		} catch (ConnectorException ce) {
 			groupFlatFile.remove(row);
@@ -594,7 +596,7 @@ public class UnixConnector extends FlatFileConnector {
 		checkLoaded();
 		groupFlatFile.remove(principalName);
 		try {
-			groupFlatFile.writeRows();
+			groupFlatFile.writeRows(Collections.<List<String>>emptyList());
 		} catch (IOException e) {
 			throw new ConnectorException("delete role failure during write", e);
 		}
@@ -645,7 +647,7 @@ public class UnixConnector extends FlatFileConnector {
 					if (passwordFile.getFile().getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
 						passwordFile.appendRow(passwordRow);
 					} else {
-						passwordFile.writeRows();
+						passwordFile.writeRows(Collections.singletonList(passwordRow));
 					}
 				} catch (IOException e) {
 					throw new ConnectorException("Failed to append row.", e);
@@ -658,7 +660,7 @@ public class UnixConnector extends FlatFileConnector {
 											getConfiguration().getIdentityPasswordEncoding(),
 											getConfiguration().getCharset(), null, null),
 									getConfiguration().getCharset()));
-					passwordFile.writeRows();
+					passwordFile.writeRow(passwordRow);
 				} catch (UnsupportedEncodingException e) {
 					throw new ConnectorException(e);
 				} catch (EncoderException e) {
@@ -694,6 +696,21 @@ public class UnixConnector extends FlatFileConnector {
 		reset();
 	}
 
+	@Override
+	public void flush() throws ConnectorException {
+		super.flush();
+		try {
+			if (shadowFlatFile != null) {
+				shadowFlatFile.flush();
+			}
+			if (groupFlatFile != null) {
+				groupFlatFile.flush();
+			}
+		} catch (IOException e) {
+			throw new ConnectorException("Write failure", e);
+		}
+	}
+
 	protected void reset() {
 		lastLogFlatFile = null;
 		lastLogLastLoaded = -1;
@@ -791,6 +808,32 @@ public class UnixConnector extends FlatFileConnector {
 		return identity;
 	}
 
+	@Override
+	protected String getIdentityData(List<String> row) {
+		/*
+		 * Identities are also built from the shadow and group files. Last
+		 * sign on times from lastlog are not considered a change
+		 */
+		StringBuilder data = new StringBuilder(row.toString());
+		String principalName = row.get(getConfiguration().getKeyFieldIndex());
+		if (shadowFlatFile != null) {
+			data.append(shadowFlatFile.getRowByKeyField(0, principalName));
+		}
+		List<String> groupRow = groupFlatFile.getRowByKeyField(GID_INDEX, row.get(GID_FIELD_INDEX));
+		if (groupRow != null) {
+			data.append(groupRow.get(0));
+		}
+		data.append(additionalGroups.get(principalName));
+		return data.toString();
+	}
+
+	@Override
+	protected void snapshotRoles(FlatFileSnapshot snapshot) {
+		for (List<String> row : groupFlatFile.getContents()) {
+			snapshot.addRole(row.get(0), row.get(GID_INDEX), row.toString());
+		}
+	}
+
 	private void doIdentityRoles(List<String> row, IdentityImpl identity) {
 		// Add the users primary group
 		String gid = row.get(GID_FIELD_INDEX);
@@ -836,6 +879,10 @@ public class UnixConnector extends FlatFileConnector {
 			groupFlatFile = new LocalDelimitedFlatFile(
 					getFileSystemManager().resolveFile(((UnixConfiguration) getConfiguration()).getGroupFileUri()),
 					getConfiguration().getCharset());
+			groupFlatFile.setCompactStorage(getConfiguration().isCompactStorage());
+			groupFlatFile.setFlushInterval(getConfiguration().getFlushInterval());
+			groupFlatFile.setAtomicWrites(getConfiguration().isAtomicWrites());
+			groupFlatFile.setStaleCheckInterval(getConfiguration().getStaleCheckInterval());
 			groupFlatFile.addIndex(0); // Name
 			groupFlatFile.addIndex(GID_INDEX); // GID
 			groupFlatFile.setFieldSeparator(':');
@@ -850,6 +897,11 @@ public class UnixConnector extends FlatFileConnector {
 		}
 	}
 
+	@Override
+	protected AbstractFlatFile getPasswordFlatFile() {
+		return getPasswordFile();
+	}
+
 	private LocalDelimitedFlatFile getPasswordFile() {
 		if (passwordsInShadow) {
 			return shadowFlatFile;
@@ -916,6 +968,10 @@ public class UnixConnector extends FlatFileConnector {
 				 * must be readable by the Java process owner
 				 */
 				shadowFlatFile = new LocalDelimitedFlatFile(shadowFile, getConfiguration().getCharset());
+				shadowFlatFile.setCompactStorage(getConfiguration().isCompactStorage());
+				shadowFlatFile.setFlushInterval(getConfiguration().getFlushInterval());
+				shadowFlatFile.setStaleCheckInterval(getConfiguration().getStaleCheckInterval());
+				// Never replaced by atomic writes, which would lose its permissions
 				shadowFlatFile.addIndex(0);
 				shadowFlatFile.setFieldSeparator(':');
 			} else {
@@ -4,13 +4,15 @@ import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 
 import com.identity4j.util.crypt.EncoderException;
+import com.identity4j.util.crypt.PrefixedEncoder;
 import com.identity4j.util.crypt.impl.AbstractEncoder;
 
-public class UnixMD5Encoder extends AbstractEncoder {
+public class UnixMD5Encoder extends AbstractEncoder implements PrefixedEncoder {
 
 	public static final String ID = "unix-md5";
 
 	private final String saltPrefix;
+	private final byte[] magic;
 
 	public UnixMD5Encoder() {
 		this(ID, "$1$");
@@ -19,34 +21,38 @@ public class UnixMD5Encoder extends AbstractEncoder {
 	public UnixMD5Encoder(String id, String saltPrefix) {
 		super(id);
 		this.saltPrefix = saltPrefix;
+		try {
+			magic = saltPrefix.getBytes("US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	@Override
 	public boolean match(byte[] encodedData, byte[] unencodedData, byte[] passphrase, String charset) throws EncoderException {
-		try {
-			if (!isOfType(encodedData, charset)) {
-				throw new EncoderException("Encoded data is not in Unix MD5 crypt format");
-			}
-			String encoded = new String(encodedData, charset);
-			if(encoded.equals("*")) {
-				// No login
-				return false;
-			}
-			if(encoded.startsWith("!")) {
-				// Password locked
-				return false;
-			}
-			int sl = saltPrefix.length();
-			int idx = encoded.indexOf('$', sl);
-			if (idx == -1) {
-				throw new EncoderException("Expected end of salt character $");
-			}
-			String salt = encoded.substring(0, idx);
-			return Arrays.equals(encode(unencodedData, salt.getBytes(charset), passphrase, charset), encodedData);
-
-		} catch (UnsupportedEncodingException e) {
-			throw new EncoderException(e);
+		if (!isOfType(encodedData, charset)) {
+			throw new EncoderException("Encoded data is not in Unix MD5 crypt format");
+		}
+		if (encodedData.length == 1 && encodedData[0] == '*') {
+			// No login
+			return false;
 		}
+		if (encodedData.length > 0 && encodedData[0] == '!') {
+			// Password locked
+			return false;
+		}
+		int idx = indexOf(encodedData, '$', magic.length);
+		if (idx == -1) {
+			throw new EncoderException("Expected end of salt character $");
+		}
+		byte[] salt = new byte[idx];
+		System.arraycopy(encodedData, 0, salt, 0, idx);
+		return Arrays.equals(MD5Crypt.crypt_md5(unencodedData, salt, magic), encodedData);
+	}
+
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { saltPrefix };
 	}
 
 	@Override
@@ -60,19 +66,22 @@ public class UnixMD5Encoder extends AbstractEncoder {
 
 	@Override
 	public byte[] encode(byte[] toEncode, byte[] salt, byte[] passphrase, String charset) throws EncoderException {
-		try {
-			if (salt == null) {
-				return MD5Crypt.md5Crypt(new String(toEncode, charset), charset).getBytes(charset);
-			} else {
-				final String saltString = new String(salt, charset);
-				if (saltString.length() < 2) {
-					throw new EncoderException("Salt must be at least 2 characters .");
-				}
-				final String crypt = MD5Crypt.crypt_md5(toEncode, saltString, saltPrefix);
-				return crypt.getBytes(charset);
+		if (salt == null) {
+			return MD5Crypt.md5Crypt(toEncode, magic);
+		} else {
+			if (salt.length < 2) {
+				throw new EncoderException("Salt must be at least 2 characters .");
+			}
+			return MD5Crypt.crypt_md5(toEncode, salt, magic);
+		}
+	}
+
+	private static int indexOf(byte[] bytes, char ch, int from) {
+		for (int i = from; i < bytes.length; i++) {
+			if (bytes[i] == ch) {
+				return i;
 			}
-		} catch (Exception e) {
-			throw new EncoderException(e);
 		}
+		return -1;
 	}
 }
@@ -1,7 +1,5 @@
 package com.identity4j.connector.unix;
 
-import java.io.UnsupportedEncodingException;
-
 public class UnixSHA256Encoder extends AbstractUnixSHAEncoder {
 
     public static final String ID = "unix-sha256";
@@ -9,8 +7,7 @@ public class UnixSHA256Encoder extends AbstractUnixSHAEncoder {
     public UnixSHA256Encoder() {
         super(ID, "$5$", 256);
     }
-    protected String doCrypt(byte[] unencodedData, String charset, String salt) throws UnsupportedEncodingException {
-        String toMatch = Sha256Crypt.Sha256_crypt(new String(unencodedData, charset), salt, 0);
-        return toMatch;
+    protected byte[] doCrypt(byte[] unencodedData, byte[] salt) {
+        return Sha256Crypt.Sha256_crypt(unencodedData, salt, 0);
     }
 }
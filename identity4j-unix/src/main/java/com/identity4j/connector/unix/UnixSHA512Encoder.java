@@ -1,7 +1,5 @@
 package com.identity4j.connector.unix;
 
-import java.io.UnsupportedEncodingException;
-
 public class UnixSHA512Encoder extends AbstractUnixSHAEncoder {
 
     public static final String ID = "unix-sha512";
@@ -9,8 +7,8 @@ public class UnixSHA512Encoder extends AbstractUnixSHAEncoder {
     public UnixSHA512Encoder() {
         super(ID, "$6$", 512);
     }
-    protected String doCrypt(byte[] unencodedData, String charset, String salt) throws UnsupportedEncodingException {
-        return Sha512Crypt.Sha512_crypt(new String(unencodedData, charset), salt, 0);
+    protected byte[] doCrypt(byte[] unencodedData, byte[] salt) {
+        return Sha512Crypt.Sha512_crypt(unencodedData, salt, 0);
     }
     
 }
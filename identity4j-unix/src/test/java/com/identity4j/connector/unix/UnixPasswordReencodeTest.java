@@ -0,0 +1,90 @@
+package com.identity4j.connector.unix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.ConnectorBuilder;
+import com.identity4j.connector.flatfile.FlatFileConfiguration;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.util.MultiMap;
+
+public class UnixPasswordReencodeTest {
+
+    private static final String USER = "testuser";
+    private static final String PASSWORD = "qwqwqw";
+
+    private UnixConnector connector;
+
+    @Before
+    public void setUp() throws IOException {
+        Properties properties = new Properties();
+        InputStream in = getClass().getResourceAsStream("/unix-connector.properties");
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        properties.put(FlatFileConfiguration.KEY_FILENAME, copyResource("/passwd"));
+        properties.put(UnixConfiguration.KEY_GROUP_FILE, copyResource("/group"));
+        properties.put(UnixConfiguration.KEY_SHADOW_FILE, copyResource("/shadow"));
+        connector = (UnixConnector) new ConnectorBuilder().buildConnector(MultiMap.toMultiMap(properties));
+    }
+
+    @After
+    public void tearDown() {
+        connector.close();
+    }
+
+    @Test
+    public void reencodesMatchingPasswords() {
+        Map<String, char[]> credentials = new LinkedHashMap<String, char[]>();
+        credentials.put(USER, PASSWORD.toCharArray());
+        credentials.put("nosuchuser", PASSWORD.toCharArray());
+        assertEquals(1, connector.reencodePasswords(credentials.entrySet().iterator(), UnixSHA512Encoder.ID, 2));
+
+        Identity identity = connector.getIdentityByName(USER);
+        assertTrue(new String(connector.getPasswordForIdentity(identity)).startsWith("$6$"));
+        assertTrue(connector.checkCredentials(USER, PASSWORD.toCharArray()));
+    }
+
+    @Test
+    public void leavesWrongPasswordsAlone() {
+        Identity identity = connector.getIdentityByName(USER);
+        String stored = new String(connector.getPasswordForIdentity(identity));
+        assertEquals(0, connector.reencodePasswords(Collections.singletonMap(USER, "wrong".toCharArray()).entrySet()
+            .iterator(), UnixSHA256Encoder.ID, 2));
+        assertEquals(stored, new String(connector.getPasswordForIdentity(identity)));
+        assertTrue(connector.checkCredentials(USER, PASSWORD.toCharArray()));
+    }
+
+    private String copyResource(String name) throws IOException {
+        File file = File.createTempFile("test", ".txt");
+        file.deleteOnExit();
+        InputStream in = getClass().getResourceAsStream(name);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return file.getAbsolutePath();
+    }
+}
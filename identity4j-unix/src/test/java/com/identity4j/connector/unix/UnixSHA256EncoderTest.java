@@ -0,0 +1,31 @@
+package com.identity4j.connector.unix;
+
+import java.io.UnsupportedEncodingException;
+
+import com.identity4j.util.crypt.AbstractEncoderTest;
+
+public class UnixSHA256EncoderTest extends AbstractEncoderTest {
+	static {
+		// The connector registers the Unix encoders
+		new UnixConnector();
+	}
+
+	final static String PW1 = "Hello world!";
+	final static String HASH1 = "$5$saltstring$5B8vYYiY.CVt1RlTTf8KbXBH3hsxY/GNooZaBBGWEc5";
+	final static String SALT1 = "$5$saltstring";
+
+	final static String PW2 = "This is just a test";
+	final static String HASH2 = "$5$rounds=5000$toolongsaltstrin$Un/5jzAHMgOGZ5.mWJpuVolil07guHPvOW8mGRcvxa5";
+	final static String SALT2 = "$5$rounds=5000$toolongsaltstring";
+
+	final static String PW3 = "the minimum number is still observed";
+	final static String HASH3 = "$5$rounds=1000$roundstoolow$yfvwcWrQ8l/K0DAWyuPMDNHpIVlTQebY9l/gL972bIC";
+	final static String SALT3 = "$5$rounds=10$roundstoolow";
+
+	public UnixSHA256EncoderTest() throws UnsupportedEncodingException {
+		super(UnixSHA256Encoder.ID, new String[] { PW1, PW2, PW3 }, new byte[][] { HASH1.getBytes("UTF-8"),
+			HASH2.getBytes("UTF-8"), HASH3.getBytes("UTF-8") }, new byte[][] { SALT1.getBytes("UTF-8"),
+			SALT2.getBytes("UTF-8"), SALT3.getBytes("UTF-8") }, null, false, true);
+	}
+
+}
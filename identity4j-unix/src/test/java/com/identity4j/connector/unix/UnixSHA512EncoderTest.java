@@ -2,26 +2,31 @@ package com.identity4j.connector.unix;
 
 import java.io.UnsupportedEncodingException;
 
-import org.junit.Ignore;
-
 import com.identity4j.connector.unix.UnixSHA512Encoder;
 import com.identity4j.util.crypt.AbstractEncoderTest;
-import com.identity4j.util.crypt.impl.DefaultEncoderManager;
 
-@Ignore
-// TODO This encoder doesn't work yet
 public class UnixSHA512EncoderTest extends AbstractEncoderTest {
 	static {
-		DefaultEncoderManager.getInstance().addEncoder(new UnixSHA512Encoder());
+		// The connector registers the Unix encoders
+		new UnixConnector();
 	}
 
 	final static String PW1 = "Hello world!";
 	final static String HASH1 = "$6$saltstring$svn8UoSVapNtMuq1ukKS4tPQd8iKwSMHWjl/O817G3uBnIFNjnQJuesI68u4OTLiBFdcbYEdFCoEOfaS35inz1";
 	final static String SALT1 = "$6$saltstring";
 
+	final static String PW2 = "This is just a test";
+	final static String HASH2 = "$6$rounds=5000$toolongsaltstrin$lQ8jolhgVRVhY4b5pZKaysCLi0QBxGoNeKQzQ3glMhwllF7oGDZxUhx1yxdYcz/e1JSbq3y6JMxxl8audkUEm0";
+	final static String SALT2 = "$6$rounds=5000$toolongsaltstring";
+
+	final static String PW3 = "the minimum number is still observed";
+	final static String HASH3 = "$6$rounds=1000$roundstoolow$kUMsbe306n21p9R.FRkW3IGn.S9NPN0x50YhH1xhLsPuWGsUSklZt58jaTfF4ZEQpyUNGc0dqbpBYYBaHHrsX.";
+	final static String SALT3 = "$6$rounds=10$roundstoolow";
+
 	public UnixSHA512EncoderTest() throws UnsupportedEncodingException {
-		super(UnixSHA512Encoder.ID, new String[] { PW1 }, new byte[][] { HASH1.getBytes("UTF-8") }, new byte[][] { SALT1
-			.getBytes("UTF-8") }, null, false, true);
+		super(UnixSHA512Encoder.ID, new String[] { PW1, PW2, PW3 }, new byte[][] { HASH1.getBytes("UTF-8"),
+			HASH2.getBytes("UTF-8"), HASH3.getBytes("UTF-8") }, new byte[][] { SALT1.getBytes("UTF-8"),
+			SALT2.getBytes("UTF-8"), SALT3.getBytes("UTF-8") }, null, false, true);
 	}
 
 }
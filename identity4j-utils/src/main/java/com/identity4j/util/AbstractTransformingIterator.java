@@ -1,9 +1,15 @@
 package com.identity4j.util;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
-public abstract class AbstractTransformingIterator<E, O> implements Iterator<O> {
+/**
+ * Transforms the elements of another iterator. If the source iterator is
+ * {@link Closeable}, closing this iterator closes the source.
+ */
+public abstract class AbstractTransformingIterator<E, O> implements Iterator<O>, Closeable {
 
     private Iterator<E> sourceIterator;
     private O next;
@@ -35,6 +41,13 @@ public abstract class AbstractTransformingIterator<E, O> implements Iterator<O>
     public void remove() {
     }
 
+    @Override
+    public void close() throws IOException {
+        if (sourceIterator instanceof Closeable) {
+            ((Closeable) sourceIterator).close();
+        }
+    }
+
     private void checkNext() {
         if (next == null) {
             while (sourceIterator.hasNext()) {
@@ -0,0 +1,265 @@
+/* HEADER */
+package com.identity4j.util;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * Limits the rate of requests to a remote API with a token bucket, and backs
+ * off when the API reports it is being called too often.
+ * <p>
+ * Permits are added to the bucket at a steady rate, up to the burst size, so
+ * a client that has been idle may make a short burst of requests before
+ * being held to the rate. Any number of threads may acquire permits at once;
+ * each reserves the next permit and then waits for it outside of any lock.
+ * <p>
+ * When a request is rejected, {@link #backoff(int, long)} waits either as
+ * long as the server asked, e.g. with a <code>Retry-After</code> header, or
+ * for an exponentially increasing, jittered delay. Every other thread is
+ * held off for the same time.
+ */
+public class RateLimiter {
+
+	/**
+	 * Name of the header a server uses to say how long to wait before
+	 * retrying.
+	 */
+	public static final String RETRY_AFTER = "Retry-After";
+
+	private final double permitsPerNano;
+	private final double burst;
+	private final Random random = new Random();
+
+	private double permits;
+	private long lastRefill = System.nanoTime();
+	private long pausedUntil;
+
+	private long initialBackoff = 500;
+	private long maxBackoff = 60000;
+	private int maxRetries = 5;
+
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong throttledNanos = new AtomicLong();
+	private final AtomicLong backoffs = new AtomicLong();
+	private final AtomicLong backoffNanos = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param permitsPerSecond steady rate, zero or less for no limit
+	 * @param burst maximum number of permits that may be acquired at once
+	 *            after a period of inactivity
+	 */
+	public RateLimiter(double permitsPerSecond, int burst) {
+		this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = Math.max(1, burst);
+		this.permits = this.burst;
+	}
+
+	/**
+	 * Create a limiter that allows one request per interval, after any burst.
+	 *
+	 * @param intervalMillis minimum average time between requests, zero or
+	 *            less for no limit
+	 * @param burst burst size
+	 * @return limiter
+	 */
+	public static RateLimiter forInterval(long intervalMillis, int burst) {
+		return new RateLimiter(intervalMillis > 0 ? 1000d / intervalMillis : 0, burst);
+	}
+
+	/**
+	 * Set the delay before the first retry of a rejected request, in
+	 * milliseconds. Each further retry doubles it. The default is 500.
+	 *
+	 * @param initialBackoff initial backoff
+	 */
+	public void setInitialBackoff(long initialBackoff) {
+		this.initialBackoff = initialBackoff;
+	}
+
+	/**
+	 * Set the longest delay between retries, in milliseconds. The default is
+	 * 60000.
+	 *
+	 * @param maxBackoff maximum backoff
+	 */
+	public void setMaxBackoff(long maxBackoff) {
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Set how many times a rejected request is retried. The default is 5.
+	 *
+	 * @param maxRetries maximum retries
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Get how many times a rejected request is retried.
+	 *
+	 * @return maximum retries
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Wait until a request may be made. If the thread is interrupted, this
+	 * returns early with the interrupt flag set.
+	 */
+	public void acquire() {
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (permitsPerNano > 0) {
+				permits = Math.min(burst, permits + (now - lastRefill) * permitsPerNano);
+				lastRefill = now;
+				permits -= 1;
+				// A negative balance is a reservation of future permits
+				wait = permits < 0 ? (long) Math.ceil(-permits / permitsPerNano) : 0;
+			} else {
+				wait = 0;
+			}
+			wait = Math.max(wait, pausedUntil - now);
+		}
+		acquired.incrementAndGet();
+		if (wait > 0) {
+			throttled.incrementAndGet();
+			throttledNanos.addAndGet(sleep(wait));
+		}
+	}
+
+	/**
+	 * Wait before retrying a rejected request, and hold off all other
+	 * requests for the same time.
+	 *
+	 * @param attempt number of retries already made for the request
+	 * @param retryAfterMillis how long the server asked to wait, or a
+	 *            negative number if it did not say
+	 * @return <code>false</code> if the request should not be retried, because
+	 *         the retries are exhausted or the thread was interrupted
+	 */
+	public boolean backoff(int attempt, long retryAfterMillis) {
+		if (attempt >= maxRetries) {
+			return false;
+		}
+		long delay;
+		if (retryAfterMillis >= 0) {
+			delay = Math.min(retryAfterMillis, maxBackoff);
+		} else {
+			long max = Math.min(maxBackoff, initialBackoff << Math.min(attempt, 30));
+			// Equal jitter, so concurrent clients spread out but still wait
+			synchronized (random) {
+				delay = max / 2 + (long) (random.nextDouble() * (max - max / 2));
+			}
+		}
+		long nanos = TimeUnit.MILLISECONDS.toNanos(delay);
+		synchronized (this) {
+			pausedUntil = Math.max(pausedUntil, System.nanoTime() + nanos);
+		}
+		backoffs.incrementAndGet();
+		backoffNanos.addAndGet(sleep(nanos));
+		return !Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Get whether a response status means the request was rejected because of
+	 * its rate, or the server is temporarily unavailable, and so may be
+	 * retried.
+	 *
+	 * @param status HTTP status
+	 * @return retryable
+	 */
+	public static boolean isRetryable(int status) {
+		return status == 429 || status == 503;
+	}
+
+	/**
+	 * Parse the value of a <code>Retry-After</code> header, which is either a
+	 * number of seconds or a date.
+	 *
+	 * @param value header value, may be <code>null</code>
+	 * @return milliseconds to wait, or -1 if not given or not understood
+	 */
+	public static long parseRetryAfter(String value) {
+		if (value == null || value.trim().length() == 0) {
+			return -1;
+		}
+		value = value.trim();
+		try {
+			return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+		} catch (NumberFormatException nfe) {
+			Date date = DateUtils.parseDate(value);
+			return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Get the number of permits acquired.
+	 *
+	 * @return permits acquired
+	 */
+	public long getAcquiredCount() {
+		return acquired.get();
+	}
+
+	/**
+	 * Get the number of times a thread had to wait for a permit.
+	 *
+	 * @return throttled count
+	 */
+	public long getThrottledCount() {
+		return throttled.get();
+	}
+
+	/**
+	 * Get the total time threads have waited for permits, in milliseconds.
+	 *
+	 * @return throttled time
+	 */
+	public long getThrottledTime() {
+		return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+	}
+
+	/**
+	 * Get the number of times a rejected request was backed off.
+	 *
+	 * @return backoff count
+	 */
+	public long getBackoffCount() {
+		return backoffs.get();
+	}
+
+	/**
+	 * Get the total time spent backing off, in milliseconds.
+	 *
+	 * @return backoff time
+	 */
+	public long getBackoffTime() {
+		return TimeUnit.NANOSECONDS.toMillis(backoffNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimiter [acquired=" + getAcquiredCount() + ", throttled=" + getThrottledCount() + ", throttledTime="
+				+ getThrottledTime() + ", backoffs=" + getBackoffCount() + ", backoffTime=" + getBackoffTime() + "]";
+	}
+
+	private static long sleep(long nanos) {
+		long start = System.nanoTime();
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return System.nanoTime() - start;
+	}
+}
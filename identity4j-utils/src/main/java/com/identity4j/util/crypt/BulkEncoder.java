@@ -0,0 +1,281 @@
+package com.identity4j.util.crypt;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes and matches many passwords at once, for example when migrating a
+ * whole password file from one encoding to another. Jobs are taken from an
+ * {@link Iterator} and run on a pool of threads, and their results are
+ * returned, in the same order, from another {@link Iterator}.
+ * <p>
+ * Only a limited number of jobs are ever in flight: the next job is not taken
+ * from the source until a result has been taken by the caller, so neither
+ * side has to hold the whole batch in memory however large it is.
+ * <p>
+ * A failure in one job is returned in its {@link Result} and does not stop
+ * the others. Close the encoder to release its threads.
+ */
+public class BulkEncoder implements Closeable {
+
+	private final EncoderManager encoderManager;
+	private final String charset;
+	private final ThreadPoolExecutor pool;
+	private final int maxPending;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param encoderManager encoder manager to look up encoders from
+	 * @param charset character set of the encoded data
+	 * @param parallelism number of threads, or 0 for one per processor
+	 */
+	public BulkEncoder(EncoderManager encoderManager, String charset, int parallelism) {
+		this(encoderManager, charset, parallelism, 0);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param encoderManager encoder manager to look up encoders from
+	 * @param charset character set of the encoded data
+	 * @param parallelism number of threads, or 0 for one per processor
+	 * @param maxPending maximum number of jobs taken from the source but whose
+	 *            results have not been returned, or 0 for four per thread
+	 */
+	public BulkEncoder(EncoderManager encoderManager, String charset, int parallelism, int maxPending) {
+		if (parallelism < 0 || maxPending < 0) {
+			throw new IllegalArgumentException("Parallelism and maximum pending jobs may not be negative.");
+		}
+		this.encoderManager = encoderManager;
+		this.charset = charset;
+		int threads = parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+		final AtomicInteger threadCount = new AtomicInteger();
+		pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "BulkEncoder-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// Idle threads go away, so an encoder that is not closed does not keep them
+		pool.allowCoreThreadTimeOut(true);
+		this.maxPending = maxPending == 0 ? threads * 4 : maxPending;
+	}
+
+	/**
+	 * Run all jobs from the source. Jobs are only taken from the source as
+	 * results are taken from the returned iterator.
+	 *
+	 * @param jobs jobs
+	 * @return results, in the order of the jobs
+	 */
+	public Iterator<Result> run(final Iterator<Job> jobs) {
+		return new Iterator<Result>() {
+			private final Deque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+
+			@Override
+			public boolean hasNext() {
+				fill();
+				return !pending.isEmpty();
+			}
+
+			@Override
+			public Result next() {
+				fill();
+				if (pending.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Future<Result> result = pending.removeFirst();
+				try {
+					return result.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new EncoderException("Interrupted waiting for result.", e);
+				} catch (ExecutionException e) {
+					throw new EncoderException("Job failed.", e.getCause());
+				} finally {
+					fill();
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			private void fill() {
+				while (pending.size() < maxPending && jobs.hasNext()) {
+					final Job job = jobs.next();
+					pending.addLast(pool.submit(new Callable<Result>() {
+						@Override
+						public Result call() {
+							return process(job);
+						}
+					}));
+				}
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		pool.shutdownNow();
+	}
+
+	Result process(Job job) {
+		try {
+			boolean matched = true;
+			if (job.encoded != null) {
+				matched = encoderManager.getEncoder(job.encodedWith).match(job.encoded, job.data, job.passphrase, charset);
+			}
+			byte[] result = null;
+			if (matched && job.encoderId != null) {
+				result = encoderManager.getEncoder(job.encoderId).encode(job.data, job.salt, job.passphrase, charset);
+			}
+			return new Result(job, matched, result, null);
+		} catch (RuntimeException e) {
+			return new Result(job, false, null, e);
+		}
+	}
+
+	/**
+	 * A password to encode, match or both. Create with
+	 * {@link #encode(String, String, byte[], byte[], byte[])},
+	 * {@link #match(String, String, byte[], byte[], byte[])} or
+	 * {@link #reencode(String, String, byte[], byte[], String)}.
+	 */
+	public static final class Job {
+		private final String key;
+		private final String encodedWith;
+		private final byte[] encoded;
+		private final byte[] data;
+		private final String encoderId;
+		private final byte[] salt;
+		private final byte[] passphrase;
+
+		private Job(String key, String encodedWith, byte[] encoded, byte[] data, String encoderId, byte[] salt,
+				byte[] passphrase) {
+			this.key = key;
+			this.encodedWith = encodedWith;
+			this.encoded = encoded;
+			this.data = data;
+			this.encoderId = encoderId;
+			this.salt = salt;
+			this.passphrase = passphrase;
+		}
+
+		/**
+		 * A job that encodes data.
+		 *
+		 * @param key anything identifying the job to the caller, e.g. a
+		 *            principal name
+		 * @param encoderId encoder to encode with
+		 * @param data data to encode
+		 * @param salt salt or <code>null</code>
+		 * @param passphrase passphrase or <code>null</code>
+		 * @return job
+		 */
+		public static Job encode(String key, String encoderId, byte[] data, byte[] salt, byte[] passphrase) {
+			return new Job(key, null, null, data, encoderId, salt, passphrase);
+		}
+
+		/**
+		 * A job that matches data against encoded data.
+		 *
+		 * @param key anything identifying the job to the caller, e.g. a
+		 *            principal name
+		 * @param encodedWith encoder the data was encoded with
+		 * @param encoded encoded data
+		 * @param data data to match
+		 * @param passphrase passphrase or <code>null</code>
+		 * @return job
+		 */
+		public static Job match(String key, String encodedWith, byte[] encoded, byte[] data, byte[] passphrase) {
+			return new Job(key, encodedWith, encoded, data, null, null, passphrase);
+		}
+
+		/**
+		 * A job that matches data against encoded data and, only if it
+		 * matches, encodes it again with another encoder.
+		 *
+		 * @param key anything identifying the job to the caller, e.g. a
+		 *            principal name
+		 * @param encodedWith encoder the data was encoded with
+		 * @param encoded encoded data
+		 * @param data data to match
+		 * @param encoderId encoder to encode with
+		 * @return job
+		 */
+		public static Job reencode(String key, String encodedWith, byte[] encoded, byte[] data, String encoderId) {
+			return new Job(key, encodedWith, encoded, data, encoderId, null, null);
+		}
+
+		public String getKey() {
+			return key;
+		}
+	}
+
+	/**
+	 * The outcome of a {@link Job}.
+	 */
+	public static final class Result {
+		private final Job job;
+		private final boolean matched;
+		private final byte[] encoded;
+		private final RuntimeException error;
+
+		Result(Job job, boolean matched, byte[] encoded, RuntimeException error) {
+			this.job = job;
+			this.matched = matched;
+			this.encoded = encoded;
+			this.error = error;
+		}
+
+		public Job getJob() {
+			return job;
+		}
+
+		/**
+		 * Get whether the data matched the encoded data. Always
+		 * <code>true</code> for jobs that only encode, unless they failed.
+		 *
+		 * @return matched
+		 */
+		public boolean isMatched() {
+			return matched;
+		}
+
+		/**
+		 * Get the newly encoded data, or <code>null</code> if the job only
+		 * matches, did not match or failed.
+		 *
+		 * @return encoded data
+		 */
+		public byte[] getEncoded() {
+			return encoded;
+		}
+
+		/**
+		 * Get the reason the job failed, or <code>null</code> if it did not.
+		 *
+		 * @return error
+		 */
+		public RuntimeException getError() {
+			return error;
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package com.identity4j.util.crypt;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -10,6 +12,7 @@ import com.identity4j.util.crypt.impl.PlainEncoder;
 public class EncoderManager {
 
 	private Map<String, Encoder> encoders = new TreeMap<String, Encoder>();
+	private volatile Dispatch dispatch = new Dispatch(encoders.values());
 
 	public EncoderManager() {
 	}
@@ -23,6 +26,7 @@ public class EncoderManager {
 			throw new IllegalArgumentException("An encoder with the ID of " + encoder.getId() + " has already been registered.");
 		}
 		encoders.put(encoder.getId(), encoder);
+		dispatch = new Dispatch(encoders.values());
 	}
 
 	public void removeEncoder(Encoder encoder) {
@@ -30,29 +34,46 @@ public class EncoderManager {
 			throw new IllegalArgumentException("An encoder with the ID of " + encoder.getId() + " is not registered.");
 		}
 		encoders.remove(encoder.getId());
+		dispatch = new Dispatch(encoders.values());
 	}
 
+	/**
+	 * Find the encoder that was most likely used to create an encoded string.
+	 * Encoders with a known prefix are looked up by it, the longest matching
+	 * prefix winning, and only if none match are the remaining encoders asked
+	 * in turn.
+	 *
+	 * @param string encoded string
+	 * @param charset character set
+	 * @param supportedEncoders IDs of the encoders to consider, or
+	 *            <code>null</code> for all
+	 * @return encoder or <code>null</code> if none recognise the string
+	 */
 	public Encoder getEncoderForEncodedString(char[] string, String charset, Collection<String> supportedEncoders) {
-		try {
-			byte[] data = new String(string).getBytes(charset);
-			for (Encoder encoder : encoders.values()) {
-				if (encoder.isOfType(data, null)) {
-					return encoder;
-				}
+		Dispatch dispatch = this.dispatch;
+		Encoder encoder = dispatch.root.find(string, null, 0, supportedEncoders);
+		if (encoder == null && !dispatch.probed.isEmpty()) {
+			try {
+				encoder = dispatch.probe(new String(string).getBytes(charset), charset, supportedEncoders);
+			} catch (UnsupportedEncodingException uee) {
+				throw new Error(uee);
 			}
-		} catch (UnsupportedEncodingException uee) {
-			throw new Error(uee);
 		}
-		return null;
+		return encoder;
 	}
 
+	/**
+	 * Find the encoder that was most likely used to create some encoded data,
+	 * which must be in a character set whose first 128 characters are the
+	 * same as US-ASCII for prefixes to be recognised.
+	 *
+	 * @param encodedData encoded data
+	 * @return encoder or <code>null</code> if none recognise the data
+	 */
 	public Encoder getEncoderForEncodedData(byte[] encodedData) {
-		for (Encoder encoder : encoders.values()) {
-			if (encoder.isOfType(encodedData, null)) {
-				return encoder;
-			}
-		}
-		return null;
+		Dispatch dispatch = this.dispatch;
+		Encoder encoder = dispatch.root.find(null, encodedData, 0, null);
+		return encoder == null ? dispatch.probe(encodedData, null, null) : encoder;
 	}
 
 	public String[] getEncoderIds() {
@@ -79,6 +100,19 @@ public class EncoderManager {
 		}
 	}
 
+	/**
+	 * Create a {@link BulkEncoder} to encode and match many passwords in
+	 * parallel with the encoders of this manager. It must be closed when done
+	 * with.
+	 *
+	 * @param charset character set of the encoded data
+	 * @param parallelism number of threads, or 0 for one per processor
+	 * @return bulk encoder
+	 */
+	public BulkEncoder createBulkEncoder(String charset, int parallelism) {
+		return new BulkEncoder(this, charset, parallelism);
+	}
+
 	protected Encoder getEncoder(String encoderId) {
 		if (encoderId == null) {
 			encoderId = PlainEncoder.ID;
@@ -89,4 +123,87 @@ public class EncoderManager {
 		}
 		return encoder;
 	}
+
+	/**
+	 * An immutable snapshot of the registered encoders, split into a tree of
+	 * the known prefixes and a list of those that must be asked. It is rebuilt
+	 * whenever an encoder is added or removed, which is rare.
+	 */
+	private static class Dispatch {
+		private final PrefixNode root = new PrefixNode();
+		private final List<Encoder> probed = new ArrayList<Encoder>();
+
+		Dispatch(Collection<Encoder> encoders) {
+			for (Encoder encoder : encoders) {
+				if (encoder instanceof PrefixedEncoder) {
+					for (String prefix : ((PrefixedEncoder) encoder).getPrefixes()) {
+						root.add(prefix, 0, encoder);
+					}
+				} else {
+					probed.add(encoder);
+				}
+			}
+		}
+
+		Encoder probe(byte[] data, String charset, Collection<String> supportedEncoders) {
+			for (Encoder encoder : probed) {
+				if ((supportedEncoders == null || supportedEncoders.contains(encoder.getId()))
+						&& encoder.isOfType(data, charset)) {
+					return encoder;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static class PrefixNode {
+		private PrefixNode[] children;
+		private List<Encoder> encoders;
+
+		void add(String prefix, int depth, Encoder encoder) {
+			if (depth == prefix.length()) {
+				if (encoders == null) {
+					encoders = new ArrayList<Encoder>(1);
+				}
+				encoders.add(encoder);
+				return;
+			}
+			char ch = prefix.charAt(depth);
+			if (ch >= 128) {
+				throw new IllegalArgumentException("Encoder " + encoder.getId() + " has a prefix that is not US-ASCII.");
+			}
+			if (children == null) {
+				children = new PrefixNode[128];
+			}
+			if (children[ch] == null) {
+				children[ch] = new PrefixNode();
+			}
+			children[ch].add(prefix, depth + 1, encoder);
+		}
+
+		/*
+		 * Either chars or bytes is the encoded data. Deeper matches are
+		 * returned first so the longest prefix wins
+		 */
+		Encoder find(char[] chars, byte[] bytes, int depth, Collection<String> supportedEncoders) {
+			if (children != null) {
+				int ch = chars != null ? (depth < chars.length ? chars[depth] : -1)
+						: (depth < bytes.length ? bytes[depth] : -1);
+				if (ch >= 0 && ch < 128 && children[ch] != null) {
+					Encoder encoder = children[ch].find(chars, bytes, depth + 1, supportedEncoders);
+					if (encoder != null) {
+						return encoder;
+					}
+				}
+			}
+			if (encoders != null) {
+				for (Encoder encoder : encoders) {
+					if (supportedEncoders == null || supportedEncoders.contains(encoder.getId())) {
+						return encoder;
+					}
+				}
+			}
+			return null;
+		}
+	}
 }
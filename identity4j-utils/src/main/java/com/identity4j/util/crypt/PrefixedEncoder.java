@@ -0,0 +1,19 @@
+package com.identity4j.util.crypt;
+
+/**
+ * An {@link Encoder} whose encoded data always starts with one of a fixed set
+ * of prefixes, such as <code>$6$</code> or <code>{SHA}</code>. The
+ * {@link EncoderManager} looks these up directly instead of asking every
+ * encoder in turn whether it recognises some encoded data.
+ */
+public interface PrefixedEncoder extends Encoder {
+
+	/**
+	 * Get the US-ASCII prefixes data encoded by this encoder may start with.
+	 * {@link #isOfType(byte[], String)} must return <code>true</code> for data
+	 * starting with any of them, and <code>false</code> for anything else.
+	 *
+	 * @return prefixes
+	 */
+	String[] getPrefixes();
+}
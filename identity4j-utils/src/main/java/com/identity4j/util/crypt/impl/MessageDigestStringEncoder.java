@@ -3,8 +3,9 @@ package com.identity4j.util.crypt.impl;
 import java.io.UnsupportedEncodingException;
 
 import com.identity4j.util.crypt.EncoderException;
+import com.identity4j.util.crypt.PrefixedEncoder;
 
-public class MessageDigestStringEncoder extends CompoundEncoder {
+public class MessageDigestStringEncoder extends CompoundEncoder implements PrefixedEncoder {
 
 	private String hashAlgorithm;
 
@@ -25,6 +26,11 @@ public class MessageDigestStringEncoder extends CompoundEncoder {
 		}
 	}
 
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { "{" + hashAlgorithm + "}" };
+	}
+
 	@Override
 	public boolean isOfType(byte[] encodedBytes, String charset) {
 		try {
@@ -10,4 +10,8 @@ public class HttpRequestException extends RuntimeException {
 		super(message, e);
 	}
 
+	public HttpRequestException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
 }
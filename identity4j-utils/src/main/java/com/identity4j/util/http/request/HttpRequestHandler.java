@@ -2,6 +2,18 @@ package com.identity4j.util.http.request;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpDelete;
@@ -12,11 +24,18 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
+import com.identity4j.util.RateLimiter;
 import com.identity4j.util.http.response.HttpResponse;
 
 /**
  * This class provides all the methods to send http requests to the REST endpoint.
+ * <br />
+ * Connections are pooled and kept alive between requests, so the handler may be
+ * used by many threads at once. Each request method also has an asynchronous
+ * form, run on a small thread pool sized to the connections per route, so that
+ * independent calls can be made concurrently.
  * 
  * @author gaurav
  * 
@@ -25,21 +44,63 @@ import com.identity4j.util.http.response.HttpResponse;
 public class HttpRequestHandler {
 
 	private CloseableHttpClient httpClient;
+	private PoolingHttpClientConnectionManager connectionManager;
+	private RateLimiter rateLimiter;
+	private ExecutorService executor;
+	private final int maxConnectionsPerRoute;
 	
 
 	public HttpRequestHandler() {
+		this(20, 10, 90000);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxConnections maximum number of pooled connections
+	 * @param maxConnectionsPerRoute maximum number of pooled connections to any one host,
+	 * 		which is also the number of asynchronous requests run at once
+	 * @param timeout connect, socket and pool wait timeout in milliseconds
+	 */
+	public HttpRequestHandler(int maxConnections, int maxConnectionsPerRoute, int timeout) {
+		this.maxConnectionsPerRoute = Math.max(1, maxConnectionsPerRoute);
 		//configure timeouts
 		RequestConfig requestConfig = RequestConfig.custom().
-			    setConnectionRequestTimeout(90000).
-			    setConnectTimeout(90000).
-			    setSocketTimeout(90000).
+			    setConnectionRequestTimeout(timeout).
+			    setConnectTimeout(timeout).
+			    setSocketTimeout(timeout).
 			    build();
+		//pooled connections, reused while kept alive
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(Math.max(maxConnections, this.maxConnectionsPerRoute));
+		connectionManager.setDefaultMaxPerRoute(this.maxConnectionsPerRoute);
 		//construct instance of http client
 		httpClient = HttpClientBuilder.create().
 				setDefaultRequestConfig(requestConfig).
+				setConnectionManager(connectionManager).
 				build();
 	}
 
+	/**
+	 * Set a rate limiter that every request must acquire a permit from. Requests
+	 * rejected with status 429 or 503 are then retried after backing off, as
+	 * long as the limiter allows.
+	 * 
+	 * @param rateLimiter rate limiter, or <code>null</code> for no limit
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Get the rate limiter requests acquire permits from, if any.
+	 * 
+	 * @return rate limiter or <code>null</code>
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
 	/**
 	 * Performs HTTP GET request.
 	 * 
@@ -59,6 +120,27 @@ public class HttpRequestHandler {
 	}
 
 
+	/**
+	 * Performs HTTP GET request without reading the body of a successful response,
+	 * so that it may be parsed as it arrives. The data of such a response is the
+	 * body {@link java.io.InputStream}, which must be closed to release the
+	 * connection. Any other response is read as by {@link #handleRequestGet(URI, HTTPHook)}.
+	 * 
+	 * @param uri target for get request
+	 * @param hook any custom http settings to be passed
+	 * @return response data which contains body stream or data if any and http response codes.
+	 */
+	public HttpResponse handleRequestGetStream(URI uri,HTTPHook hook) {
+		HttpGet get = new HttpGet(uri);
+		return httpRequestPerformer(get, hook, new HTTPPerform() {
+			
+			@Override
+			public HttpResponse apply(HttpRequestBase httpRequestBase) throws IOException {
+				return new SimpleHttpRequest(httpRequestBase).stream(httpClient);
+			}
+		});
+	}
+
 	/**
 	 * Performs HTTP POST request.
 	 * 
@@ -135,6 +217,220 @@ public class HttpRequestHandler {
 		});
 	}
 	
+	/**
+	 * Performs HTTP GET request asynchronously.
+	 * 
+	 * @param uri target for get request
+	 * @param hook any custom http settings to be passed
+	 * @return future response
+	 */
+	public Future<HttpResponse> handleRequestGetAsync(final URI uri, final HTTPHook hook) {
+		return submit(new Callable<HttpResponse>() {
+			@Override
+			public HttpResponse call() {
+				return handleRequestGet(uri, hook);
+			}
+		});
+	}
+
+	/**
+	 * Performs HTTP POST request asynchronously.
+	 * 
+	 * @param uri target for post request
+	 * @param data post data
+	 * @param hook any custom http settings to be passed
+	 * @return future response
+	 */
+	public Future<HttpResponse> handleRequestPostAsync(final URI uri, final String data, final HTTPHook hook) {
+		return submit(new Callable<HttpResponse>() {
+			@Override
+			public HttpResponse call() {
+				return handleRequestPost(uri, data, hook);
+			}
+		});
+	}
+
+	/**
+	 * Performs HTTP PATCH request asynchronously.
+	 * 
+	 * @param uri target for patch request
+	 * @param data patch data
+	 * @param hook any custom http settings to be passed
+	 * @return future response
+	 */
+	public Future<HttpResponse> handleRequestPatchAsync(final URI uri, final String data, final HTTPHook hook) {
+		return submit(new Callable<HttpResponse>() {
+			@Override
+			public HttpResponse call() {
+				return handleRequestPatch(uri, data, hook);
+			}
+		});
+	}
+
+	/**
+	 * Performs HTTP PUT request asynchronously.
+	 * 
+	 * @param uri target for put request
+	 * @param data put data
+	 * @param hook any custom http settings to be passed
+	 * @return future response
+	 */
+	public Future<HttpResponse> handleRequestPutAsync(final URI uri, final String data, final HTTPHook hook) {
+		return submit(new Callable<HttpResponse>() {
+			@Override
+			public HttpResponse call() {
+				return handleRequestPut(uri, data, hook);
+			}
+		});
+	}
+
+	/**
+	 * Performs HTTP DELETE request asynchronously.
+	 * 
+	 * @param uri target for delete request
+	 * @param hook any custom http settings to be passed
+	 * @return future response
+	 */
+	public Future<HttpResponse> handleRequestDeleteAsync(final URI uri, final HTTPHook hook) {
+		return submit(new Callable<HttpResponse>() {
+			@Override
+			public HttpResponse call() {
+				return handleRequestDelete(uri, hook);
+			}
+		});
+	}
+
+	/**
+	 * Runs any task, usually one or more requests, on the request thread pool.
+	 * 
+	 * @param task task
+	 * @return future result
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		return getExecutor().submit(task);
+	}
+
+	/**
+	 * Runs any task on the request thread pool, passing the result or failure
+	 * to a callback on the same thread once it is done.
+	 * 
+	 * @param task task
+	 * @param callback callback
+	 * @return future result
+	 */
+	public <T> Future<T> submit(final Callable<T> task, final Callback<T> callback) {
+		return submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				T result;
+				try {
+					result = task.call();
+				} catch (Exception e) {
+					callback.failed(e);
+					throw e;
+				}
+				callback.completed(result);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Runs tasks concurrently on the request thread pool and waits for all of
+	 * them. A single task is just run on the calling thread.
+	 * 
+	 * @param tasks tasks
+	 * @return results in the same order as the tasks
+	 * @throws RuntimeException the failure of the first task that failed, once
+	 * 		all have finished
+	 */
+	public <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (tasks.size() == 1) {
+			try {
+				results.add(tasks.iterator().next().call());
+				return results;
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new HttpRequestException(e.getMessage(), e);
+			}
+		}
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for (Callable<T> task : tasks) {
+			futures.add(submit(task));
+		}
+		RuntimeException failure = null;
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				results.add(null);
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+							: new HttpRequestException(e.getCause().getMessage(), e.getCause());
+				}
+			} catch (InterruptedException e) {
+				for (Future<T> f : futures) {
+					f.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new HttpRequestException("Interrupted waiting for requests.", e);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return results;
+	}
+
+	/**
+	 * Stops the request thread pool and closes all pooled connections.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdown();
+				executor = null;
+			}
+		}
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger threads = new AtomicInteger();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConnectionsPerRoute, maxConnectionsPerRoute, 60,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "HttpRequestHandler-" + threads.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			// Idle threads go away, so a handler that is dropped without being closed does not keep them
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		return executor;
+	}
+
+	/**
+	 * Receives the outcome of a task run by {@link HttpRequestHandler#submit(Callable, Callback)}.
+	 * 
+	 * @param <T> result type
+	 */
+	public interface Callback<T> {
+		public void completed(T result);
+
+		public void failed(Exception exception);
+	}
+
 	/**
 	 * Interface provides mechanism where by custom http settings can be passed to http client request
 	 * 
@@ -182,6 +478,8 @@ public class HttpRequestHandler {
 	 * <ol>
 	 *  <li>First custom settings passed are applied via {@link HTTPHook} provided.</li>
 	 *  <li>Request is performed via {@link HTTPPerform} and response returned</li>
+	 *  <li>If there is a rate limiter, a permit is acquired before each attempt, and
+	 *  rejected attempts are retried after backing off.</li>
 	 * </ol>
 	 * 
 	 * @param httpRequestBase
@@ -194,7 +492,19 @@ public class HttpRequestHandler {
 
 			hook.apply(httpRequestBase);
 
-			return perform.apply(httpRequestBase);
+			if (rateLimiter == null) {
+				return perform.apply(httpRequestBase);
+			}
+			for (int attempt = 0;; attempt++) {
+				rateLimiter.acquire();
+				HttpResponse response = perform.apply(httpRequestBase);
+				Integer status = response.getHttpStatusCodes().getStatusCode();
+				if (status == null || !RateLimiter.isRetryable(status)
+						|| !rateLimiter.backoff(attempt, RateLimiter.parseRetryAfter(response.getHeader(RateLimiter.RETRY_AFTER)))) {
+					return response;
+				}
+				httpRequestBase.reset();
+			}
 
 		} catch (IOException e) {
 			throw new HttpRequestException(e.getMessage(), e);
@@ -0,0 +1,138 @@
+package com.identity4j.util.http.request;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over results that a REST API returns one page at a time, without
+ * holding them all in memory. As soon as a page arrives, the page after it is
+ * requested on the {@link HttpRequestHandler} thread pool, so that it is being
+ * fetched while the current one is consumed. At most two pages are held in
+ * memory at once.
+ *
+ * @param <T> result type
+ */
+public abstract class PagingIterator<T> implements Iterator<T>, Closeable {
+
+	private final HttpRequestHandler httpRequestHandler;
+	private Iterator<T> page;
+	private Future<Page<T>> nextPage;
+	private boolean started;
+
+	public PagingIterator(HttpRequestHandler httpRequestHandler) {
+		this.httpRequestHandler = httpRequestHandler;
+	}
+
+	/**
+	 * Fetch a page of results.
+	 *
+	 * @param next where the page starts, as given by the previous page, or
+	 *            <code>null</code> for the first page
+	 * @return page
+	 */
+	protected abstract Page<T> fetch(String next);
+
+	@Override
+	public boolean hasNext() {
+		while (page == null || !page.hasNext()) {
+			Page<T> current;
+			if (!started) {
+				started = true;
+				current = fetch(null);
+			} else if (nextPage != null) {
+				current = await(nextPage);
+			} else {
+				return false;
+			}
+			nextPage = current.getNext() == null ? null : prefetch(current.getNext());
+			page = current.getResults().iterator();
+		}
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stop iterating, cancelling any request for the next page.
+	 */
+	@Override
+	public void close() {
+		started = true;
+		page = null;
+		if (nextPage != null) {
+			nextPage.cancel(true);
+			nextPage = null;
+		}
+	}
+
+	private Future<Page<T>> prefetch(final String next) {
+		return httpRequestHandler.submit(new Callable<Page<T>>() {
+			@Override
+			public Page<T> call() {
+				return fetch(next);
+			}
+		});
+	}
+
+	private Page<T> await(Future<Page<T>> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new HttpRequestException(e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new HttpRequestException("Interrupted waiting for next page.", e);
+		}
+	}
+
+	/**
+	 * A page of results and where the next page starts.
+	 *
+	 * @param <T> result type
+	 */
+	public static class Page<T> {
+		private final List<T> results;
+		private final String next;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param results results, may be <code>null</code> if there are none
+		 * @param next where the next page starts, e.g. its URL or cursor, or
+		 *            <code>null</code> if this is the last page
+		 */
+		public Page(List<T> results, String next) {
+			this.results = results == null ? Collections.<T> emptyList() : results;
+			this.next = next;
+		}
+
+		public List<T> getResults() {
+			return results;
+		}
+
+		public String getNext() {
+			return next;
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package com.identity4j.util.http.request;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -35,20 +38,71 @@ public class SimpleHttpRequest {
     	try{
 	        response = httpClient.execute(httpRequestBase);
 	
-	        com.identity4j.util.http.response.HttpResponse httpResponseData = new com.identity4j.util.http.response.HttpResponse();
+	        com.identity4j.util.http.response.HttpResponse httpResponseData = toResponseData(response);
 	
 	        if(response.getEntity() != null){
 		        String data = EntityUtils.toString(response.getEntity());
 		        httpResponseData.setData(data);
 	        }
 	        
-	        httpResponseData.getHttpStatusCodes().setProtocolVersion(response.getStatusLine().getProtocolVersion().toString());
-	        httpResponseData.getHttpStatusCodes().setStatusCode(response.getStatusLine().getStatusCode());
-	        httpResponseData.getHttpStatusCodes().setResonPhrase(response.getStatusLine().getReasonPhrase());
-	        
 	        return httpResponseData;
     	}finally{
     		if(response != null) response.close();
     	}
     }
+
+    /**
+     * Utility method for executing HTTP Methods over the HttpClient passed without
+     * reading the body of a successful response. The data of such a response is
+     * the body {@link java.io.InputStream}, which must be closed to release the connection.
+     * Any other response is read as by {@link #request(CloseableHttpClient)}.
+     *
+     * @param httpClient http client that will be used t make the request
+     * @return HttpResponseData contains body stream or returned json and HTTP Status Codes
+     * @throws IOException
+     */
+    public com.identity4j.util.http.response.HttpResponse stream(CloseableHttpClient httpClient) throws IOException {
+    	final CloseableHttpResponse response = httpClient.execute(httpRequestBase);
+    	boolean streaming = false;
+    	try{
+	        com.identity4j.util.http.response.HttpResponse httpResponseData = toResponseData(response);
+	
+	        HttpEntity entity = response.getEntity();
+	        if(entity != null){
+	        	int statusCode = response.getStatusLine().getStatusCode();
+	        	if(statusCode >= 200 && statusCode < 300){
+	        		httpResponseData.setData(new FilterInputStream(entity.getContent()) {
+	        			@Override
+	        			public void close() throws IOException {
+	        				try{
+	        					super.close();
+	        				}finally{
+	        					response.close();
+	        				}
+	        			}
+	        		});
+	        		streaming = true;
+	        	}else{
+	        		httpResponseData.setData(EntityUtils.toString(entity));
+	        	}
+	        }
+	        
+	        return httpResponseData;
+    	}finally{
+    		if(!streaming) response.close();
+    	}
+    }
+
+    private com.identity4j.util.http.response.HttpResponse toResponseData(CloseableHttpResponse response) {
+        com.identity4j.util.http.response.HttpResponse httpResponseData = new com.identity4j.util.http.response.HttpResponse();
+        
+        httpResponseData.getHttpStatusCodes().setProtocolVersion(response.getStatusLine().getProtocolVersion().toString());
+        httpResponseData.getHttpStatusCodes().setStatusCode(response.getStatusLine().getStatusCode());
+        httpResponseData.getHttpStatusCodes().setResonPhrase(response.getStatusLine().getReasonPhrase());
+        
+        for (Header header : response.getAllHeaders()) {
+        	httpResponseData.setHeader(header.getName(), header.getValue());
+        }
+        return httpResponseData;
+    }
 }
@@ -1,5 +1,8 @@
 package com.identity4j.util.http.response;
 
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * This encapsulates HTTP response data and status codes.
  * <br />
@@ -14,6 +17,7 @@ package com.identity4j.util.http.response;
 public class HttpResponse {
     protected Status status;
     private Object data;
+    private Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
     protected HttpStatusCodes httpStatusCodes = new HttpStatusCodes();
 
     public Status getStatus() {
@@ -40,6 +44,25 @@ public class HttpResponse {
 		this.data = data;
 	}
 
+	/**
+	 * Get the value of a response header, ignoring case. If the header
+	 * appeared more than once, the last value is returned.
+	 * 
+	 * @param name header name
+	 * @return value or <code>null</code>
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	public void setHeader(String name, String value) {
+		headers.put(name, value);
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
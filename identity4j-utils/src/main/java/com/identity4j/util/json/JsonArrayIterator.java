@@ -0,0 +1,161 @@
+package com.identity4j.util.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Iterates over the elements of an array held in a field of a JSON object,
+ * such as a page of results from a REST API, mapping each to a Java object as
+ * it is parsed. Only the current element is ever held in memory, rather than
+ * the whole response.
+ * <br />
+ * Any other scalar fields of the object, e.g. a link to the next page, may be
+ * read with {@link #getProperty(String)}. Fields of nested objects are named by
+ * their path, e.g. <code>meta.has_more</code>. Those that follow the array are
+ * only available once iteration is complete.
+ * <br />
+ * The source is closed when the last element has been read, or the iterator is
+ * closed.
+ *
+ * @param <T> element type
+ */
+public class JsonArrayIterator<T> implements Iterator<T>, Closeable {
+
+	private final ObjectMapper objectMapper;
+	private final JsonParser parser;
+	private final String field;
+	private final Class<T> type;
+	private final Map<String, String> properties = new HashMap<String, String>();
+	private boolean inArray;
+	private boolean complete;
+	private T next;
+
+	JsonArrayIterator(ObjectMapper objectMapper, JsonParser parser, String field, Class<T> type) {
+		this.objectMapper = objectMapper;
+		this.parser = parser;
+		this.field = field;
+		this.type = type;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !complete) {
+			next = read();
+		}
+		return next != null;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		try {
+			return next;
+		} finally {
+			next = null;
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Get the value of a scalar field of the object holding the array.
+	 *
+	 * @param name field name
+	 * @return value as text, or <code>null</code> if the field is absent, null
+	 *         or has not been read yet
+	 */
+	public String getProperty(String name) {
+		return properties.get(name);
+	}
+
+	/**
+	 * Get whether every element has been read, and so every property is
+	 * available.
+	 *
+	 * @return complete
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	@Override
+	public void close() {
+		complete = true;
+		try {
+			parser.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	private T read() {
+		try {
+			if (!inArray) {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					throw new JsonMapperException("Expected a JSON object.", null);
+				}
+				if (!readFields("")) {
+					close();
+					return null;
+				}
+				inArray = true;
+			}
+			JsonToken token = parser.nextToken();
+			while (token == JsonToken.VALUE_NULL) {
+				token = parser.nextToken();
+			}
+			if (token == null || token == JsonToken.END_ARRAY) {
+				readFields("");
+				close();
+				return null;
+			}
+			return objectMapper.readValue(parser, type);
+		} catch (IOException e) {
+			close();
+			throw new JsonMapperException(e.getMessage(), e);
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read fields of an object, keeping scalar values, until the array field
+	 * is reached or the object ends.
+	 *
+	 * @param prefix path of the object, empty for the outermost
+	 * @return <code>true</code> if positioned at the start of the array
+	 */
+	private boolean readFields(String prefix) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = prefix + parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (!inArray && prefix.length() == 0 && token == JsonToken.START_ARRAY && name.equals(field)) {
+				return true;
+			}
+			if (token.isScalarValue()) {
+				if (token != JsonToken.VALUE_NULL) {
+					properties.put(name, parser.getText());
+				}
+			} else if (token == JsonToken.START_OBJECT) {
+				readFields(name + ".");
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return false;
+	}
+}
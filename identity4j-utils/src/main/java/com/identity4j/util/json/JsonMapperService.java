@@ -1,6 +1,7 @@
 package com.identity4j.util.json;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 
 import org.codehaus.jackson.map.ObjectMapper;
@@ -71,6 +72,24 @@ public class JsonMapperService{
 		} 
     }
     
+    /**
+     * Maps the elements of an array held in a field of a json object to Java objects
+     * one at a time, as they are read from the stream. The stream is closed when all
+     * elements have been read or the returned iterator is closed.
+     * 
+     * @param clazz json array elements are mapped to this class
+     * @param field name of the field holding the array
+     * @param in json stream
+     * @return iterator of mapped java objects
+     */
+    public <T> JsonArrayIterator<T> iterator(Class<T> clazz, String field, InputStream in) {
+    	try {
+    		return new JsonArrayIterator<T>(objectMapper, objectMapper.getJsonFactory().createJsonParser(in), field, clazz);
+    	} catch (Exception e) {
+			throw new JsonMapperException(e.getMessage(), e);
+		}
+    }
+    
     /**
      * Converts a Java object into json.
      * 
@@ -0,0 +1,67 @@
+/* HEADER */
+package com.identity4j.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	@Test
+	public void burstThenThrottled() {
+		RateLimiter limiter = new RateLimiter(50, 5);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			limiter.acquire();
+		}
+		assertEquals(0, limiter.getThrottledCount());
+		for (int i = 0; i < 5; i++) {
+			limiter.acquire();
+		}
+		// 5 more permits at 50 a second take about 100ms
+		assertTrue(System.currentTimeMillis() - start >= 80);
+		assertEquals(10, limiter.getAcquiredCount());
+		assertTrue(limiter.getThrottledCount() > 0);
+		assertTrue(limiter.getThrottledTime() > 0);
+	}
+
+	@Test
+	public void unlimited() {
+		RateLimiter limiter = RateLimiter.forInterval(0, 1);
+		for (int i = 0; i < 1000; i++) {
+			limiter.acquire();
+		}
+		assertEquals(0, limiter.getThrottledCount());
+	}
+
+	@Test
+	public void backoffHoldsOffOthers() {
+		RateLimiter limiter = new RateLimiter(0, 1);
+		limiter.setInitialBackoff(20);
+		assertTrue(limiter.backoff(0, -1));
+		assertTrue(limiter.backoff(1, 30));
+		assertEquals(2, limiter.getBackoffCount());
+		assertTrue(limiter.getBackoffTime() >= 40);
+
+		limiter.setMaxRetries(2);
+		assertFalse(limiter.backoff(2, 0));
+		assertEquals(2, limiter.getBackoffCount());
+	}
+
+	@Test
+	public void retryAfter() {
+		assertEquals(-1, RateLimiter.parseRetryAfter(null));
+		assertEquals(-1, RateLimiter.parseRetryAfter("soon"));
+		assertEquals(120000, RateLimiter.parseRetryAfter(" 120 "));
+		long millis = RateLimiter.parseRetryAfter(DateUtils.formatDate(new Date(System.currentTimeMillis() + 60000)));
+		assertTrue(millis > 55000 && millis <= 60000);
+		assertEquals(0, RateLimiter.parseRetryAfter(DateUtils.formatDate(new Date(0))));
+		assertTrue(RateLimiter.isRetryable(429));
+		assertFalse(RateLimiter.isRetryable(404));
+	}
+}
@@ -0,0 +1,111 @@
+package com.identity4j.util.crypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.util.crypt.BulkEncoder.Job;
+import com.identity4j.util.crypt.BulkEncoder.Result;
+import com.identity4j.util.crypt.impl.DefaultEncoderManager;
+import com.identity4j.util.crypt.impl.MD5StringEncoder;
+import com.identity4j.util.crypt.impl.SHAStringEncoder;
+
+public class BulkEncoderTest {
+
+	private static final String CHARSET = "UTF-8";
+
+	private EncoderManager encoderManager;
+	private BulkEncoder bulkEncoder;
+
+	@Before
+	public void setUp() {
+		encoderManager = DefaultEncoderManager.getInstance();
+		bulkEncoder = new BulkEncoder(encoderManager, CHARSET, 4, 8);
+	}
+
+	@After
+	public void tearDown() {
+		bulkEncoder.close();
+	}
+
+	@Test
+	public void encodesInOrder() throws UnsupportedEncodingException {
+		List<Job> jobs = new ArrayList<Job>();
+		for (int i = 0; i < 500; i++) {
+			jobs.add(Job.encode("user" + i, SHAStringEncoder.ID, ("secret" + i).getBytes(CHARSET), null, null));
+		}
+		Iterator<Result> results = bulkEncoder.run(jobs.iterator());
+		for (int i = 0; i < 500; i++) {
+			Result result = results.next();
+			assertEquals("user" + i, result.getJob().getKey());
+			assertNull(result.getError());
+			assertArrayEquals(encoderManager.encode(("secret" + i).toCharArray(), SHAStringEncoder.ID, CHARSET, null, null),
+				result.getEncoded());
+		}
+		assertFalse(results.hasNext());
+	}
+
+	@Test
+	public void reencodesOnlyMatches() throws UnsupportedEncodingException {
+		byte[] stored = encoderManager.encode("secret".toCharArray(), MD5StringEncoder.ID, CHARSET, null, null);
+		List<Job> jobs = new ArrayList<Job>();
+		jobs.add(Job.reencode("right", MD5StringEncoder.ID, stored, "secret".getBytes(CHARSET), SHAStringEncoder.ID));
+		jobs.add(Job.reencode("wrong", MD5StringEncoder.ID, stored, "guess".getBytes(CHARSET), SHAStringEncoder.ID));
+		jobs.add(Job.match("match", MD5StringEncoder.ID, stored, "secret".getBytes(CHARSET), null));
+		jobs.add(Job.encode("unknown", "no-such-encoder", "secret".getBytes(CHARSET), null, null));
+
+		Iterator<Result> results = bulkEncoder.run(jobs.iterator());
+		Result right = results.next();
+		assertTrue(right.isMatched());
+		assertArrayEquals(encoderManager.encode("secret".toCharArray(), SHAStringEncoder.ID, CHARSET, null, null),
+			right.getEncoded());
+		Result wrong = results.next();
+		assertFalse(wrong.isMatched());
+		assertNull(wrong.getEncoded());
+		Result match = results.next();
+		assertTrue(match.isMatched());
+		assertNull(match.getEncoded());
+		Result unknown = results.next();
+		assertNotNull(unknown.getError());
+		assertFalse(results.hasNext());
+	}
+
+	@Test
+	public void takesJobsOnlyAsResultsAreTaken() throws UnsupportedEncodingException {
+		final AtomicInteger taken = new AtomicInteger();
+		final byte[] data = "secret".getBytes(CHARSET);
+		Iterator<Job> jobs = new Iterator<Job>() {
+			@Override
+			public boolean hasNext() {
+				return taken.get() < 1000;
+			}
+
+			@Override
+			public Job next() {
+				return Job.encode(String.valueOf(taken.getAndIncrement()), SHAStringEncoder.ID, data, null, null);
+			}
+
+			@Override
+			public void remove() {
+			}
+		};
+		Iterator<Result> results = bulkEncoder.run(jobs);
+		assertTrue(results.hasNext());
+		assertEquals(8, taken.get());
+		results.next();
+		assertEquals(9, taken.get());
+	}
+}
@@ -0,0 +1,102 @@
+package com.identity4j.util.crypt;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.util.crypt.impl.AbstractEncoder;
+import com.identity4j.util.crypt.impl.MD5StringEncoder;
+import com.identity4j.util.crypt.impl.SHAStringEncoder;
+
+public class EncoderManagerTest {
+
+	private static final String CHARSET = "UTF-8";
+
+	private EncoderManager encoderManager;
+	private Encoder sha;
+	private Encoder md5;
+
+	@Before
+	public void setUp() {
+		encoderManager = new EncoderManager();
+		sha = new SHAStringEncoder();
+		md5 = new MD5StringEncoder();
+		encoderManager.addEncoder(sha);
+		encoderManager.addEncoder(md5);
+	}
+
+	@Test
+	public void findsEncoderByPrefix() throws UnsupportedEncodingException {
+		assertSame(sha, encoderManager.getEncoderForEncodedString("{SHA}abc".toCharArray(), CHARSET, null));
+		assertSame(md5, encoderManager.getEncoderForEncodedData("{MD5}abc".getBytes(CHARSET)));
+		assertNull(encoderManager.getEncoderForEncodedString("{SHA".toCharArray(), CHARSET, null));
+		assertNull(encoderManager.getEncoderForEncodedString("".toCharArray(), CHARSET, null));
+	}
+
+	@Test
+	public void onlyFindsSupportedEncoders() {
+		assertNull(encoderManager.getEncoderForEncodedString("{SHA}abc".toCharArray(), CHARSET,
+			Collections.singleton(MD5StringEncoder.ID)));
+		assertSame(sha, encoderManager.getEncoderForEncodedString("{SHA}abc".toCharArray(), CHARSET,
+			Arrays.asList(SHAStringEncoder.ID)));
+	}
+
+	@Test
+	public void longestPrefixWins() {
+		Encoder shortPrefix = new TestPrefixedEncoder("short", "$1");
+		Encoder longPrefix = new TestPrefixedEncoder("long", "$1$");
+		encoderManager.addEncoder(shortPrefix);
+		encoderManager.addEncoder(longPrefix);
+		assertSame(longPrefix, encoderManager.getEncoderForEncodedString("$1$abc".toCharArray(), CHARSET, null));
+		assertSame(shortPrefix, encoderManager.getEncoderForEncodedString("$1abc".toCharArray(), CHARSET, null));
+		assertSame(shortPrefix, encoderManager.getEncoderForEncodedString("$1$abc".toCharArray(), CHARSET,
+			Collections.singleton("short")));
+		encoderManager.removeEncoder(longPrefix);
+		assertSame(shortPrefix, encoderManager.getEncoderForEncodedString("$1$abc".toCharArray(), CHARSET, null));
+	}
+
+	@Test
+	public void probesEncodersWithoutPrefix() {
+		Encoder probed = new AbstractEncoder("probed") {
+			@Override
+			public boolean isOfType(byte[] encodedBytes, String charset) {
+				return encodedBytes.length == 13;
+			}
+
+			@Override
+			public byte[] encode(byte[] toEncode, byte[] salt, byte[] passphrase, String charset) throws EncoderException {
+				return toEncode;
+			}
+		};
+		encoderManager.addEncoder(probed);
+		assertSame(probed, encoderManager.getEncoderForEncodedString("abcdefghijklm".toCharArray(), CHARSET, null));
+		assertSame(sha, encoderManager.getEncoderForEncodedString("{SHA}ghijklm".toCharArray(), CHARSET, null));
+		assertNull(encoderManager.getEncoderForEncodedString("abcdefghijklm".toCharArray(), CHARSET,
+			Collections.singleton(SHAStringEncoder.ID)));
+	}
+
+	private static class TestPrefixedEncoder extends AbstractEncoder implements PrefixedEncoder {
+		private final String prefix;
+
+		TestPrefixedEncoder(String id, String prefix) {
+			super(id);
+			this.prefix = prefix;
+		}
+
+		@Override
+		public String[] getPrefixes() {
+			return new String[] { prefix };
+		}
+
+		@Override
+		public byte[] encode(byte[] toEncode, byte[] salt, byte[] passphrase, String charset) throws EncoderException {
+			return toEncode;
+		}
+	}
+}
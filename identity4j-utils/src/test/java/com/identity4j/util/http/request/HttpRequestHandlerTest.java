@@ -1,6 +1,11 @@
 package com.identity4j.util.http.request;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -28,4 +33,39 @@ public class HttpRequestHandlerTest {
 		HttpResponse httpResponse = HTTP_REQUEST_HANDLER.handleRequestGet(new URI("https://www.google.com/abc"), HTTPHook.EMPTY_HOOK);
 		Assert.assertEquals("Should be HTTP status OK", 404,httpResponse.getHttpStatusCodes().getStatusCode().intValue());
 	}
+	
+	@Test
+	public void itShouldRunTasksConcurrentlyAndReturnResultsInOrder() throws Exception {
+		final CountDownLatch started = new CountDownLatch(3);
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 3; i++) {
+			final int result = i;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					started.countDown();
+					// Only completes if all three are running at once
+					Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+					return result;
+				}
+			});
+		}
+		List<Integer> results = HTTP_REQUEST_HANDLER.invokeAll(tasks);
+		Assert.assertEquals("[0, 1, 2]", results.toString());
+	}
+	
+	@Test
+	public void itShouldRethrowFailureOfConcurrentTask() throws Exception {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < 2; i++) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					throw new IllegalStateException("Failed");
+				}
+			});
+		}
+		expectedException.expect(IllegalStateException.class);
+		HTTP_REQUEST_HANDLER.invokeAll(tasks);
+	}
 }
@@ -0,0 +1,63 @@
+package com.identity4j.util.http.request;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PagingIteratorTest {
+
+	private static final HttpRequestHandler HTTP_REQUEST_HANDLER = new HttpRequestHandler();
+
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+
+	@Test
+	public void itShouldFollowPagesAndPrefetchTheNext() throws Exception {
+		final CountDownLatch secondPageRequested = new CountDownLatch(1);
+		PagingIterator<String> it = new PagingIterator<String>(HTTP_REQUEST_HANDLER) {
+			@Override
+			protected Page<String> fetch(String next) {
+				if (next == null) {
+					return new Page<String>(Arrays.asList("a", "b"), "2");
+				}
+				if (next.equals("2")) {
+					secondPageRequested.countDown();
+					return new Page<String>(null, "3");
+				}
+				return new Page<String>(Arrays.asList("c"), null);
+			}
+		};
+		Assert.assertEquals("a", it.next());
+		Assert.assertTrue("Should request next page before current is consumed",
+				secondPageRequested.await(5, TimeUnit.SECONDS));
+		List<String> rest = new ArrayList<String>();
+		while (it.hasNext()) {
+			rest.add(it.next());
+		}
+		Assert.assertEquals(Arrays.asList("b", "c"), rest);
+		Assert.assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void itShouldRethrowFailureOfPrefetchedPage() throws Exception {
+		PagingIterator<String> it = new PagingIterator<String>(HTTP_REQUEST_HANDLER) {
+			@Override
+			protected Page<String> fetch(String next) {
+				if (next == null) {
+					return new Page<String>(Arrays.asList("a"), "2");
+				}
+				throw new IllegalStateException("Failed");
+			}
+		};
+		Assert.assertEquals("a", it.next());
+		expectedException.expect(IllegalStateException.class);
+		it.hasNext();
+	}
+}
@@ -0,0 +1,80 @@
+package com.identity4j.util.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonArrayIteratorTest {
+
+	@Test
+	public void itShouldMapElementsAndKeepOtherProperties() throws Exception {
+		TrackingInputStream in = new TrackingInputStream("{\"totalSize\":3,\"done\":false,\"meta\":{\"a\":[1,2],\"b\":2},"
+				+ "\"records\":[{\"name\":\"a\"},null,{\"name\":\"b\",\"tags\":[\"x\"]}],\"nextRecordsUrl\":\"/next\"}");
+		@SuppressWarnings("rawtypes")
+		JsonArrayIterator<Map> it = JsonMapperService.getInstance().iterator(Map.class, "records", in);
+		assertTrue(it.hasNext());
+		assertEquals("a", it.next().get("name"));
+		assertEquals("3", it.getProperty("totalSize"));
+		assertEquals("false", it.getProperty("done"));
+		assertEquals("2", it.getProperty("meta.b"));
+		assertNull(it.getProperty("meta.a"));
+		assertNull(it.getProperty("nextRecordsUrl"));
+		assertFalse(it.isComplete());
+		assertEquals("b", it.next().get("name"));
+		assertFalse(it.hasNext());
+		assertTrue(it.isComplete());
+		assertEquals("/next", it.getProperty("nextRecordsUrl"));
+		assertTrue(in.closed);
+	}
+
+	@Test
+	public void itShouldBeEmptyWithoutTheArray() throws Exception {
+		TrackingInputStream in = new TrackingInputStream("{\"count\":0,\"next_page\":null}");
+		@SuppressWarnings("rawtypes")
+		JsonArrayIterator<Map> it = JsonMapperService.getInstance().iterator(Map.class, "results", in);
+		assertFalse(it.hasNext());
+		assertEquals("0", it.getProperty("count"));
+		assertNull(it.getProperty("next_page"));
+		assertTrue(in.closed);
+	}
+
+	@Test
+	public void itShouldCloseTheStreamWhenClosedEarly() throws Exception {
+		TrackingInputStream in = new TrackingInputStream("{\"value\":[{\"name\":\"a\"},{\"name\":\"b\"}]}");
+		@SuppressWarnings("rawtypes")
+		JsonArrayIterator<Map> it = JsonMapperService.getInstance().iterator(Map.class, "value", in);
+		it.next();
+		it.close();
+		assertFalse(it.hasNext());
+		assertTrue(in.closed);
+	}
+
+	@Test(expected = JsonMapperException.class)
+	public void itShouldFailOnInvalidJson() throws Exception {
+		@SuppressWarnings("rawtypes")
+		JsonArrayIterator<Map> it = JsonMapperService.getInstance().iterator(Map.class, "value",
+				new TrackingInputStream("{\"value\":[{\"name\":}]}"));
+		it.hasNext();
+	}
+
+	static class TrackingInputStream extends ByteArrayInputStream {
+		boolean closed;
+
+		TrackingInputStream(String json) throws IOException {
+			super(json.getBytes("UTF-8"));
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+}
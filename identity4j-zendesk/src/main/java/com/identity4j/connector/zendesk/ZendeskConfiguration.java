@@ -31,6 +31,9 @@ public class ZendeskConfiguration extends AbstractConnectorConfiguration{
 	private static final String ZENDESK_REST_PATH = "zendeskRestPath";
 	private static final String ZENDESK_REST_HOST = "zendeskRestHost";
 	private static final String ZENDESK_REST_API_VERSION = "zendeskRestApiVersion";
+	private static final String ZENDESK_REQUESTS_PER_SECOND = "zendeskRequestsPerSecond";
+	private static final String ZENDESK_REQUEST_BURST = "zendeskRequestBurst";
+	private static final String ZENDESK_PAGE_SIZE = "zendeskPageSize";
 	
 	/**
 	 * Zendesk Sub Domain
@@ -170,4 +173,35 @@ public class ZendeskConfiguration extends AbstractConnectorConfiguration{
 		return configurationParameters.getString(ZENDESK_REST_API_VERSION);
 	}
 	
+	/**
+	 * Steady rate of REST requests, zero for no limit, the default is no
+	 * limit. Throttled requests are retried either way, but 3 keeps within the
+	 * 200 requests a minute of the smallest Zendesk plan.
+	 * 
+	 * @return the zendeskRequestsPerSecond
+	 */
+	public int getRequestsPerSecond(){
+		return configurationParameters.getIntegerOrDefault(ZENDESK_REQUESTS_PER_SECOND, 0);
+	}
+	
+	/**
+	 * Number of REST requests that may be made at once after being idle, the
+	 * default is 10.
+	 * 
+	 * @return the zendeskRequestBurst
+	 */
+	public int getRequestBurst(){
+		return configurationParameters.getIntegerOrDefault(ZENDESK_REQUEST_BURST, 10);
+	}
+	
+	/**
+	 * Number of users or groups requested in each page when listing them, at
+	 * most 100, the default is 100.
+	 * 
+	 * @return the zendeskPageSize
+	 */
+	public int getPageSize(){
+		return configurationParameters.getIntegerOrDefault(ZENDESK_PAGE_SIZE, 100);
+	}
+	
 }
@@ -1,12 +1,9 @@
 package com.identity4j.connector.zendesk;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -15,18 +12,17 @@ import org.apache.commons.logging.LogFactory;
 import com.identity4j.connector.AbstractConnector;
 import com.identity4j.connector.ConnectorCapability;
 import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.RoleMembershipUpdater;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.connector.zendesk.entity.Group;
-import com.identity4j.connector.zendesk.entity.Groups;
 import com.identity4j.connector.zendesk.entity.User;
-import com.identity4j.connector.zendesk.entity.Users;
 import com.identity4j.connector.zendesk.services.Directory;
 import com.identity4j.connector.zendesk.services.token.handler.ZendeskAuthorizationHelper;
-import com.identity4j.util.CollectionUtil;
+import com.identity4j.util.AbstractTransformingIterator;
 import com.identity4j.util.passwords.PasswordCharacteristics;
 
 /**
@@ -54,6 +50,17 @@ public class ZendeskConnector extends AbstractConnector {
 
 	private ZendeskConfiguration configuration;
 	private Directory directory;
+	private final RoleMembershipUpdater roleMembershipUpdater = new RoleMembershipUpdater() {
+		@Override
+		protected void addRoleToUser(String guidRole, String guidUser) {
+			ZendeskConnector.this.addRoleToUser(guidRole, guidUser);
+		}
+
+		@Override
+		protected void removeRoleFromUser(String guidRole, String guidUser) {
+			ZendeskConnector.this.removeRoleFromUser(guidRole, guidUser);
+		}
+	};
 	private static final Log log = LogFactory.getLog(ZendeskConnector.class);
 	
 	static Set<ConnectorCapability> capabilities = new HashSet<ConnectorCapability>(Arrays.asList(new ConnectorCapability[] { 
@@ -86,6 +93,14 @@ public class ZendeskConnector extends AbstractConnector {
 		return directory != null;
 	}
 
+	@Override
+	protected void onClose() {
+		if (directory != null) {
+			directory.close();
+			directory = null;
+		}
+	}
+
 	/**
 	 * Check to see connector if in read only mode
 	 */
@@ -113,16 +128,12 @@ public class ZendeskConnector extends AbstractConnector {
 	 */
 	@Override
 	public Iterator<Role> allRoles() throws ConnectorException {
-		Groups groups = directory.groups().all();
-		List<Group> groupList = groups.getGroups();
-		List<Role> roles = new ArrayList<Role>();
-		
-		if(groupList != null){
-			for (Group group : groupList) {
-				roles.add(ZendeskModelConvertor.getInstance().groupToRole(group));
+		return new AbstractTransformingIterator<Group, Role>(directory.groups().iterator()) {
+			@Override
+			protected Role transform(Group group) {
+				return ZendeskModelConvertor.getInstance().groupToRole(group);
 			}
-		}
-		return roles.iterator();
+		};
 	}
 
 	/**
@@ -315,18 +326,12 @@ public class ZendeskConnector extends AbstractConnector {
 	 */
 	@Override
 	public Iterator<Identity> allIdentities() throws ConnectorException {
-		Users users = directory.users().all();
-		List<Identity> identities = new ArrayList<Identity>();
-		
-		List<User> userList = users.getUsers();
-		
-		if(userList != null){
-			for (User user : userList) {
-				identities.add(ZendeskModelConvertor.getInstance().convertZendeskUserToZendeskIdentity(user));
+		return new AbstractTransformingIterator<User, Identity>(directory.users().iterator()) {
+			@Override
+			protected Identity transform(User user) {
+				return ZendeskModelConvertor.getInstance().convertZendeskUserToZendeskIdentity(user);
 			}
-		}
-		
-		return identities.iterator();
+		};
 	}
 	
 	/**
@@ -456,19 +461,8 @@ public class ZendeskConnector extends AbstractConnector {
 		try{
 			Identity identityFromSource = getIdentityByGuid(identity);
 			
-			Set<Role> rolesCurrentlyAssigned = new HashSet<Role>(Arrays.asList(identityFromSource.getRoles()));
-			Set<Role> rolesToBeAssigned = new HashSet<Role>(Arrays.asList(identity.getRoles()));
-			
-			Collection<Role> newRolesToAdd = CollectionUtil.objectsNotPresentInProbeCollection(rolesToBeAssigned, rolesCurrentlyAssigned);
-			Collection<Role> rolesToRemove = CollectionUtil.objectsNotPresentInProbeCollection(rolesCurrentlyAssigned,rolesToBeAssigned);
-			
-			for (Role role : newRolesToAdd) {
-				addRoleToUser(role.getGuid(), identity.getGuid());
-			}
-			
-			for (Role role : rolesToRemove) {
-				removeRoleFromUser(role.getGuid(), identity.getGuid());
-			}
+			// Each addition and removal is a separate call, so make them concurrently
+			directory.invokeAll(roleMembershipUpdater.getCalls(identityFromSource, identity));
 		}catch(Exception e){
 			log.error("Problem in adjusting roles " + e.getMessage(), e);
 			throw new ConnectorException(e.getMessage(), e);
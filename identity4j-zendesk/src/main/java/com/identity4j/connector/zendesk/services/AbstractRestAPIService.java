@@ -1,7 +1,9 @@
 package com.identity4j.connector.zendesk.services;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.http.client.methods.HttpRequestBase;
@@ -9,9 +11,12 @@ import org.codehaus.jackson.type.TypeReference;
 
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.zendesk.ZendeskConfiguration;
+import com.identity4j.connector.zendesk.services.token.handler.Token;
 import com.identity4j.util.http.request.HttpRequestHandler;
 import com.identity4j.util.http.request.HttpRequestHandler.HTTPHook;
+import com.identity4j.util.http.request.PagingIterator.Page;
 import com.identity4j.util.http.response.HttpResponse;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -43,15 +48,16 @@ public abstract class AbstractRestAPIService {
 	 * @param request
 	 */
 	protected void setAuthHeaders(HttpRequestBase request) {
-		if(TokenHolder.getInstance().getToken().hasPassed(Integer.parseInt(serviceConfiguration.getOAuthTokenValidMinutes()))){
+		Token token = TokenHolder.getInstance().getToken();
+		if(token.hasPassed(Integer.parseInt(serviceConfiguration.getOAuthTokenValidMinutes()))){
 			try{
-				TokenHolder.getInstance().initToken(serviceConfiguration);
+				token = TokenHolder.getInstance().refreshToken(token, serviceConfiguration);
 			}catch(Exception e){
 				throw new ConnectorException("Problem in getting new token.",e);
 			}
 		}
 		request.setHeader(ZendeskConfiguration.AUTHORIZATION_HEADER,
-				TokenHolder.getInstance().getToken().getBearerAccessToken());
+				token.getBearerAccessToken());
 		request.setHeader(ZendeskConfiguration.ACCEPT,ZendeskConfiguration.contentTypeJSON);
 	}
 
@@ -95,6 +101,31 @@ public abstract class AbstractRestAPIService {
 	}
 	
 	
+	/**
+	 * Utility function to read one page of a list of users, groups etc. as it arrives,
+	 * using cursor based pagination.
+	 * @param path path of the list, e.g. users
+	 * @param next url of the next page given by the previous page, or <code>null</code> to start
+	 * @param field name of the field holding the list
+	 * @param clazz class list items are mapped to
+	 * @return page of items, with the url of the next page if there are more
+	 */
+	protected <T> Page<T> listPage(String path, String next, String field, Class<T> clazz) {
+		URI uri;
+		try {
+			uri = next == null ? constructURI(path, "page[size]=" + serviceConfiguration.getPageSize()) : new URI(next);
+		} catch (URISyntaxException e) {
+			throw new ConnectorException(e.getMessage(),e);
+		}
+		HttpResponse response = httpRequestHandler.handleRequestGetStream(uri, HEADER_HTTP_HOOK);
+		JsonArrayIterator<T> items = JsonMapperService.getInstance().iterator(clazz, field, getStream(response));
+		List<T> results = new ArrayList<T>();
+		while(items.hasNext()) {
+			results.add(items.next());
+		}
+		return new Page<T>(results, "true".equals(items.getProperty("meta.has_more")) ? items.getProperty("links.next") : null);
+	}
+	
 	/**
 	 * Utility function to construct error object from response error JSON.
 	 * @param httpResponse
@@ -104,4 +135,20 @@ public abstract class AbstractRestAPIService {
 				getObject(new TypeReference<List<AppErrorMessage>>() {}, httpResponse.getData().toString());
 		throw new ConnectorException(appErrorMessages.toString());
 	}
+
+	/**
+	 * Utility function to get the body of a streamed response, constructing error
+	 * object from response error JSON if the request failed.
+	 * @param httpResponse
+	 * @return body stream, which must be closed
+	 */
+	protected InputStream getStream(HttpResponse httpResponse) {
+		if(httpResponse.getData() instanceof InputStream) {
+			return (InputStream) httpResponse.getData();
+		}
+		if(httpResponse.getData() != null) {
+			throwAppException(httpResponse);
+		}
+		throw new ConnectorException("Request failed with status " + httpResponse.getHttpStatusCodes().getStatusCode() + ". " + httpResponse.getHttpStatusCodes().getResonPhrase());
+	}
 }
@@ -16,6 +16,7 @@ import com.identity4j.connector.zendesk.entity.GroupMembership;
 import com.identity4j.connector.zendesk.entity.GroupMemberships;
 import com.identity4j.connector.zendesk.entity.Groups;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.http.request.PagingIterator;
 import com.identity4j.util.http.response.HttpResponse;
 import com.identity4j.util.json.JsonMapperService;
 
@@ -96,6 +97,24 @@ public class GroupService extends AbstractRestAPIService{
 		return JsonMapperService.getInstance().getObject(Groups.class, response.getData().toString());
 	}
 	
+	/**
+	 * This method iterates over all groups present in the data store, fetching a page of
+	 * them at a time as they are needed. The next page is requested while the current
+	 * one is consumed.
+	 * <br />
+	 * This method makes use of <b>Zendesk cursor based pagination</b> for fetching Groups.
+	 * 
+	 * @return groups iterator
+	 */
+	public PagingIterator<Group> iterator(){
+		return new PagingIterator<Group>(httpRequestHandler) {
+			@Override
+			protected Page<Group> fetch(String next) {
+				return listPage("groups", next, "groups", Group.class);
+			}
+		};
+	}
+	
 	
 	/**
 	 * Saves group into Zendesk datastore.
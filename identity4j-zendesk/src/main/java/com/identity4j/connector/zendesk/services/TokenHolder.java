@@ -15,7 +15,7 @@ import com.identity4j.connector.zendesk.services.token.handler.ZendeskAuthorizat
  */
 class TokenHolder{
 	
-	private Token token;
+	private volatile Token token;
 	
 	private TokenHolder(){}
 
@@ -43,10 +43,25 @@ class TokenHolder{
 	 * @param configuration
 	 * @throws IOException
 	 */
-	public void initToken(ZendeskConfiguration configuration) throws IOException{
+	public synchronized void initToken(ZendeskConfiguration configuration) throws IOException{
 		token = ZendeskAuthorizationHelper.getInstance().getOAuthAccessToken(
 				configuration.getAdminUserId(),
 				configuration.getAdminUserPassword());
 	}
 
+	/**
+	 * Fetches a new token to replace an expired one, unless another thread
+	 * has already replaced it.
+	 * 
+	 * @param expired token found to have expired
+	 * @param configuration
+	 * @return current token
+	 * @throws IOException
+	 */
+	public synchronized Token refreshToken(Token expired, ZendeskConfiguration configuration) throws IOException{
+		if(token == expired) {
+			initToken(configuration);
+		}
+		return token;
+	}
 }
@@ -22,6 +22,7 @@ import com.identity4j.connector.zendesk.services.token.handler.Token;
 import com.identity4j.connector.zendesk.services.token.handler.ZendeskAuthorizationHelper;
 import com.identity4j.util.StringUtil;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.http.request.PagingIterator;
 import com.identity4j.util.http.response.HttpResponse;
 import com.identity4j.util.json.JsonMapperService;
 
@@ -118,6 +119,24 @@ public class UserService extends AbstractRestAPIService{
 		HttpResponse response = httpRequestHandler.handleRequestGet(constructURI("search","query=type:user"), HEADER_HTTP_HOOK);
 		return JsonMapperService.getInstance().getObject(Users.class, response.getData().toString());
 	}
+	
+	/**
+	 * This method iterates over all users present in the data store, fetching a page of
+	 * them at a time as they are needed. The next page is requested while the current
+	 * one is consumed.
+	 * <br />
+	 * This method makes use of <b>Zendesk cursor based pagination</b> for fetching Users.
+	 * 
+	 * @return users iterator
+	 */
+	public PagingIterator<User> iterator(){
+		return new PagingIterator<User>(httpRequestHandler) {
+			@Override
+			protected Page<User> fetch(String next) {
+				return listPage("users", next, "users", User.class);
+			}
+		};
+	}
 
 	/**
 	 * Saves user into zendesk data store.